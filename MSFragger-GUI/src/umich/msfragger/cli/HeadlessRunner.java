@@ -0,0 +1,444 @@
+package umich.msfragger.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import umich.msfragger.cmd.CmdMsfragger;
+import umich.msfragger.cmd.DagScheduler;
+import umich.msfragger.cmd.PipelineBuilder;
+import umich.msfragger.cmd.PipelineConfig;
+import umich.msfragger.cmd.ProcessBuilderInfo;
+import umich.msfragger.cmd.ProcessBuildersDescriptor;
+import umich.msfragger.cmd.StepManifest;
+import umich.msfragger.gui.InputLcmsFile;
+import umich.msfragger.gui.LcmsFileGroup;
+import umich.msfragger.gui.ProcessRunner;
+import umich.msfragger.params.Props;
+import umich.msfragger.params.crystalc.CrystalcParams;
+import umich.msfragger.params.dbslice.DbSlice;
+import umich.msfragger.params.fragger.FraggerRunSettings;
+import umich.msfragger.params.fragger.MsfraggerParams;
+import umich.msfragger.params.speclib.SpecLibGen;
+import umich.msfragger.util.PathUtils;
+import umich.msfragger.util.PythonInfo;
+import umich.msfragger.util.StringUtils;
+
+/**
+ * Runs the same pipeline as the GUI "Run" tab, but without a display. The pipeline is described
+ * by a workflow file (Java properties) and the input by a manifest file, one LC/MS file per line:
+ * {@code path<TAB>experiment}, experiment can be omitted. Empty lines and lines starting with
+ * '#' are ignored. Paths in both files are resolved against the directory of the file.<br/>
+ * Example workflow:
+ * <pre>
+ * workdir=results
+ * fasta=db/2019-01-01-td-human.fas
+ * decoy.tag=rev_
+ * bin.msfragger=tools/MSFragger.jar
+ * bin.philosopher=tools/philosopher
+ * msfragger.params=fragger.params
+ * msfragger.ram=16
+ * peptideprophet.cmd=--nonparam --expectscore --decoyprobs --ppm --accmass --decoy rev_
+ * proteinprophet.cmd=--maxppmdiff 2000000
+ * report.filter=--sequential --razor --mapmod --prot 0.01
+ * run.incremental=true
+ * msfragger.cache.max.gb=20
+ * </pre>
+ * Caching of MSFragger results between runs is off unless a size is given, as in the example.
+ * Same for peptide indexes, with msfragger.index.cache.max.gb.
+ * DIA-Umpire is not available in headless mode, its settings only exist in the GUI. Where the
+ * GUI would ask whether to go on, e.g. about an empty decoy tag with PeptideProphet or
+ * ProteinProphet turned on, the headless run fails with an error instead.
+ */
+public class HeadlessRunner {
+
+  public static final String ARG_HEADLESS = "--headless";
+
+  public static final String PROP_WORKDIR = "workdir";
+  public static final String PROP_FASTA = "fasta";
+  public static final String PROP_DECOY_TAG = "decoy.tag";
+  public static final String PROP_BIN_MSFRAGGER = "bin.msfragger";
+  public static final String PROP_BIN_PHILOSOPHER = "bin.philosopher";
+  public static final String PROP_BIN_PYTHON = "bin.python";
+  public static final String PROP_UMPIRE_RUN = "umpire.run";
+  public static final String PROP_MSFRAGGER_RUN = "msfragger.run";
+  public static final String PROP_MSFRAGGER_PARAMS = "msfragger.params";
+  public static final String PROP_MSFRAGGER_RAM = "msfragger.ram";
+  public static final String PROP_MSFRAGGER_THREADS = "msfragger.threads";
+  public static final String PROP_MSFRAGGER_SLICES = "msfragger.slices";
+  public static final String PROP_MSFRAGGER_MSADJUSTER = "msfragger.msadjuster";
+  public static final String PROP_MSFRAGGER_CACHE_DIR = "msfragger.cache.dir";
+  public static final String PROP_MSFRAGGER_CACHE_MAX_GB = "msfragger.cache.max.gb";
+  public static final String PROP_MSFRAGGER_BATCH_SIZE = "msfragger.batch.size";
+  public static final String PROP_MSFRAGGER_INDEX_CACHE_DIR = "msfragger.index.cache.dir";
+  public static final String PROP_MSFRAGGER_INDEX_CACHE_MAX_GB = "msfragger.index.cache.max.gb";
+  public static final String PROP_CRYSTALC_RUN = "crystalc.run";
+  public static final String PROP_CRYSTALC_PARAMS = "crystalc.params";
+  public static final String PROP_CRYSTALC_PARALLEL = "crystalc.parallel";
+  public static final String PROP_PEPTIDEPROPHET_RUN = "peptideprophet.run";
+  public static final String PROP_PEPTIDEPROPHET_CMD = "peptideprophet.cmd";
+  public static final String PROP_PEPTIDEPROPHET_PARALLEL = "peptideprophet.parallel";
+  public static final String PROP_PROTEINPROPHET_RUN = "proteinprophet.run";
+  public static final String PROP_PROTEINPROPHET_CMD = "proteinprophet.cmd";
+  public static final String PROP_PROTEINPROPHET_SEPARATE = "proteinprophet.separate";
+  public static final String PROP_REPORT_RUN = "report.run";
+  public static final String PROP_REPORT_FILTER = "report.filter";
+  public static final String PROP_REPORT_LABELFREE = "report.labelfree";
+  public static final String PROP_REPORT_LABELFREE_CMD = "report.labelfree.cmd";
+  public static final String PROP_REPORT_ABACUS = "report.abacus";
+  public static final String PROP_SPECLIBGEN_RUN = "speclibgen.run";
+  public static final String PROP_RUN_MAX_CORES = "run.max.cores";
+  public static final String PROP_RUN_MAX_RAM_GB = "run.max.ram.gb";
+  public static final String PROP_RUN_INCREMENTAL = "run.incremental";
+  public static final String PROP_RUN_PIN_CPUS = "run.pin.cpus";
+  public static final String PROP_DRY_RUN = "dry.run";
+
+  private static final String DEFAULT_EXPERIMENT = "";
+
+  private HeadlessRunner() {}
+
+  /**
+   * @param args Workflow file and manifest file.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    if (args.length != 2) {
+      System.err.println("Usage: " + ARG_HEADLESS + " <workflow.properties> <manifest.tsv>");
+      System.exit(2);
+    }
+    int exitCode;
+    try {
+      exitCode = run(Paths.get(args[0]), Paths.get(args[1])) ? 0 : 1;
+    } catch (Exception e) {
+      System.err.println("Error: " + e.getMessage());
+      exitCode = 1;
+    }
+    System.exit(exitCode);
+  }
+
+  /**
+   * @return True if all the steps of the pipeline finished successfully.
+   */
+  public static boolean run(Path workflowFile, Path manifestFile) throws Exception {
+    final Path workflowDir = workflowFile.toAbsolutePath().normalize().getParent();
+    final Properties p = new Properties();
+    try (Reader r = Files.newBufferedReader(workflowFile, StandardCharsets.UTF_8)) {
+      p.load(r);
+    }
+    final Map<String, LcmsFileGroup> lcmsFileGroups = loadManifest(manifestFile);
+    if (lcmsFileGroups.isEmpty()) {
+      throw new IllegalArgumentException("No LC/MS data files listed in manifest: " + manifestFile);
+    }
+    checkUniqueFileNames(lcmsFileGroups);
+
+    if (getBool(p, PROP_UMPIRE_RUN, false)) {
+      throw new IllegalArgumentException("DIA-Umpire is not supported in headless mode");
+    }
+
+    final String wdText = p.getProperty(PROP_WORKDIR, "").trim();
+    if (wdText.isEmpty()) {
+      throw new IllegalArgumentException("Output directory must be set: " + PROP_WORKDIR);
+    }
+    final Path wd = workflowDir.resolve(wdText).normalize();
+    final boolean isDryRun = getBool(p, PROP_DRY_RUN, false);
+    if (!isDryRun) {
+      Files.createDirectories(wd);
+      for (LcmsFileGroup group : lcmsFileGroups.values()) {
+        Files.createDirectories(group.outputDir(wd));
+      }
+    }
+
+    final PipelineConfig c = loadConfig(p, workflowDir);
+    checkConfig(c);
+    if (c.fragger.getNumDbSlices() > 1) {
+      DbSlice.get().init(null);
+    }
+    if (c.isGenerateSpecLib) {
+      initPython(p.getProperty(PROP_BIN_PYTHON, "").trim());
+      SpecLibGen.get().init();
+    }
+
+    final URI jarUri = PathUtils.getCurrentJarUri();
+    if (jarUri == null) {
+      throw new IllegalStateException("Could not get the URI of the currently running jar");
+    }
+    final Path jarFragpipe = Paths.get(jarUri);
+
+    final List<ProcessBuildersDescriptor> pbDescs = new ArrayList<>();
+    if (!PipelineBuilder.build(null, wd, jarFragpipe, isDryRun, lcmsFileGroups, c, pbDescs)) {
+      return false;
+    }
+
+    final ProcessRunner runner = new ProcessRunner(System.out);
+    final List<ProcessBuilderInfo> pbis = ProcessRunner.toProcessBuilderInfos(pbDescs);
+    runner.printCommands(pbis);
+    if (isDryRun) {
+      runner.println("It's a dry-run, not running the commands.");
+      return true;
+    }
+
+    final DagScheduler scheduler = new DagScheduler(
+        getInt(p, PROP_RUN_MAX_CORES, 0), getInt(p, PROP_RUN_MAX_RAM_GB, 0));
+    runner.println(String.format(Locale.ROOT,
+        "Running with a budget of %d cores, %s RAM", scheduler.getMaxCores(),
+        scheduler.getMaxRamGb() > 0 ? scheduler.getMaxRamGb() + " GB" : "unlimited"));
+    for (final ProcessBuilderInfo pbi : pbis) {
+      if (pbi.pb.directory() == null) {
+        pbi.pb.directory(wd.toFile());
+      }
+      scheduler.add(pbi, node -> runner.run(pbi, node.getCpus()));
+    }
+    if (getBool(p, PROP_RUN_PIN_CPUS, false)) {
+      runner.enableCpuPinning(scheduler);
+    }
+    if (getBool(p, PROP_RUN_INCREMENTAL, false)) {
+      runner.useStepManifest(StepManifest.load(wd), pbis);
+    }
+    scheduler.addListener(new DagScheduler.Listener() {
+      @Override
+      public void onFinished(DagScheduler.Node node) {
+        if (node.getState() != DagScheduler.State.SUCCESS) {
+          runner.print(ProcessRunner.COLOR_FAIL, String.format(Locale.ROOT,
+              "Process [%s] failed, cancelling further processing..", node.pbi.name), true);
+        }
+      }
+
+      @Override
+      public void onCancelled(DagScheduler.Node node) {
+        runner.println("Cancelled execution of: " + node.pbi.describe());
+      }
+    });
+
+    final boolean isOk = scheduler.run();
+    runner.reportTelemetry(wd);
+    runner.println(isOk ? "Done" : "Finished with errors");
+    return isOk;
+  }
+
+  /**
+   * Experiments are sorted by name, files within an experiment keep the manifest order.
+   */
+  static Map<String, LcmsFileGroup> loadManifest(Path manifestFile) throws IOException {
+    final Path dir = manifestFile.toAbsolutePath().normalize().getParent();
+    final Map<String, List<InputLcmsFile>> byExp = new LinkedHashMap<>();
+    try (BufferedReader br = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+          continue;
+        }
+        final String[] cols = line.split("\t");
+        final Path path = dir.resolve(cols[0].trim()).normalize();
+        if (!Files.exists(path)) {
+          throw new IllegalArgumentException("LC/MS file from manifest does not exist: " + path);
+        }
+        final String exp = cols.length > 1 ? cols[1].trim() : DEFAULT_EXPERIMENT;
+        byExp.computeIfAbsent(exp, k -> new ArrayList<>()).add(new InputLcmsFile(path, exp));
+      }
+    }
+    final Map<String, LcmsFileGroup> groups = new TreeMap<>();
+    for (Entry<String, List<InputLcmsFile>> e : byExp.entrySet()) {
+      groups.put(e.getKey(), new LcmsFileGroup(e.getKey(), e.getValue()));
+    }
+    return groups;
+  }
+
+  private static void checkUniqueFileNames(Map<String, LcmsFileGroup> groups) {
+    final Map<String, List<Path>> inputFnMap = new HashMap<>();
+    for (LcmsFileGroup group : groups.values()) {
+      for (InputLcmsFile f : group.lcmsFiles) {
+        inputFnMap.computeIfAbsent(f.path.getFileName().toString(), s -> new LinkedList<>())
+            .add(f.path);
+      }
+    }
+    final List<String> dupes = inputFnMap.entrySet().stream()
+        .filter(kv -> kv.getValue().size() > 1)
+        .map(kv -> kv.getKey() + ": " + kv.getValue())
+        .collect(Collectors.toList());
+    if (!dupes.isEmpty()) {
+      throw new IllegalArgumentException("Some input LCMS files have the same name, "
+          + "even though located in different folders:\n" + String.join("\n", dupes));
+    }
+  }
+
+  static PipelineConfig loadConfig(Properties p, Path workflowDir) throws IOException {
+    final PipelineConfig c = new PipelineConfig();
+    c.binPhilosopher = resolve(workflowDir, p.getProperty(PROP_BIN_PHILOSOPHER, ""));
+    c.binMsfragger = resolve(workflowDir, p.getProperty(PROP_BIN_MSFRAGGER, ""));
+    c.fastaPath = resolve(workflowDir, p.getProperty(PROP_FASTA, ""));
+    c.decoyTag = p.getProperty(PROP_DECOY_TAG, "").trim();
+    c.maxThreads = getInt(p, PROP_RUN_MAX_CORES, 0);
+    c.maxRamGb = getInt(p, PROP_RUN_MAX_RAM_GB, 0);
+    c.umpirePanel = null;
+
+    final MsfraggerParams params = new MsfraggerParams();
+    final String paramsFile = p.getProperty(PROP_MSFRAGGER_PARAMS, "").trim();
+    if (!paramsFile.isEmpty()) {
+      try (InputStream is = Files.newInputStream(workflowDir.resolve(paramsFile))) {
+        params.load(is, true);
+      }
+    }
+    c.isRunMsfragger = getBool(p, PROP_MSFRAGGER_RUN, true);
+    c.isRunMsadjuster = getBool(p, PROP_MSFRAGGER_MSADJUSTER, false);
+    c.fragger = new Settings(params, getInt(p, PROP_MSFRAGGER_RAM, 0),
+        getInt(p, PROP_MSFRAGGER_THREADS, 0), getInt(p, PROP_MSFRAGGER_SLICES, 1));
+    c.msfraggerBatchSize = getInt(p, PROP_MSFRAGGER_BATCH_SIZE, 0);
+    final String cacheMaxGb = p.getProperty(PROP_MSFRAGGER_CACHE_MAX_GB, "").trim();
+    try {
+      c.msfraggerCache = CmdMsfragger.createCache(p.getProperty(PROP_MSFRAGGER_CACHE_DIR, ""),
+          cacheMaxGb.isEmpty() ? 0 : Double.parseDouble(cacheMaxGb));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "Not a number for " + PROP_MSFRAGGER_CACHE_MAX_GB + ": " + cacheMaxGb);
+    }
+    final String indexCacheMaxGb = p.getProperty(PROP_MSFRAGGER_INDEX_CACHE_MAX_GB, "").trim();
+    try {
+      c.msfraggerIndexCache = CmdMsfragger.createIndexCache(
+          p.getProperty(PROP_MSFRAGGER_INDEX_CACHE_DIR, ""), indexCacheMaxGb.isEmpty()
+              ? 0 : Double.parseDouble(indexCacheMaxGb));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "Not a number for " + PROP_MSFRAGGER_INDEX_CACHE_MAX_GB + ": " + indexCacheMaxGb);
+    }
+
+    c.isRunCrystalc = getBool(p, PROP_CRYSTALC_RUN, false);
+    if (c.isRunCrystalc) {
+      c.crystalcParams = new CrystalcParams();
+      final String ccFile = p.getProperty(PROP_CRYSTALC_PARAMS, "").trim();
+      if (ccFile.isEmpty()) {
+        c.crystalcParams.loadDefault();
+      } else {
+        try (InputStream is = Files.newInputStream(workflowDir.resolve(ccFile))) {
+          c.crystalcParams.load(is, true);
+        }
+      }
+      c.crystalcParallel = getInt(p, PROP_CRYSTALC_PARALLEL, 1);
+    }
+
+    c.isRunPeptideProphet = getBool(p, PROP_PEPTIDEPROPHET_RUN, true);
+    c.peptideProphetCmd = p.getProperty(PROP_PEPTIDEPROPHET_CMD, "").trim();
+    c.peptideProphetParallel = getInt(p, PROP_PEPTIDEPROPHET_PARALLEL, 1);
+    c.isRunProteinProphet = getBool(p, PROP_PROTEINPROPHET_RUN, true);
+    c.proteinProphetCmd = p.getProperty(PROP_PROTEINPROPHET_CMD, "").trim();
+    c.isProcessGroupsSeparately = getBool(p, PROP_PROTEINPROPHET_SEPARATE, false);
+    c.isReport = getBool(p, PROP_REPORT_RUN, true);
+    c.reportFilterCmd = p.getProperty(PROP_REPORT_FILTER, "");
+    c.isReportLabelfree = getBool(p, PROP_REPORT_LABELFREE, false);
+    c.reportLabelfreeCmd = p.getProperty(PROP_REPORT_LABELFREE_CMD, "");
+    c.isReportAbacus = getBool(p, PROP_REPORT_ABACUS, false);
+    c.isGenerateSpecLib = getBool(p, PROP_SPECLIBGEN_RUN, false);
+    return c;
+  }
+
+  /**
+   * Problems the GUI asks about are errors here, nobody can be asked.
+   */
+  static void checkConfig(PipelineConfig c) {
+    if ((c.isRunPeptideProphet || c.isRunProteinProphet) && StringUtils
+        .isNullOrWhitespace(c.decoyTag)) {
+      throw new IllegalArgumentException("Downstream analysis tools require decoys in the "
+          + "database, but the decoy tag is empty. Set " + PROP_DECOY_TAG + ", or turn off "
+          + PROP_PEPTIDEPROPHET_RUN + " and " + PROP_PROTEINPROPHET_RUN + ".");
+    }
+  }
+
+  private static void initPython(String command) throws Exception {
+    final PythonInfo pi = PythonInfo.get();
+    if (StringUtils.isNullOrWhitespace(command)) {
+      pi.findPythonCommand();
+    } else if (!pi.setPythonCommand(command)) {
+      throw new IllegalArgumentException("Not a usable python command: " + command);
+    }
+  }
+
+  /**
+   * Relative paths are resolved against the workflow directory if such a file exists,
+   * otherwise the value is kept as is, e.g. a program name to be found on PATH.
+   */
+  private static String resolve(Path dir, String value) {
+    final String v = value.trim();
+    if (v.isEmpty()) {
+      return v;
+    }
+    final Path resolved = dir.resolve(v).normalize();
+    return Files.exists(resolved) ? resolved.toString() : v;
+  }
+
+  private static boolean getBool(Properties p, String key, boolean defaultVal) {
+    final String v = p.getProperty(key);
+    return v == null || v.trim().isEmpty() ? defaultVal : Boolean.parseBoolean(v.trim());
+  }
+
+  private static int getInt(Properties p, String key, int defaultVal) {
+    final String v = p.getProperty(key);
+    if (v == null || v.trim().isEmpty()) {
+      return defaultVal;
+    }
+    try {
+      return Integer.parseInt(v.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not an integer value for " + key + ": " + v);
+    }
+  }
+
+  private static class Settings implements FraggerRunSettings {
+    private final MsfraggerParams params;
+    private final int ramGb;
+    private final int threads;
+    private final int numDbSlices;
+
+    Settings(MsfraggerParams params, int ramGb, int threads, int numDbSlices) {
+      this.params = params;
+      this.ramGb = ramGb;
+      this.threads = threads;
+      this.numDbSlices = numDbSlices;
+    }
+
+    @Override
+    public MsfraggerParams getParams() {
+      // callers are allowed to modify the returned copy
+      final MsfraggerParams copy = new MsfraggerParams();
+      copy.getProps().clearProps();
+      for (Props.Prop prop : params.getProps().getMap().values()) {
+        copy.getProps().setProp(prop.name, prop.value, prop.isEnabled);
+      }
+      return copy;
+    }
+
+    @Override
+    public int getRamGb() {
+      return ramGb;
+    }
+
+    @Override
+    public int getThreads() {
+      return threads;
+    }
+
+    @Override
+    public int getNumDbSlices() {
+      return numDbSlices;
+    }
+
+    @Override
+    public String getOutputFileExt() {
+      return params.getOutputFileExtension();
+    }
+  }
+}
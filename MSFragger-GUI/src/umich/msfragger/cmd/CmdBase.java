@@ -1,13 +1,18 @@
 package umich.msfragger.cmd;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 public abstract class CmdBase {
 
   final boolean isRun;
   final Path wd;
   final LinkedList<ProcessBuilder> pbs;
+  final Map<ProcessBuilder, SchedulingInfo> scheduling = new HashMap<>();
+  final Map<ProcessBuilder, InProcessStep> inProcess = new HashMap<>();
   final String fileCaptureStdout;
   final String fileCaptureStderr;
   boolean isConfigured;
@@ -47,10 +52,48 @@ public abstract class CmdBase {
 
   public abstract String getCmdName();
 
+  /**
+   * Scheduling info for a process builder, created on first access. Process builders
+   * for which this was never called are run strictly in order with everything else.
+   */
+  SchedulingInfo sched(ProcessBuilder pb) {
+    return scheduling.computeIfAbsent(pb, k -> new SchedulingInfo());
+  }
+
+  /**
+   * Adds a process builder together with the files it reads and writes.
+   */
+  SchedulingInfo add(ProcessBuilder pb, Collection<Path> inputs, Collection<Path> outputs) {
+    pbs.add(pb);
+    return sched(pb).inputs(inputs).outputs(outputs);
+  }
+
+  /**
+   * Adds work done in-process, to be run strictly in order with everything else. It's
+   * represented by a process builder, that is never started, in the list of process builders.
+   */
+  ProcessBuilder addInProcess(InProcessStep step) {
+    ProcessBuilder pb = new ProcessBuilder();
+    if (wd != null) {
+      pb.directory(wd.toFile());
+    }
+    inProcess.put(pb, step);
+    pbs.add(pb);
+    return pb;
+  }
+
+  /**
+   * Adds work done in-process together with the files it reads and writes.
+   */
+  SchedulingInfo addInProcess(InProcessStep step, Collection<Path> inputs,
+      Collection<Path> outputs) {
+    return sched(addInProcess(step)).inputs(inputs).outputs(outputs);
+  }
+
   public ProcessBuildersDescriptor builders() {
     if (!isConfigured)
       throw new IllegalStateException("Call to #processBuilders() before calling #configure()");
     return new ProcessBuildersDescriptor(getCmdName(), getPriority(), fileCaptureStdout,
-        fileCaptureStderr).addAll(pbs);
+        fileCaptureStderr).addAll(pbs, scheduling, inProcess);
   }
 }
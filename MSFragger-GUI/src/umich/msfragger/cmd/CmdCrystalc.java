@@ -4,8 +4,11 @@ import java.awt.Component;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,9 +21,11 @@ import umich.msfragger.gui.MsfraggerGuiFrame;
 import umich.msfragger.params.ThisAppProps;
 import umich.msfragger.params.crystalc.CrystalcParams;
 import umich.msfragger.params.crystalc.CrystalcProps;
-import umich.msfragger.params.fragger.FraggerMigPanel;
+import umich.msfragger.params.fragger.FraggerRunSettings;
 import umich.msfragger.util.JarUtils;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
+import umich.msfragger.util.SystemMemory;
 
 public class CmdCrystalc extends CmdBase {
 
@@ -69,13 +74,18 @@ public class CmdCrystalc extends CmdBase {
 
   /**
    * @param ccParams Get these by calling {@link MsfraggerGuiFrame#crystalcFormToParams()}.
+   * @param maxRamGb RAM budget of the run, zero for the memory available on the machine.
+   * @param parallel Max number of pepxml files processed at the same time. The threads are
+   * split between them, each process gets the full heap size, so no more files are processed
+   * at once than heaps fit in the RAM budget. With more than 1 each file gets its own log file.
    */
   public boolean configure(Component comp,
-      FraggerMigPanel fp, boolean isDryRun,
-      CrystalcParams ccParams, String fastaPath, Map<InputLcmsFile, Path> pepxmlFiles) {
+      FraggerRunSettings fp, boolean isDryRun,
+      CrystalcParams ccParams, String fastaPath, Map<InputLcmsFile, Path> pepxmlFiles,
+      int maxThreads, int maxRamGb, int parallel) {
     pbs.clear();
     if (StringUtils.isNullOrWhitespace(fastaPath)) {
-      JOptionPane.showMessageDialog(comp, "Fasta file [Crystal-C] path can't be empty.",
+      SwingUtils.showMessageDialog(comp, "Fasta file [Crystal-C] path can't be empty.",
           "Warning", JOptionPane.WARNING_MESSAGE);
       return false;
     }
@@ -92,7 +102,7 @@ public class CmdCrystalc extends CmdBase {
           ThisAppProps.UNPACK_TEMP_SUBDIR, true, true);
 
     } catch (IOException | NullPointerException ex) {
-      JOptionPane.showMessageDialog(comp,
+      SwingUtils.showMessageDialog(comp,
           "Could not unpack tools to a temporary directory.\n"
               + "Disable Crystal-C.",
           "Can't unpack", JOptionPane.ERROR_MESSAGE);
@@ -106,7 +116,7 @@ public class CmdCrystalc extends CmdBase {
         .anyMatch(ext -> !("mzml".equals(ext) || "mzxml".equals(ext)));
     if (lcmsExts.isEmpty() || anyMatch) {
       String foundExts = String.join(", ", lcmsExts);
-      JOptionPane.showMessageDialog(comp,
+      SwingUtils.showMessageDialog(comp,
           "Crystal-C only supports mzML and mzXML input files.\n" +
               "The following LCMS file extensions found: " + foundExts + ".\n"
               + "Disable Crystal-C.",
@@ -116,7 +126,7 @@ public class CmdCrystalc extends CmdBase {
 
     final String pepxmlExt = fp.getOutputFileExt();
     if (!"pepxml".equals(pepxmlExt.toLowerCase())) {
-      JOptionPane.showMessageDialog(comp,
+      SwingUtils.showMessageDialog(comp,
           "Crystal-C only accepts pepXML file extension.\n"
               + "Switch to pepXML in MSFragger options or disable Crystal-C :\\",
           "Unsupported by Crystal-C", JOptionPane.ERROR_MESSAGE);
@@ -124,6 +134,14 @@ public class CmdCrystalc extends CmdBase {
     }
 
     final int ramGb = fp.getRamGb();
+    final int ccThreads = ToolingUtils.threads(ccParams.getThread(), maxThreads);
+    final int ramBudgetGb = maxRamGb > 0
+        ? maxRamGb : (int) (SystemMemory.availableBytes() / SystemMemory.GB);
+    final int maxFilesInRam = ramGb > 0 && ramBudgetGb > 0 ? ramBudgetGb / ramGb : parallel;
+    final int filesInParallel = Math.max(1,
+        Math.min(Math.min(parallel, maxFilesInRam), Math.min(ccThreads, pepxmlFiles.size())));
+    final boolean isParallel = filesInParallel > 1;
+    final int threadsPerFile = Math.max(1, ccThreads / filesInParallel);
     final String ccParamsFilePrefix = "crystalc";
     final String ccParamsFileSuffix = ".params";
 
@@ -146,12 +164,13 @@ public class CmdCrystalc extends CmdBase {
         ccp.setRawFileExt(ext);
         ccp.setOutputFolder(outDir.toString());
         ccp.setFasta(fastaPath);
+        ccp.setThread(threadsPerFile);
         if (!isDryRun) {
           Files.deleteIfExists(ccParamsPath);
           ccp.save(Files.newOutputStream(ccParamsPath, StandardOpenOption.CREATE));
         }
       } catch (IOException e) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "Could not create Crystal-C parameter file.\n" + e.getMessage(),
             "Error", JOptionPane.ERROR_MESSAGE);
         return false;
@@ -173,7 +192,17 @@ public class CmdCrystalc extends CmdBase {
       cmd.add(pepxml.toString());
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(outDir.toFile());
-      pbs.add(pb);
+      Path pepxmlOut = pepxml.getParent().resolve(getModifiedPepxmlFn(pepxmlFn, pepxmlExt));
+      // each run is given the full heap size, the slots keep the number of heaps in the budget
+      final SchedulingInfo si = add(pb, Arrays.asList(pepxml, lcms.path, Paths.get(fastaPath)),
+          Collections.singletonList(pepxmlOut))
+          .threads(threadsPerFile)
+          .ramGb(ramGb);
+      if (isParallel) {
+        si.slots(NAME, filesInParallel).log("crystalc-" + pepxmlFn + ".log");
+      } else {
+        si.lock(NAME);
+      }
     }
 
     isConfigured = true;
@@ -12,9 +12,10 @@ import umich.msfragger.gui.FraggerPanel;
 import umich.msfragger.gui.InputLcmsFile;
 import umich.msfragger.params.ThisAppProps;
 import umich.msfragger.params.crystalc.CrystalcProps;
-import umich.msfragger.params.fragger.FraggerMigPanel;
+import umich.msfragger.params.fragger.FraggerRunSettings;
 import umich.msfragger.util.JarUtils;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 
 public class CmdMsAdjuster extends CmdBase {
 
@@ -31,9 +32,10 @@ public class CmdMsAdjuster extends CmdBase {
     return !isCleanup ? NAME : NAME + " (Cleanup)";
   }
 
-  public boolean configure(Component comp, Path jarFragpipe, FraggerMigPanel fp,
+  public boolean configure(Component comp, Path jarFragpipe, FraggerRunSettings fp,
       List<InputLcmsFile> lcmsFiles, boolean doCleanup, int priority) {
     pbs.clear();
+    inProcess.clear();
     isCleanup = doCleanup;
     Path jarMsadjusterPath;
     Path jarDepsPath;
@@ -48,7 +50,7 @@ public class CmdMsAdjuster extends CmdBase {
               ThisAppProps.UNPACK_TEMP_SUBDIR, true, true);
 
     } catch (IOException | NullPointerException ex) {
-      JOptionPane.showMessageDialog(comp,
+      SwingUtils.showMessageDialog(comp,
           "Could not unpack tools to a temporary directory.\n"
               + "Disable precursor mass adjustment in MSFragger tab.",
           "Can't unpack", JOptionPane.ERROR_MESSAGE);
@@ -93,8 +95,10 @@ public class CmdMsAdjuster extends CmdBase {
         Path origin = Paths.get(StringUtils.upToLastDot(f.path.toString()) + ".ma");
         Path destination = f.outputDir(wd);
         if (!destination.equals(origin.getParent())) {
-          pbs.addAll(ToolingUtils
-              .pbsMoveFiles(jarFragpipe, destination, Collections.singletonList(origin)));
+          for (InProcessStep move : ToolingUtils
+              .stepsMoveFiles(destination, Collections.singletonList(origin))) {
+            addInProcess(move);
+          }
         }
       }
     }
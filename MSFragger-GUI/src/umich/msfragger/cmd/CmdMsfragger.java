@@ -5,29 +5,71 @@ import static umich.msfragger.util.PathUtils.testFilePath;
 import java.awt.Component;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import umich.msfragger.gui.InputLcmsFile;
 import umich.msfragger.params.dbslice.DbSlice;
-import umich.msfragger.params.fragger.FraggerMigPanel;
+import umich.msfragger.params.dbslice.DbSliceSteps;
+import umich.msfragger.params.enums.FraggerOutputType;
+import umich.msfragger.params.fragger.FraggerRunSettings;
 import umich.msfragger.params.fragger.MsfraggerParams;
-import umich.msfragger.util.PythonInfo;
+import umich.msfragger.util.CacheUtils;
+import umich.msfragger.util.ExternalJava;
+import umich.msfragger.util.HashUtils;
+import umich.msfragger.util.ResultCache;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
+import umich.msfragger.util.SystemMemory;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdMsfragger extends CmdBase {
   private static final Logger log = LoggerFactory.getLogger(CmdMsfragger.class);
   public static final String NAME = "MsFragger";
+  private static final String JAVA = "java";
+  /** Size cap offered when the user turns the result cache on, it is off by default. */
+  public static final double DEFAULT_CACHE_MAX_GB = 20;
+  private static final String DEFAULT_CACHE_DIR_NAME = "msfragger-results";
+  /** Size cap offered when the user turns the index cache on, it is off by default. */
+  public static final double DEFAULT_INDEX_CACHE_MAX_GB = 50;
+  private static final String DEFAULT_INDEX_CACHE_DIR_NAME = "msfragger-index";
+  /**
+   * MSFragger versions that keep the peptide index on disk write it next to the database,
+   * as files named after the database with this ending.
+   */
+  private static final String INDEX_FILE_SUFFIX = "pepindex";
+  /** Where the index of the first batch is kept for the next ones, in the work dir. */
+  private static final String BATCH_INDEX_DIR_NAME = "msfragger-index";
+  /** Search parameters, or their prefixes, that the peptide index depends on. */
+  private static final List<String> INDEX_PARAMS = Arrays.asList(
+      MsfraggerParams.PROP_search_enzyme_name, MsfraggerParams.PROP_search_enzyme_cutafter,
+      MsfraggerParams.PROP_search_enzyme_butnotafter, MsfraggerParams.PROP_num_enzyme_termini,
+      MsfraggerParams.PROP_allowed_missed_cleavage, MsfraggerParams.PROP_clip_nTerm_M,
+      MsfraggerParams.PROP_variable_mod,
+      MsfraggerParams.PROP_allow_multiple_variable_mods_on_residue,
+      MsfraggerParams.PROP_max_variable_mods_per_mod,
+      MsfraggerParams.PROP_max_variable_mods_combinations,
+      MsfraggerParams.PROP_digest_min_length, MsfraggerParams.PROP_digest_max_length,
+      MsfraggerParams.PROP_digest_mass_range, MsfraggerParams.PROP_max_fragment_charge,
+      MsfraggerParams.PROP_fragment_mass_tolerance, MsfraggerParams.PROP_fragment_mass_units,
+      "add_");
 
   public CmdMsfragger(boolean isRun, Path workDir) {
     super(isRun, workDir);
@@ -38,10 +80,139 @@ public class CmdMsfragger extends CmdBase {
     return NAME;
   }
 
+  /**
+   * @param dir Cache location, empty for the default one in the app's temp dir.
+   * @param maxGb Size cap, zero or less turns the cache off.
+   */
+  public static ResultCache createCache(String dir, double maxGb) {
+    final Path path = StringUtils.isNullOrWhitespace(dir)
+        ? CacheUtils.getTempDir().resolve(DEFAULT_CACHE_DIR_NAME) : Paths.get(dir.trim());
+    return new ResultCache(path, (long) (maxGb * (1L << 30)));
+  }
+
+  /**
+   * Peptide indexes shared between runs.
+   * @param dir Cache location, empty for the default one in the app's temp dir.
+   * @param maxGb Size cap, zero or less turns the cache off.
+   */
+  public static ResultCache createIndexCache(String dir, double maxGb) {
+    final Path path = StringUtils.isNullOrWhitespace(dir)
+        ? CacheUtils.getTempDir().resolve(DEFAULT_INDEX_CACHE_DIR_NAME) : Paths.get(dir.trim());
+    return new ResultCache(path, (long) (maxGb * (1L << 30)));
+  }
+
   private String getPepxmlFn(InputLcmsFile f, String ext) {
     return StringUtils.upToLastDot(f.path.getFileName().toString()) + "." + ext;
   }
 
+  /**
+   * Files written by MSFragger next to the input file, before they are moved anywhere.
+   */
+  private static List<Path> createdByFragger(InputLcmsFile f, Path pepxml, boolean isTsvToo) {
+    final Path dir = f.path.getParent();
+    final String fn = pepxml.getFileName().toString();
+    List<Path> created = new ArrayList<>();
+    created.add(dir.resolve(fn));
+    if (isTsvToo) {
+      created.add(dir.resolve(StringUtils.upToLastDot(fn) + ".tsv"));
+    }
+    return created;
+  }
+
+  /**
+   * Searches a single file whose cached results were evicted between configuring and running
+   * the pipeline. Rare, so it's not scheduled as a search of its own, the output goes to a
+   * log file in the work dir.
+   */
+  private static InProcessStep.Action searchEvicted(List<String> cmd, Path wd, InputLcmsFile f) {
+    return () -> {
+      final Path logFile = wd.resolve(
+          "msfragger-" + StringUtils.upToLastDot(f.path.getFileName().toString()) + ".log");
+      log.info("Searching {} with MSFragger, output goes to {}", f.path, logFile);
+      final Process proc = new ProcessBuilder(cmd).directory(wd.toFile())
+          .redirectErrorStream(true).redirectOutput(logFile.toFile()).start();
+      try {
+        final int exitCode = proc.waitFor();
+        if (exitCode != 0) {
+          throw new IOException(
+              "MSFragger exited with code " + exitCode + " searching " + f.path + ", see " + logFile);
+        }
+      } catch (InterruptedException e) {
+        proc.destroy();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Search of " + f.path + " cancelled");
+      }
+    };
+  }
+
+  /**
+   * Hash of everything that affects search results, except the input file: MSFragger binary,
+   * search parameters and the database. Parameters that don't change results are left out.
+   */
+  private static String searchHash(String binFragger, MsfraggerParams params, String pathFasta)
+      throws IOException {
+    final Set<String> ignored = new HashSet<>(Arrays.asList(
+        MsfraggerParams.PROP_database_name, MsfraggerParams.PROP_num_threads));
+    final MessageDigest md = HashUtils.sha1();
+    HashUtils.update(md, HashUtils.hashCached(Paths.get(binFragger)));
+    HashUtils.update(md, HashUtils.hashCached(Paths.get(pathFasta)));
+    new TreeMap<>(params.getProps().getMap()).forEach((name, prop) -> {
+      if (prop.isEnabled && !ignored.contains(name)) {
+        HashUtils.update(md, name + "=" + prop.value.trim());
+      }
+    });
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Hash of everything the peptide index depends on: MSFragger binary, database contents,
+   * digestion and modifications.
+   */
+  private static String indexHash(String binFragger, MsfraggerParams params, String pathFasta)
+      throws IOException {
+    final MessageDigest md = HashUtils.sha1();
+    HashUtils.update(md, HashUtils.hashCached(Paths.get(binFragger)));
+    HashUtils.update(md, HashUtils.hashCached(Paths.get(pathFasta)));
+    new TreeMap<>(params.getProps().getMap()).forEach((name, prop) -> {
+      if (prop.isEnabled && INDEX_PARAMS.stream().anyMatch(name::startsWith)) {
+        HashUtils.update(md, name + "=" + prop.value.trim());
+      }
+    });
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Input file path is part of the key, because MSFragger writes it into the results.
+   */
+  private static String cacheKey(String searchHash, InputLcmsFile f) throws IOException {
+    final MessageDigest md = HashUtils.sha1();
+    HashUtils.update(md, searchHash);
+    HashUtils.update(md, f.path.toAbsolutePath().normalize().toString());
+    HashUtils.update(md, HashUtils.fastHash(f.path));
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Writes a JVM argument file, so that the command line is just {@code java @file}.
+   * @return False if the file could not be written, the user has been told already.
+   */
+  private static boolean writeArgFile(Component comp, boolean isDryRun, Path argFile,
+      List<String> args) {
+    if (isDryRun) {
+      return true;
+    }
+    try {
+      Files.write(argFile, args.stream().map(ExternalJava::quoteForArgFile)
+          .collect(Collectors.toList()), Charset.defaultCharset());
+      return true;
+    } catch (IOException ex) {
+      SwingUtils.showMessageDialog(comp,
+          "Could not write MSFragger argument file to working dir.\n",
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return false;
+    }
+  }
+
   public Map<InputLcmsFile, Path> outputs(List<InputLcmsFile> inputs, String ext, Path workDir) {
     Map<InputLcmsFile, Path> m = new HashMap<>();
     for (InputLcmsFile f : inputs) {
@@ -51,17 +222,30 @@ public class CmdMsfragger extends CmdBase {
     return m;
   }
 
+  /**
+   * @param cache Search results are taken from there when possible and stored there after
+   *     the search. Null if no caching should be done.
+   * @param indexCache Same for the peptide index. Null if no caching should be done.
+   * @param maxThreads Core budget of the run, the number of threads is capped at it.
+   * @param batchSize Max number of files searched by one MSFragger invocation. Zero or less
+   *     for as many as fit on the command line. With smaller batches the downstream steps of
+   *     files from the first batches run while the next ones are searched.<br/>
+   *     With DB slicing each batch is searched against every slice, as many slices at once as
+   *     there is memory for, and the results are merged per file, see {@link DbSliceSteps}.
+   */
   public boolean configure(Component comp, boolean isDryRun,
-      FraggerMigPanel fp, Path jarFragpipe, UsageTrigger binFragger, String pathFasta,
-      List<InputLcmsFile> lcmsFiles) {
+      FraggerRunSettings fp, Path jarFragpipe, UsageTrigger binFragger, String pathFasta,
+      List<InputLcmsFile> lcmsFiles, ResultCache cache, ResultCache indexCache, int maxThreads,
+      int batchSize) {
 
     pbs.clear();
+    inProcess.clear();
     final int numSlices = fp.getNumDbSlices();
     final boolean isSlicing = numSlices > 1;
     if (isSlicing) {
       // slicing requested
       if (!DbSlice.get().isInitialized()) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "MSFragger number of DB slices requested was more than 1.\n"
                 + "However not all preconditions for enabling slicing were met.\n"
                 + "Check the bottom of \"Config\" tab for details.",
@@ -71,13 +255,13 @@ public class CmdMsfragger extends CmdBase {
     }
 
     if (StringUtils.isNullOrWhitespace(binFragger.getBin())) {
-      JOptionPane
+      SwingUtils
           .showMessageDialog(comp, "Binary for running Fragger can not be an empty string.\n",
               "Error", JOptionPane.ERROR_MESSAGE);
       return false;
     }
     if (testFilePath(binFragger.getBin(), "") == null) {
-      JOptionPane
+      SwingUtils
           .showMessageDialog(comp, "Binary for running Fragger not found or could not be run.\n"
                   + "Neither on PATH, nor in the working directory",
               "Error", JOptionPane.ERROR_MESSAGE);
@@ -86,7 +270,7 @@ public class CmdMsfragger extends CmdBase {
 
     // Fasta file
     if (pathFasta == null) {
-      JOptionPane.showMessageDialog(comp, "Fasta file path (Fragger) can't be empty",
+      SwingUtils.showMessageDialog(comp, "Fasta file path (Fragger) can't be empty",
           "Error", JOptionPane.ERROR_MESSAGE);
       return false;
     }
@@ -94,117 +278,428 @@ public class CmdMsfragger extends CmdBase {
     // Search parameter file
     MsfraggerParams params = fp.getParams();
     params.setDatabaseName(pathFasta);
+    int threads = ToolingUtils.threads(fp.getThreads(), maxThreads);
+    final boolean isStreaming = batchSize > 0 && lcmsFiles.size() > batchSize;
+    if (isStreaming) {
+      // leave some cores to the downstream steps of the batches already searched
+      final int budget = ToolingUtils.threads(0, maxThreads);
+      threads = Math.max(1, Math.min(threads, budget - Math.max(1, budget / 8)));
+    }
+    final int ramGb = fp.getRamGb();
+    int parallelSlices = 1;
+    if (isSlicing) {
+      // slices are independent searches, run as many at once as fit in memory,
+      // sharing the cores between them
+      final long availableGb = SystemMemory.availableBytes() / SystemMemory.GB;
+      if (ramGb > 0 && availableGb > 0) {
+        parallelSlices = (int) Math.max(1, Math.min(numSlices, availableGb / ramGb));
+      }
+      parallelSlices = Math.min(parallelSlices, threads);
+      threads = Math.max(1, threads / parallelSlices);
+    }
     Path savedParamsPath = wd.resolve(MsfraggerParams.CACHE_FILE);
     if (!isDryRun) {
       try {
-        params.save(new FileOutputStream(savedParamsPath.toFile()));
-        // cache the params
+        // cache the params as set by the user
         params.save();
+        // the search itself always gets an explicit thread count within the budget
+        params.setNumThreads(threads);
+        params.save(new FileOutputStream(savedParamsPath.toFile()));
       } catch (IOException ex) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "Could not save fragger.params file to working dir.\n",
             "Error", JOptionPane.ERROR_MESSAGE);
         return false;
       }
     }
 
-    int ramGb = fp.getRamGb();
+    // With Java 9+ the file list goes to a JVM argument file and a single MSFragger
+    // invocation (one index build) searches all the files.
+    // Otherwise 32k symbols splitting for regular command.
+    final boolean isArgFile = ExternalJava.isArgFileSupported(JAVA);
+    final int commandLenLimit = isArgFile ? Integer.MAX_VALUE : 1 << 15;
+
+    final String ext = fp.getOutputFileExt();
+    Map<InputLcmsFile, Path> mapLcmsToPepxml = outputs(lcmsFiles, ext, wd);
+    final boolean isTsvToo = params.getOutputFormat() == FraggerOutputType.TSV_AND_PEPXML;
 
-    // 32k symbols splitting for regular command.
-    // But for slicing it's all up to the python script.
-    //final int commandLenLimit = isSlicing ? Integer.MAX_VALUE : 1 << 15;
-    final int commandLenLimit = 1 << 15;
+    final List<String> jvmOpts = ramGb > 0 ?
+            Arrays.asList("-Dfile.encoding=UTF-8", "-Xmx" + ramGb + "G") :
+            Collections.singletonList("-Dfile.encoding=UTF-8");
+    final List<String> javaCmd = new ArrayList<>(Arrays.asList(JAVA, "-jar"));
+    javaCmd.addAll(jvmOpts);
 
-    if (isSlicing) {
-      // schedule to always try to delete the temp dir when FragPipe finishes execution
-      final String tempDirName = "split_peptide_index_tempdir";
-      Path toDelete = wd.resolve(tempDirName).toAbsolutePath().normalize();
+    // files already searched with the same binary, parameters and database are taken from cache
+    final Map<InputLcmsFile, String> cacheKeys = new HashMap<>();
+    final List<InputLcmsFile> toSearch = new ArrayList<>();
+    if (cache != null && cache.isEnabled()) {
+      // hashing reads the database and parts of every input file, not on the EDT
+      Map<InputLcmsFile, String> keys = null;
       try {
-        if (Files.exists(toDelete)) {
-          FileUtils.deleteDirectory(toDelete.toFile());
+        keys = SwingUtils.runWithProgress(comp, "Looking up search results in cache",
+            progress -> {
+              final String searchHash = searchHash(binFragger.getBin(), params, pathFasta);
+              final Map<InputLcmsFile, String> m = new HashMap<>();
+              for (int i = 0; i < lcmsFiles.size(); i++) {
+                if (Thread.interrupted()) {
+                  throw new InterruptedException();
+                }
+                m.put(lcmsFiles.get(i), cacheKey(searchHash, lcmsFiles.get(i)));
+                progress.call((i + 1) / (double) lcmsFiles.size());
+              }
+              return m;
+            });
+        if (keys == null) {
+          log.info("Cache lookup cancelled, caching of MSFragger results is off for this run");
+        }
+      } catch (ExecutionException e) {
+        log.warn("Could not compute MSFragger result cache keys, caching is off for this run",
+            e.getCause());
+      }
+      if (keys != null) {
+        cacheKeys.putAll(keys);
+      }
+      for (InputLcmsFile f : lcmsFiles) {
+        final String key = cacheKeys.get(f);
+        List<Path> created = createdByFragger(f, mapLcmsToPepxml.get(f), isTsvToo);
+        if (key != null && cache.contains(key, created.stream()
+            .map(c -> c.getFileName().toString()).collect(Collectors.toList()))) {
+          final List<String> searchCmd = new ArrayList<>(javaCmd);
+          searchCmd.add(binFragger.getBin());
+          searchCmd.add(savedParamsPath.toString());
+          searchCmd.add(f.path.toString());
+          addInProcess(ToolingUtils.stepResultCacheRestore(cache, key, created,
+              searchEvicted(searchCmd, wd, f)), Collections.singletonList(f.path), created);
+        } else {
+          toSearch.add(f);
         }
-      } catch (IOException e) {
-        log.warn("Could not delete leftover temporary directory: {}", toDelete.toString());
       }
-      toDelete.toFile().deleteOnExit();
+    } else {
+      toSearch.addAll(lcmsFiles);
+    }
+
+    // a peptide index built by an earlier run with the same database and digestion settings
+    // is put next to the database, for MSFragger to pick it up instead of building it again
+    final long configuredAt = System.currentTimeMillis();
+    final Path fastaDir = Paths.get(pathFasta).toAbsolutePath().normalize().getParent();
+    final String indexFilePrefix = Paths.get(pathFasta).getFileName().toString() + ".";
+    final String indexGroup = NAME + ":index";
+    String indexKey = null;
+    if (indexCache != null && indexCache.isEnabled() && !isSlicing && !toSearch.isEmpty()) {
+      try {
+        indexKey = SwingUtils.runWithProgress(comp, "Looking up peptide index in cache",
+            progress -> indexHash(binFragger.getBin(), params, pathFasta));
+      } catch (ExecutionException e) {
+        log.warn("Could not compute MSFragger peptide index cache key, caching is off for this run",
+            e.getCause());
+      }
+    }
+    if (indexKey != null) {
+      // only when the run starts, the user may still cancel it
+      addInProcess(ToolingUtils.stepResultCacheRestoreAll(indexCache, indexKey, fastaDir),
+          Collections.emptyList(), Collections.emptyList())
+          .group(indexGroup);
     }
 
     int fileIndex = 0;
     StringBuilder sb = new StringBuilder();
 
-    final String ext = fp.getOutputFileExt();
-    Map<InputLcmsFile, Path> mapLcmsToPepxml = outputs(lcmsFiles, ext, wd);
+    // DB slicing: the database is split once, then each batch is searched against every slice
+    // in its own sub-dir of the temp dir and the per slice results are merged
+    final Path tempDir = wd.resolve(DbSliceSteps.TEMP_DIR_NAME).toAbsolutePath().normalize();
+    final String fastaFn = Paths.get(pathFasta).getFileName().toString();
+    final String paramsFn = savedParamsPath.getFileName().toString();
+    if (isSlicing && !toSearch.isEmpty()) {
+      List<Path> parts = new ArrayList<>();
+      for (int s = 0; s < numSlices; s++) {
+        parts.add(DbSliceSteps.sliceDir(tempDir, s).resolve(fastaFn));
+        parts.add(DbSliceSteps.sliceDir(tempDir, s).resolve(paramsFn));
+      }
+      addInProcess(ToolingUtils.stepDbSliceSplit(tempDir, numSlices, Paths.get(pathFasta),
+          savedParamsPath), Collections.singletonList(Paths.get(pathFasta)),
+          Collections.emptyList())
+          .tempOutputs(parts)
+          .group(NAME);
+    }
+
+    // Without the cache, the index the first batch leaves next to the database is kept in the
+    // work dir until the last batch is done, each of the next batches puts it back if it's
+    // gone or was replaced in the meantime, e.g. by a search with other settings.
+    final boolean isKeepingIndex = indexKey == null && isStreaming && !isSlicing;
+    final Path keptIndexDir = wd.resolve(BATCH_INDEX_DIR_NAME);
+    final String indexKeptGroup = NAME + ":index-kept";
 
-    final List<String> javaCmd = ramGb > 0 ?
-            Arrays.asList("java", "-jar", "-Dfile.encoding=UTF-8", "-Xmx" + ramGb + "G") :
-            Arrays.asList("java", "-jar", "-Dfile.encoding=UTF-8");
-    final List<String> slicingCmd = isSlicing ?
-            Arrays.asList(
-                    PythonInfo.get().getCommand(),
-                    DbSlice.get().getScriptDbslicingPath().toAbsolutePath().normalize().toString(),
-                    Integer.toString(numSlices),
-                    "\"" + String.join(" ", javaCmd) + "\"")
-            : null;
-    while (fileIndex < lcmsFiles.size()) {
+    int batchIndex = 0;
+    while (fileIndex < toSearch.size()) {
       ArrayList<String> cmd = new ArrayList<>();
-      if (isSlicing) {
-        cmd.addAll(slicingCmd);
-      } else {
-        cmd.addAll(javaCmd);
-      }
-      cmd.add(binFragger.useBin());
+      cmd.addAll(javaCmd);
+      final String bin = binFragger.useBin();
+      cmd.add(bin);
       cmd.add(savedParamsPath.toString());
 
       // check if the command length is ok so far
       sb.append(String.join(" ", cmd));
       if (sb.length() > commandLenLimit) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "MSFragger command line length too large even for a single file.",
             "Error", JOptionPane.ERROR_MESSAGE);
         return false;
       }
 
       List<InputLcmsFile> addedLcmsFiles = new ArrayList<>();
-      while (fileIndex < lcmsFiles.size()) {
-        InputLcmsFile f = lcmsFiles.get(fileIndex);
+      while (fileIndex < toSearch.size()) {
+        InputLcmsFile f = toSearch.get(fileIndex);
         // if adding this file to the command line will make the command length
         // longer than the allowed maximum, stop adding files
         if (sb.length() + f.path.toString().length() + 1 > commandLenLimit) {
           break;
         }
+        if (batchSize > 0 && addedLcmsFiles.size() >= batchSize) {
+          break;
+        }
         sb.append(f.path.toString()).append(" ");
         cmd.add(f.path.toString());
         addedLcmsFiles.add(f);
         fileIndex++;
       }
 
+      batchIndex++;
+      sb.setLength(0);
+      if (isSlicing) {
+        if (!addSlicedBatch(comp, isDryRun, bin, addedLcmsFiles,
+            batchIndex, tempDir, numSlices, parallelSlices, threads, ramGb, isArgFile, jvmOpts,
+            fastaFn, savedParamsPath, ext)) {
+          return false;
+        }
+        continue;
+      }
+      if (isArgFile) {
+        final Path argFile = wd.resolve("msfragger-args-" + batchIndex + ".txt");
+        final List<String> args = new ArrayList<>();
+        args.add("-jar");
+        args.addAll(cmd.subList(javaCmd.size(), cmd.size()));
+        if (!writeArgFile(comp, isDryRun, argFile, args)) {
+          return false;
+        }
+        cmd = new ArrayList<>();
+        cmd.add(JAVA);
+        cmd.addAll(jvmOpts);
+        cmd.add("@" + argFile.toString());
+      }
+
       ProcessBuilder pb = new ProcessBuilder(cmd);
-      PythonInfo.modifyEnvironmentVariablesForPythonSubprocesses(pb);
       pb.directory(wd.toFile());
-      pb.environment().put("PYTHONIOENCODING", "utf-8");
-      pbs.add(pb);
-      sb.setLength(0);
 
-      // move the pepxml files if the output directory is not the same as where
-      // the lcms files were
+      List<Path> inputs = new ArrayList<>();
+      inputs.add(Paths.get(pathFasta));
+      List<Path> outputs = new ArrayList<>();
       for (InputLcmsFile f : addedLcmsFiles) {
-        Path pepxmlWhereItShouldBe = mapLcmsToPepxml.get(f);
-        if (pepxmlWhereItShouldBe == null)
-          throw new IllegalStateException("LCMS file mapped to no pepxml file");
-        String pepxmlFn = pepxmlWhereItShouldBe.getFileName().toString();
-        Path pepxmlAsCreatedByFragger = f.path.getParent().resolve(pepxmlFn);
-        if (!pepxmlAsCreatedByFragger.equals(pepxmlWhereItShouldBe)) {
-          pbs.addAll(ToolingUtils
-              .pbsMoveFiles(jarFragpipe, pepxmlWhereItShouldBe.getParent(),
-                  Collections.singletonList(pepxmlAsCreatedByFragger)));
+        inputs.add(f.path);
+        outputs.addAll(createdByFragger(f, mapLcmsToPepxml.get(f), isTsvToo));
+      }
+      final String batchGroup = NAME + ":batch-" + batchIndex;
+      if (isKeepingIndex && batchIndex > 1) {
+        addInProcess(ToolingUtils.stepPutBackKept(keptIndexDir, fastaDir),
+            Collections.emptyList(), Collections.emptyList())
+            .group(batchGroup + ":index")
+            .orderAfter(indexKeptGroup)
+            .orderAfter(NAME + ":batch-" + (batchIndex - 1));
+      }
+      // each invocation uses all the threads and RAM it's given, no point in running
+      // several of them at once
+      add(pb, inputs, outputs)
+          .threads(threads)
+          .ramGb(ramGb)
+          .lock(NAME)
+          .group(NAME)
+          .group(batchGroup)
+          .orderAfter(indexGroup)
+          .orderAfter(batchGroup + ":index");
+      if (isKeepingIndex && batchIndex == 1) {
+        addInProcess(ToolingUtils.stepKeepMatching(fastaDir, indexFilePrefix, INDEX_FILE_SUFFIX,
+            configuredAt, keptIndexDir), Collections.emptyList(), Collections.emptyList())
+            .group(indexKeptGroup)
+            .orderAfter(batchGroup);
+      }
+    }
+
+    if (isKeepingIndex) {
+      addInProcess(ToolingUtils.stepDeleteKept(keptIndexDir), Collections.emptyList(),
+          Collections.emptyList())
+          .orderAfter(NAME);
+    }
+
+    if (isSlicing && !toSearch.isEmpty()) {
+      // only when everything went fine, otherwise the slices are kept for a re-run to pick up
+      addInProcess(ToolingUtils.stepDbSliceCleanup(tempDir), Collections.emptyList(),
+          Collections.emptyList())
+          .after(NAME);
+    }
+
+    if (indexKey != null) {
+      // index files written by this search, if any, go to the cache
+      addInProcess(ToolingUtils.stepResultCacheStoreMatching(indexCache, indexKey, fastaDir,
+          indexFilePrefix, INDEX_FILE_SUFFIX, configuredAt),
+          Collections.emptyList(), Collections.emptyList())
+          .after(NAME);
+    }
+
+    // move the pepxml files if the output directory is not the same as where
+    // the lcms files were
+    for (InputLcmsFile f : lcmsFiles) {
+      Path pepxmlWhereItShouldBe = mapLcmsToPepxml.get(f);
+      if (pepxmlWhereItShouldBe == null)
+        throw new IllegalStateException("LCMS file mapped to no pepxml file");
+      String pepxmlFn = pepxmlWhereItShouldBe.getFileName().toString();
+      Path pepxmlAsCreatedByFragger = f.path.getParent().resolve(pepxmlFn);
+      if (!pepxmlAsCreatedByFragger.equals(pepxmlWhereItShouldBe)) {
+        List<InProcessStep> moves = ToolingUtils
+            .stepsMoveFiles(pepxmlWhereItShouldBe.getParent(),
+                Collections.singletonList(pepxmlAsCreatedByFragger));
+        for (InProcessStep move : moves) {
+          addInProcess(move, Collections.singletonList(pepxmlAsCreatedByFragger),
+              Collections.singletonList(pepxmlWhereItShouldBe));
         }
       }
     }
 
+    // newly searched files go to the cache, from where they ended up after the move
+    for (InputLcmsFile f : toSearch) {
+      final String key = cacheKeys.get(f);
+      if (key == null) {
+        continue;
+      }
+      final Path pepxml = mapLcmsToPepxml.get(f);
+      List<Path> files = new ArrayList<>();
+      files.add(pepxml);
+      if (isTsvToo && !isSlicing) {
+        files.add(f.path.getParent().resolve(
+            StringUtils.upToLastDot(pepxml.getFileName().toString()) + ".tsv"));
+      }
+      addInProcess(ToolingUtils.stepResultCacheStore(cache, key, files),
+          files, Collections.emptyList());
+    }
+
     isConfigured = true;
     return true;
   }
 
+  /**
+   * Searches a batch of files against each DB slice, then combines the score histograms,
+   * has MSFragger compute expect value functions from them and merges the results of the
+   * slices for each file.
+   *
+   * @param bin MSFragger jar.
+   * @return False if something went wrong, the user has been told already.
+   */
+  private boolean addSlicedBatch(Component comp, boolean isDryRun, String bin,
+      List<InputLcmsFile> files, int batchIndex, Path tempDir, int numSlices,
+      int parallelSlices, int threads, int ramGb, boolean isArgFile, List<String> jvmOpts,
+      String fastaFn, Path savedParamsPath, String ext) {
+    final String paramsFn = savedParamsPath.getFileName().toString();
+    final List<String> stems = files.stream()
+        .map(f -> StringUtils.upToLastDot(f.path.getFileName().toString()))
+        .collect(Collectors.toList());
+
+    for (int s = 0; s < numSlices; s++) {
+      final Path sliceDir = DbSliceSteps.sliceDir(tempDir, s);
+      List<String> args = new ArrayList<>(Arrays.asList("-jar", bin, paramsFn));
+      List<Path> inputs = new ArrayList<>(Arrays.asList(
+          sliceDir.resolve(fastaFn), sliceDir.resolve(paramsFn)));
+      List<Path> outputs = new ArrayList<>();
+      for (int i = 0; i < files.size(); i++) {
+        args.add(files.get(i).path.toAbsolutePath().normalize().toString());
+        inputs.add(files.get(i).path);
+        outputs.add(sliceDir.resolve(stems.get(i) + "." + ext));
+        outputs.add(sliceDir.resolve(DbSliceSteps.histogramFn(stems.get(i))));
+      }
+      args.add("--partial");
+      args.add(Integer.toString(s));
+      List<String> cmd = javaJarCmd(comp, isDryRun, isArgFile, jvmOpts, args,
+          wd.resolve("msfragger-args-" + batchIndex + "-" + s + ".txt"));
+      if (cmd == null) {
+        return false;
+      }
+      ProcessBuilder pb = new ProcessBuilder(cmd);
+      pb.directory(sliceDir.toFile());
+      // the same slice of different batches shares the peptide index in the slice dir
+      add(pb, inputs, Collections.emptyList())
+          .tempOutputs(outputs)
+          .threads(threads)
+          .ramGb(ramGb)
+          .slots(NAME, parallelSlices)
+          .lock(NAME + ":slice" + s)
+          .group(NAME);
+    }
+
+    List<Path> sliceHistograms = new ArrayList<>();
+    List<Path> histograms = new ArrayList<>();
+    List<Path> expects = new ArrayList<>();
+    for (String stem : stems) {
+      for (int s = 0; s < numSlices; s++) {
+        sliceHistograms.add(DbSliceSteps.sliceDir(tempDir, s).resolve(DbSliceSteps.histogramFn(stem)));
+      }
+      histograms.add(tempDir.resolve(DbSliceSteps.histogramFn(stem)));
+      expects.add(tempDir.resolve(DbSliceSteps.expectFn(stem)));
+    }
+    addInProcess(ToolingUtils.stepDbSliceHistograms(tempDir, numSlices, stems),
+        sliceHistograms, Collections.emptyList())
+        .tempOutputs(histograms)
+        .threads(1)
+        .group(NAME);
+
+    List<String> expectArgs = new ArrayList<>(Arrays.asList("-jar", bin,
+        "--generate_expect_functions"));
+    expectArgs.addAll(stems.stream().map(DbSliceSteps::histogramFn).collect(Collectors.toList()));
+    List<String> expectCmd = javaJarCmd(comp, isDryRun, isArgFile, jvmOpts, expectArgs,
+        wd.resolve("msfragger-args-" + batchIndex + "-expect.txt"));
+    if (expectCmd == null) {
+      return false;
+    }
+    ProcessBuilder pbExpect = new ProcessBuilder(expectCmd);
+    pbExpect.directory(tempDir.toFile());
+    add(pbExpect, histograms, Collections.emptyList())
+        .tempOutputs(expects)
+        .threads(1)
+        .ramGb(ramGb)
+        .group(NAME);
+
+    for (int i = 0; i < files.size(); i++) {
+      final String stem = stems.get(i);
+      final Path merged = files.get(i).path.getParent().resolve(stem + "." + ext);
+      List<Path> inputs = new ArrayList<>();
+      for (int s = 0; s < numSlices; s++) {
+        inputs.add(DbSliceSteps.sliceDir(tempDir, s).resolve(stem + "." + ext));
+      }
+      inputs.add(tempDir.resolve(DbSliceSteps.expectFn(stem)));
+      addInProcess(ToolingUtils.stepDbSliceMerge(tempDir, numSlices, savedParamsPath, ext, stem,
+          merged), inputs, Collections.singletonList(merged))
+          .threads(1)
+          .group(NAME);
+    }
+    return true;
+  }
+
+  /**
+   * @param args Everything after the JVM options, starting with "-jar".
+   * @return Null if the argument file could not be written, the user has been told already.
+   */
+  private static List<String> javaJarCmd(Component comp, boolean isDryRun, boolean isArgFile,
+      List<String> jvmOpts, List<String> args, Path argFile) {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(JAVA);
+    cmd.addAll(jvmOpts);
+    if (!isArgFile) {
+      cmd.addAll(args);
+      return cmd;
+    }
+    if (!writeArgFile(comp, isDryRun, argFile, args)) {
+      return null;
+    }
+    cmd.add("@" + argFile.toString());
+    return cmd;
+  }
+
   @Override
   public int getPriority() {
     return 50;
@@ -2,7 +2,10 @@ package umich.msfragger.cmd;
 
 import java.awt.Component;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,16 +61,37 @@ public class CmdPeptideProphet extends CmdBase {
     return m;
   }
 
-  public boolean configure(Component comp, UsageTrigger usePhilosopher,
-      String fastaPath, String decoyTag, String textPepProphCmd, Map<InputLcmsFile, Path> pepxmlFiles) {
+  /**
+   * Directory in which a single pepxml file is processed when running in parallel mode.
+   * Each such directory gets its own Philosopher workspace.
+   */
+  private static Path getParallelWorkDir(Path pepxml) {
+    return pepxml.getParent().resolve("peptideprophet-" + pepxml.getFileName().toString());
+  }
+
+  /**
+   * @param parallel Max number of files processed at the same time. With 1 all the files in
+   * one directory are processed one by one in a shared Philosopher workspace, otherwise each
+   * file gets its own workspace and log file.
+   */
+  public boolean configure(Component comp, UsageTrigger usePhilosopher, Path jarFragpipe,
+      String fastaPath, String decoyTag, String textPepProphCmd, Map<InputLcmsFile, Path> pepxmlFiles,
+      String pepxmlExt, int parallel) {
 
     pbs.clear();
+    inProcess.clear();
     PeptideProphetParams peptideProphetParams = new PeptideProphetParams();
     peptideProphetParams.setCmdLineParams(textPepProphCmd);
 
+    final boolean isParallel = parallel > 1;
+    final Map<InputLcmsFile, Path> interacts = outputs(pepxmlFiles, pepxmlExt);
     for (Map.Entry<InputLcmsFile, Path> e : pepxmlFiles.entrySet()) {
+      final Path pepxml = e.getValue();
+      final Path interact = interacts.get(e.getKey());
+      final Path workDir = isParallel ? getParallelWorkDir(pepxml) : pepxml.getParent();
+
       List<String> cmd = new ArrayList<>();
-      cmd.add(usePhilosopher.useBin());
+      cmd.add(isParallel ? usePhilosopher.useBin(workDir) : usePhilosopher.useBin());
       cmd.add(PhilosopherProps.CMD_PEPTIDE_PROPHET);
 
       if (!peptideProphetParams.getCmdLineParams().isEmpty()) {
@@ -87,13 +111,36 @@ public class CmdPeptideProphet extends CmdBase {
       cmd.add("--database");
       cmd.add(fastaPath);
 
-      final Path pepxml = e.getValue();
-      cmd.add(pepxml.getFileName().toString());
+      cmd.add(isParallel ? pepxml.toAbsolutePath().toString() : pepxml.getFileName().toString());
       ProcessBuilder pb = new ProcessBuilder(cmd);
       // set environment
-      pb.directory(pepxml.getParent().toFile());
+      pb.directory(workDir.toFile());
       pb.environment().putIfAbsent("WEBSERVER_ROOT", "fake-WEBSERVER_ROOT-value");
-      pbs.add(pb);
+
+      if (!isParallel) {
+        // all runs in the same directory share the same Philosopher workspace, and runs in
+        // different directories still respect the max number of files at a time
+        // results are also kept in the workspace, so a clean workspace means a re-run
+        add(pb, Arrays.asList(pepxml, Paths.get(fastaPath)), Collections.singletonList(interact))
+            .threads(1)
+            .slots(NAME, parallel)
+            .lock(CmdPhilosopherWorkspaceCleanInit.lock(workDir))
+            .after(CmdPhilosopherWorkspaceCleanInit.workspace(workDir));
+        continue;
+      }
+
+      // the interact file is created in the private workspace and moved next to the pepxml
+      final Path interactInWorkDir = workDir.resolve(interact.getFileName());
+      add(pb, Arrays.asList(pepxml, Paths.get(fastaPath)), Collections.singletonList(interactInWorkDir))
+          .threads(1)
+          .slots(NAME, parallel)
+          .log(NAME.toLowerCase() + ".log")
+          .after(CmdPhilosopherWorkspaceCleanInit.workspace(workDir));
+      for (InProcessStep move : ToolingUtils.stepsMoveFiles(interact.getParent(),
+          Collections.singletonList(interactInWorkDir))) {
+        addInProcess(move, Collections.singletonList(interactInWorkDir),
+            Collections.singletonList(interact));
+      }
     }
 
     isConfigured = true;
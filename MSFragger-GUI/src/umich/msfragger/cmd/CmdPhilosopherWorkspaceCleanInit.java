@@ -2,7 +2,9 @@ package umich.msfragger.cmd;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import umich.msfragger.params.philosopher.PhilosopherProps;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdPhilosopherWorkspaceCleanInit extends CmdBase {
@@ -18,26 +20,48 @@ public class CmdPhilosopherWorkspaceCleanInit extends CmdBase {
     return NAME;
   }
 
+  /**
+   * Group of the clean and init steps for the workspace in a directory. Philosopher commands
+   * run in that directory are scheduled after it.
+   */
+  public static String workspace(Path dir) {
+    return NAME + ":" + dir.toAbsolutePath().normalize();
+  }
+
+  /**
+   * Key for {@link SchedulingInfo#lock(String)}, Philosopher commands sharing a workspace must
+   * not run at the same time.
+   */
+  public static String lock(Path dir) {
+    return PhilosopherProps.CMD_WORKSPACE + ":" + dir.toAbsolutePath().normalize();
+  }
+
   public boolean configure(UsageTrigger usePhilosopher) {
     pbs.clear();
     {
       List<String> cmd = new ArrayList<>();
       cmd.add(usePhilosopher.useBin(wd));
-      cmd.add("workspace");
+      cmd.add(PhilosopherProps.CMD_WORKSPACE);
       cmd.add("--clean");
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(wd.toFile());
-      pbs.add(pb);
+      // never up to date, so everything that depends on the workspace is re-run as well
+      add(pb, Collections.emptyList(), Collections.emptyList())
+          .group(workspace(wd))
+          .lock(lock(wd));
     }
 
     {
       List<String> cmd = new ArrayList<>();
       cmd.add(usePhilosopher.useBin(wd));
-      cmd.add("workspace");
+      cmd.add(PhilosopherProps.CMD_WORKSPACE);
       cmd.add("--init");
       ProcessBuilder pb = new ProcessBuilder(cmd);
       pb.directory(wd.toFile());
-      pbs.add(pb);
+      add(pb, Collections.emptyList(), Collections.emptyList())
+          .group(workspace(wd))
+          .after(workspace(wd))
+          .lock(lock(wd));
     }
 
     isConfigured = true;
@@ -19,6 +19,7 @@ import umich.msfragger.params.fragger.FraggerMigPanel;
 import umich.msfragger.params.philosopher.PhilosopherProps;
 import umich.msfragger.params.protproph.ProteinProphetParams;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdProteinProphet extends CmdBase {
@@ -105,7 +106,7 @@ public class CmdProteinProphet extends CmdBase {
 
       Set<Path> interactProtXmls = new HashSet<>(groupToProtxml.values());
       if (interactProtXmls.size() > 1) {
-        JOptionPane.showMessageDialog(comp, "[Protein Prophet]\n"
+        SwingUtils.showMessageDialog(comp, "[Protein Prophet]\n"
             + "Report to developers, more than one interact protxml file when\n"
             + "processing experimental groups together.");
         return false;
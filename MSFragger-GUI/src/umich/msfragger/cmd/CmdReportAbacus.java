@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
 import umich.msfragger.gui.LcmsFileGroup;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 /**
@@ -82,7 +83,7 @@ public class CmdReportAbacus extends CmdBase {
           .collect(Collectors.toSet());
 
       if (foldersWithPepxmls.size() < 2) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "Multi-experiment report requires more than one\n"
             + "experiment/group being processed together.\n\n"
                 + "Turn off separate processing of groups on LCMS\n"
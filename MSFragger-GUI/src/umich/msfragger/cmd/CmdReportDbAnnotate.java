@@ -14,6 +14,7 @@ import umich.msfragger.gui.InputLcmsFile;
 import umich.msfragger.gui.LcmsFileGroup;
 import umich.msfragger.params.philosopher.PhilosopherProps;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdReportDbAnnotate extends CmdBase {
@@ -35,7 +36,7 @@ public class CmdReportDbAnnotate extends CmdBase {
 
     pbs.clear();
     if (dbPath == null) {
-      JOptionPane.showMessageDialog(comp, "Fasta file path can't be empty (Report)",
+      SwingUtils.showMessageDialog(comp, "Fasta file path can't be empty (Report)",
           "Warning", JOptionPane.WARNING_MESSAGE);
       return false;
     }
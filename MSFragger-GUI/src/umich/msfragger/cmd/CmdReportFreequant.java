@@ -13,6 +13,7 @@ import javax.swing.JOptionPane;
 import umich.msfragger.gui.LcmsFileGroup;
 import umich.msfragger.params.philosopher.PhilosopherProps;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdReportFreequant extends CmdBase {
@@ -42,7 +43,7 @@ public class CmdReportFreequant extends CmdBase {
       if (lcmsDirsForProtxml.size() > 1) {
         String msg = "All LCMS input files for an experiment/group must be\n"
             + "located in the same directory for Freequant to work.";
-        JOptionPane.showMessageDialog(comp, msg, "Freequant Error", JOptionPane.WARNING_MESSAGE);
+        SwingUtils.showMessageDialog(comp, msg, "Freequant Error", JOptionPane.WARNING_MESSAGE);
         return false;
       }
 
@@ -50,7 +51,7 @@ public class CmdReportFreequant extends CmdBase {
           .map(f -> StringUtils.afterLastDot(f.path.getFileName().toString()))
           .anyMatch("mzxml"::equalsIgnoreCase);
       if (mzxmlInInput) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "<html>Freequant doesn't work with mzXML files.<br/>"
                 + "Either remove mzXML files from input or disable<br/>"
                 + "Freequant on the Report tab. You can also convert<br/>"
@@ -14,6 +14,7 @@ import umich.msfragger.gui.LcmsFileGroup;
 import umich.msfragger.params.speclib.SpecLibGen;
 import umich.msfragger.util.OsUtils;
 import umich.msfragger.util.PythonInfo;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdSpecLibGen extends CmdBase {
@@ -33,16 +34,17 @@ public class CmdSpecLibGen extends CmdBase {
       Map<LcmsFileGroup, Path> mapGroupsToProtxml, String fastaPath, boolean isRunProteinProphet) {
 
     pbs.clear();
+    inProcess.clear();
     final SpecLibGen slg = SpecLibGen.get();
     if (!slg.isInitialized()) {
-      JOptionPane.showMessageDialog(comp,
+      SwingUtils.showMessageDialog(comp,
           "Spectral Library Generation scripts did not initialize correctly.",
           "Spectral Library Generation Error", JOptionPane.ERROR_MESSAGE);
       return false;
     }
 
     if (mapGroupsToProtxml.size() > 1) {
-      int res = JOptionPane.showConfirmDialog(comp,
+      int res = SwingUtils.showConfirmDialog(comp,
           "<html>You have more than 1 experiment/group and spectral<br/>"
               + "library generation is turned on. In that case a separate<br/>"
               + "spectral library is created for each group.<br/><br/>"
@@ -51,7 +53,8 @@ public class CmdSpecLibGen extends CmdBase {
               + "from ALL input files.<br/>"
               + "Change Experiment/Group configuration on LCMS files tab.<br/>"
               + "E.g. press the <i>Clear Experiments</i> button there.",
-          "SpecLibGen config warning", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+          "SpecLibGen config warning", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE,
+          JOptionPane.YES_OPTION);
       if (JOptionPane.YES_OPTION != res) {
         return false;
       }
@@ -63,7 +66,7 @@ public class CmdSpecLibGen extends CmdBase {
       final Path groupWd = group.outputDir(wd);
 
       if (!isRunProteinProphet && !Files.exists(protxml)) {
-        JOptionPane.showMessageDialog(comp,
+        SwingUtils.showMessageDialog(comp,
             "Protein Prophet not selected and the output directory:\n"
                 + "    " + groupWd.toString() + "\n"
                 + "does not contain a '" + protxml.getFileName().toString() + "' file.\n\n"
@@ -82,9 +85,10 @@ public class CmdSpecLibGen extends CmdBase {
             // Directory of LCMS file is different from pepxml file
             // and the file does not yet exist.
             // Copy over the file and schedule for deletion.
-            List<ProcessBuilder> pbCopy = ToolingUtils
-                .pbsCopyFiles(jarFragpipe, groupWd, Collections.singletonList(lcms.path));
-            pbs.addAll(pbCopy);
+            for (InProcessStep step : ToolingUtils
+                .stepsCopyFiles(groupWd, Collections.singletonList(lcms.path))) {
+              addInProcess(step);
+            }
             copy.toFile().deleteOnExit(); // schedule for deletion
           }
         }
@@ -4,12 +4,20 @@ import java.awt.Component;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
 import umich.msfragger.exceptions.FileWritingException;
@@ -22,6 +30,7 @@ import umich.msfragger.util.JarUtils;
 import umich.msfragger.util.OsUtils;
 import umich.msfragger.util.PropertiesUtils;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.UsageTrigger;
 
 public class CmdUmpireSe extends CmdBase {
@@ -29,6 +38,8 @@ public class CmdUmpireSe extends CmdBase {
   public static final String NAME = "UmpireSe";
   private static final EXTENSION OUTPUT_EXT = EXTENSION.mzXML;
   public enum EXTENSION {mzXML, mzML}
+  /** Each input is processed in a dir of its own, named with this prefix and the file name. */
+  private static final String STAGE_DIR_PREFIX = "umpire-se-";
 
   public CmdUmpireSe(boolean isRun, Path workDir) {
     super(isRun, workDir);
@@ -61,12 +72,13 @@ public class CmdUmpireSe extends CmdBase {
       List<InputLcmsFile> lcmsFiles) {
 
     pbs.clear();
+    inProcess.clear();
 
     // check if there are only mzXML input files
     boolean hasNonMzxml = lcmsFiles.stream().map(f -> f.path.getFileName().toString().toLowerCase())
         .anyMatch(p -> !p.endsWith("mzxml"));
     if (hasNonMzxml) {
-      JOptionPane.showMessageDialog(errMsgParent,
+      SwingUtils.showMessageDialog(errMsgParent,
           "[DIA Umpire SE]\nNot all input files are mzXML.\n"
               + "DIA-Umpire only supports mzXML inputs.",
           "Error", JOptionPane.ERROR_MESSAGE);
@@ -80,7 +92,7 @@ public class CmdUmpireSe extends CmdBase {
           ThisAppProps.UNPACK_TEMP_SUBDIR, true, true);
 
     } catch (IOException | NullPointerException ex) {
-      JOptionPane.showMessageDialog(errMsgParent,
+      SwingUtils.showMessageDialog(errMsgParent,
           "Could not unpack UmpireSE jar to a temporary directory.\n",
           "Can't unpack", JOptionPane.ERROR_MESSAGE);
       return false;
@@ -98,7 +110,7 @@ public class CmdUmpireSe extends CmdBase {
         FileOutputStream fos = new FileOutputStream(umpireParamsFilePath.toFile());
         PropertiesUtils.writePropertiesContent(collectedUmpireParams, fos);
       } catch (FileNotFoundException | FileWritingException e) {
-        JOptionPane.showMessageDialog(errMsgParent,
+        SwingUtils.showMessageDialog(errMsgParent,
             "[DIA Umpire SE]\nCould not write property file, thus can't run DIA-Umpire",
             "Error", JOptionPane.ERROR_MESSAGE);
         return false;
@@ -108,11 +120,37 @@ public class CmdUmpireSe extends CmdBase {
     // run umpire for each file
     int ramGb = (Integer)umpirePanel.spinnerRam.getValue();
     int ram = ramGb > 0 ? ramGb : 0;
+    int threads = 0;
+    try {
+      threads = Integer.parseInt(
+          collectedUmpireParams.getProps().getProperty(UmpireParams.PROP_Thread, "0").trim());
+    } catch (NumberFormatException ignored) {
+    }
+    final boolean isWin = OsUtils.isWindows();
+    final String binMsconvert = umpirePanel.getBinMsconvert();
+    if (isWin && StringUtils.isNullOrWhitespace(binMsconvert)) {
+      SwingUtils.showMessageDialog(errMsgParent,
+          "[DIA Umpire SE]\nOn Windows specifying path to msconvert binary is required.",
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return false;
+    }
+
+    // Each file is an independent chain: staging, Umpire, moving its outputs, converting
+    // the mgfs. Umpire writes its outputs and a log named the same for every file next to the
+    // input, so each input is linked into a directory of its own and the runs don't share
+    // anything. The logs are merged into one per output dir after all the runs are done.
+    final Map<Path, List<Path>> stagedByDestDir = new LinkedHashMap<>();
 
     for (InputLcmsFile f: lcmsFiles) {
       Path inputFn = f.path.getFileName();
-      Path inputDir = f.path.getParent();
       Path destDir = f.outputDir(wd);
+      Path stageDir = destDir.resolve(STAGE_DIR_PREFIX + StringUtils.upToLastDot(inputFn.toString()));
+      Path staged = stageDir.resolve(inputFn);
+      addInProcess(new InProcessStep("Link " + f.path + " to " + staged,
+              Arrays.asList("umpire-stage", f.path.toString(), staged.toString()),
+              () -> stage(f.path, staged)),
+          Collections.singletonList(f.path), Collections.emptyList())
+          .tempOutputs(Collections.singletonList(staged));
 
       // Umpire-SE
       // java -jar -Xmx8G DIA_Umpire_SE.jar mzMXL_file diaumpire_se.params
@@ -123,38 +161,36 @@ public class CmdUmpireSe extends CmdBase {
       if (ram > 0 && ram < 256)
         cmd.add("-Xmx" + ram + "G");
       cmd.add(jarUmpireSe.toString()); // unpacked UmpireSE jar
-      cmd.add(f.path.toString());
+      cmd.add(staged.toString());
       cmd.add(umpireParamsFilePath.toString());
 
       ProcessBuilder pb = new ProcessBuilder(cmd);
-      pbs.add(pb);
-
-      // check if the working dir is the dir where the mzXML file was
-      // if it is, then don't do anything, if it is not, then copy
-      // UmpireSE outputs to the working directory
-      // and also create symlinks to the original files
-
+      pb.directory(stageDir.toFile());
+      final Path stagedLog = stageDir.resolve(UmpireSeGarbageFiles.filesToMove.get(0));
+      final List<Path> garbage = new ArrayList<>(UmpireSeGarbageFiles.getGarbageFiles(staged));
+      garbage.remove(stagedLog);
+      // The outputs only live in the staging dir until they are moved to the output dir
+      add(pb, Arrays.asList(f.path, staged, umpireParamsFilePath), Collections.emptyList())
+          .tempOutputs(garbage)
+          .tempOutputs(Collections.singletonList(stagedLog))
+          .threads(threads > 0 ? threads : Runtime.getRuntime().availableProcessors())
+          .ramGb(ram)
+          .group(NAME + ":" + destDir.toAbsolutePath().normalize());
 
-      if (!inputDir.equals(destDir)) {
-        // destination dir is different from mzXML file location
-        // need to move output and cleanup
-        List<Path> garbage = UmpireSeGarbageFiles.getGarbageFiles(f.path);
-        // TODO: verify this actually moves all the garbage files. Use files at: C:\data\dia\40-50-minutes
-        List<ProcessBuilder> pbsMove = ToolingUtils.pbsMoveFiles(jarFragpipe, destDir, garbage);
-        pbs.addAll(pbsMove);
+      // move the UmpireSE outputs from the staging dir to the output dir
+      // TODO: verify this actually moves all the garbage files. Use files at: C:\data\dia\40-50-minutes
+      for (Path g : garbage) {
+        for (InProcessStep move : ToolingUtils.stepsMoveFiles(destDir,
+            Collections.singletonList(g))) {
+          addInProcess(move, Collections.singletonList(g),
+              Collections.singletonList(destDir.resolve(g.getFileName())))
+              .group(NAME + ":" + destDir.toAbsolutePath().normalize());
+        }
       }
+      stagedByDestDir.computeIfAbsent(destDir, k -> new ArrayList<>()).add(staged);
 
       // msconvert
       // now all the generated garbage is in the working directory
-      final boolean isWin = OsUtils.isWindows();
-      final String binMsconvert = umpirePanel.getBinMsconvert();
-      if (isWin && StringUtils.isNullOrWhitespace(binMsconvert)) {
-        JOptionPane.showMessageDialog(errMsgParent,
-            "[DIA Umpire SE]\nOn Windows specifying path to msconvert binary is required.",
-            "Error", JOptionPane.ERROR_MESSAGE);
-        return false;
-      }
-
       List<String> mgfs = getGeneratedMgfFnsForMzxml(inputFn.toString());
       for (String mgf : mgfs) {
         List<String> cmdMsConvert = new ArrayList<>();
@@ -182,14 +218,86 @@ public class CmdUmpireSe extends CmdBase {
         cmdMsConvert.add(mgfPath.toString());
         ProcessBuilder pbMsConvert = new ProcessBuilder(cmdMsConvert);
         pbMsConvert.directory(mgfPath.getParent().toFile());
-        pbs.add(pbMsConvert);
+        final Path converted = mgfPath.getParent()
+            .resolve(StringUtils.upToLastDot(mgf) + "." + OUTPUT_EXT.toString());
+        final SchedulingInfo si = add(pbMsConvert, Collections.singletonList(mgfPath),
+            Collections.singletonList(converted))
+            .threads(1);
+        if (!isWin) {
+          si.lock(CmdPhilosopherWorkspaceCleanInit.lock(mgfPath.getParent()))
+              .orderAfter(CmdPhilosopherWorkspaceCleanInit.workspace(mgfPath.getParent()));
+        }
       }
     }
 
+    // one log per output dir, in the order of the input files, as when the files were
+    // processed one by one
+    for (Map.Entry<Path, List<Path>> e : stagedByDestDir.entrySet()) {
+      final Path log = e.getKey().resolve(UmpireSeGarbageFiles.filesToMove.get(0));
+      final List<Path> staged = e.getValue();
+      final List<Path> stagedLogs = staged.stream()
+          .map(p -> p.resolveSibling(log.getFileName())).collect(Collectors.toList());
+      final List<String> args = new ArrayList<>();
+      args.add("umpire-merge-logs");
+      args.add(log.toString());
+      staged.forEach(p -> args.add(p.toString()));
+      addInProcess(new InProcessStep("Merge DIA-Umpire logs to " + log, args,
+              () -> mergeLogs(staged, log)),
+          stagedLogs, Collections.singletonList(log))
+          .after(NAME + ":" + e.getKey().toAbsolutePath().normalize());
+    }
+
     isConfigured = true;
     return true;
   }
 
+  /**
+   * Hard links the input into the staging dir, or symlinks it if the two are on different
+   * file systems, or copies it as a last resort.
+   */
+  static void stage(Path input, Path staged) throws IOException {
+    Files.createDirectories(staged.getParent());
+    Files.deleteIfExists(staged);
+    try {
+      Files.createLink(staged, input);
+      return;
+    } catch (IOException | UnsupportedOperationException ignored) {
+    }
+    try {
+      Files.createSymbolicLink(staged, input.toAbsolutePath());
+      return;
+    } catch (IOException | UnsupportedOperationException ignored) {
+    }
+    Files.copy(input, staged);
+  }
+
+  /**
+   * Appends the logs the runs wrote next to the staged inputs to the log, then deletes the
+   * staging dirs. Runs that didn't write a log are skipped.
+   *
+   * @param staged The staged inputs, see {@link #stage(Path, Path)}.
+   */
+  static void mergeLogs(List<Path> staged, Path log) throws IOException {
+    try (OutputStream out = Files.newOutputStream(log,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      for (Path input : staged) {
+        final Path stagedLog = input.resolveSibling(log.getFileName());
+        if (Files.exists(stagedLog)) {
+          Files.copy(stagedLog, out);
+        }
+      }
+    }
+    for (Path input : staged) {
+      Files.deleteIfExists(input.resolveSibling(log.getFileName()));
+      Files.deleteIfExists(input);
+      try {
+        Files.deleteIfExists(input.getParent());
+      } catch (DirectoryNotEmptyException ignored) {
+        // something Umpire wrote that isn't on the list of its outputs, left for the user
+      }
+    }
+  }
+
   private List<String> getGeneratedMgfFnsForMzxml(String mzxmlFn) {
     String baseName = StringUtils.upToLastDot(mzxmlFn);
     final int n = 3;
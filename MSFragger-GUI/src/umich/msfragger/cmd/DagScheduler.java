@@ -0,0 +1,364 @@
+package umich.msfragger.cmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import umich.msfragger.util.SystemMemory;
+
+/**
+ * Runs a list of {@link ProcessBuilderInfo}s as a dependency graph. Dependencies are derived
+ * from {@link SchedulingInfo} of each process builder, the order in which they were added
+ * only matters for process builders that read/write the same files. Ready nodes are started
+ * concurrently as long as they fit into the core and RAM budget, and, for nodes that declare
+ * their RAM needs, as long as the machine currently has that much memory available.
+ * Optionally each running node is given its own set of CPUs, see {@link #pinCpus(List)}.<br/>
+ * The first failure stops scheduling of any new work, already running tasks are allowed to
+ * finish, everything else is reported as cancelled.
+ */
+public class DagScheduler {
+  private static final Logger log = LoggerFactory.getLogger(DagScheduler.class);
+
+  public enum State {PENDING, RUNNING, SUCCESS, FAILED, CANCELLED}
+
+  /**
+   * The actual work behind a node.
+   */
+  public interface Task {
+    /**
+     * @return True on success.
+     */
+    boolean run(Node node) throws Exception;
+  }
+
+  /**
+   * Callbacks about node state changes. Called from the scheduler thread.
+   */
+  public interface Listener {
+    default void onStarted(Node node) {}
+    default void onFinished(Node node) {}
+    default void onCancelled(Node node) {}
+  }
+
+  public static class Node {
+    public final int index;
+    public final ProcessBuilderInfo pbi;
+    final Task task;
+    final Set<Node> deps = new LinkedHashSet<>();
+    volatile State state = State.PENDING;
+    volatile List<Integer> cpus = Collections.emptyList();
+
+    Node(int index, ProcessBuilderInfo pbi, Task task) {
+      this.index = index;
+      this.pbi = pbi;
+      this.task = task;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public Set<Node> getDeps() {
+      return deps;
+    }
+
+    /**
+     * @return CPUs the node should be pinned to while running, empty for no pinning.
+     */
+    public List<Integer> getCpus() {
+      return cpus;
+    }
+
+    @Override
+    public String toString() {
+      return "Node{" + index + ", " + pbi.name + ", " + state + "}";
+    }
+  }
+
+  private final int maxCores;
+  private final int maxRamGb;
+  private final List<Node> nodes = new ArrayList<>();
+  private final List<Listener> listeners = new ArrayList<>();
+  /** Currently available memory in bytes, negative if unknown. */
+  private final LongSupplier availableRam;
+  private final List<Integer> cpuPool = new ArrayList<>();
+
+  /**
+   * @param maxCores Core budget. Processes with unknown thread count are counted as 1 core.
+   * Zero or negative means all the cores.
+   * @param maxRamGb RAM budget. Zero or negative means the memory available on the machine
+   * at the time of the call, or no limit if that's unknown.
+   */
+  public DagScheduler(int maxCores, int maxRamGb) {
+    this(maxCores, maxRamGb, SystemMemory::availableBytes);
+  }
+
+  DagScheduler(int maxCores, int maxRamGb, LongSupplier availableRam) {
+    this.maxCores = maxCores > 0 ? maxCores : Runtime.getRuntime().availableProcessors();
+    this.availableRam = availableRam;
+    if (maxRamGb > 0) {
+      this.maxRamGb = maxRamGb;
+    } else {
+      final long available = availableRam.getAsLong();
+      this.maxRamGb = available > 0 ? (int) Math.max(1, available / SystemMemory.GB) : 0;
+    }
+  }
+
+  public Node add(ProcessBuilderInfo pbi, Task task) {
+    Node n = new Node(nodes.size(), pbi, task);
+    nodes.add(n);
+    return n;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public List<Node> getNodes() {
+    return nodes;
+  }
+
+  public int getMaxCores() {
+    return maxCores;
+  }
+
+  public int getMaxRamGb() {
+    return maxRamGb;
+  }
+
+  /**
+   * Enables handing out disjoint sets of CPUs to running nodes, as many CPUs as the node is
+   * counted for in the core budget. Nodes started when all CPUs are taken get none.
+   *
+   * @param cpus CPUs to hand out, e.g. {@link umich.msfragger.util.CpuAffinity#allowedCpus()}.
+   */
+  public void pinCpus(List<Integer> cpus) {
+    cpuPool.clear();
+    cpuPool.addAll(cpus);
+  }
+
+  public boolean isPinningCpus() {
+    return !cpuPool.isEmpty();
+  }
+
+  /**
+   * Fills in dependencies of all nodes. A node without scheduling info depends on everything
+   * before it, and everything after it depends on it.
+   */
+  void resolveDeps() {
+    Node lastBarrier = null;
+    for (int i = 0; i < nodes.size(); i++) {
+      Node n = nodes.get(i);
+      n.deps.clear();
+      SchedulingInfo si = n.pbi.sched;
+      if (si == null) {
+        for (int j = lastBarrier == null ? 0 : lastBarrier.index; j < i; j++) {
+          n.deps.add(nodes.get(j));
+        }
+        lastBarrier = n;
+        continue;
+      }
+      if (lastBarrier != null) {
+        n.deps.add(lastBarrier);
+      }
+      for (int j = lastBarrier == null ? 0 : lastBarrier.index + 1; j < i; j++) {
+        Node earlier = nodes.get(j);
+        if (si.dependsOn(earlier.pbi.sched)) {
+          n.deps.add(earlier);
+        }
+      }
+    }
+  }
+
+  private int cores(Node n) {
+    if (n.pbi.sched == null) {
+      return maxCores; // barriers run alone anyway
+    }
+    int threads = n.pbi.sched.getThreads();
+    return threads <= 0 ? 1 : Math.min(threads, maxCores);
+  }
+
+  private int ramGb(Node n) {
+    return n.pbi.sched == null ? 0 : n.pbi.sched.getRamGb();
+  }
+
+  /**
+   * Blocks until all the nodes are either finished or cancelled.
+   *
+   * @return True if all the nodes finished successfully.
+   * @throws InterruptedException If the calling thread was interrupted. Running tasks are
+   * interrupted as well in that case.
+   */
+  public boolean run() throws InterruptedException {
+    resolveDeps();
+
+    final AtomicInteger threadCounter = new AtomicInteger();
+    final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "dag-worker-" + threadCounter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    final BlockingQueue<Node> finished = new LinkedBlockingQueue<>();
+    final List<Node> pending = new ArrayList<>(nodes);
+    final Map<String, Node> heldLocks = new HashMap<>();
+    final Map<String, Integer> usedSlots = new HashMap<>();
+    final TreeSet<Integer> freeCpus = new TreeSet<>(cpuPool);
+    int runningCount = 0;
+    int usedCores = 0;
+    int usedRamGb = 0;
+    boolean isFailed = false;
+
+    try {
+      while (true) {
+        if (!isFailed) {
+          final long availableBytes = availableRam.getAsLong();
+          long availableGb = availableBytes < 0 ? -1 : availableBytes / SystemMemory.GB;
+          for (Iterator<Node> it = pending.iterator(); it.hasNext(); ) {
+            final Node n = it.next();
+            if (!isReady(n) || !isLockFree(n, heldLocks) || !isSlotFree(n, usedSlots)) {
+              continue;
+            }
+            final int cores = cores(n);
+            final int ram = ramGb(n);
+            if (runningCount > 0) {
+              if (usedCores + cores > maxCores) {
+                continue;
+              }
+              if (maxRamGb > 0 && ram > 0 && usedRamGb + ram > maxRamGb) {
+                continue;
+              }
+              if (ram > 0 && availableGb >= 0 && availableGb < ram) {
+                log.debug("Not starting {}, needs {} GB RAM, {} GB available", n, ram,
+                    availableGb);
+                continue;
+              }
+            }
+            it.remove();
+            if (availableGb >= 0) {
+              // processes started in this pass haven't allocated their memory yet
+              availableGb = Math.max(0, availableGb - ram);
+            }
+            runningCount++;
+            usedCores += cores;
+            usedRamGb += ram;
+            if (!freeCpus.isEmpty()) {
+              final List<Integer> cpus = new ArrayList<>();
+              while (cpus.size() < cores && !freeCpus.isEmpty()) {
+                cpus.add(freeCpus.pollFirst());
+              }
+              n.cpus = cpus;
+            }
+            if (n.pbi.sched != null) {
+              for (String lock : n.pbi.sched.locks) {
+                heldLocks.put(lock, n);
+              }
+              for (String key : n.pbi.sched.slots.keySet()) {
+                usedSlots.merge(key, 1, Integer::sum);
+              }
+            }
+            n.state = State.RUNNING;
+            listeners.forEach(l -> l.onStarted(n));
+            pool.submit(() -> {
+              boolean ok = false;
+              try {
+                ok = n.task.run(n);
+              } catch (Exception e) {
+                log.error("Task failed: " + n, e);
+              } finally {
+                n.state = ok ? State.SUCCESS : State.FAILED;
+                finished.add(n);
+              }
+            });
+          }
+        }
+
+        if (runningCount == 0) {
+          break;
+        }
+
+        Node done = finished.take();
+        runningCount--;
+        usedCores -= cores(done);
+        usedRamGb -= ramGb(done);
+        freeCpus.addAll(done.cpus);
+        if (done.pbi.sched != null) {
+          for (String lock : done.pbi.sched.locks) {
+            heldLocks.remove(lock, done);
+          }
+          for (String key : done.pbi.sched.slots.keySet()) {
+            usedSlots.merge(key, -1, Integer::sum);
+          }
+        }
+        if (done.state != State.SUCCESS) {
+          isFailed = true;
+        }
+        listeners.forEach(l -> l.onFinished(done));
+      }
+
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+      cancelAll(pending);
+      throw e;
+    }
+
+    pool.shutdown();
+    cancelAll(pending);
+    return !isFailed;
+  }
+
+  private void cancelAll(List<Node> pending) {
+    for (Node n : pending) {
+      n.state = State.CANCELLED;
+      listeners.forEach(l -> l.onCancelled(n));
+    }
+    pending.clear();
+  }
+
+  private static boolean isReady(Node n) {
+    for (Node dep : n.deps) {
+      if (dep.state != State.SUCCESS) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLockFree(Node n, Map<String, Node> heldLocks) {
+    if (n.pbi.sched == null) {
+      return true;
+    }
+    for (String lock : n.pbi.sched.locks) {
+      if (heldLocks.containsKey(lock)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSlotFree(Node n, Map<String, Integer> usedSlots) {
+    if (n.pbi.sched == null) {
+      return true;
+    }
+    for (Map.Entry<String, Integer> e : n.pbi.sched.slots.entrySet()) {
+      if (usedSlots.getOrDefault(e.getKey(), 0) >= e.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,45 @@
+package umich.msfragger.cmd;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Work FragPipe does itself, in its own JVM, e.g. moving files or merging results. Scheduled
+ * and run like external processes, see {@link ProcessBuilderInfo#inProcess}.
+ */
+public class InProcessStep {
+
+  /**
+   * The actual work.
+   */
+  @FunctionalInterface
+  public interface Action {
+    void run() throws IOException;
+  }
+
+  /** What the step does, shown in the console instead of a command line. */
+  public final String description;
+  /**
+   * Everything the result of the step depends on, e.g. file paths. Identifies the step in
+   * place of a command line, see {@link StepManifest}.
+   */
+  public final List<String> args;
+  private final Action action;
+
+  public InProcessStep(String description, List<String> args, Action action) {
+    this.description = description;
+    this.args = Collections.unmodifiableList(new ArrayList<>(args));
+    this.action = action;
+  }
+
+  public void run() throws IOException {
+    action.run();
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
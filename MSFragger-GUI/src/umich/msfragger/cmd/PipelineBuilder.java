@@ -0,0 +1,292 @@
+package umich.msfragger.cmd;
+
+import java.awt.Component;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.swing.JCheckBox;
+import javax.swing.JOptionPane;
+import umich.msfragger.gui.InputLcmsFile;
+import umich.msfragger.gui.LcmsFileGroup;
+import umich.msfragger.params.ThisAppProps;
+import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
+import umich.msfragger.util.UsageTrigger;
+
+/**
+ * Puts together the chain of Cmd* process builders for a run. Shared by the GUI and headless
+ * runs, errors are reported with {@link SwingUtils#showMessageDialog(Component, Object, String, int)},
+ * which falls back to stderr when there is no display.
+ */
+public class PipelineBuilder {
+
+  private PipelineBuilder() {}
+
+  /**
+   * @param comp Parent for error dialogs, can be null.
+   * @param wd Global working directory. LCMS file groups' output will be created inside this one.
+   * @param pbDescsToFill Process builders to run, sorted by priority.
+   * @return False if the configuration was not valid, the user has already been told why.
+   */
+  public static boolean build(Component comp, Path wd, Path jarFragpipe, boolean isDryRun,
+      Map<String, LcmsFileGroup> lcmsFileGroups, PipelineConfig c,
+      final List<ProcessBuildersDescriptor> pbDescsToFill) {
+
+    final List<ProcessBuildersDescriptor> pbDescs = new ArrayList<>();
+
+    // Collect input LCMS files
+    List<InputLcmsFile> lcmsFiles = lcmsFileGroups.values().stream()
+        .flatMap(g -> g.lcmsFiles.stream())
+        .collect(Collectors.toList());
+
+    final UsageTrigger usePhi = new UsageTrigger(c.binPhilosopher, "Philosopher");
+
+
+    // run DIA-Umpire SE
+    final CmdUmpireSe cmdUmpireSe = new CmdUmpireSe(c.umpirePanel != null, wd);
+    if (cmdUmpireSe.isRun()) {
+      if (!cmdUmpireSe.configure(comp, isDryRun, jarFragpipe, usePhi,
+          c.umpirePanel, lcmsFiles))
+        return false;
+      pbDescs.add(cmdUmpireSe.builders());
+      lcmsFiles = cmdUmpireSe.outputs(lcmsFiles);
+    }
+
+
+    // run MSAdjuster
+    final CmdMsAdjuster cmdMsAdjuster = new CmdMsAdjuster(c.isRunMsfragger && c.isRunMsadjuster, wd);
+    if (cmdMsAdjuster.isRun()) {
+      if (!cmdMsAdjuster.configure(comp,
+          jarFragpipe, c.fragger, lcmsFiles, false, 49)) {
+        return false;
+      }
+      pbDescs.add(cmdMsAdjuster.builders());
+      // MsAdjuster only makes files that are discovered by MsFragger
+      // automatically, so no file-list changes are needed
+    }
+
+
+    // run MsFragger
+    final String fastaFile = c.fastaPath;
+    final String pepxmlExt = c.fragger.getOutputFileExt();
+    final UsageTrigger binMsfragger = new UsageTrigger(c.binMsfragger, "MsFragger");
+    final CmdMsfragger cmdMsfragger = new CmdMsfragger(c.isRunMsfragger, wd);
+    if (cmdMsfragger.isRun()) {
+      if (!cmdMsfragger.configure(comp,
+          isDryRun, c.fragger, jarFragpipe, binMsfragger, fastaFile, lcmsFiles,
+          c.msfraggerCache, c.msfraggerIndexCache, c.maxThreads, c.msfraggerBatchSize)) {
+        return false;
+      }
+      pbDescs.add(cmdMsfragger.builders());
+      warnAboutMgf(comp, lcmsFiles);
+    }
+    Map<InputLcmsFile, Path> pepxmlFiles = cmdMsfragger.outputs(lcmsFiles, pepxmlExt, wd);
+
+
+    // run MsAdjuster Cleanup
+    if (cmdMsAdjuster.isRun()) {
+      if (!cmdMsAdjuster.configure(comp,
+          jarFragpipe, c.fragger, lcmsFiles, true, 51)) {
+        return false;
+      }
+      pbDescs.add(cmdMsAdjuster.builders());
+    }
+
+
+    // run Crystalc
+    final CmdCrystalc cmdCrystalc = new CmdCrystalc(c.isRunCrystalc, wd);
+    if (cmdCrystalc.isRun()) {
+      if (!cmdCrystalc.configure(comp,
+          c.fragger, isDryRun, c.crystalcParams, fastaFile, pepxmlFiles, c.maxThreads,
+          c.maxRamGb, c.crystalcParallel)) {
+        return false;
+      }
+      pbDescs.add(cmdCrystalc.builders());
+      pepxmlFiles = cmdCrystalc.outputs(pepxmlFiles, pepxmlExt);
+    }
+
+    // run Peptide Prophet
+    final String decoyTag = c.decoyTag;
+    CmdPeptideProphet cmdPeptideProphet = new CmdPeptideProphet(c.isRunPeptideProphet, wd);
+    if (cmdPeptideProphet.isRun()) {
+      if (!cmdPeptideProphet.configure(comp, usePhi, jarFragpipe,
+          fastaFile, decoyTag, c.peptideProphetCmd, pepxmlFiles, pepxmlExt,
+          c.peptideProphetParallel)) {
+        return false;
+      }
+      pbDescs.add(cmdPeptideProphet.builders());
+    }
+    pepxmlFiles = cmdPeptideProphet.outputs(pepxmlFiles, pepxmlExt);
+
+
+    // run Protein Prophet
+    final boolean isProcessGroupsSeparately = c.isProcessGroupsSeparately;
+    final boolean isRunProteinProphet = c.isRunProteinProphet;
+    final CmdProteinProphet cmdProteinProphet = new CmdProteinProphet(isRunProteinProphet, wd);
+    if (cmdProteinProphet.isRun()) {
+      if (!cmdProteinProphet.configure(comp,
+          usePhi, c.proteinProphetCmd,
+          isProcessGroupsSeparately, pepxmlFiles)) {
+        return false;
+      }
+      pbDescs.add(cmdProteinProphet.builders());
+    }
+    Map<LcmsFileGroup, Path> mapGroupsToProtxml = cmdProteinProphet.outputs(pepxmlFiles, isProcessGroupsSeparately);
+
+
+    if (cmdPeptideProphet.isRun() || cmdProteinProphet.isRun()) {
+      // Check Decoy tags if any of the downstream tools are requested
+      if (StringUtils.isNullOrWhitespace(decoyTag)) {
+        int confirm = SwingUtils.showConfirmDialog(comp,
+            "Downstream analysis tools require decoys in the database,\n"
+                + "but the decoy tag was left empty. It's recommended that\n"
+                + "you set it.\n\n"
+                + "Cancel operation and fix the problem (manually)?",
+            "Cancel run and fix parameters?\n", JOptionPane.YES_NO_OPTION,
+            JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_OPTION);
+        if (JOptionPane.YES_OPTION == confirm) {
+          return false;
+        }
+      }
+    }
+
+    final boolean isReport = c.isReport;
+    if (isReport) {
+      // run Report - DbAnnotate
+      final boolean isDbAnnotate = true;
+      final CmdReportDbAnnotate cmdReportDbAnnotate = new CmdReportDbAnnotate(isDbAnnotate, wd);
+      if (cmdReportDbAnnotate.isRun()) {
+        if (!cmdReportDbAnnotate
+            .configure(comp, usePhi, fastaFile, decoyTag, pepxmlFiles, mapGroupsToProtxml)) {
+          return false;
+        }
+        pbDescs.add(cmdReportDbAnnotate.builders());
+      }
+
+      // run Report - Filter
+      final boolean isFilter = isReport;
+      final CmdReportFilter cmdReportFilter = new CmdReportFilter(isFilter, wd);
+      if (cmdReportFilter.isRun()) {
+        if (!cmdReportFilter.configure(comp, usePhi,
+            decoyTag, c.reportFilterCmd, mapGroupsToProtxml)) {
+          return false;
+        }
+        pbDescs.add(cmdReportFilter.builders());
+      }
+
+      // run Report - Freequant (Labelfree)
+      final CmdReportFreequant cmdReportFreequant = new CmdReportFreequant(c.isReportLabelfree, wd);
+      if (cmdReportFreequant.isRun()) {
+        if (!cmdReportFreequant.configure(comp, usePhi,
+            c.reportLabelfreeCmd, mapGroupsToProtxml)) {
+          return false;
+        }
+        pbDescs.add(cmdReportFreequant.builders());
+      }
+
+      // run Report - Report command itself
+      final CmdReportReport cmdReportReport = new CmdReportReport(isReport, wd);
+      if (cmdReportReport.isRun()) {
+        if (!cmdReportReport.configure(comp, usePhi, mapGroupsToProtxml)) {
+          return false;
+        }
+        pbDescs.add(cmdReportReport.builders());
+      }
+
+      // run Report - Multi-Experiment report
+      final int nThreads = ToolingUtils.threads(c.fragger.getThreads(), c.maxThreads);
+      final CmdReportAbacus cmdReportAbacus = new CmdReportAbacus(c.isReportAbacus, wd);
+      if (cmdReportAbacus.isRun()) {
+        // run iProphet, will run right after Peptide Prophet because of priority setting
+        final CmdIprophet cmdIprophet = new CmdIprophet(cmdReportAbacus.isRun(), wd);
+        if (!cmdIprophet.configure(comp, usePhi, decoyTag, nThreads, pepxmlFiles)) {
+          return false;
+        }
+        pbDescs.add(cmdIprophet.builders());
+
+        // run Abacus
+        if (!cmdReportAbacus.configure(comp, usePhi,
+            c.reportFilterCmd, decoyTag, mapGroupsToProtxml)) {
+          return false;
+        }
+        pbDescs.add(cmdReportAbacus.builders());
+      }
+    }
+
+    // run Spectral library generation
+    final CmdSpecLibGen cmdSpecLibGen = new CmdSpecLibGen(c.isGenerateSpecLib, wd);
+    if (cmdSpecLibGen.isRun()) {
+      if (!cmdSpecLibGen.configure(comp, usePhi, jarFragpipe,
+          mapGroupsToProtxml, fastaFile, isRunProteinProphet)) {
+        return false;
+      }
+      pbDescs.add(cmdSpecLibGen.builders());
+    }
+
+
+    // run Philosopher clean/init in all directories where Philosopher will be invoked
+    for (Path pathPhiIsRunIn : usePhi.getWorkDirs()) {
+      CmdPhilosopherWorkspaceCleanInit cmdPhiCleanInit = new CmdPhilosopherWorkspaceCleanInit(
+          true, pathPhiIsRunIn);
+      cmdPhiCleanInit.configure(usePhi);
+      pbDescs.add(cmdPhiCleanInit.builders());
+    }
+
+    // make sure that all subfolders are created for groups/experiments
+    if (!isDryRun) {
+      List<Path> paths = Stream
+          .concat(pepxmlFiles.values().stream(), mapGroupsToProtxml.values().stream())
+          .map(Path::getParent).collect(Collectors.toList());
+      paths.addAll(usePhi.getWorkDirs());
+      try {
+        for (Path path : paths) {
+          if (!Files.exists(path)) {
+            Files.createDirectories(path);
+          }
+        }
+      } catch (IOException e) {
+        SwingUtils.showMessageDialog(comp,
+            "Not all directories could be created:\n" + e.getMessage());
+        return false;
+      }
+    }
+
+    pbDescs.sort(Comparator.comparing(pbDesc -> pbDesc.priority, Integer::compare));
+    pbDescsToFill.addAll(pbDescs);
+    return true;
+  }
+
+  private static void warnAboutMgf(Component comp, List<InputLcmsFile> lcmsFiles) {
+    String warn = ThisAppProps.load(ThisAppProps.PROP_MGF_WARNING, Boolean.TRUE.toString());
+    if (warn == null || !Boolean.valueOf(warn)) {
+      return;
+    }
+    for (InputLcmsFile f : lcmsFiles) {
+      if (f.path.toString().toLowerCase().endsWith(".mgf")) {
+        String msg = "The list of input files contains MGF entries.\n"
+            + "MSFragger has limited MGF support (ProteoWizard output is OK).\n"
+            + "The search might fail unexpectedly with errors.\n"
+            + "Please consider converting files to mzML/mzXML with ProteoWizard.";
+        if (GraphicsEnvironment.isHeadless()) {
+          SwingUtils.showMessageDialog(comp, msg, "Warning", JOptionPane.WARNING_MESSAGE);
+          break;
+        }
+        JCheckBox checkbox = new JCheckBox("Do not show this message again.");
+        Object[] params = {msg, checkbox};
+        JOptionPane.showMessageDialog(comp, params, "Warning",
+            JOptionPane.WARNING_MESSAGE);
+        if (checkbox.isSelected()) {
+          ThisAppProps.save(ThisAppProps.PROP_MGF_WARNING, Boolean.FALSE.toString());
+        }
+        break;
+      }
+    }
+  }
+}
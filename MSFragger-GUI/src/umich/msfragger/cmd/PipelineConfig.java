@@ -0,0 +1,56 @@
+package umich.msfragger.cmd;
+
+import umich.msfragger.params.crystalc.CrystalcParams;
+import umich.msfragger.params.fragger.FraggerRunSettings;
+import umich.msfragger.params.umpire.UmpirePanel;
+import umich.msfragger.util.ResultCache;
+
+/**
+ * Everything {@link PipelineBuilder} needs to know about which tools to run and how.
+ * Filled from the GUI form or from a workflow file for headless runs.
+ */
+public class PipelineConfig {
+
+  public String binPhilosopher = "";
+  public String binMsfragger = "";
+  public String fastaPath = "";
+  public String decoyTag = "";
+  /** Core budget of the run, thread counts of all tools are capped at it. Zero for all cores. */
+  public int maxThreads;
+  /** RAM budget of the run in GB. Zero for the memory available on the machine. */
+  public int maxRamGb;
+
+  /** Null when DIA-Umpire is not run. Only available in the GUI. */
+  public UmpirePanel umpirePanel;
+
+  public boolean isRunMsfragger;
+  public boolean isRunMsadjuster;
+  public FraggerRunSettings fragger;
+  /** Null when search results should not be cached. */
+  public ResultCache msfraggerCache;
+  /** Null when peptide indexes should not be cached. */
+  public ResultCache msfraggerIndexCache;
+  /** Max number of files per MSFragger invocation, zero for as many as possible. */
+  public int msfraggerBatchSize;
+
+  public boolean isRunCrystalc;
+  /** Only needed if Crystal-C is run. */
+  public CrystalcParams crystalcParams;
+  public int crystalcParallel = 1;
+
+  public boolean isRunPeptideProphet;
+  public String peptideProphetCmd = "";
+  public int peptideProphetParallel = 1;
+
+  public boolean isRunProteinProphet;
+  public String proteinProphetCmd = "";
+  public boolean isProcessGroupsSeparately;
+
+  public boolean isReport;
+  public String reportFilterCmd = "";
+  public boolean isReportLabelfree;
+  public String reportLabelfreeCmd = "";
+  public boolean isReportAbacus;
+
+  public boolean isGenerateSpecLib;
+}
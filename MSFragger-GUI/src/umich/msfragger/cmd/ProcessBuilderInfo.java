@@ -1,16 +1,54 @@
 package umich.msfragger.cmd;
 
+import java.util.List;
+
 public class ProcessBuilderInfo {
+  /** For in-process steps only the work dir of this one is used, it's never started. */
   public final ProcessBuilder pb;
   public final String name;
   public final String fnStdOut;
   public final String fnStdErr;
+  /** Null means the process must run strictly in order with all others. */
+  public final SchedulingInfo sched;
+  /** Null for external processes. */
+  public final InProcessStep inProcess;
 
   public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdOut,
       String fnStdErr) {
+    this(pb, name, fnStdOut, fnStdErr, null);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdOut,
+      String fnStdErr, SchedulingInfo sched) {
+    this(pb, name, fnStdOut, fnStdErr, sched, null);
+  }
+
+  public ProcessBuilderInfo(ProcessBuilder pb, String name, String fnStdOut,
+      String fnStdErr, SchedulingInfo sched, InProcessStep inProcess) {
     this.pb = pb;
     this.name = name;
     this.fnStdOut = fnStdOut;
     this.fnStdErr = fnStdErr;
+    this.sched = sched;
+    this.inProcess = inProcess;
+  }
+
+  public boolean isInProcess() {
+    return inProcess != null;
+  }
+
+  /**
+   * @return The command line of an external process, or the arguments of an in-process step.
+   */
+  public List<String> command() {
+    return inProcess != null ? inProcess.args : pb.command();
+  }
+
+  /**
+   * @return What to show to the user: the command line, or the description of an in-process
+   * step.
+   */
+  public String describe() {
+    return inProcess != null ? inProcess.description : String.join(" ", pb.command());
   }
 }
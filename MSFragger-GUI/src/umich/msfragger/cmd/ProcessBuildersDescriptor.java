@@ -2,10 +2,14 @@ package umich.msfragger.cmd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ProcessBuildersDescriptor {
   public final List<ProcessBuilder> pbs;
+  public final Map<ProcessBuilder, SchedulingInfo> scheduling;
+  public final Map<ProcessBuilder, InProcessStep> inProcess;
   public final String name;
   public final String fileCaptureStdout;
   public final String fileCaptureStderr;
@@ -24,6 +28,8 @@ public class ProcessBuildersDescriptor {
     this.name = name;
     this.priority = priority;
     this.pbs = new ArrayList<>();
+    this.scheduling = new HashMap<>();
+    this.inProcess = new HashMap<>();
     this.fileCaptureStdout = fileCaptureStdout;
     this.fileCaptureStderr = fileCaptureStderr;
   }
@@ -46,5 +52,43 @@ public class ProcessBuildersDescriptor {
     return this;
   }
 
+  public ProcessBuildersDescriptor addAll(Collection<? extends ProcessBuilder> c,
+      Map<ProcessBuilder, SchedulingInfo> scheduling) {
+    return addAll(c, scheduling, new HashMap<>());
+  }
+
+  /**
+   * @param inProcess Work done in-process, represented by the process builders it's mapped
+   * from, which are never started.
+   */
+  public ProcessBuildersDescriptor addAll(Collection<? extends ProcessBuilder> c,
+      Map<ProcessBuilder, SchedulingInfo> scheduling, Map<ProcessBuilder, InProcessStep> inProcess) {
+    for (ProcessBuilder pb : c) {
+      pbs.add(pb);
+      SchedulingInfo si = scheduling.get(pb);
+      if (si != null) {
+        this.scheduling.put(pb, si);
+      }
+      InProcessStep step = inProcess.get(pb);
+      if (step != null) {
+        this.inProcess.put(pb, step);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @return Null if the process builder was added without scheduling info.
+   */
+  public SchedulingInfo getScheduling(ProcessBuilder pb) {
+    return scheduling.get(pb);
+  }
+
+  /**
+   * @return Null if the process builder is an actual external process.
+   */
+  public InProcessStep getInProcess(ProcessBuilder pb) {
+    return inProcess.get(pb);
+  }
 
 }
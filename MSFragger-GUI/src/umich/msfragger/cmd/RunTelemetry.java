@@ -0,0 +1,244 @@
+package umich.msfragger.cmd;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import umich.msfragger.util.ProcessTreeSampler;
+
+/**
+ * Collects wall time, CPU time, memory and I/O of every step of a run. Resource usage of
+ * external processes comes from {@link ProcessTreeSampler} and is only available on Linux,
+ * for in-process steps and on other systems only the timing is known.<br/>
+ * The timeline can also be written in the Chrome trace event format, to be viewed in
+ * chrome://tracing or https://ui.perfetto.dev.
+ */
+public class RunTelemetry {
+  public static final String FILE_NAME = "fragpipe-telemetry.tsv";
+  public static final String FILE_NAME_TRACE = "fragpipe-trace.json";
+
+  private final List<Step> steps = new ArrayList<>();
+
+  /**
+   * One executed pipeline step.
+   */
+  public static class Step {
+    public final String name;
+    public final String command;
+    /** Name of the thread that ran the step. */
+    public final String lane;
+    public final long startMs;
+    public final long endMs;
+    /** Declared inputs of the step, empty if unknown. */
+    public final List<Path> inputs;
+    /** Exit code of the process, -1 if it could not be run or was interrupted. */
+    public final int exitCode;
+    public final boolean inProcess;
+    /** Up to date from a previous run, not executed. */
+    public final boolean skipped;
+    /** Null if not available. */
+    public final ProcessTreeSampler.Usage usage;
+
+    public Step(String name, String command, String lane, List<Path> inputs, long startMs,
+        long endMs, int exitCode, boolean inProcess, boolean skipped,
+        ProcessTreeSampler.Usage usage) {
+      this.name = name;
+      this.command = command;
+      this.lane = lane;
+      this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+      this.startMs = startMs;
+      this.endMs = endMs;
+      this.exitCode = exitCode;
+      this.inProcess = inProcess;
+      this.skipped = skipped;
+      this.usage = usage;
+    }
+
+    public long getWallMs() {
+      return endMs - startMs;
+    }
+  }
+
+  public synchronized void add(Step step) {
+    steps.add(step);
+  }
+
+  public synchronized List<Step> getSteps() {
+    return new ArrayList<>(steps);
+  }
+
+  /**
+   * Human readable table with the totals per tool, in the order tools were first run.
+   */
+  public List<String> summary() {
+    final List<Step> all = getSteps();
+    final List<String> lines = new ArrayList<>();
+    if (all.stream().allMatch(s -> s.skipped)) {
+      return lines;
+    }
+    final Map<String, long[]> byTool = new LinkedHashMap<>();
+    long runStart = Long.MAX_VALUE, runEnd = Long.MIN_VALUE;
+    for (Step s : all) {
+      if (s.skipped) {
+        continue;
+      }
+      // runs, wall, user, sys, peak rss, read, written
+      final long[] t = byTool.computeIfAbsent(s.name, k -> new long[7]);
+      t[0]++;
+      t[1] += s.getWallMs();
+      if (s.usage != null) {
+        t[2] += s.usage.userMs;
+        t[3] += s.usage.sysMs;
+        t[4] = Math.max(t[4], s.usage.peakRssKb);
+        t[5] += s.usage.readBytes;
+        t[6] += s.usage.writeBytes;
+      }
+      runStart = Math.min(runStart, s.startMs);
+      runEnd = Math.max(runEnd, s.endMs);
+    }
+    final String fmt = "%-24s %5s %10s %10s %10s %10s %10s %10s";
+    lines.add(String.format(Locale.ROOT, fmt,
+        "Tool", "Runs", "Wall", "CPU user", "CPU sys", "Peak RSS", "Read", "Written"));
+    for (Map.Entry<String, long[]> e : byTool.entrySet()) {
+      final long[] t = e.getValue();
+      lines.add(String.format(Locale.ROOT, fmt, e.getKey(), t[0], formatMs(t[1]),
+          formatMs(t[2]), formatMs(t[3]), formatBytes(t[4] * 1024), formatBytes(t[5]),
+          formatBytes(t[6])));
+    }
+    lines.add(String.format(Locale.ROOT, "Total wall time of the run: %s",
+        formatMs(runEnd - runStart)));
+    return lines;
+  }
+
+  /**
+   * Writes one line per step, times in milliseconds since the epoch, memory and I/O in bytes.
+   * Unknown values are empty.
+   */
+  public void write(Path file) throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter bw = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      bw.write(String.join("\t", "name", "start_ms", "end_ms", "wall_ms", "user_ms", "sys_ms",
+          "peak_rss_bytes", "read_bytes", "write_bytes", "exit_code", "in_process", "skipped",
+          "lane", "input", "command"));
+      bw.newLine();
+      for (Step s : getSteps()) {
+        final ProcessTreeSampler.Usage u = s.usage;
+        bw.write(String.join("\t", s.name,
+            Long.toString(s.startMs), Long.toString(s.endMs), Long.toString(s.getWallMs()),
+            u == null ? "" : Long.toString(u.userMs),
+            u == null ? "" : Long.toString(u.sysMs),
+            u == null ? "" : Long.toString(u.peakRssKb * 1024),
+            u == null ? "" : Long.toString(u.readBytes),
+            u == null ? "" : Long.toString(u.writeBytes),
+            Integer.toString(s.exitCode), Boolean.toString(s.inProcess),
+            Boolean.toString(s.skipped), s.lane, s.inputs.isEmpty() ? "" : s.inputs.get(0).toString(),
+            s.command.replace('\t', ' ').replace('\n', ' ')));
+        bw.newLine();
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Writes all steps as complete ("X") trace events, one timeline row per lane. Times are
+   * relative to the start of the first step.
+   */
+  public void writeChromeTrace(Path file) throws IOException {
+    final List<Step> all = getSteps();
+    final long t0 = all.stream().mapToLong(s -> s.startMs).min().orElse(0);
+    final Map<String, Integer> tids = new HashMap<>();
+    final List<String> events = new ArrayList<>();
+    events.add("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,"
+        + "\"args\":{\"name\":\"FragPipe\"}}");
+    for (Step s : all) {
+      Integer tid = tids.get(s.lane);
+      if (tid == null) {
+        tid = tids.size() + 1;
+        tids.put(s.lane, tid);
+        events.add(String.format(Locale.ROOT, "{\"name\":\"thread_name\",\"ph\":\"M\","
+            + "\"pid\":1,\"tid\":%d,\"args\":{\"name\":%s}}", tid, json(s.lane)));
+      }
+      final String cat = s.skipped ? "skipped" : s.inProcess ? "in-process" : "process";
+      final StringBuilder args = new StringBuilder();
+      args.append("\"command\":").append(json(s.command));
+      if (!s.inputs.isEmpty()) {
+        args.append(",\"input\":").append(json(s.inputs.get(0).toString()));
+      }
+      args.append(",\"exit_code\":").append(s.exitCode);
+      if (s.usage != null) {
+        args.append(String.format(Locale.ROOT, ",\"user_ms\":%d,\"sys_ms\":%d,"
+                + "\"peak_rss_bytes\":%d,\"read_bytes\":%d,\"write_bytes\":%d",
+            s.usage.userMs, s.usage.sysMs, s.usage.peakRssKb * 1024, s.usage.readBytes,
+            s.usage.writeBytes));
+      }
+      events.add(String.format(Locale.ROOT, "{\"name\":%s,\"cat\":%s,\"ph\":\"X\","
+              + "\"ts\":%d,\"dur\":%d,\"pid\":1,\"tid\":%d,\"args\":{%s}}",
+          json(s.name), json(cat), (s.startMs - t0) * 1000, s.getWallMs() * 1000, tid, args));
+    }
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter bw = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      bw.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+      for (int i = 0; i < events.size(); i++) {
+        bw.newLine();
+        bw.write(events.get(i));
+        if (i < events.size() - 1) {
+          bw.write(",");
+        }
+      }
+      bw.newLine();
+      bw.write("]}");
+      bw.newLine();
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static String json(String s) {
+    final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+    for (char c : s.toCharArray()) {
+      switch (c) {
+        case '"': sb.append("\\\""); break;
+        case '\\': sb.append("\\\\"); break;
+        case '\n': sb.append("\\n"); break;
+        case '\r': sb.append("\\r"); break;
+        case '\t': sb.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  public static String formatMs(long ms) {
+    if (ms < 60_000) {
+      return String.format(Locale.ROOT, "%.1f s", ms / 1000.0);
+    }
+    if (ms < 3600_000) {
+      return String.format(Locale.ROOT, "%.1f min", ms / 60_000.0);
+    }
+    return String.format(Locale.ROOT, "%.1f h", ms / 3600_000.0);
+  }
+
+  public static String formatBytes(long bytes) {
+    final String[] units = {"B", "KB", "MB", "GB", "TB"};
+    double v = bytes;
+    int i = 0;
+    while (v >= 1024 && i < units.length - 1) {
+      v /= 1024;
+      i++;
+    }
+    return i == 0 ? bytes + " B" : String.format(Locale.ROOT, "%.1f %s", v, units[i]);
+  }
+}
@@ -0,0 +1,167 @@
+package umich.msfragger.cmd;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a single process builder reads, writes and needs in terms of resources. Used by
+ * {@link DagScheduler} to figure out which processes can run at the same time.<br/>
+ * A process builder without this info is treated as a barrier: it waits for everything
+ * scheduled before it and everything scheduled after it waits for it.
+ */
+public class SchedulingInfo {
+  public final Set<Path> inputs = new LinkedHashSet<>();
+  public final Set<Path> outputs = new LinkedHashSet<>();
+  /** Outputs that a later process deletes once everything reading them is done. */
+  public final Set<Path> temps = new LinkedHashSet<>();
+  /** Processes sharing any of these keys never run at the same time. */
+  public final Set<String> locks = new LinkedHashSet<>();
+  /** At most that many processes sharing a key run at the same time. */
+  public final Map<String, Integer> slots = new LinkedHashMap<>();
+  /** Named groups of processes this one belongs to, see {@link #after(String)}. */
+  public final Set<String> groups = new LinkedHashSet<>();
+  /** Groups whose processes, scheduled earlier, must all finish before this one starts. */
+  public final Set<String> after = new LinkedHashSet<>();
+  /** Same as {@link #after}, but the results of this process don't depend on the group. */
+  public final Set<String> orderAfter = new LinkedHashSet<>();
+  /** Number of cores the process is expected to use. Zero means unknown. */
+  private int threads;
+  /** Max heap, or the expected memory footprint of the process. Zero means unknown. */
+  private int ramGb;
+  /**
+   * If set, the output of the process goes to this file (relative to the process work dir)
+   * instead of the console, so that processes running side by side don't mix their output.
+   */
+  private String log;
+
+  public SchedulingInfo inputs(Collection<Path> paths) {
+    for (Path p : paths) {
+      inputs.add(normalize(p));
+    }
+    return this;
+  }
+
+  public SchedulingInfo inputs(Path... paths) {
+    return inputs(Arrays.asList(paths));
+  }
+
+  public SchedulingInfo outputs(Collection<Path> paths) {
+    for (Path p : paths) {
+      outputs.add(normalize(p));
+    }
+    return this;
+  }
+
+  public SchedulingInfo outputs(Path... paths) {
+    return outputs(Arrays.asList(paths));
+  }
+
+  /**
+   * Outputs only needed by later processes of the same run. Them being gone doesn't make
+   * this process out of date, as long as the processes reading them are up to date.
+   */
+  public SchedulingInfo tempOutputs(Collection<Path> paths) {
+    for (Path p : paths) {
+      outputs.add(normalize(p));
+      temps.add(normalize(p));
+    }
+    return this;
+  }
+
+  public SchedulingInfo lock(String key) {
+    locks.add(key);
+    return this;
+  }
+
+  public SchedulingInfo slots(String key, int max) {
+    slots.put(key, Math.max(1, max));
+    return this;
+  }
+
+  public SchedulingInfo group(String name) {
+    groups.add(name);
+    return this;
+  }
+
+  /**
+   * For dependencies that aren't expressed by files, e.g. a process cleaning up after a number
+   * of others that all append to the same log. Whenever any process of the group is run, this
+   * one is out of date too, see {@link StepManifest}.
+   */
+  public SchedulingInfo after(String group) {
+    after.add(group);
+    return this;
+  }
+
+  /**
+   * Only waits for the group to finish, re-running the group doesn't make this process out
+   * of date. E.g. a Philosopher command that needs a workspace, but not what's in it.
+   */
+  public SchedulingInfo orderAfter(String group) {
+    orderAfter.add(group);
+    return this;
+  }
+
+  public SchedulingInfo log(String fn) {
+    this.log = fn;
+    return this;
+  }
+
+  public SchedulingInfo threads(int threads) {
+    this.threads = Math.max(0, threads);
+    return this;
+  }
+
+  public SchedulingInfo ramGb(int ramGb) {
+    this.ramGb = Math.max(0, ramGb);
+    return this;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getRamGb() {
+    return ramGb;
+  }
+
+  /**
+   * @return Null if the output should go to the console.
+   */
+  public String getLog() {
+    return log;
+  }
+
+  /**
+   * Checks if this process must wait for the other one, scheduled earlier, to finish.
+   * That's the case if either one writes what the other one reads or writes, or if this one
+   * was told to run after a group the other one belongs to.
+   */
+  public boolean dependsOn(SchedulingInfo earlier) {
+    return intersects(earlier.outputs, inputs)
+        || intersects(earlier.inputs, outputs)
+        || intersects(earlier.outputs, outputs)
+        || intersects(earlier.groups, after)
+        || intersects(earlier.groups, orderAfter);
+  }
+
+  private static <T> boolean intersects(Set<T> a, Set<T> b) {
+    Set<T> small = a.size() < b.size() ? a : b;
+    Set<T> large = small == a ? b : a;
+    for (T p : small) {
+      if (large.contains(p)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Path normalize(Path p) {
+    return p.toAbsolutePath().normalize();
+  }
+}
@@ -0,0 +1,469 @@
+package umich.msfragger.cmd;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import umich.msfragger.util.ExternalJava;
+import umich.msfragger.util.HashUtils;
+
+/**
+ * Remembers what each pipeline step read and wrote the last time it finished successfully,
+ * so that re-runs can skip steps that are still up to date. Only steps with declared inputs
+ * and outputs (see {@link SchedulingInfo}) are tracked, everything else always runs.<br/>
+ * A step is identified by its work dir and command line. Its fingerprint covers the files
+ * named on the command line (tool binaries, parameter files) and the size and modification
+ * time of all its inputs and outputs. Outputs that a later step moved away (i.e. the file was
+ * gone after that step finished) are fine as long as that later step is up to date itself.
+ * The same goes for temporary outputs (see {@link SchedulingInfo#tempOutputs}) deleted at
+ * the end of a run. A step is also out of date if any step of a group it has to run
+ * {@link SchedulingInfo#after(String) after} is run, tracked or not, e.g. Philosopher steps
+ * whose workspace is cleaned.
+ */
+public class StepManifest {
+  private static final Logger log = LoggerFactory.getLogger(StepManifest.class);
+  public static final String FILE_NAME = ".fragpipe-steps";
+  /** Files on the command line smaller than this are hashed, others only by size and mtime. */
+  private static final long CONTENT_HASH_MAX_SIZE = 1 << 20;
+
+  private final Path file;
+  private final Map<String, Record> records = new LinkedHashMap<>();
+
+  /**
+   * Size and modification time of a file.
+   */
+  public static final class FileState {
+    final long size;
+    final long mtime;
+
+    FileState(long size, long mtime) {
+      this.size = size;
+      this.mtime = mtime;
+    }
+
+    /**
+     * @return Null if the file does not exist.
+     */
+    static FileState of(Path path) {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileState(attrs.size(), attrs.lastModifiedTime().toMillis());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FileState that = (FileState) o;
+      return size == that.size && mtime == that.mtime;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, mtime);
+    }
+  }
+
+  static final class Record {
+    final String key;
+    final String fingerprint;
+    final String name;
+    final Map<Path, FileState> inputs = new LinkedHashMap<>();
+    final Map<Path, FileState> outputs = new LinkedHashMap<>();
+    /** Inputs that were gone after the step finished, e.g. because it moved them. */
+    final Set<Path> consumed = new HashSet<>();
+
+    Record(String key, String fingerprint, String name) {
+      this.key = key;
+      this.fingerprint = fingerprint;
+      this.name = name;
+    }
+  }
+
+  private StepManifest(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Reads the manifest from the work dir. A missing or broken manifest is the same
+   * as an empty one, everything will be run.
+   */
+  public static StepManifest load(Path wd) {
+    StepManifest m = new StepManifest(wd.resolve(FILE_NAME));
+    if (!Files.exists(m.file)) {
+      return m;
+    }
+    try (BufferedReader br = Files.newBufferedReader(m.file, StandardCharsets.UTF_8)) {
+      Record cur = null;
+      String line;
+      while ((line = br.readLine()) != null) {
+        String[] cols = line.split("\t", 4);
+        if (cols.length < 4) {
+          continue;
+        }
+        switch (cols[0]) {
+          case "step":
+            cur = new Record(cols[1], cols[2], cols[3]);
+            m.records.put(cur.key, cur);
+            break;
+          case "in":
+          case "out":
+          case "gone":
+            if (cur == null) {
+              throw new IOException("File entry before any step entry");
+            }
+            if ("gone".equals(cols[0])) {
+              cur.consumed.add(Paths.get(cols[3]));
+              break;
+            }
+            FileState fs = new FileState(Long.parseLong(cols[1]), Long.parseLong(cols[2]));
+            ("in".equals(cols[0]) ? cur.inputs : cur.outputs).put(Paths.get(cols[3]), fs);
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not read step manifest, all steps will be run: " + m.file, e);
+      m.records.clear();
+    }
+    return m;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return True if the step declares what it reads and writes, so it can be skipped.
+   */
+  public static boolean isTracked(ProcessBuilderInfo pbi) {
+    return pbi.sched != null && !pbi.sched.outputs.isEmpty();
+  }
+
+  /**
+   * Finds the steps that don't need to be run again. A step is up to date if it has been
+   * recorded with the same fingerprint, its inputs and outputs are unchanged since and no step
+   * it depends on needs to be run.
+   *
+   * @param pbis All the steps of the pipeline, in the order they are scheduled.
+   */
+  public synchronized Set<ProcessBuilderInfo> upToDate(List<ProcessBuilderInfo> pbis) {
+    final int n = pbis.size();
+    final Record[] recs = new Record[n];
+    final boolean[] stale = new boolean[n];
+    // the latest step before a given one that writes a path, and all steps reading it
+    final Map<Path, List<Integer>> producers = new HashMap<>();
+    final Map<Path, List<Integer>> consumers = new HashMap<>();
+    final Map<String, List<Integer>> groups = new HashMap<>();
+    final Set<Path> temps = new HashSet<>();
+
+    for (int i = 0; i < n; i++) {
+      final ProcessBuilderInfo pbi = pbis.get(i);
+      if (pbi.sched != null) {
+        for (String g : pbi.sched.groups) {
+          groups.computeIfAbsent(g, k -> new ArrayList<>()).add(i);
+        }
+      }
+      if (!isTracked(pbi)) {
+        stale[i] = true;
+        continue;
+      }
+      for (Path p : pbi.sched.inputs) {
+        consumers.computeIfAbsent(p, k -> new ArrayList<>()).add(i);
+      }
+      for (Path p : pbi.sched.outputs) {
+        producers.computeIfAbsent(p, k -> new ArrayList<>()).add(i);
+      }
+      temps.addAll(pbi.sched.temps);
+      final Record rec = records.get(key(pbi));
+      if (rec == null
+          || !rec.inputs.keySet().equals(pbi.sched.inputs)
+          || !rec.outputs.keySet().equals(pbi.sched.outputs)
+          || !rec.fingerprint.equals(fingerprint(pbi))) {
+        stale[i] = true;
+        continue;
+      }
+      recs[i] = rec;
+    }
+
+    // staleness spreads downstream through inputs, and upstream through outputs
+    // that were consumed (e.g. moved) by a step that now has to be re-run
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < n; i++) {
+        if (stale[i]) {
+          continue;
+        }
+        if (!isInputsOk(i, pbis.get(i), recs, stale, producers, temps)
+            || !isOutputsOk(i, pbis.get(i), recs, stale, consumers)
+            || !isAfterOk(i, pbis.get(i), stale, groups)) {
+          stale[i] = true;
+          changed = true;
+        }
+      }
+    }
+
+    Set<ProcessBuilderInfo> result = new HashSet<>();
+    for (int i = 0; i < n; i++) {
+      if (!stale[i]) {
+        result.add(pbis.get(i));
+      }
+    }
+    return result;
+  }
+
+  private static boolean isAfterOk(int i, ProcessBuilderInfo pbi, boolean[] stale,
+      Map<String, List<Integer>> groups) {
+    for (String g : pbi.sched.after) {
+      for (int j : groups.getOrDefault(g, new ArrayList<>())) {
+        if (j < i && stale[j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static int producerBefore(int i, Path p, Map<Path, List<Integer>> producers) {
+    int prod = -1;
+    for (int j : producers.getOrDefault(p, new ArrayList<>())) {
+      if (j < i) {
+        prod = j;
+      }
+    }
+    return prod;
+  }
+
+  private static boolean isInputsOk(int i, ProcessBuilderInfo pbi, Record[] recs, boolean[] stale,
+      Map<Path, List<Integer>> producers, Set<Path> temps) {
+    for (Path p : pbi.sched.inputs) {
+      final int prod = producerBefore(i, p, producers);
+      if (prod >= 0 && stale[prod]) {
+        return false;
+      }
+      final FileState recorded = recs[i].inputs.get(p);
+      final FileState cur = FileState.of(p);
+      if (cur != null) {
+        if (!cur.equals(recorded)) {
+          return false;
+        }
+      } else if (!(recs[i].consumed.contains(p) || (temps.contains(p) && prod >= 0))
+          || (prod >= 0 && !Objects.equals(recorded, recs[prod].outputs.get(p)))) {
+        // gone, and not because this step moved it on, or it was cleaned up, last time
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isOutputsOk(int i, ProcessBuilderInfo pbi, Record[] recs, boolean[] stale,
+      Map<Path, List<Integer>> consumers) {
+    for (Path p : pbi.sched.outputs) {
+      final FileState cur = FileState.of(p);
+      if (cur != null) {
+        if (!cur.equals(recs[i].outputs.get(p))) {
+          return false;
+        }
+        continue;
+      }
+      boolean isConsumedLater = false;
+      boolean isStaleConsumer = false;
+      for (int j : consumers.getOrDefault(p, new ArrayList<>())) {
+        if (j <= i) {
+          continue;
+        }
+        isStaleConsumer |= stale[j];
+        if (stale[j] || !recs[j].consumed.contains(p)) {
+          continue;
+        }
+        isConsumedLater = true;
+      }
+      if (pbi.sched.temps.contains(p)) {
+        // cleaned up, which is fine while nothing reading it has to be re-run
+        isConsumedLater = !isStaleConsumer
+            && consumers.getOrDefault(p, new ArrayList<>()).stream().anyMatch(j -> j > i);
+      }
+      if (!isConsumedLater) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Call right before running a tracked step to capture the state of its inputs.
+   * Drops the old record of the step, so a failed run is never mistaken for a finished one.
+   */
+  public synchronized Map<Path, FileState> begin(ProcessBuilderInfo pbi) {
+    if (records.remove(key(pbi)) != null) {
+      save();
+    }
+    return snapshot(pbi.sched.inputs);
+  }
+
+  /**
+   * Call after a tracked step finished successfully.
+   * @param inputs What {@link #begin(ProcessBuilderInfo)} returned for the step.
+   */
+  public synchronized void finish(ProcessBuilderInfo pbi, Map<Path, FileState> inputs) {
+    Record rec = new Record(key(pbi), fingerprint(pbi), pbi.name);
+    rec.inputs.putAll(inputs);
+    rec.outputs.putAll(snapshot(pbi.sched.outputs));
+    for (Path p : pbi.sched.inputs) {
+      if (!Files.exists(p)) {
+        rec.consumed.add(p);
+      }
+    }
+    if (rec.inputs.containsValue(null) || rec.outputs.containsValue(null)) {
+      // the step didn't read or write what it declared, don't trust it
+      return;
+    }
+    records.put(rec.key, rec);
+    save();
+  }
+
+  private static Map<Path, FileState> snapshot(Collection<Path> paths) {
+    Map<Path, FileState> m = new LinkedHashMap<>();
+    for (Path p : paths) {
+      m.put(p, FileState.of(p));
+    }
+    return m;
+  }
+
+  private void save() {
+    Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+    try {
+      try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        for (Record rec : records.values()) {
+          bw.write("step\t" + rec.key + "\t" + rec.fingerprint + "\t" + rec.name + "\n");
+          for (Map.Entry<Path, FileState> e : rec.inputs.entrySet()) {
+            bw.write(line("in", e.getKey(), e.getValue()));
+          }
+          for (Map.Entry<Path, FileState> e : rec.outputs.entrySet()) {
+            bw.write(line("out", e.getKey(), e.getValue()));
+          }
+          for (Path p : rec.consumed) {
+            bw.write(line("gone", p, new FileState(0, 0)));
+          }
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Could not write step manifest: " + file, e);
+    }
+  }
+
+  private static String line(String type, Path p, FileState fs) {
+    return type + "\t" + fs.size + "\t" + fs.mtime + "\t" + p + "\n";
+  }
+
+  static String key(ProcessBuilderInfo pbi) {
+    MessageDigest md = HashUtils.sha1();
+    File dir = pbi.pb.directory();
+    HashUtils.update(md, dir == null ? "" : dir.getAbsolutePath());
+    for (String arg : pbi.command()) {
+      HashUtils.update(md, arg);
+    }
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Hash of the files named on the command line, other than declared inputs and outputs.
+   * That's the tool binaries and parameter files, which are re-written on every run, so
+   * small files are hashed by content. JVM argument files ({@code @file}) are expanded, the
+   * arguments in them count as part of the command line.
+   */
+  static String fingerprint(ProcessBuilderInfo pbi) {
+    MessageDigest md = HashUtils.sha1();
+    final File dir = pbi.pb.directory();
+    for (String arg : expandArgFiles(pbi.command(), dir, md)) {
+      String unquoted = arg.replaceAll("^\"|\"$", "");
+      for (String part : unquoted.split(File.pathSeparator)) {
+        final Path p;
+        try {
+          p = (dir == null ? Paths.get(part) : dir.toPath().resolve(part))
+              .toAbsolutePath().normalize();
+        } catch (RuntimeException e) {
+          continue;
+        }
+        if (!Files.isRegularFile(p) || pbi.sched.inputs.contains(p)
+            || pbi.sched.outputs.contains(p)) {
+          continue;
+        }
+        HashUtils.update(md, p.toString());
+        FileState fs = FileState.of(p);
+        if (fs == null) {
+          continue;
+        }
+        if (fs.size > CONTENT_HASH_MAX_SIZE) {
+          HashUtils.update(md, fs.size + "/" + fs.mtime);
+          continue;
+        }
+        try {
+          HashUtils.updateWithFile(md, p);
+        } catch (IOException e) {
+          HashUtils.update(md, fs.size + "/" + fs.mtime);
+        }
+      }
+    }
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Replaces {@code @file} arguments with the arguments in the file, which are also added to
+   * the hash, as the key only has the name of the file.
+   */
+  private static List<String> expandArgFiles(List<String> command, File dir, MessageDigest md) {
+    List<String> expanded = new ArrayList<>();
+    for (String arg : command) {
+      if (!arg.startsWith("@") || arg.startsWith("@@")) {
+        expanded.add(arg);
+        continue;
+      }
+      final String fn = arg.substring(1);
+      final List<String> args;
+      try {
+        Path p = dir == null ? Paths.get(fn) : dir.toPath().resolve(fn);
+        args = ExternalJava.parseArgFile(
+            new String(Files.readAllBytes(p), Charset.defaultCharset()));
+      } catch (IOException | RuntimeException e) {
+        // missing or unreadable, the tool will complain
+        expanded.add(arg);
+        continue;
+      }
+      for (String a : args) {
+        HashUtils.update(md, a);
+      }
+      expanded.addAll(args);
+    }
+    return expanded;
+  }
+}
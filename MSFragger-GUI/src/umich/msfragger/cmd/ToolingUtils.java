@@ -5,17 +5,21 @@ import static umich.msfragger.util.PathUtils.testBinaryPath;
 import java.awt.Component;
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,6 +29,9 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import umich.msfragger.gui.InputLcmsFile;
 import umich.msfragger.gui.MsfraggerGuiFrame;
 import umich.msfragger.params.ThisAppProps;
@@ -32,10 +39,13 @@ import umich.msfragger.util.FileCopy;
 import umich.msfragger.util.FileMove;
 import umich.msfragger.util.Holder;
 import umich.msfragger.util.OsUtils;
-import umich.msfragger.util.PathUtils;
+import umich.msfragger.params.dbslice.DbSliceSteps;
+import umich.msfragger.util.ResultCache;
 import umich.msfragger.util.StringUtils;
+import umich.msfragger.util.SwingUtils;
 
 public class ToolingUtils {
+  private static final Logger log = LoggerFactory.getLogger(ToolingUtils.class);
   private ToolingUtils() {}
 
 
@@ -53,53 +63,317 @@ public class ToolingUtils {
 
   private enum Op {COPY, MOVE}
 
+  public static List<InProcessStep> stepsCopyFiles(Path dest, List<Path> files) {
+    return stepsCopyMoveFiles(Op.COPY, dest, files);
+  }
+
+  public static List<InProcessStep> stepsMoveFiles(Path dest, List<Path> files) {
+    return stepsCopyMoveFiles(Op.MOVE, dest, files);
+  }
+
   /**
-   * @param jarFragpipe Use {@link PathUtils#getCurrentJarUri()} to get that from the current Jar.
+   * All the files are handled by a single in-process step.
+   *
+   * @return Empty if all the files are in the destination dir already.
    */
-  public static List<ProcessBuilder> pbsCopyFiles(Path jarFragpipe, Path dest, List<Path> files) {
-    return pbsCopyMoveFiles(jarFragpipe, Op.COPY, dest, files);
+  private static List<InProcessStep> stepsCopyMoveFiles(Op operation, Path dest, List<Path> files) {
+    final List<Path> origins = new ArrayList<>();
+    final List<Path> destinations = new ArrayList<>();
+    final List<String> args = new ArrayList<>();
+    args.add(operation.name().toLowerCase());
+    for (Path file : files) {
+      if (dest.equals(file.getParent())) {
+        continue;
+      }
+      origins.add(file.toAbsolutePath().normalize());
+      destinations.add(dest.resolve(file.getFileName()));
+      args.add(origins.get(origins.size() - 1).toString());
+      args.add(destinations.get(destinations.size() - 1).toString());
+    }
+
+    List<InProcessStep> steps = new LinkedList<>();
+    if (origins.isEmpty()) {
+      return steps;
+    }
+    final String verb = operation == Op.MOVE ? "Move" : "Copy";
+    final String description = verb + " " + (origins.size() == 1 ? origins.get(0)
+        : origins.size() + " files") + " to " + dest;
+    steps.add(new InProcessStep(description, args, () -> {
+      for (Path origin : origins) {
+        if (!Files.exists(origin)) {
+          throw new FileNotFoundException("File does not exist: " + origin);
+        }
+      }
+      for (int i = 0; i < origins.size(); i++) {
+        if (operation == Op.MOVE) {
+          FileMove.move(origins.get(i), destinations.get(i));
+        } else {
+          FileCopy.copy(origins.get(i), destinations.get(i));
+        }
+      }
+    }));
+    return steps;
   }
 
   /**
-   * @param jarFragpipe Use {@link PathUtils#getCurrentJarUri()} to get that from the current Jar.
+   * Stores the files in a {@link ResultCache}. Best effort, the results are already in place,
+   * so a failure (e.g. full disk) is only logged.
    */
-  public static List<ProcessBuilder> pbsMoveFiles(Path jarFragpipe, Path dest, List<Path> files) {
-    return pbsCopyMoveFiles(jarFragpipe, Op.MOVE, dest, files);
+  public static InProcessStep stepResultCacheStore(ResultCache cache, String key, List<Path> files) {
+    final List<Path> normalized = normalize(files);
+    return new InProcessStep("Store in cache " + cache.getDir() + ": " + join(normalized),
+        cacheArgs("store", cache, key, normalized), () -> storeQuietly(cache, key, normalized));
+  }
+
+  private static void storeQuietly(ResultCache cache, String key, List<Path> files) {
+    try {
+      cache.store(key, files);
+    } catch (IOException e) {
+      log.warn("Could not store results in cache " + cache.getDir() + ", continuing without", e);
+    }
   }
 
   /**
-   * @param jarFragpipe Use {@link PathUtils#getCurrentJarUri()} to get that from the current Jar.
+   * Restores the files from a {@link ResultCache}. The entry was there when the step was
+   * configured, but another run may have evicted it since, then the files are made anew.
+   *
+   * @param onMissing Makes the files when the entry is gone. Null to fail the step instead.
    */
-  private static List<ProcessBuilder> pbsCopyMoveFiles(Path jarFragpipe, Op operation, Path dest, List<Path> files) {
-    if (jarFragpipe == null) {
-      throw new IllegalArgumentException("jar can't be null");
+  public static InProcessStep stepResultCacheRestore(ResultCache cache, String key,
+      List<Path> files, InProcessStep.Action onMissing) {
+    final List<Path> normalized = normalize(files);
+    final List<String> names = new ArrayList<>();
+    for (Path f : normalized) {
+      names.add(f.getFileName().toString());
     }
+    return new InProcessStep("Restore from cache " + cache.getDir() + ": " + join(normalized),
+        cacheArgs("restore", cache, key, normalized), () -> {
+      if (onMissing != null && !cache.contains(key, names)) {
+        log.warn("No longer in cache {}: {}, making the files again", cache.getDir(), key);
+        onMissing.run();
+        return;
+      }
+      try {
+        cache.restore(key, normalized);
+      } catch (NoSuchFileException e) {
+        if (onMissing == null) {
+          throw e;
+        }
+        // evicted while being copied
+        log.warn("Evicted from cache {} while restoring: {}, making the files again",
+            cache.getDir(), key);
+        onMissing.run();
+      }
+    });
+  }
 
-    List<ProcessBuilder> pbs = new LinkedList<>();
-    for (Path file : files) {
-      if (dest.equals(file.getParent())) {
-        continue;
+  /**
+   * Puts all the files of a {@link ResultCache} entry into the directory, if the key is there.
+   * Best effort, for files a tool can also make itself, like a peptide index.
+   */
+  public static InProcessStep stepResultCacheRestoreAll(ResultCache cache, String key, Path dir) {
+    final Path d = dir.toAbsolutePath().normalize();
+    final List<String> args = cacheArgs("restore-all", cache, key, Collections.emptyList());
+    args.add(d.toString());
+    return new InProcessStep("Restore from cache " + cache.getDir() + " to: " + d, args, () -> {
+      try {
+        final List<Path> restored = cache.restoreAll(key, d);
+        if (!restored.isEmpty()) {
+          log.info("Restored from cache: {}", restored);
+        }
+      } catch (IOException e) {
+        log.warn("Could not restore from cache " + cache.getDir() + ", continuing without", e);
+      }
+    });
+  }
+
+  /**
+   * Stores files that don't exist yet at the time of the call in a {@link ResultCache}, see
+   * {@link ResultCache#matching(Path, String, String, long)}. Best effort, like
+   * {@link #stepResultCacheStore(ResultCache, String, List)}.
+   */
+  public static InProcessStep stepResultCacheStoreMatching(ResultCache cache, String key,
+      Path dir, String prefix, String suffix, long modifiedAfterMs) {
+    final Path d = dir.toAbsolutePath().normalize();
+    final List<String> args = cacheArgs("store-matching", cache, key, Collections.emptyList());
+    args.addAll(Arrays.asList(d.toString(), prefix, suffix, Long.toString(modifiedAfterMs)));
+    return new InProcessStep(
+        "Store in cache " + cache.getDir() + ": " + d.resolve(prefix + "*" + suffix), args, () -> {
+      final List<Path> matching;
+      try {
+        matching = ResultCache.matching(d, prefix, suffix, modifiedAfterMs);
+      } catch (IOException e) {
+        log.warn("Could not list files to store in cache in " + d + ", continuing without", e);
+        return;
       }
-      List<String> cmd = new ArrayList<>();
-      cmd.add("java");
-      cmd.add("-cp");
-      cmd.add(jarFragpipe.toAbsolutePath().toString());
-      switch (operation) {
-        case COPY:
-          cmd.add(FileCopy.class.getCanonicalName());
-          break;
-        case MOVE:
-          cmd.add(FileMove.class.getCanonicalName());
-          break;
-        default:
-          throw new IllegalStateException("Unknown enum value: " + operation.toString());
+      if (!matching.isEmpty()) {
+        storeQuietly(cache, key, matching);
       }
-      cmd.add(file.toAbsolutePath().normalize().toString());
-      cmd.add(dest.resolve(file.getFileName()).toString());
-      ProcessBuilder pb = new ProcessBuilder(cmd);
-      pbs.add(pb);
+    });
+  }
+
+  /**
+   * Hard links (or copies) files that don't exist yet at the time of the call into a dir of
+   * the run, for {@link #stepPutBackKept(Path, Path)} to put them back if they're gone. E.g.
+   * a peptide index the first of several searches left next to the database, for the next
+   * ones to use. Best effort, without them the next searches make their own.
+   */
+  public static InProcessStep stepKeepMatching(Path dir, String prefix, String suffix,
+      long modifiedAfterMs, Path keepDir) {
+    final Path d = dir.toAbsolutePath().normalize();
+    final Path k = keepDir.toAbsolutePath().normalize();
+    return new InProcessStep("Keep " + d.resolve(prefix + "*" + suffix) + " in: " + k,
+        Arrays.asList("keep-matching", d.toString(), prefix, suffix,
+            Long.toString(modifiedAfterMs), k.toString()), () -> {
+      try {
+        for (Path p : ResultCache.matching(d, prefix, suffix, modifiedAfterMs)) {
+          Files.createDirectories(k);
+          linkOrCopy(p, k.resolve(p.getFileName().toString()));
+        }
+      } catch (IOException e) {
+        log.warn("Could not keep files of " + d + " in " + k + ", continuing without", e);
+      }
+    });
+  }
+
+  /**
+   * Puts the files kept by {@link #stepKeepMatching} back into the dir, unless the same
+   * files are still there. Best effort, like keeping them.
+   */
+  public static InProcessStep stepPutBackKept(Path keepDir, Path dir) {
+    final Path k = keepDir.toAbsolutePath().normalize();
+    final Path d = dir.toAbsolutePath().normalize();
+    return new InProcessStep("Put back files kept in " + k + " to: " + d,
+        Arrays.asList("put-back-kept", k.toString(), d.toString()), () -> {
+      if (!Files.isDirectory(k)) {
+        return;
+      }
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(k)) {
+        for (Path kept : ds) {
+          final Path dest = d.resolve(kept.getFileName().toString());
+          if (isSameContent(kept, dest)) {
+            continue;
+          }
+          final Path temp = d.resolve(".tmp-" + kept.getFileName());
+          try {
+            linkOrCopy(kept, temp);
+            Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Put back: {}", dest);
+          } finally {
+            Files.deleteIfExists(temp);
+          }
+        }
+      } catch (IOException e) {
+        log.warn("Could not put back files kept in " + k + ", continuing without", e);
+      }
+    });
+  }
+
+  public static InProcessStep stepDeleteKept(Path keepDir) {
+    final Path k = keepDir.toAbsolutePath().normalize();
+    return new InProcessStep("Delete " + k, Arrays.asList("delete-kept", k.toString()), () -> {
+      if (Files.exists(k)) {
+        FileUtils.deleteDirectory(k.toFile());
+      }
+    });
+  }
+
+  /** Same file, or a copy of it that hasn't been touched since. */
+  private static boolean isSameContent(Path kept, Path p) throws IOException {
+    if (!Files.isRegularFile(p)) {
+      return false;
+    }
+    return Files.isSameFile(kept, p) || (Files.size(kept) == Files.size(p)
+        && Files.getLastModifiedTime(kept).equals(Files.getLastModifiedTime(p)));
+  }
+
+  private static void linkOrCopy(Path origin, Path dest) throws IOException {
+    Files.deleteIfExists(dest);
+    try {
+      Files.createLink(dest, origin);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(origin, dest, StandardCopyOption.COPY_ATTRIBUTES);
     }
-    return pbs;
+  }
+
+  private static List<String> cacheArgs(String op, ResultCache cache, String key,
+      List<Path> files) {
+    final List<String> args = new ArrayList<>(Arrays.asList(
+        "cache-" + op, cache.getDir().toString(), Long.toString(cache.getMaxBytes()), key));
+    for (Path f : files) {
+      args.add(f.toString());
+    }
+    return args;
+  }
+
+  /**
+   * Splits the database and the parameter file into slices, see {@link DbSliceSteps#split}.
+   */
+  public static InProcessStep stepDbSliceSplit(Path tempDir, int numSlices, Path fasta,
+      Path params) {
+    final Path fastaN = fasta.toAbsolutePath().normalize();
+    final Path paramsN = params.toAbsolutePath().normalize();
+    return new InProcessStep(String.format("Split %s into %d slices in %s", fastaN, numSlices,
+        tempDir), Arrays.asList("db-slice-split", tempDir.toString(),
+        Integer.toString(numSlices), fastaN.toString(), paramsN.toString()),
+        () -> DbSliceSteps.split(tempDir, numSlices, fastaN, paramsN));
+  }
+
+  /**
+   * Sums up score histograms of the slices, see {@link DbSliceSteps#combineHistograms}.
+   */
+  public static InProcessStep stepDbSliceHistograms(Path tempDir, int numSlices,
+      List<String> stems) {
+    final List<String> args = new ArrayList<>(Arrays.asList("db-slice-histograms",
+        tempDir.toString(), Integer.toString(numSlices)));
+    args.addAll(stems);
+    return new InProcessStep("Combine score histograms of " + numSlices + " slices for: "
+        + String.join(", ", stems), args, () -> {
+      for (String stem : stems) {
+        DbSliceSteps.combineHistograms(tempDir, numSlices, stem);
+      }
+    });
+  }
+
+  /**
+   * Merges search results of the slices for one file, see {@link DbSliceSteps#merge}.
+   */
+  public static InProcessStep stepDbSliceMerge(Path tempDir, int numSlices, Path params,
+      String ext, String stem, Path out) {
+    final Path paramsN = params.toAbsolutePath().normalize();
+    final Path outN = out.toAbsolutePath().normalize();
+    return new InProcessStep("Merge results of " + numSlices + " slices to " + outN,
+        Arrays.asList("db-slice-merge", tempDir.toString(), Integer.toString(numSlices),
+            paramsN.toString(), ext, stem, outN.toString()),
+        () -> DbSliceSteps.merge(tempDir, numSlices, paramsN, ext, stem, outN));
+  }
+
+  /**
+   * Deletes the temp dir of a sliced search.
+   */
+  public static InProcessStep stepDbSliceCleanup(Path tempDir) {
+    return new InProcessStep("Delete " + tempDir,
+        Arrays.asList("db-slice-cleanup", tempDir.toString()),
+        () -> DbSliceSteps.cleanup(tempDir));
+  }
+
+  private static List<Path> normalize(List<Path> files) {
+    return files.stream().map(f -> f.toAbsolutePath().normalize()).collect(Collectors.toList());
+  }
+
+  private static String join(List<Path> files) {
+    return files.stream().map(Path::toString).collect(Collectors.joining(", "));
+  }
+
+  /**
+   * Thread count for a tool, capped at the core budget of the run.
+   *
+   * @param requested Zero or less means as many as the budget allows.
+   * @param budget Zero or less means all the cores.
+   */
+  public static int threads(int requested, int budget) {
+    final int max = budget > 0 ? budget : Runtime.getRuntime().availableProcessors();
+    return requested > 0 ? Math.min(requested, max) : max;
   }
 
   public static Map<InputLcmsFile, Path> getPepxmlFilePathsAfterSearch(List<InputLcmsFile> lcmsFiles, String ext) {
@@ -117,7 +391,7 @@ public class ToolingUtils {
         return binJava;
       }
     }
-    JOptionPane.showMessageDialog(errroDialogParent, "Java could not be found.\n"
+    SwingUtils.showMessageDialog(errroDialogParent, "Java could not be found.\n"
         + "please make sure you have it installed \n"
         + "and that java.exe can be found on PATH", "Error", JOptionPane.ERROR_MESSAGE);
     return null;
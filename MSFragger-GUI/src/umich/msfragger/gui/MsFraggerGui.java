@@ -16,6 +16,9 @@
  */
 package umich.msfragger.gui;
 
+import java.util.Arrays;
+import umich.msfragger.cli.HeadlessRunner;
+
 /**
  *
  * @author dattam
@@ -23,9 +26,14 @@ package umich.msfragger.gui;
 public class MsFraggerGui {
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments, {@code --headless <workflow> <manifest>}
+     *   runs the pipeline without the GUI, see {@link HeadlessRunner}.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && HeadlessRunner.ARG_HEADLESS.equals(args[0])) {
+            HeadlessRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         MsfraggerGuiFrame.main(args);
     }
     
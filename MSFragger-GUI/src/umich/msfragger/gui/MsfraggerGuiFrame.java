@@ -27,6 +27,7 @@ import java.awt.Dialog;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.GridLayout;
 import java.awt.Toolkit;
 import java.awt.Window;
 import java.awt.event.ActionEvent;
@@ -47,7 +48,6 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
@@ -56,30 +56,32 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -93,6 +95,7 @@ import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JEditorPane;
@@ -106,7 +109,9 @@ import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.ToolTipManager;
 import javax.swing.UIManager;
 import javax.swing.event.HyperlinkEvent;
@@ -123,22 +128,13 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 import org.slf4j.LoggerFactory;
 import umich.msfragger.Version;
-import umich.msfragger.cmd.CmdCrystalc;
-import umich.msfragger.cmd.CmdIprophet;
-import umich.msfragger.cmd.CmdMsAdjuster;
 import umich.msfragger.cmd.CmdMsfragger;
-import umich.msfragger.cmd.CmdPeptideProphet;
-import umich.msfragger.cmd.CmdPhilosopherWorkspaceCleanInit;
-import umich.msfragger.cmd.CmdProteinProphet;
-import umich.msfragger.cmd.CmdReportAbacus;
-import umich.msfragger.cmd.CmdReportDbAnnotate;
-import umich.msfragger.cmd.CmdReportFilter;
-import umich.msfragger.cmd.CmdReportFreequant;
-import umich.msfragger.cmd.CmdReportReport;
-import umich.msfragger.cmd.CmdSpecLibGen;
-import umich.msfragger.cmd.CmdUmpireSe;
+import umich.msfragger.cmd.DagScheduler;
+import umich.msfragger.cmd.PipelineBuilder;
+import umich.msfragger.cmd.PipelineConfig;
 import umich.msfragger.cmd.ProcessBuilderInfo;
 import umich.msfragger.cmd.ProcessBuildersDescriptor;
+import umich.msfragger.cmd.StepManifest;
 import umich.msfragger.cmd.ToolingUtils;
 import umich.msfragger.gui.api.SearchTypeProp;
 import umich.msfragger.gui.api.SimpleETable;
@@ -170,6 +166,9 @@ import umich.msfragger.params.fragger.MsfraggerVersionFetcherServer;
 import umich.msfragger.params.philosopher.PhilosopherProps;
 import umich.msfragger.params.speclib.SpecLibGen;
 import umich.msfragger.params.umpire.UmpirePanel;
+import umich.msfragger.util.DecoyDbGenerator;
+import umich.msfragger.util.DecoyTagDetector;
+import umich.msfragger.util.FastaIndex;
 import umich.msfragger.util.FileDrop;
 import umich.msfragger.util.FileListing;
 import umich.msfragger.util.GhostText;
@@ -178,13 +177,11 @@ import umich.msfragger.util.IValidateString;
 import umich.msfragger.util.LogUtils;
 import umich.msfragger.util.OsUtils;
 import umich.msfragger.util.PathUtils;
-import umich.msfragger.util.PrefixCounter;
-import umich.msfragger.util.Proc2;
 import umich.msfragger.util.PythonInfo;
+import umich.msfragger.util.ResultCache;
 import umich.msfragger.util.StringUtils;
 import umich.msfragger.util.SwingUtils;
 import umich.msfragger.util.Tuple2;
-import umich.msfragger.util.UsageTrigger;
 import umich.msfragger.util.ValidateTrue;
 import umich.msfragger.util.VersionComparator;
 import umich.swing.console.TextConsole;
@@ -200,6 +197,13 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
   protected TextConsole console;
   protected ExecutorService exec;
   private final List<Process> submittedProcesses = new ArrayList<>(100);
+  /** Vetting of added LC/MS files, one batch of files at a time in the order they were added. */
+  private final ExecutorService lcmsVettingExec = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "lcms-file-vetting");
+    t.setDaemon(true);
+    return t;
+  });
+  private static final int LCMS_FILES_ADD_BATCH = 500;
   //private static final String TEXT_SAME_SEQ_DB = "<Same as in MSFragger>";
   private Color defTextColor;
   private GhostText ghostTextPepProph;
@@ -258,7 +262,6 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         if (console == null) {
           return;
         }
-        String text = console.getText();
 
         JFileChooser fc = new JFileChooser();
         fc.setApproveButtonText("Save");
@@ -289,9 +292,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
             }
           }
           try {
-            // save the file
-            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
-            Files.write(path, bytes, StandardOpenOption.CREATE_NEW);
+            // save the file, including output that no longer fits in the console
+            console.writeTo(path);
 
           } catch (IOException ex) {
             JOptionPane
@@ -310,8 +312,10 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 
     setTitle(Version.PROGRAM_TITLE + " (v" + Version.version() + ")");
     setLocale(Locale.ROOT);
+    ThisAppProps.load(checkIncrementalRun, ThisAppProps.PROP_RUN_INCREMENTAL);
 
     console = new TextConsole();
+    console.setMaxLines(getConsoleMaxLines());
     console.setContentType("text/plain; charset=UTF-8");
     console.addMouseListener(new MouseAdapter() {
 
@@ -372,19 +376,7 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 //        tableRawFiles.setTransferHandler(newHandler);
     // dropping onto enclosing JPanel works.
     tableRawFilesFileDrop = new FileDrop(panelSelectedFiles, true, files -> {
-      ArrayList<Path> paths = new ArrayList<>(files.length);
-      for (File f : files) {
-        boolean isDirectory = f.isDirectory();
-        if (!isDirectory) {
-          if (FraggerPanel.fileNameExtensionFilter.accept(f)) {
-            paths.add(Paths.get(f.getAbsolutePath()));
-          }
-        } else {
-          PathUtils
-              .traverseDirectoriesAcceptingFiles(f, FraggerPanel.fileNameExtensionFilter, paths);
-        }
-      }
-      EventBus.getDefault().post(new MessageLcmsFilesAdded(paths));
+      addLcmsFilesInBackground(Arrays.asList(files));
     });
 
     textBinPython.addFocusListener(new FocusAdapter() {
@@ -579,24 +571,57 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     enableSpecLibGenPanel(m.isSuccess);
   }
 
-  @Subscribe
+  @Subscribe(threadMode = ThreadMode.MAIN)
   public void onLcmsFilesAdded(MessageLcmsFilesAdded m) {
+    if (m.paths.isEmpty())
+      return;
     // save locations
     ThisAppProps.save(ThisAppProps.PROP_LCMS_FILES_IN, m.paths.get(m.paths.size()-1).toString());
 
-    // vet the files
-    final HashMap<Path, String> reasons = new HashMap<>();
-    m.paths.stream()
-        .filter(p -> !com.github.chhh.utils.StringUtils.isPureAscii(p.toString()))
-        .forEach(p -> { reasons.merge(p, "Non-ASCII chars", (s1, s2) -> String.join(", ", s1, s2)); });
-    m.paths.stream()
-        .filter(p -> p.toString().contains(" "))
-        .forEach(p -> { reasons.merge(p, "Contains spaces", (s1, s2) -> String.join(", ", s1, s2)); });
-    m.paths.stream()
-        .filter(p -> !FraggerPanel.fileNameExtensionFilter.accept(p.toFile()))
-        .forEach(p -> { reasons.merge(p, "Not supported", (s1, s2) -> String.join(", ", s1, s2)); });
-
-    Stream<Path> toAdd = m.paths.stream();
+    // vet the files off the EDT, only the files that are not in the table yet
+    final Set<InputLcmsFile> present = new HashSet<>(tableModelRawFiles.dataCopy());
+    lcmsVettingExec.submit(() -> {
+      final List<InputLcmsFile> unique = new ArrayList<>(m.paths.size());
+      final Map<Path, String> reasons = new LinkedHashMap<>();
+      for (Path p : m.paths) {
+        InputLcmsFile f = new InputLcmsFile(p, ThisAppProps.DEFAULT_LCMS_GROUP_NAME);
+        if (!present.add(f))
+          continue;
+        unique.add(f);
+        final String s = p.toString();
+        final List<String> problems = new ArrayList<>(3);
+        if (!com.github.chhh.utils.StringUtils.isPureAscii(s))
+          problems.add("Non-ASCII chars");
+        if (s.contains(" "))
+          problems.add("Contains spaces");
+        if (!isLcmsFileExtension(p))
+          problems.add("Not supported");
+        if (!problems.isEmpty())
+          reasons.put(p, String.join(", ", problems));
+      }
+      SwingUtilities.invokeLater(() -> confirmAndAddLcmsFiles(unique, reasons));
+    });
+  }
+
+  /**
+   * Only looks at the file name, unlike {@link FileNameExtensionFilter#accept(File)} which also
+   * queries the file system.
+   */
+  private static boolean isLcmsFileExtension(Path p) {
+    final String fn = p.getFileName().toString();
+    final int dot = fn.lastIndexOf('.');
+    if (dot < 0)
+      return false;
+    final String ext = fn.substring(dot + 1).toLowerCase(Locale.ROOT);
+    for (String allowed : FraggerPanel.fileNameExtensionFilter.getExtensions()) {
+      if (allowed.equals(ext))
+        return true;
+    }
+    return false;
+  }
+
+  private void confirmAndAddLcmsFiles(List<InputLcmsFile> files, Map<Path, String> reasons) {
+    List<InputLcmsFile> toAdd = files;
     if (!reasons.isEmpty()) {
       String[] columns = {"Reason", "Path"};
       String[][] data = new String[reasons.size()][2];
@@ -626,15 +651,26 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         case 1:
           break;
         case 2:
-          toAdd = toAdd.filter(path -> !reasons.containsKey(path));
+          toAdd = files.stream().filter(f -> !reasons.containsKey(f.path))
+              .collect(Collectors.toList());
           break;
       }
     }
 
     // add the files
-    tableModelRawFiles.dataAddAll(
-        toAdd.map(path -> new InputLcmsFile(path, ThisAppProps.DEFAULT_LCMS_GROUP_NAME))
-        .collect(Collectors.toList()));
+    addLcmsFilesInBatches(toAdd, 0);
+  }
+
+  /**
+   * Adds rows to the table a batch at a time, one batch per EDT event, so that the table
+   * gets repainted and the UI stays responsive in between.
+   */
+  private void addLcmsFilesInBatches(List<InputLcmsFile> files, int from) {
+    final int to = Math.min(files.size(), from + LCMS_FILES_ADD_BATCH);
+    tableModelRawFiles.dataAddAll(files.subList(from, to));
+    if (to < files.size()) {
+      SwingUtilities.invokeLater(() -> addLcmsFilesInBatches(files, to));
+    }
   }
 
   @Subscribe
@@ -891,6 +927,7 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     jLabel5 = new javax.swing.JLabel();
     textDecoyTagSeqDb = new javax.swing.JTextField();
     btnTryDetectDecoyTag = new javax.swing.JButton();
+    btnAddDecoys = new javax.swing.JButton();
     lblFastaCount = new javax.swing.JLabel();
     jScrollPane5 = new javax.swing.JScrollPane();
     editorSequenceDb = new javax.swing.JEditorPane();
@@ -908,6 +945,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     chkRunPeptideProphet = new javax.swing.JCheckBox();
     btnPepProphDefaultsOpen = new javax.swing.JButton();
     btnPepProphDefaultsClosed = new javax.swing.JButton();
+    jLabel41 = new javax.swing.JLabel();
+    spinnerPepProphParallel = new javax.swing.JSpinner();
     panelPeptideProphetOptions = new javax.swing.JPanel();
     jScrollPane2 = new javax.swing.JScrollPane();
     textPepProphCmd = new javax.swing.JTextArea();
@@ -925,6 +964,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     spinnerCrystalcMassTol = new javax.swing.JSpinner();
     jLabel9 = new javax.swing.JLabel();
     spinnerCrystalcPrecIsoWindow = new javax.swing.JSpinner();
+    jLabel42 = new javax.swing.JLabel();
+    spinnerCrystalcParallel = new javax.swing.JSpinner();
     panelReport = new javax.swing.JPanel();
     panelReportOptions = new javax.swing.JPanel();
     textReportFilter = new javax.swing.JTextField();
@@ -945,6 +986,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     txtWorkingDir = new javax.swing.JTextField();
     btnAbout = new javax.swing.JButton();
     checkDryRun = new javax.swing.JCheckBox();
+    checkIncrementalRun = new javax.swing.JCheckBox();
+    btnCacheSettings = new javax.swing.JButton();
     btnReportErrors = new javax.swing.JButton();
     btnRun = new javax.swing.JButton();
     btnExportLog = new javax.swing.JButton();
@@ -1517,6 +1560,14 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
       }
     });
 
+    btnAddDecoys.setText("Add Decoys");
+    btnAddDecoys.setToolTipText("Write a copy of the database with decoys and optionally contaminants added");
+    btnAddDecoys.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        btnAddDecoysActionPerformed(evt);
+      }
+    });
+
     lblFastaCount.setToolTipText("Number of proteins in fasta file");
 
     jScrollPane5.setViewportView(editorSequenceDb);
@@ -1538,6 +1589,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
                 .addComponent(textDecoyTagSeqDb, javax.swing.GroupLayout.PREFERRED_SIZE, 131, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(btnTryDetectDecoyTag)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(btnAddDecoys)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addComponent(lblFastaCount))
               .addComponent(textSequenceDbPath))
@@ -1557,6 +1610,7 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
           .addComponent(jLabel5)
           .addComponent(textDecoyTagSeqDb, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
           .addComponent(btnTryDetectDecoyTag)
+          .addComponent(btnAddDecoys)
           .addComponent(lblFastaCount))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(jScrollPane5, javax.swing.GroupLayout.DEFAULT_SIZE, 570, Short.MAX_VALUE)
@@ -1707,6 +1761,17 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
       }
     });
 
+    jLabel41.setText("Files in parallel");
+
+    spinnerPepProphParallel.setModel(new javax.swing.SpinnerNumberModel(1, 1, 999, 1));
+    spinnerPepProphParallel.setToolTipText("<html>How many pepxml files are processed by PeptideProphet at the same time.<br/>\nWith more than 1 each file gets its own Philosopher workspace and its own log file<br/>\nin a folder next to the pepxml. Never more files than the number of threads set for MSFragger.");
+    spinnerPepProphParallel.addChangeListener(new javax.swing.event.ChangeListener() {
+      public void stateChanged(javax.swing.event.ChangeEvent evt) {
+        spinnerPepProphParallelStateChanged(evt);
+      }
+    });
+    loadLastPepProphParallel();
+
     panelPeptideProphetOptions.setBorder(javax.swing.BorderFactory.createTitledBorder("Peptide Prophet Options"));
 
     textPepProphCmd.setColumns(20);
@@ -1758,6 +1823,10 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         .addComponent(btnPepProphDefaultsClosed)
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(btnPepProphDefaultsOpen)
+        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+        .addComponent(jLabel41)
+        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+        .addComponent(spinnerPepProphParallel, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE)
         .addGap(0, 0, Short.MAX_VALUE))
       .addComponent(panelPeptideProphetOptions, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
     );
@@ -1767,7 +1836,9 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         .addGroup(panelPeptideProphetLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
           .addComponent(chkRunPeptideProphet)
           .addComponent(btnPepProphDefaultsOpen)
-          .addComponent(btnPepProphDefaultsClosed))
+          .addComponent(btnPepProphDefaultsClosed)
+          .addComponent(jLabel41)
+          .addComponent(spinnerPepProphParallel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addComponent(panelPeptideProphetOptions, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
     );
@@ -1806,6 +1877,17 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 
     spinnerCrystalcPrecIsoWindow.setModel(new javax.swing.SpinnerNumberModel(0.7d, 0.1d, 10.0d, 0.1d));
 
+    jLabel42.setText("Files in parallel");
+
+    spinnerCrystalcParallel.setModel(new javax.swing.SpinnerNumberModel(1, 1, 999, 1));
+    spinnerCrystalcParallel.setToolTipText("<html>How many pepxml files are processed by Crystal-C at the same time.<br/>\nThe threads given to Crystal-C are split between them, each process gets<br/>\nthe full heap size set for MSFragger. Each file gets its own log file.");
+    spinnerCrystalcParallel.addChangeListener(new javax.swing.event.ChangeListener() {
+      public void stateChanged(javax.swing.event.ChangeEvent evt) {
+        spinnerCrystalcParallelStateChanged(evt);
+      }
+    });
+    loadLastCrystalcParallel();
+
     javax.swing.GroupLayout panelCrystalcOptionsLayout = new javax.swing.GroupLayout(panelCrystalcOptions);
     panelCrystalcOptions.setLayout(panelCrystalcOptionsLayout);
     panelCrystalcOptionsLayout.setHorizontalGroup(
@@ -1814,11 +1896,13 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         .addContainerGap()
         .addGroup(panelCrystalcOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
           .addComponent(jLabel8)
-          .addComponent(jLabel6))
+          .addComponent(jLabel6)
+          .addComponent(jLabel42))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
         .addGroup(panelCrystalcOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
           .addComponent(spinnerCrystalcMassTol, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE)
-          .addComponent(spinnerCrystalcMaxCharge))
+          .addComponent(spinnerCrystalcMaxCharge)
+          .addComponent(spinnerCrystalcParallel))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
         .addGroup(panelCrystalcOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
           .addComponent(jLabel9)
@@ -1844,6 +1928,10 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
           .addComponent(spinnerCrystalcMassTol, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
           .addComponent(jLabel9)
           .addComponent(spinnerCrystalcPrecIsoWindow, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+        .addGap(18, 18, 18)
+        .addGroup(panelCrystalcOptionsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+          .addComponent(jLabel42)
+          .addComponent(spinnerCrystalcParallel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
         .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
     );
 
@@ -2107,6 +2195,22 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     checkDryRun.setText("Dry Run");
     checkDryRun.setToolTipText("<html>Only print the commands to execute, <br/>\nbut don't actually execute them.");
 
+    checkIncrementalRun.setText("Incremental");
+    checkIncrementalRun.setToolTipText("<html>Skip the steps whose outputs are still up to date with their inputs<br/>\nand parameters from the previous run in the same output directory.");
+    checkIncrementalRun.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        checkIncrementalRunActionPerformed(evt);
+      }
+    });
+
+    btnCacheSettings.setText("Cache...");
+    btnCacheSettings.setToolTipText("<html>Reuse MSFragger search results and peptide indexes<br/>\nfrom earlier runs with the same inputs and settings.");
+    btnCacheSettings.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        btnCacheSettingsActionPerformed(evt);
+      }
+    });
+
     btnReportErrors.setText("Report Erorrs");
     btnReportErrors.setToolTipText("<html>Submit an issue ticket to the bug tracker.<br/>\nPlease attach the following:\n<ol>\n<li>Run log. Use the button \"Export Log\", or copy paste the contents of the log <br/>\nto the ticket text using <b>inside triple tilde block, like this: ```{your-log-text-here}```</b></li>\n<li>fragger.params file. You can find it in the output directory you specified.</li>\n<li>Any other relevant details, like what you were trying to do, which database you used, etc</li>\n</ol>");
     btnReportErrors.addActionListener(new java.awt.event.ActionListener() {
@@ -2163,6 +2267,10 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
                 .addComponent(btnStop)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(checkDryRun)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(checkIncrementalRun)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(btnCacheSettings)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 10, Short.MAX_VALUE)
                 .addComponent(btnPrintCommands)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -2201,6 +2309,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
           .addComponent(btnRun, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
           .addComponent(btnExportLog)
           .addComponent(checkDryRun)
+          .addComponent(checkIncrementalRun)
+          .addComponent(btnCacheSettings)
           .addComponent(btnPrintCommands))
         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
         .addComponent(consoleScrollPane, javax.swing.GroupLayout.DEFAULT_SIZE, 586, Short.MAX_VALUE)
@@ -2365,18 +2475,86 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 
     if (confirmation != JFileChooser.APPROVE_OPTION)
       return;
-    List<Path> paths = new ArrayList<>();
     for (File f : fc.getSelectedFiles()) {
       if (f.isDirectory()) {
         ThisAppProps.save(ThisAppProps.PROP_LCMS_FILES_IN, f);
-        PathUtils.traverseDirectoriesAcceptingFiles(f, FraggerPanel.fileNameExtensionFilter, paths);
-      } else if (FraggerPanel.fileNameExtensionFilter.accept(f)) {
-        paths.add(Paths.get(f.getAbsolutePath()));
       }
     }
-    EventBus.getDefault().post(new MessageLcmsFilesAdded(paths));
+    addLcmsFilesInBackground(Arrays.asList(fc.getSelectedFiles()));
   }//GEN-LAST:event_btnRawAddFolderActionPerformed
 
+  /**
+   * Searches the given files and directories for LC/MS files on a background thread and posts
+   * {@link MessageLcmsFilesAdded} when done. A progress dialog with the number of files found so
+   * far shows up only if the search takes a noticeable amount of time.
+   */
+  private void addLcmsFilesInBackground(List<File> files) {
+    final List<FileListing> listings = new ArrayList<>(files.size());
+    for (File f : files) {
+      listings.add(PathUtils.listingAcceptingFiles(f.toPath(), FraggerPanel.fileNameExtensionFilter));
+    }
+    final AtomicInteger found = new AtomicInteger(0);
+    final AtomicBoolean isCancelled = new AtomicBoolean(false);
+    final AtomicBoolean isDone = new AtomicBoolean(false);
+
+    final JDialog dlg = new JDialog(this, "Searching for LC/MS files", true);
+    final JLabel label = new JLabel("Files found: 0");
+    label.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+    final JButton btnCancel = new JButton("Cancel");
+    dlg.add(label, BorderLayout.CENTER);
+    dlg.add(btnCancel, BorderLayout.SOUTH);
+    dlg.setSize(new Dimension(300, 100));
+    dlg.setLocationRelativeTo(this);
+    final Runnable cancel = () -> {
+      isCancelled.set(true);
+      listings.forEach(FileListing::cancel);
+    };
+    btnCancel.addActionListener(e -> cancel.run());
+    dlg.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosing(WindowEvent e) {
+        cancel.run();
+      }
+    });
+    final Timer progress = new Timer(250, e -> {
+      label.setText("Files found: " + found.get());
+      if (!dlg.isVisible()) {
+        // showing a modal dialog blocks, don't do that inside the timer callback
+        SwingUtilities.invokeLater(() -> {
+          if (!isDone.get()) {
+            dlg.setVisible(true);
+          }
+        });
+      }
+    });
+    progress.setInitialDelay(500);
+
+    Thread t = new Thread(() -> {
+      List<Path> paths = new ArrayList<>();
+      for (FileListing listing : listings) {
+        final ConcurrentLinkedQueue<Path> accepted = new ConcurrentLinkedQueue<>();
+        listing.findFiles(p -> {
+          accepted.add(p);
+          found.incrementAndGet();
+        });
+        List<Path> sorted = new ArrayList<>(accepted);
+        Collections.sort(sorted);
+        paths.addAll(sorted);
+      }
+      SwingUtilities.invokeLater(() -> {
+        isDone.set(true);
+        progress.stop();
+        dlg.dispose();
+        if (!isCancelled.get()) {
+          EventBus.getDefault().post(new MessageLcmsFilesAdded(paths));
+        }
+      });
+    }, "lcms-file-search");
+    t.setDaemon(true);
+    progress.start();
+    t.start();
+  }
+
   private void btnReportErrorsActionPerformed(
       java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnReportErrorsActionPerformed
     final String issueTrackerAddress = ThisAppProps.getProperties().getProperty(Version.PROP_ISSUE_TRACKER_URL);
@@ -3347,32 +3525,9 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     }
     LogUtils.println(console, "");
 
-    final List<ProcessBuilderInfo> pbis = pbDescsToFill.stream()
-        .flatMap(pbd -> pbd.pbs.stream().map(pb -> new ProcessBuilderInfo(pb, pbd.name,
-            pbd.fileCaptureStdout, pbd.fileCaptureStderr)))
-        .collect(Collectors.toList());
-
-    LogUtils.println(console, String.format(Locale.ROOT, "%d commands to execute:", pbis.size()));
-    final Color colorTool = new Color(140, 3, 89);
-    final Color colorWd = new Color(6, 2, 140);
-    final Color colorCmdLine = new Color(0, 107, 109);
-
-    for (final ProcessBuilderInfo pbi : pbis) {
-      int printed = 0;
-      if (!StringUtils.isNullOrWhitespace(pbi.name)) {
-        LogUtils.print(colorTool, console, true, pbi.name, false);
-      }
-      if (pbi.pb.directory() != null) {
-        LogUtils.print(colorWd, console, true, " [Work dir: " + pbi.pb.directory() + "]", false);
-      }
-      LogUtils.println(console, "");
-      final String cmd = org.apache.commons.lang3.StringUtils.join(pbi.pb.command(), " ");
-      LogUtils.print(colorCmdLine, console, true, cmd, true);
-
-    }
-    LogUtils.println(console, "~~~~~~~~~~~~~~~~~~~~~~");
-    LogUtils.println(console, "");
-    LogUtils.println(console, "");
+    final List<ProcessBuilderInfo> pbis = ProcessRunner.toProcessBuilderInfos(pbDescsToFill);
+    final ProcessRunner runner = new ProcessRunner(console);
+    runner.printCommands(pbis);
 
     if (isDryRun) {
       LogUtils.println(console, "It's a dry-run, not running the commands.");
@@ -3384,128 +3539,56 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
       exec.shutdownNow();
     }
 
-
-    final Color green = new Color(105, 193, 38);
-    final Color greenDarker = new Color(104, 184, 55);
-    final Color greenDarkest = new Color(82, 140, 26);
     final Color red = new Color(236, 99, 80);
     final Color redDarker = new Color(166, 56, 68);
-    final Color redDarkest = new Color(155, 35, 29);
     final Color black = new Color(0, 0, 0);
     exec = Executors.newFixedThreadPool(1);
-    try // run everything
-    {
-      final ProcessResult[] processResults = new ProcessResult[pbis.size()];
-
-      for (int i = 0; i < pbis.size(); i++) {
-
-        final int index = i;
-        final ProcessBuilderInfo pbi = pbis.get(index);
-        final ProcessResult pr = new ProcessResult(pbi);
-        processResults[index] = pr;
-
-        // set work dir to the main working directory if it's not set for the process builder
-        if (pbi.pb.directory() == null) {
-          pbi.pb.directory(wdPath.toFile());
-        }
-
-        REHandler reHandler = new REHandler(() -> {
-
-          StringBuilder command = new StringBuilder();
-          for (String part : pbi.pb.command()) {
-            command.append(part).append(" ");
-          }
-
-          // if it's not the first process, check that the previous
-          // one returned zero exit code
-          if (index > 0) {
-            Integer exitCode = processResults[index - 1].getExitCode();
-            if (exitCode == null) {
-              LogUtils.print(redDarker, console, true, "Cancelled execution of: ", false);
-              LogUtils.print(black, console, true, command.toString(), true);
-              return;
-            } else if (exitCode != 0) {
-              LogUtils.print(red, console, true,
-                  String.format(
-                      "Previous process returned exit code [%d], cancelling further processing..",
-                      exitCode), true);
-              LogUtils.print(redDarker, console, true, "Cancelled execution of: ", false);
-              LogUtils.print(black, console, true, command.toString(), true);
-              return;
-            }
-          }
+    final DagScheduler scheduler = new DagScheduler(getRunMaxCores(), getRunMaxRamGb());
+    LogUtils.println(console, String.format(Locale.ROOT,
+        "Running with a budget of %d cores, %s RAM", scheduler.getMaxCores(),
+        scheduler.getMaxRamGb() > 0 ? scheduler.getMaxRamGb() + " GB" : "unlimited"));
 
-          try { // External Processes start in this try block
-
-            LogUtils.print(black, console, true, getTimestamp() + " Executing command [", false);
-            LogUtils.print(colorTool, console, true, pbi.name, false);
-            LogUtils.print(black, console, true, "] from working dir: ", false);
-            final String workDirToPrint = pbi.pb.directory() == null ? "N/A" : pbi.pb.directory().toString();
-            LogUtils.print(colorWd, console, true, workDirToPrint, true);
-            LogUtils.print(black, console, true, "$> ", false);
-            LogUtils.print(colorCmdLine, console, true, command.toString(), true);
-
-            Process proc = pr.start();
-            LogUtils.println(console, getTimestamp() + " Process started");
-
-            while (true) {
-              Thread.sleep(200L);
-              byte[] pollErr = pr.pollStdErr();
-              String errStr = pr.appendErr(pollErr);
-              if (!StringUtils.isNullOrWhitespace(errStr)) {
-                LogUtils.print(console, errStr);
-              }
-              byte[] pollOut = pr.pollStdOut();
-              String outStr = pr.appendOut(pollOut);
-              if (!StringUtils.isNullOrWhitespace(outStr)) {
-                LogUtils.print(console, outStr);
-              }
-              try {
-                final int exitValue = proc.exitValue();
-                pr.setExitCode(exitValue);
-                SwingUtilities.invokeLater(() -> {
-                  Color c = exitValue == 0 ? greenDarker : red;
-                  console.append(c, String.format(
-                      Locale.ROOT, "Process finished, exit value: %d\n", exitValue));
-                });
+    for (final ProcessBuilderInfo pbi : pbis) {
 
-                break;
-              } catch (IllegalThreadStateException ignore) {
-                // this error is thrown by process.exitValue() if the underlying process has not yet finished
-              }
-            }
+      // set work dir to the main working directory if it's not set for the process builder
+      if (pbi.pb.directory() == null) {
+        pbi.pb.directory(wdPath.toFile());
+      }
 
-          } catch (IOException ex) {
-            String toAppend = String
-                .format(Locale.ROOT, "IOException: Error in process,\n%s", ex.getMessage());
-            LogUtils.println(console, toAppend);
-          } catch (InterruptedException ex) {
-            final Process proc = pr.getProc();
-            if (proc != null) {
-              proc.destroy();
-            }
-            String toAppend = String
-                .format(Locale.ROOT, "InterruptedException: Error in process,\n%s",
-                    ex.getMessage());
-            LogUtils.println(console, toAppend);
-          } finally {
-            try {
-              pr.close();
-            } catch (Exception e) {
-              LogUtils.println(console,
-                  "Error while closing redirected output streams from process, details:\n\n"
-                      + LogUtils.stacktrace(e));
+      scheduler.add(pbi, node -> runner.run(pbi, node.getCpus()));
+    }
+    if (isRunPinCpus()) {
+      runner.enableCpuPinning(scheduler);
+    }
+    final boolean isIncremental = checkIncrementalRun.isSelected();
 
-            }
-          }
-        }, console, System.err);
+    scheduler.addListener(new DagScheduler.Listener() {
+      @Override
+      public void onFinished(DagScheduler.Node node) {
+        if (node.getState() != DagScheduler.State.SUCCESS) {
+          LogUtils.print(red, console, String.format(Locale.ROOT,
+              "Process [%s] failed, cancelling further processing..", node.pbi.name), true);
+        }
+      }
 
-        // this error is thrown by process.exitValue() if the underlying process has not yet finished
-        exec.submit(reHandler);
+      @Override
+      public void onCancelled(DagScheduler.Node node) {
+        LogUtils.print(redDarker, console, "Cancelled execution of: ", false);
+        LogUtils.print(black, console, node.pbi.describe(), true);
       }
-    } finally {
+    });
 
-    }
+    exec.submit(new REHandler(() -> {
+      if (isIncremental) {
+        // checks the state of all the input and output files, not for the EDT
+        runner.useStepManifest(StepManifest.load(wdPath), pbis);
+      }
+      try {
+        scheduler.run();
+      } catch (InterruptedException e) {
+        LogUtils.println(console, "Processing was interrupted");
+      }
+    }, console, System.err));
 
     final JButton btnStartPtr = btnRun;
     final JButton btnStopPtr = btnStop;
@@ -3513,6 +3596,7 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
       submittedProcesses.clear();
       btnStartPtr.setEnabled(true);
       btnStopPtr.setEnabled(false);
+      runner.reportTelemetry(wdPath);
       LogUtils.println(console, "=========================");
       LogUtils.println(console, "===");
       LogUtils.println(console, "===        Done");
@@ -3556,270 +3640,170 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     }
   }
 
-  private String getTimestamp() {
-    return "[" + LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_TIME) + "]";
-  }
-
   /**
-   * @param wd Global working directory. LCMS file groups' output will be created inside this one.
+   * Max number of cores that concurrently running processes are allowed to use.
    */
-  private boolean processBuildersNew(Path wd, Path jarFragpipe, String binPhilosopher, boolean isDryRun,
-      final List<ProcessBuildersDescriptor> pbDescsToFill) {
-
-    final List<ProcessBuildersDescriptor> pbDescs = new ArrayList<>();
-
-    // Collect input LCMS files
-    final Map<String, LcmsFileGroup> lcmsFileGroups = getLcmsFileGroups();
-    List<InputLcmsFile> lcmsFiles = lcmsFileGroups.values().stream()
-        .flatMap(g -> g.lcmsFiles.stream())
-        .collect(Collectors.toList());
-
-    final UsageTrigger usePhi = new UsageTrigger(binPhilosopher, "Philosopher");
-
-
-    // run DIA-Umpire SE
-    final CmdUmpireSe cmdUmpireSe = new CmdUmpireSe(isRunUmpireSe(), wd);
-    if (cmdUmpireSe.isRun()) {
-      if (!cmdUmpireSe.configure(this, isDryRun, jarFragpipe, usePhi,
-          umpirePanel, lcmsFiles))
-        return false;
-      pbDescs.add(cmdUmpireSe.builders());
-      lcmsFiles = cmdUmpireSe.outputs(lcmsFiles);
+  private int getRunMaxCores() {
+    final int defaultCores = Runtime.getRuntime().availableProcessors();
+    try {
+      int cores = Integer.parseInt(ThisAppProps.load(ThisAppProps.PROP_RUN_MAX_CORES,
+          Integer.toString(defaultCores)).trim());
+      return cores > 0 ? cores : defaultCores;
+    } catch (NumberFormatException e) {
+      return defaultCores;
     }
+  }
 
-
-    final FraggerMigPanel fp = fraggerMigPanel;
-
-    // run MSAdjuster
-    final CmdMsAdjuster cmdMsAdjuster = new CmdMsAdjuster(fp.isRun() && fp.isMsadjuster(), wd);
-    if (cmdMsAdjuster.isRun()) {
-      if (!cmdMsAdjuster.configure(this,
-          jarFragpipe, fp, lcmsFiles, false, 49)) {
-        return false;
-      }
-      pbDescs.add(cmdMsAdjuster.builders());
-      // MsAdjuster only makes files that are discovered by MsFragger
-      // automatically, so no file-list changes are needed
+  /**
+   * Search results shared between runs, see {@link CmdMsfragger#createCache(String, double)}.
+   */
+  private ResultCache getMsfraggerCache() {
+    if (!Boolean.parseBoolean(ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_CACHE_ENABLED,
+        "false"))) {
+      return null;
     }
-
-
-    // run MsFragger
-    final String fastaFile = getFastaPath();
-    final UsageTrigger binMsfragger = new UsageTrigger(
-        textBinMsfragger.getText().trim(), "MsFragger");
-    final CmdMsfragger cmdMsfragger = new CmdMsfragger(fp.isRun(), wd);
-    if (cmdMsfragger.isRun()) {
-      if (!cmdMsfragger.configure(this,
-          isDryRun, fp, jarFragpipe, binMsfragger, fastaFile, lcmsFiles)) {
-        return false;
-      }
-      pbDescs.add(cmdMsfragger.builders());
-
-      String warn = ThisAppProps.load(ThisAppProps.PROP_MGF_WARNING, Boolean.TRUE.toString());
-      if (warn != null && Boolean.valueOf(warn)) {
-        for (InputLcmsFile f : lcmsFiles) {
-          if (f.path.toString().toLowerCase().endsWith(".mgf")) {
-            JCheckBox checkbox = new JCheckBox("Do not show this message again.");
-            String msg = "The list of input files contains MGF entries.\n"
-                + "MSFragger has limited MGF support (ProteoWizard output is OK).\n"
-                + "The search might fail unexpectedly with errors.\n"
-                + "Please consider converting files to mzML/mzXML with ProteoWizard.";
-            Object[] params = {msg, checkbox};
-            JOptionPane.showMessageDialog(this, params, "Warning",
-                JOptionPane.WARNING_MESSAGE);
-            if (checkbox.isSelected()) {
-              ThisAppProps.save(ThisAppProps.PROP_MGF_WARNING, Boolean.FALSE.toString());
-            }
-            break;
-          }
-        }
-      }
+    double maxGb;
+    try {
+      maxGb = Double.parseDouble(ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_CACHE_MAX_GB,
+          Double.toString(CmdMsfragger.DEFAULT_CACHE_MAX_GB)).trim());
+    } catch (NumberFormatException e) {
+      maxGb = CmdMsfragger.DEFAULT_CACHE_MAX_GB;
     }
-    Map<InputLcmsFile, Path> pepxmlFiles = cmdMsfragger.outputs(
-        lcmsFiles, fp.getOutputFileExt(), wd);
-
+    return CmdMsfragger.createCache(
+        ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_CACHE_DIR, ""), maxGb);
+  }
 
-    // run MsAdjuster Cleanup
-    if (cmdMsAdjuster.isRun()) {
-      if (!cmdMsAdjuster.configure(this,
-          jarFragpipe, fp, lcmsFiles, true, 51)) {
-        return false;
-      }
-      pbDescs.add(cmdMsAdjuster.builders());
+  /**
+   * Peptide indexes shared between runs, see {@link CmdMsfragger#createIndexCache(String, double)}.
+   */
+  private ResultCache getMsfraggerIndexCache() {
+    if (!Boolean.parseBoolean(ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_ENABLED,
+        "false"))) {
+      return null;
     }
-
-
-    // run Crystalc
-    final CmdCrystalc cmdCrystalc = new CmdCrystalc(
-        chkRunCrystalc.isEnabled() && chkRunCrystalc.isSelected(), wd);
-    if (cmdCrystalc.isRun()) {
-      CrystalcParams ccParams;
-      try {
-        ccParams = crystalcFormToParams();
-      } catch (IOException e) {
-        JOptionPane.showMessageDialog(this,
-            "Could not construct Crystal-C parameters from the GUI form input.", "Error",
-            JOptionPane.ERROR_MESSAGE);
-        return false;
-      }
-      if (!cmdCrystalc.configure(this,
-          fp, isDryRun, ccParams, fastaFile, pepxmlFiles)) {
-        return false;
-      }
-      pbDescs.add(cmdCrystalc.builders());
-      pepxmlFiles = cmdCrystalc.outputs(pepxmlFiles, fp.getOutputFileExt());
+    double maxGb;
+    try {
+      maxGb = Double.parseDouble(ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_MAX_GB,
+          Double.toString(CmdMsfragger.DEFAULT_INDEX_CACHE_MAX_GB)).trim());
+    } catch (NumberFormatException e) {
+      maxGb = CmdMsfragger.DEFAULT_INDEX_CACHE_MAX_GB;
     }
+    return CmdMsfragger.createIndexCache(
+        ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_DIR, ""), maxGb);
+  }
 
-    // run Peptide Prophet
-    final String decoyTag = textDecoyTagSeqDb.getText().trim();
-    CmdPeptideProphet cmdPeptideProphet = new CmdPeptideProphet(
-        chkRunPeptideProphet.isEnabled() && chkRunPeptideProphet.isSelected(), wd);
-    if (cmdPeptideProphet.isRun()) {
-      final String pepProphCmd = textPepProphCmd.getText().trim();
-      if (!cmdPeptideProphet.configure(this,
-          usePhi, fastaFile, decoyTag, pepProphCmd, pepxmlFiles)) {
-        return false;
-      }
-      pbDescs.add(cmdPeptideProphet.builders());
+  /**
+   * Generated decoy databases, see {@link DecoyDbGenerator#createCache(String, double)}.
+   */
+  private ResultCache getDecoyDbCache() {
+    if (!Boolean.parseBoolean(ThisAppProps.load(ThisAppProps.PROP_DECOY_DB_CACHE_ENABLED,
+        "false"))) {
+      return null;
     }
-    pepxmlFiles = cmdPeptideProphet.outputs(pepxmlFiles, fp.getOutputFileExt());
-
-
-    // run Protein Prophet
-    final boolean isProcessGroupsSeparately = checkProcessGroupsSeparately.isSelected();
-    final boolean isRunProteinProphet = SwingUtils.isEnabledAndChecked(chkRunProteinProphet);
-    final CmdProteinProphet cmdProteinProphet = new CmdProteinProphet(isRunProteinProphet, wd);
-    if (cmdProteinProphet.isRun()) {
-      final String protProphCmdStr = txtProteinProphetCmdLineOpts.getText().trim();
-      if (!cmdProteinProphet.configure(this,
-          usePhi, protProphCmdStr,
-          isProcessGroupsSeparately, pepxmlFiles)) {
-        return false;
-      }
-      pbDescs.add(cmdProteinProphet.builders());
+    double maxGb;
+    try {
+      maxGb = Double.parseDouble(ThisAppProps.load(ThisAppProps.PROP_DECOY_DB_CACHE_MAX_GB,
+          Double.toString(DecoyDbGenerator.DEFAULT_CACHE_MAX_GB)).trim());
+    } catch (NumberFormatException e) {
+      maxGb = DecoyDbGenerator.DEFAULT_CACHE_MAX_GB;
     }
-    Map<LcmsFileGroup, Path> mapGroupsToProtxml = cmdProteinProphet.outputs(pepxmlFiles, isProcessGroupsSeparately);
-
+    return DecoyDbGenerator.createCache(
+        ThisAppProps.load(ThisAppProps.PROP_DECOY_DB_CACHE_DIR, ""), maxGb);
+  }
 
-    if (cmdPeptideProphet.isRun() || cmdProteinProphet.isRun()) {
-      // Check Decoy tags if any of the downstream tools are requested
-      if (StringUtils.isNullOrWhitespace(textDecoyTagSeqDb.getText())) {
-        int confirm = JOptionPane.showConfirmDialog(this,
-            "Downstream analysis tools require decoys in the database,\n"
-                + "but the decoy tag was left empty. It's recommended that\n"
-                + "you set it.\n\n"
-                + "Cancel operation and fix the problem (manually)?",
-            "Cancel run and fix parameters?\n", JOptionPane.YES_NO_OPTION);
-        if (JOptionPane.YES_OPTION == confirm) {
-          return false;
-        }
-      }
+  /**
+   * Max number of files per MSFragger invocation. Zero means as many as possible.
+   */
+  private int getMsfraggerBatchSize() {
+    try {
+      return Math.max(0, Integer.parseInt(
+          ThisAppProps.load(ThisAppProps.PROP_MSFRAGGER_BATCH_SIZE, "0").trim()));
+    } catch (NumberFormatException e) {
+      return 0;
     }
+  }
 
-    final boolean isReport = SwingUtils.isEnabledAndChecked(checkCreateReport);
-    if (isReport) {
-      // run Report - DbAnnotate
-      final boolean isDbAnnotate = true;
-      final CmdReportDbAnnotate cmdReportDbAnnotate = new CmdReportDbAnnotate(isDbAnnotate, wd);
-      if (cmdReportDbAnnotate.isRun()) {
-        if (!cmdReportDbAnnotate
-            .configure(this, usePhi, fastaFile, decoyTag, pepxmlFiles, mapGroupsToProtxml)) {
-          return false;
-        }
-        pbDescs.add(cmdReportDbAnnotate.builders());
-      }
-
-      // run Report - Filter
-      final boolean isFilter = isReport;
-      final CmdReportFilter cmdReportFilter = new CmdReportFilter(isFilter, wd);
-      if (cmdReportFilter.isRun()) {
-        if (!cmdReportFilter.configure(this, usePhi,
-            decoyTag, textReportFilter.getText(), mapGroupsToProtxml)) {
-          return false;
-        }
-        pbDescs.add(cmdReportFilter.builders());
-      }
-
-      // run Report - Freequant (Labelfree)
-      final boolean isFreequant = SwingUtils.isEnabledAndChecked(checkLabelfree);
-      final CmdReportFreequant cmdReportFreequant = new CmdReportFreequant(isFreequant, wd);
-      if (cmdReportFreequant.isRun()) {
-        if (!cmdReportFreequant.configure(this, usePhi,
-            textReportLabelfree.getText(), mapGroupsToProtxml)) {
-          return false;
-        }
-        pbDescs.add(cmdReportFreequant.builders());
-      }
-
-      // run Report - Report command itself
-      final CmdReportReport cmdReportReport = new CmdReportReport(isReport, wd);
-      if (cmdReportReport.isRun()) {
-        if (!cmdReportReport.configure(this, usePhi, mapGroupsToProtxml)) {
-          return false;
-        }
-        pbDescs.add(cmdReportReport.builders());
-      }
-
-      // run Report - Multi-Experiment report
-      final int nThreads = fraggerMigPanel.getThreads();
-      final CmdReportAbacus cmdReportAbacus = new CmdReportAbacus(SwingUtils.isEnabledAndChecked(checkReportAbacus), wd);
-      if (cmdReportAbacus.isRun()) {
-        // run iProphet, will run right after Peptide Prophet because of priority setting
-        final CmdIprophet cmdIprophet = new CmdIprophet(cmdReportAbacus.isRun(), wd);
-        if (!cmdIprophet.configure(this, usePhi, decoyTag, nThreads, pepxmlFiles)) {
-          return false;
-        }
-        pbDescs.add(cmdIprophet.builders());
+  /**
+   * Pin each running process to its own set of CPUs with taskset.
+   */
+  private boolean isRunPinCpus() {
+    return Boolean.parseBoolean(
+        ThisAppProps.load(ThisAppProps.PROP_RUN_PIN_CPUS, Boolean.FALSE.toString()).trim());
+  }
 
-        // run Abacus
-        if (!cmdReportAbacus.configure(this, usePhi,
-            textReportFilter.getText(), decoyTag, mapGroupsToProtxml)) {
-          return false;
-        }
-        pbDescs.add(cmdReportAbacus.builders());
-      }
+  /**
+   * Number of last lines kept in the console, older output is only kept on disk.
+   */
+  private int getConsoleMaxLines() {
+    try {
+      int lines = Integer.parseInt(ThisAppProps.load(ThisAppProps.PROP_CONSOLE_MAX_LINES,
+          Integer.toString(TextConsole.DEFAULT_MAX_LINES)).trim());
+      return lines > 0 ? lines : TextConsole.DEFAULT_MAX_LINES;
+    } catch (NumberFormatException e) {
+      return TextConsole.DEFAULT_MAX_LINES;
     }
+  }
 
-    // run Spectral library generation
-    final CmdSpecLibGen cmdSpecLibGen = new CmdSpecLibGen(SwingUtils.isEnabledAndChecked(checkGenerateSpecLib), wd);
-    if (cmdSpecLibGen.isRun()) {
-      if (!cmdSpecLibGen.configure(this, usePhi, jarFragpipe,
-          mapGroupsToProtxml, fastaFile, isRunProteinProphet)) {
-        return false;
-      }
-      pbDescs.add(cmdSpecLibGen.builders());
+  /**
+   * Max total RAM that concurrently running processes are allowed to use. Zero means no limit.
+   */
+  private int getRunMaxRamGb() {
+    try {
+      return Math.max(0, Integer.parseInt(
+          ThisAppProps.load(ThisAppProps.PROP_RUN_MAX_RAM_GB, "0").trim()));
+    } catch (NumberFormatException e) {
+      return 0;
     }
+  }
 
+  /**
+   * @param wd Global working directory. LCMS file groups' output will be created inside this one.
+   */
+  private boolean processBuildersNew(Path wd, Path jarFragpipe, String binPhilosopher, boolean isDryRun,
+      final List<ProcessBuildersDescriptor> pbDescsToFill) {
 
-    // run Philosopher clean/init in all directories where Philosopher will be invoked
-    for (Path pathPhiIsRunIn : usePhi.getWorkDirs()) {
-      CmdPhilosopherWorkspaceCleanInit cmdPhiCleanInit = new CmdPhilosopherWorkspaceCleanInit(
-          true, pathPhiIsRunIn);
-      cmdPhiCleanInit.configure(usePhi);
-      pbDescs.add(cmdPhiCleanInit.builders());
-    }
-
-    // make sure that all subfolders are created for groups/experiments
-    if (!isDryRun) {
-      List<Path> paths = Stream
-          .concat(pepxmlFiles.values().stream(), mapGroupsToProtxml.values().stream())
-          .map(Path::getParent).collect(Collectors.toList());
+    final FraggerMigPanel fp = fraggerMigPanel;
+    final PipelineConfig c = new PipelineConfig();
+    c.binPhilosopher = binPhilosopher;
+    c.binMsfragger = textBinMsfragger.getText().trim();
+    c.fastaPath = getFastaPath();
+    c.decoyTag = textDecoyTagSeqDb.getText().trim();
+    c.maxThreads = getRunMaxCores();
+    c.maxRamGb = getRunMaxRamGb();
+    c.umpirePanel = isRunUmpireSe() ? umpirePanel : null;
+    c.isRunMsfragger = fp.isRun();
+    c.isRunMsadjuster = fp.isMsadjuster();
+    c.fragger = fp;
+    c.msfraggerCache = getMsfraggerCache();
+    c.msfraggerIndexCache = getMsfraggerIndexCache();
+    c.msfraggerBatchSize = getMsfraggerBatchSize();
+    c.isRunCrystalc = chkRunCrystalc.isEnabled() && chkRunCrystalc.isSelected();
+    if (c.isRunCrystalc) {
       try {
-        for (Path path : paths) {
-          if (!Files.exists(path)) {
-            Files.createDirectories(path);
-          }
-        }
+        c.crystalcParams = crystalcFormToParams();
       } catch (IOException e) {
         JOptionPane.showMessageDialog(this,
-            "Not all directories could be created:\n" + e.getMessage());
+            "Could not construct Crystal-C parameters from the GUI form input.", "Error",
+            JOptionPane.ERROR_MESSAGE);
         return false;
       }
     }
-
-    pbDescs.sort(Comparator.comparing(pbDesc -> pbDesc.priority, Integer::compare));
-    pbDescsToFill.addAll(pbDescs);
-    return true;
+    c.crystalcParallel = (Integer) spinnerCrystalcParallel.getValue();
+    c.isRunPeptideProphet = chkRunPeptideProphet.isEnabled() && chkRunPeptideProphet.isSelected();
+    c.peptideProphetCmd = textPepProphCmd.getText().trim();
+    c.peptideProphetParallel = getPepProphParallel();
+    c.isRunProteinProphet = SwingUtils.isEnabledAndChecked(chkRunProteinProphet);
+    c.proteinProphetCmd = txtProteinProphetCmdLineOpts.getText().trim();
+    c.isProcessGroupsSeparately = checkProcessGroupsSeparately.isSelected();
+    c.isReport = SwingUtils.isEnabledAndChecked(checkCreateReport);
+    c.reportFilterCmd = textReportFilter.getText();
+    c.isReportLabelfree = SwingUtils.isEnabledAndChecked(checkLabelfree);
+    c.reportLabelfreeCmd = textReportLabelfree.getText();
+    c.isReportAbacus = SwingUtils.isEnabledAndChecked(checkReportAbacus);
+    c.isGenerateSpecLib = SwingUtils.isEnabledAndChecked(checkGenerateSpecLib);
+
+    return PipelineBuilder.build(this, wd, jarFragpipe, isDryRun, getLcmsFileGroups(), c,
+        pbDescsToFill);
   }
 
   private String getCombinedProtFn() {
@@ -3852,6 +3836,16 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     btnPepProphDefaults(SearchTypeProp.closed);
   }//GEN-LAST:event_btnPepProphDefaultsClosedActionPerformed
 
+  private void spinnerPepProphParallelStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_spinnerPepProphParallelStateChanged
+    ThisAppProps.save(ThisAppProps.PROP_PEPTIDE_PROPHET_PARALLEL,
+        spinnerPepProphParallel.getValue().toString());
+  }//GEN-LAST:event_spinnerPepProphParallelStateChanged
+
+  private void spinnerCrystalcParallelStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_spinnerCrystalcParallelStateChanged
+    ThisAppProps.save(ThisAppProps.PROP_CRYSTALC_PARALLEL,
+        spinnerCrystalcParallel.getValue().toString());
+  }//GEN-LAST:event_spinnerCrystalcParallelStateChanged
+
   private void btnPepProphDefaults(SearchTypeProp t) {
     int confirm1 = JOptionPane.showConfirmDialog(this,
         "<html>Load " + t + " search defaults?");
@@ -4016,212 +4010,230 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
       return;
     }
 
-    try (BufferedReader br = new BufferedReader(new InputStreamReader(Files.newInputStream(p),
-        StandardCharsets.UTF_8))) {
-      String line;
-      List<String> descriptors = new ArrayList<>();
-      List<List<String>> ordered = new ArrayList<>();
-      long totalDescriptors = 0;
-      long totalLines = 0;
-      while ((line = br.readLine()) != null) {
-        if (!line.startsWith(">")) {
-          continue;
-        }
-        totalLines++;
-        int pos = 1, next;
-        int depth = 1;
-        while ((next = line.indexOf('|', pos)) >= 0 || pos < line.length() - 1) {
-          if (next < 0) {
-            next = line.length();
-          }
-          String desc = line.substring(pos, next).trim();
-          descriptors.add(desc);
-          if (ordered.size() < depth) {
-            ordered.add(new ArrayList<String>());
-          }
-          ordered.get(depth - 1).add(desc);
-          totalDescriptors++;
-          pos = next + 1;
-          depth++;
-        }
-      }
-
-      List<List<Tuple2<String, Double>>> prefixesByCol = new ArrayList<>();
-      List<List<Tuple2<String, Double>>> suffixesByCol = new ArrayList<>();
-
-      for (int descCol = 0; descCol < ordered.size(); descCol++) {
-
-        List<String> descriptorCol = ordered.get(descCol);
-        final int maxDepth = 16;
-        PrefixCounter cntFwd = new PrefixCounter(PrefixCounter.Mode.FWD, maxDepth);
-        PrefixCounter cntRev = new PrefixCounter(PrefixCounter.Mode.REV, maxDepth);
-
-        for (int i = 0; i < descriptorCol.size(); i++) {
-          String descriptor = descriptorCol.get(i);
-          cntFwd.add(descriptor);
-          cntRev.add(descriptor);
-        }
-        final long total = descriptorCol.size();
-        final StringBuilder sb = new StringBuilder();
-
-        final double pctMin = 0.3;
-        final double pctMax = 0.7;
-
-        { // prefixes
-          final List<Tuple2<String, Double>> result = new ArrayList<>();
-          Proc2<PrefixCounter.Node, PrefixCounter.Mode> action = (n, mode) -> {
+    // the index has exact numbers and is read in no time
+    final FastaIndex idx = FastaIndex.load(p, false);
+    if (idx != null) {
+      showDecoyTagCandidates(idx.getDecoyTags());
+      return;
+    }
 
-            PrefixCounter.Node cur = n;
-            //if (cur.getTerminals() > 0)
-            //    return; // a prefix or a suffix can never be the whole protein id
-            double pct = cur.getHits() / (double) total;
-            if (pct < pctMin || pct > pctMax) {
-              return;
-            }
-            sb.setLength(0);
-            while (cur != null) {
-              if (cur.parent != null) {
-                sb.append(cur.ch);
-              }
-              cur = cur.parent;
-            }
+    // the detection reads the whole file or a large part of it, don't block the EDT
+    final Path fasta = p;
+    final DecoyTagDetector.Result result;
+    try {
+      result = runWithProgress("Detecting decoy tag",
+          progress -> new DecoyTagDetector(fasta, progress).detect());
+    } catch (ExecutionException e) {
+      log.error("Error reading sequence database file", e.getCause());
+      JOptionPane.showMessageDialog(btnTryDetectDecoyTag,
+          "<html>Error reading sequence database file", "Error",
+          JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    if (result != null) {
+      showDecoyTagCandidates(result);
+    }
+  }//GEN-LAST:event_btnTryDetectDecoyTagActionPerformed
 
-            if (sb.length() < 2) {
-              return; // no prefixes smaller than 2 characters
-            }
+  private void btnAddDecoysActionPerformed(
+      java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnAddDecoysActionPerformed
+    final Path target = PathUtils.isExisting(textSequenceDbPath.getText().trim());
+    if (target == null || !Files.isRegularFile(target)) {
+      JOptionPane.showMessageDialog(btnAddDecoys,
+          "<html>Could not open sequence database file", "File not found",
+          JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    final String tag = textDecoyTagSeqDb.getText().trim();
+    if (tag.isEmpty()) {
+      JOptionPane.showMessageDialog(btnAddDecoys,
+          "<html>Set the decoy tag first, e.g. \"rev_\"", "No decoy tag",
+          JOptionPane.WARNING_MESSAGE);
+      return;
+    }
 
-            StringBuilder sbPrint = sb
-                .reverse();// mode == PrefixCounter.Mode.REV ? sb.reverse() : sb;
-            result.add(new Tuple2<>(sbPrint.toString(), pct));
-            //System.out.printf("%s : (full string: %s) hits=%.1f%%\n", n, sbPrint.toString(), pct*100d);
-          };
-//                    System.out.println("Prefixes:");
-          cntFwd.iterPrefixCounts(maxDepth, action);
-          prefixesByCol.add(cleanUpDecoyTagCandidates(result));
-//                    for (Tuple2<String, Double> tuple2 : cleanedResult) {
-//                        System.out.printf("% 3.1f%% -> %s\n", tuple2.item2 * 100d, tuple2.item1);
-//                    }
-//                    System.out.println("Prefixes Done");
-        }
+    // options: decoy method and contaminants
+    final JComboBox<String> comboMethod = new JComboBox<>(new String[]{"Reversed", "Shuffled"});
+    final JTextField textContam = new JTextField(30);
+    final JButton btnContam = new JButton("Browse");
+    btnContam.addActionListener(e -> {
+      JFileChooser fc = new JFileChooser();
+      fc.setDialogTitle("Select contaminants FASTA file");
+      fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+      fc.setFileFilter(new FileNameExtensionFilter("FASTA DB", "fasta", "fa", "fas", "fast"));
+      SwingUtils.setFileChooserPath(fc, target.getParent().toString());
+      if (fc.showOpenDialog(btnContam) == JFileChooser.APPROVE_OPTION) {
+        textContam.setText(fc.getSelectedFile().getAbsolutePath());
+      }
+    });
+    final JPanel panelContam = new JPanel(new BorderLayout(5, 0));
+    panelContam.add(textContam, BorderLayout.CENTER);
+    panelContam.add(btnContam, BorderLayout.EAST);
+    final JPanel panelOpts = new JPanel(new GridLayout(0, 1, 0, 3));
+    panelOpts.add(new JLabel("Decoys with tag \"" + tag + "\":"));
+    panelOpts.add(comboMethod);
+    panelOpts.add(new JLabel("Contaminants FASTA (optional):"));
+    panelOpts.add(panelContam);
+    if (JOptionPane.OK_OPTION != JOptionPane.showConfirmDialog(this, panelOpts,
+        "Add decoys", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE)) {
+      return;
+    }
+    final DecoyDbGenerator.Method method = comboMethod.getSelectedIndex() == 0
+        ? DecoyDbGenerator.Method.REVERSE : DecoyDbGenerator.Method.SHUFFLE;
+    Path contam = null;
+    if (!StringUtils.isNullOrWhitespace(textContam.getText())) {
+      contam = Paths.get(textContam.getText().trim());
+      if (!Files.isRegularFile(contam)) {
+        JOptionPane.showMessageDialog(btnAddDecoys,
+            "<html>Contaminants file doesn't exist:<br/>" + contam, "File not found",
+            JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
 
-        { // suffixes
-          final List<Tuple2<String, Double>> result = new ArrayList<>();
-          Proc2<PrefixCounter.Node, PrefixCounter.Mode> action = new Proc2<PrefixCounter.Node, PrefixCounter.Mode>() {
-            @Override
-            public void call(PrefixCounter.Node n, PrefixCounter.Mode mode) {
+    JFileChooser fc = new JFileChooser();
+    fc.setDialogTitle("Save target-decoy database as");
+    fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+    fc.setFileFilter(new FileNameExtensionFilter("FASTA DB", "fasta", "fa", "fas", "fast"));
+    final String fn = target.getFileName().toString();
+    final int dot = fn.lastIndexOf('.');
+    fc.setSelectedFile(target.resolveSibling(
+        (dot > 0 ? fn.substring(0, dot) : fn) + "-td.fasta").toFile());
+    if (fc.showSaveDialog(SwingUtils.findParentFrameForDialog(this))
+        != JFileChooser.APPROVE_OPTION) {
+      return;
+    }
+    final Path out = fc.getSelectedFile().toPath().toAbsolutePath();
+    if (out.equals(target.toAbsolutePath()) || (contam != null && out
+        .equals(contam.toAbsolutePath()))) {
+      JOptionPane.showMessageDialog(btnAddDecoys,
+          "<html>Can not overwrite an input file", "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    if (Files.exists(out) && JOptionPane.YES_OPTION != JOptionPane.showConfirmDialog(this,
+        "File exists, overwrite?\n" + out, "Overwrite", JOptionPane.YES_NO_OPTION)) {
+      return;
+    }
 
-              PrefixCounter.Node cur = n;
-              //if (cur.getTerminals() > 0)
-              //    return; // a prefix or a suffix can never be the whole protein id
-              double pct = cur.getHits() / (double) total;
-              if (pct < pctMin || pct > pctMax) {
-                return;
-              }
-              sb.setLength(0);
-              while (cur != null) {
-                if (cur.parent != null) {
-                  sb.append(cur.ch);
-                }
-                cur = cur.parent;
-              }
+    final DecoyDbGenerator generator = new DecoyDbGenerator(target, contam, tag, method,
+        getDecoyDbCache());
+    final Boolean isFromCache;
+    try {
+      isFromCache = runWithProgress("Generating decoys",
+          progress -> generator.generate(out, progress));
+    } catch (ExecutionException e) {
+      log.error("Error generating decoy database", e.getCause());
+      JOptionPane.showMessageDialog(btnAddDecoys,
+          "<html>Error generating decoy database:<br/>" + e.getCause().getMessage(), "Error",
+          JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    if (isFromCache != null) {
+      validateAndSaveFastaPath(out.toString());
+    }
+  }//GEN-LAST:event_btnAddDecoysActionPerformed
 
-              if (sb.length() < 2) {
-                return; // no suffixes smaller than 2 chars
-              }
+  /**
+   * Runs a long task off the EDT behind a modal progress dialog with a Cancel button.
+   *
+   * @return Whatever the task returned, null if the user cancelled.
+   * @throws ExecutionException Wraps whatever the task threw.
+   */
+  private <T> T runWithProgress(String title, SwingUtils.ProgressTask<T> task)
+      throws ExecutionException {
+    return SwingUtils.runWithProgress(this, title, task);
+  }
 
-              StringBuilder sbPrint = sb;// mode == PrefixCounter.Mode.REV ? sb.reverse() : sb;
-              result.add(new Tuple2<>(sbPrint.toString(), pct));
-            }
-          };
-          cntRev.iterPrefixCounts(maxDepth, action);
-          suffixesByCol.add(cleanUpDecoyTagCandidates(result));
-        }
-      }
+  private void showDecoyTagCandidates(DecoyTagDetector.Result detected) {
+    final List<List<Tuple2<String, Double>>> prefixesByCol = detected.prefixesByCol;
+    final List<List<Tuple2<String, Double>>> suffixesByCol = detected.suffixesByCol;
+    final String sampledNote = !detected.isSampled ? "" : String.format(Locale.ROOT,
+        "\nThe database is large, numbers are estimated from %d sampled entries.\n",
+        detected.entries);
 
-      int totalCandidates = 0;
-      int supportedPrefixes = 0;
-      int totalPrefixes = 0;
-      int totalSuffixes = 0;
-      for (int i = 0; i < prefixesByCol.size(); i++) {
-        List<Tuple2<String, Double>> list = prefixesByCol.get(i);
-        totalCandidates += list.size();
-        totalPrefixes += list.size();
-        if (i == 0) {
-          supportedPrefixes = list.size();
-        }
+    int totalCandidates = 0;
+    int supportedPrefixes = 0;
+    int totalPrefixes = 0;
+    int totalSuffixes = 0;
+    for (int i = 0; i < prefixesByCol.size(); i++) {
+      List<Tuple2<String, Double>> list = prefixesByCol.get(i);
+      totalCandidates += list.size();
+      totalPrefixes += list.size();
+      if (i == 0) {
+        supportedPrefixes = list.size();
       }
-      for (List<Tuple2<String, Double>> list : suffixesByCol) {
-        totalCandidates += list.size();
-        totalSuffixes += list.size();
-      }
-
-      String selectedPrefix = null;
-      if (totalCandidates == 0) {
-        String msg = "No candidates for decoy tags found";
-        String[] options = {"Ok"};
-        int result = JOptionPane.showOptionDialog(this, msg, "Nothing found",
-            JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
-
-      } else if (supportedPrefixes == 1) {
-        // good, we've found the one good decoy prefix
-        Tuple2<String, Double> prefix = prefixesByCol.get(0).get(0);
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format(Locale.ROOT,
-            "Found candidate decoy tag: \n\"%s\" in % 3.1f%% entries", prefix.item1,
-            prefix.item2 * 100d));
-        sb.append("\n\nAll found candidates:");
-        appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
-        String[] options = {"Set \"" + prefix.item1 + "\" as decoy tag", "Cancel"};
-        int result = JOptionPane.showOptionDialog(this, sb.toString(), "Found prefix",
-            JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
-        if (result == 0) {
-          selectedPrefix = prefix.item1;
-        }
+    }
+    for (List<Tuple2<String, Double>> list : suffixesByCol) {
+      totalCandidates += list.size();
+      totalSuffixes += list.size();
+    }
 
-      } else if (supportedPrefixes > 1) {
-        // several possible prefixes found
-        StringBuilder sb = new StringBuilder();
-        sb.append("Found several possible supported decoy tag prefixes.\n")
-            .append("Note: only prefixes in the 1st column are supported by downstream tools.\n");
-        appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
-        sb.append("\nOnly supported variants are lsited on buttons below.\n");
-
-        List<Tuple2<String, Double>> supported = prefixesByCol.get(0);
-        String[] options = new String[supported.size() + 1];
-        options[options.length - 1] = "Cancel";
-        for (int i = 0; i < supported.size(); i++) {
-          options[i] = String.format("Set \"%s\"", supported.get(i).item1);
-        }
-        int result = JOptionPane
-            .showOptionDialog(this, sb.toString(), "Found several possible prefixes",
-                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options,
-                options[0]);
-        if (result >= 0 && result < options.length - 1) {
-          selectedPrefix = supported.get(result).item1;
-        }
+    String selectedPrefix = null;
+    if (totalCandidates == 0) {
+      String msg = "No candidates for decoy tags found";
+      String[] options = {"Ok"};
+      int result = JOptionPane.showOptionDialog(this, msg, "Nothing found",
+          JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+
+    } else if (supportedPrefixes == 1) {
+      // good, we've found the one good decoy prefix
+      Tuple2<String, Double> prefix = prefixesByCol.get(0).get(0);
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(Locale.ROOT,
+          "Found candidate decoy tag: \n\"%s\" in % 3.1f%% entries", prefix.item1,
+          prefix.item2 * 100d));
+      sb.append("\n\nAll found candidates:");
+      appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
+      sb.append(sampledNote);
+      String[] options = {"Set \"" + prefix.item1 + "\" as decoy tag", "Cancel"};
+      int result = JOptionPane.showOptionDialog(this, sb.toString(), "Found prefix",
+          JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+      if (result == 0) {
+        selectedPrefix = prefix.item1;
+      }
+
+    } else if (supportedPrefixes > 1) {
+      // several possible prefixes found
+      StringBuilder sb = new StringBuilder();
+      sb.append("Found several possible supported decoy tag prefixes.\n")
+          .append("Note: only prefixes in the 1st column are supported by downstream tools.\n");
+      appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
+      sb.append(sampledNote);
+      sb.append("\nOnly supported variants are lsited on buttons below.\n");
+
+      List<Tuple2<String, Double>> supported = prefixesByCol.get(0);
+      String[] options = new String[supported.size() + 1];
+      options[options.length - 1] = "Cancel";
+      for (int i = 0; i < supported.size(); i++) {
+        options[i] = String.format("Set \"%s\"", supported.get(i).item1);
+      }
+      int result = JOptionPane
+          .showOptionDialog(this, sb.toString(), "Found several possible prefixes",
+              JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options,
+              options[0]);
+      if (result >= 0 && result < options.length - 1) {
+        selectedPrefix = supported.get(result).item1;
+      }
+
+    } else if (supportedPrefixes == 0) {
+      // no prefixes found - this is not supported by downstream tools
+      StringBuilder sb = new StringBuilder();
+      sb.append("No supported decoy tag prefixes found.\n")
+          .append("However found other possible decoy markers, listed below.\n")
+          .append("Note: only prefixes in the 1st column are supported by downstream tools.\n");
+      appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
+      sb.append(sampledNote);
+      String[] options = {"Ok"};
+      int result = JOptionPane.showOptionDialog(this, sb.toString(),
+          "Found incompatible decoy marker candidates",
+          JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+    }
+    if (selectedPrefix != null) {
+      updateDecoyTagSeqDb(selectedPrefix, false);
+    }
 
-      } else if (supportedPrefixes == 0) {
-        // no prefixes found - this is not supported by downstream tools
-        StringBuilder sb = new StringBuilder();
-        sb.append("No supported decoy tag prefixes found.\n")
-            .append("However found other possible decoy markers, listed below.\n")
-            .append("Note: only prefixes in the 1st column are supported by downstream tools.\n");
-        appendFoundPrefixes(sb, prefixesByCol, suffixesByCol);
-        String[] options = {"Ok"};
-        int result = JOptionPane.showOptionDialog(this, sb.toString(),
-            "Found incompatible decoy marker candidates",
-            JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
-      }
-      if (selectedPrefix != null) {
-        updateDecoyTagSeqDb(selectedPrefix, false);
-      }
+  }
 
-    } catch (IOException ex) {
-      JOptionPane.showMessageDialog(btnTryDetectDecoyTag,
-          "<html>Error reading sequence database file", "Error",
-          JOptionPane.ERROR_MESSAGE);
-    }
-  }//GEN-LAST:event_btnTryDetectDecoyTagActionPerformed
 
   private void appendFoundPrefixes(StringBuilder sb,
       List<List<Tuple2<String, Double>>> prefixesByCol,
@@ -4262,39 +4274,6 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 
   }
 
-  private List<Tuple2<String, Double>> cleanUpDecoyTagCandidates(
-      List<Tuple2<String, Double>> candidates) {
-    List<Tuple2<String, Double>> result = new ArrayList<>();
-
-    Collections.sort(candidates, (t1, t2) -> {
-      int cmp0 = Double.compare(Math.abs(t1.item2 - 0.5), Math.abs(t2.item2 - 0.5));
-      if (cmp0 == 0) {
-        cmp0 = t2.item1.compareTo(t1.item1);
-      }
-      return cmp0;
-    });
-
-    for (Tuple2<String, Double> cur : candidates) {
-      boolean isBest = true;
-      for (Tuple2<String, Double> other : candidates) {
-        if (Double.compare(other.item2, cur.item2) == 0) {
-          String curStr = cur.item1;
-          String othStr = other.item1;
-          if (othStr.length() > curStr.length()) {
-            if (othStr.startsWith(curStr) || othStr.endsWith(curStr)) {
-              isBest = false;
-              break;
-            }
-          }
-        }
-      }
-      if (isBest) {
-        result.add(cur);
-      }
-    }
-    return result;
-  }
-
   private void formWindowOpened(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowOpened
 
   }//GEN-LAST:event_formWindowOpened
@@ -4445,6 +4424,79 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     }
   }//GEN-LAST:event_checkEnableDiaumpireStateChanged
 
+  private void checkIncrementalRunActionPerformed(
+      java.awt.event.ActionEvent evt) {//GEN-FIRST:event_checkIncrementalRunActionPerformed
+    ThisAppProps.save(checkIncrementalRun, ThisAppProps.PROP_RUN_INCREMENTAL);
+  }//GEN-LAST:event_checkIncrementalRunActionPerformed
+
+  private void btnCacheSettingsActionPerformed(
+      java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnCacheSettingsActionPerformed
+    final JPanel panel = new JPanel(new GridLayout(0, 1, 0, 3));
+    final List<Runnable> savers = new ArrayList<>();
+    savers.add(addCacheSettings(panel, "Reuse MSFragger search results",
+        ThisAppProps.PROP_MSFRAGGER_CACHE_ENABLED, ThisAppProps.PROP_MSFRAGGER_CACHE_DIR,
+        ThisAppProps.PROP_MSFRAGGER_CACHE_MAX_GB, CmdMsfragger.DEFAULT_CACHE_MAX_GB,
+        CmdMsfragger.createCache("", 0).getDir()));
+    savers.add(addCacheSettings(panel, "Reuse MSFragger peptide indexes",
+        ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_ENABLED,
+        ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_DIR,
+        ThisAppProps.PROP_MSFRAGGER_INDEX_CACHE_MAX_GB, CmdMsfragger.DEFAULT_INDEX_CACHE_MAX_GB,
+        CmdMsfragger.createIndexCache("", 0).getDir()));
+    savers.add(addCacheSettings(panel, "Reuse generated decoy databases",
+        ThisAppProps.PROP_DECOY_DB_CACHE_ENABLED, ThisAppProps.PROP_DECOY_DB_CACHE_DIR,
+        ThisAppProps.PROP_DECOY_DB_CACHE_MAX_GB, DecoyDbGenerator.DEFAULT_CACHE_MAX_GB,
+        DecoyDbGenerator.createCache("", 0).getDir()));
+    if (JOptionPane.OK_OPTION == JOptionPane.showConfirmDialog(this, panel,
+        "Cache", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE)) {
+      savers.forEach(Runnable::run);
+    }
+  }//GEN-LAST:event_btnCacheSettingsActionPerformed
+
+  /**
+   * Adds controls for one cache to the cache settings dialog.
+   * @return Saves the values when called.
+   */
+  private static Runnable addCacheSettings(JPanel panel, String title, String propEnabled,
+      String propDir, String propMaxGb, double defaultMaxGb, Path defaultDir) {
+    final JCheckBox checkEnabled = new JCheckBox(title,
+        Boolean.parseBoolean(ThisAppProps.load(propEnabled, "false")));
+    final JTextField textDir = new JTextField(ThisAppProps.load(propDir, ""), 30);
+    textDir.setToolTipText("<html>Empty for the default:<br/>" + defaultDir);
+    final JTextField textMaxGb = new JTextField(
+        ThisAppProps.load(propMaxGb, Double.toString(defaultMaxGb)), 6);
+    final JButton btnDir = new JButton("Browse");
+    btnDir.addActionListener(e -> {
+      JFileChooser fc = new JFileChooser();
+      fc.setDialogTitle("Select cache directory");
+      fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+      SwingUtils.setFileChooserPath(fc, textDir.getText().trim().isEmpty()
+          ? defaultDir.toString() : textDir.getText().trim());
+      if (fc.showOpenDialog(btnDir) == JFileChooser.APPROVE_OPTION) {
+        textDir.setText(fc.getSelectedFile().getAbsolutePath());
+      }
+    });
+    final JPanel panelDir = new JPanel(new BorderLayout(5, 0));
+    panelDir.add(new JLabel("Location (empty for default):"), BorderLayout.WEST);
+    panelDir.add(textDir, BorderLayout.CENTER);
+    panelDir.add(btnDir, BorderLayout.EAST);
+    final JPanel panelSize = new JPanel(new FlowLayout(FlowLayout.LEADING, 5, 0));
+    panelSize.add(new JLabel("Max size, GB:"));
+    panelSize.add(textMaxGb);
+    panel.add(checkEnabled);
+    panel.add(panelDir);
+    panel.add(panelSize);
+    return () -> {
+      ThisAppProps.save(propEnabled, Boolean.toString(checkEnabled.isSelected()));
+      ThisAppProps.save(propDir, textDir.getText().trim());
+      try {
+        Double.parseDouble(textMaxGb.getText().trim());
+        ThisAppProps.save(propMaxGb, textMaxGb.getText().trim());
+      } catch (NumberFormatException e) {
+        log.warn("Not a number for cache size, keeping the old one: {}", textMaxGb.getText());
+      }
+    };
+  }
+
   private void checkGenerateSpecLibActionPerformed(
       java.awt.event.ActionEvent evt) {//GEN-FIRST:event_checkGenerateSpecLibActionPerformed
     ThisAppProps.save(checkGenerateSpecLib, ThisAppProps.PROP_SPECLIBGEN_RUN);
@@ -4578,6 +4630,34 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
     removeOldSavedDecoyTagValue(textPepProphCmd, "--decoy");
   }
 
+  private void loadLastPepProphParallel() {
+    try {
+      int parallel = Integer.parseInt(
+          ThisAppProps.load(ThisAppProps.PROP_PEPTIDE_PROPHET_PARALLEL, "1").trim());
+      spinnerPepProphParallel.setValue(Math.max(1, parallel));
+    } catch (NumberFormatException ignored) {
+    }
+  }
+
+  /**
+   * Number of pepxml files PeptideProphet processes at the same time, never more than
+   * the number of threads given to MSFragger.
+   */
+  private int getPepProphParallel() {
+    final int threads = fraggerMigPanel.getThreads() > 0 ? fraggerMigPanel.getThreads()
+        : Runtime.getRuntime().availableProcessors();
+    return Math.max(1, Math.min((Integer) spinnerPepProphParallel.getValue(), threads));
+  }
+
+  private void loadLastCrystalcParallel() {
+    try {
+      int parallel = Integer.parseInt(
+          ThisAppProps.load(ThisAppProps.PROP_CRYSTALC_PARALLEL, "1").trim());
+      spinnerCrystalcParallel.setValue(Math.max(1, parallel));
+    } catch (NumberFormatException ignored) {
+    }
+  }
+
   private static void removeOldSavedDecoyTagValue(JTextComponent jtc, String tagName) {
     final String text = jtc.getText().trim();
     //Pattern compile = Pattern.compile("--decoy(?:\\s+?[^-]\\S+)?");
@@ -4716,16 +4796,9 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
         if (!Files.exists(p)) {
           return;
         }
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(Files.newInputStream(p),
-            StandardCharsets.UTF_8))) {
-          String line;
-          final List<String> descriptors = new ArrayList<>();
-          while ((line = br.readLine()) != null) {
-            if (!line.startsWith(">")) {
-              continue;
-            }
-            descriptors.add(line);
-          }
+        try {
+          // only scanned the first time, or when the file has changed
+          final FastaIndex idx = FastaIndex.get(p, false, null);
           SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -4734,11 +4807,21 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
               otherSymbols.setDecimalSeparator(',');
               otherSymbols.setGroupingSeparator(' ');
               DecimalFormat df = new DecimalFormat(format, otherSymbols);
-              lblFastaCount.setText(String.format("%s entries", df.format(descriptors.size())));
+              lblFastaCount.setText(String.format("%s entries", df.format(idx.size())));
+              StringBuilder tip = new StringBuilder("<html>Number of proteins in fasta file");
+              idx.getDecoyCounts().forEach((tag, count) -> tip.append(String.format(Locale.ROOT,
+                  "<br/>%s with \"%s\" prefix", df.format(count), tag)));
+              if (idx.getDuplicateCount() > 0) {
+                tip.append(String.format(Locale.ROOT, "<br/>%s with duplicate accessions",
+                    df.format(idx.getDuplicateCount())));
+              }
+              lblFastaCount.setToolTipText(tip.toString());
             }
           });
         } catch (IOException ex) {
           return;
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
         }
       });
       thread.start();
@@ -4838,9 +4921,12 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
 
   private void addChangeListenerTextSequenceDb() {
     SwingUtils.addChangeListener(textSequenceDbPath, e -> {
+      final boolean isDbSet = !StringUtils.isNullOrWhitespace(textSequenceDbPath.getText());
       if (btnTryDetectDecoyTag != null) {
-        btnTryDetectDecoyTag
-            .setEnabled(!StringUtils.isNullOrWhitespace(textSequenceDbPath.getText()));
+        btnTryDetectDecoyTag.setEnabled(isDbSet);
+      }
+      if (btnAddDecoys != null) {
+        btnAddDecoys.setEnabled(isDbSet);
       }
     });
 
@@ -5329,10 +5415,13 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
   private javax.swing.JButton btnSelectWrkingDir;
   private javax.swing.JButton btnStop;
   private javax.swing.JButton btnTryDetectDecoyTag;
+  private javax.swing.JButton btnAddDecoys;
+  private javax.swing.JButton btnCacheSettings;
   private javax.swing.JCheckBox checkCreateReport;
   private javax.swing.JCheckBox checkDryRun;
   private javax.swing.JCheckBox checkEnableDiaumpire;
   private javax.swing.JCheckBox checkGenerateSpecLib;
+  private javax.swing.JCheckBox checkIncrementalRun;
   private javax.swing.JCheckBox checkLabelfree;
   private javax.swing.JCheckBox checkProcessGroupsSeparately;
   private javax.swing.JCheckBox checkReportAbacus;
@@ -5351,6 +5440,8 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
   private javax.swing.JLabel jLabel34;
   private javax.swing.JLabel jLabel4;
   private javax.swing.JLabel jLabel40;
+  private javax.swing.JLabel jLabel41;
+  private javax.swing.JLabel jLabel42;
   private javax.swing.JLabel jLabel5;
   private javax.swing.JLabel jLabel6;
   private javax.swing.JLabel jLabel7;
@@ -5398,7 +5489,9 @@ public class MsfraggerGuiFrame extends javax.swing.JFrame {
   private javax.swing.JSpinner spinnerCrystalcMassTol;
   private javax.swing.JSpinner spinnerCrystalcMaxCharge;
   private javax.swing.JSpinner spinnerCrystalcNumIsotopes;
+  private javax.swing.JSpinner spinnerCrystalcParallel;
   private javax.swing.JSpinner spinnerCrystalcPrecIsoWindow;
+  private javax.swing.JSpinner spinnerPepProphParallel;
   private javax.swing.JTabbedPane tabPane;
   private javax.swing.JTextField textBinMsfragger;
   private javax.swing.JTextField textBinPhilosopher;
@@ -20,31 +20,54 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import umich.msfragger.cmd.ProcessBuilderInfo;
+import umich.msfragger.util.ByteRingBuffer;
+import umich.msfragger.util.StreamPump;
 import umich.msfragger.util.StringUtils;
 
 class ProcessResult implements AutoCloseable {
 
+  private static final int RING_SIZE = 1 << 16;
+  /** How long to wait for output after the process exited, child processes might hold the pipes. */
+  private static final long OUTPUT_GRACE_MS = 1000;
+  /** How long to wait for the pumps to stop when closing. */
+  private static final long PUMP_JOIN_MS = 1000;
+  /**
+   * Only the end of the output is kept for error reporting, the whole of it goes to the
+   * console and the redirect files as it's read.
+   */
+  private static final int OUTPUT_TAIL_CHARS = 1 << 16;
+
   private final ProcessBuilderInfo pbi;
 
   private boolean started;
-  private StringBuilder output = new StringBuilder();
+  private final StringBuilder output = new StringBuilder();
   private Integer exitCode;
   private Process proc;
-  private InputStream stdOut;
-  private InputStream stdErr;
+  private final ByteRingBuffer ring = new ByteRingBuffer(RING_SIZE);
+  private long exitedAt = -1;
   private BufferedOutputStream stdErrRedirect;
   private BufferedOutputStream stdOutRedirect;
+  private final List<Thread> pumps = new ArrayList<>();
 
   public ProcessResult(ProcessBuilderInfo pbi) {
     this.pbi = pbi;
   }
 
+  /**
+   * Starts the process along with two threads pumping its stdout and stderr to the
+   * redirect files (if any) and to a buffer to be read with {@link #awaitOutput(long)}.
+   */
   public Process start() throws IOException {
+    if (pbi.isInProcess()) {
+      throw new IllegalStateException("In-process steps are not started as processes");
+    }
     stdOutRedirect = redirectToFile(pbi.pb, pbi.fnStdOut);
     if (pbi.fnStdErr != null && pbi.fnStdErr.equals(pbi.fnStdOut)) {
       stdErrRedirect = stdOutRedirect;
@@ -53,45 +76,93 @@ class ProcessResult implements AutoCloseable {
     }
 
     proc = pbi.pb.start();
-    stdOut = proc.getInputStream();
-    stdErr = proc.getErrorStream();
+    final String name = pbi.name == null ? "process" : pbi.name;
+    pumps.add(new StreamPump(proc.getErrorStream(), stdErrRedirect, ring).start(name + "-stderr"));
+    pumps.add(new StreamPump(proc.getInputStream(), stdOutRedirect, ring).start(name + "-stdout"));
     started = true;
     return proc;
   }
 
   @Override
   public void close() throws Exception {
+    // unblocks pumps waiting for room in the ring
+    ring.close();
+    // the pumps write to the redirect files, they must be stopped before those are closed
+    if (!joinPumps() && proc != null) {
+      // some child process still holds the pipes, make the pumps' reads fail
+      proc.getInputStream().close();
+      proc.getErrorStream().close();
+      joinPumps();
+    }
     if (stdOutRedirect != null) {
       stdOutRedirect.close();
     }
-    if (stdErrRedirect != null) {
+    if (stdErrRedirect != null && stdErrRedirect != stdOutRedirect) {
       stdErrRedirect.close();
     }
   }
 
-  public Process getProc() {
-    return proc;
-  }
-
-  public byte[] pollStdOut() throws IOException {
-    return poll(stdOut);
+  /**
+   * @return True if all pumps stopped.
+   */
+  private boolean joinPumps() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + PUMP_JOIN_MS;
+    for (Thread t : pumps) {
+      t.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+    for (Thread t : pumps) {
+      if (t.isAlive()) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  public byte[] pollStdErr() throws IOException {
-    return poll(stdErr);
+  public Process getProc() {
+    return proc;
   }
 
-  private static byte[] poll(InputStream is) throws IOException {
-    if (is == null) {
+  /**
+   * Blocks until the process writes something to either of its output streams, the output
+   * is over or the timeout expires.
+   *
+   * @return Combined stdout and stderr output since the last call, or null if there was none.
+   */
+  public String awaitOutput(long timeoutMs) throws InterruptedException {
+    byte[] bytes = ring.read(timeoutMs);
+    if (bytes == null || bytes.length == 0) {
       return null;
     }
-    int available = is.available();
-    if (available > 0) {
-      byte[] bytes = new byte[available];
-      int read = is.read(bytes);
-      return bytes;
+    String s = new String(bytes, UTF_8);
+    output.append(s);
+    if (output.length() > 2 * OUTPUT_TAIL_CHARS) {
+      output.delete(0, output.length() - OUTPUT_TAIL_CHARS);
     }
-    return null;
+    return s;
+  }
+
+  /**
+   * True once the process exited and all of its output was read with
+   * {@link #awaitOutput(long)}. If the output streams stay open for longer than a grace period
+   * after the process exited, anything still buffered can be picked up with one more call
+   * to {@link #awaitOutput(long)}.
+   */
+  public boolean isDone() throws InterruptedException {
+    if (!ring.isDrained()) {
+      if (proc.isAlive()) {
+        return false;
+      }
+      // the process is gone, but something it started may still hold the output pipes
+      final long now = System.nanoTime();
+      if (exitedAt < 0) {
+        exitedAt = now;
+      }
+      if (TimeUnit.NANOSECONDS.toMillis(now - exitedAt) < OUTPUT_GRACE_MS) {
+        return false;
+      }
+    }
+    proc.waitFor();
+    return true;
   }
 
   /**
@@ -103,7 +174,7 @@ class ProcessResult implements AutoCloseable {
     }
     final Path pathLogOut = pb.directory().toPath().resolve(fn);
     if (!Files.exists(pathLogOut.getParent())) {
-      Files.createDirectories(pathLogOut);
+      Files.createDirectories(pathLogOut.getParent());
     }
     return new BufferedOutputStream(Files
         .newOutputStream(pathLogOut, StandardOpenOption.CREATE,
@@ -118,29 +189,12 @@ class ProcessResult implements AutoCloseable {
     return started;
   }
 
-  public StringBuilder getOutput() {
-    return output;
-  }
-
-  public String appendOut(byte[] bytes) throws IOException {
-    return append(bytes, stdOutRedirect);
-  }
-
-  public String appendErr(byte[] bytes) throws IOException {
-    return append(bytes, stdErrRedirect);
-  }
-
-  private String append(byte[] bytes, BufferedOutputStream bos) throws IOException {
-    if (bytes == null || bytes.length == 0) {
-      return null;
-    }
-    String s = new String(bytes, UTF_8);
-    output.append(s);
-    if (bos != null) {
-      bos.write(bytes);
-      bos.flush();
-    }
-    return s;
+  /**
+   * The last {@value #OUTPUT_TAIL_CHARS} characters of the output read so far.
+   */
+  public String getOutputTail() {
+    return output.length() <= OUTPUT_TAIL_CHARS ? output.toString()
+        : output.substring(output.length() - OUTPUT_TAIL_CHARS);
   }
 
   public Integer getExitCode() {
@@ -16,14 +16,362 @@
  */
 package umich.msfragger.gui;
 
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import umich.msfragger.cmd.DagScheduler;
+import umich.msfragger.cmd.InProcessStep;
+import umich.msfragger.cmd.ProcessBuilderInfo;
+import umich.msfragger.cmd.ProcessBuildersDescriptor;
+import umich.msfragger.cmd.RunTelemetry;
+import umich.msfragger.cmd.SchedulingInfo;
+import umich.msfragger.cmd.StepManifest;
+import umich.msfragger.util.CpuAffinity;
+import umich.msfragger.util.LogUtils;
+import umich.msfragger.util.ProcessTreeSampler;
+import umich.msfragger.util.StringUtils;
+import umich.swing.console.TextConsole;
+
 /**
+ * Runs a single pipeline step and reports progress and process output. Output goes to
+ * a {@link TextConsole} in the GUI, or to any other {@link Appendable}, e.g. System.out
+ * for headless runs.
  *
  * @author dmitriya
  */
 public class ProcessRunner {
+    public static final Color COLOR_TOOL = new Color(140, 3, 89);
+    public static final Color COLOR_WORK_DIR = new Color(6, 2, 140);
+    public static final Color COLOR_CMD_LINE = new Color(0, 107, 109);
+    public static final Color COLOR_OK = new Color(104, 184, 55);
+    public static final Color COLOR_FAIL = new Color(236, 99, 80);
+    public static final Color COLOR_BLACK = new Color(0, 0, 0);
+
+    /**
+     * Steps run on several threads at once, lines that are printed piece by piece or that
+     * belong together are printed while holding this lock.
+     */
+    private static final Object OUTPUT_LOCK = new Object();
+
     Appendable[] outs;
+    private volatile StepManifest manifest;
+    private volatile Set<ProcessBuilderInfo> upToDate = Collections.emptySet();
+    private final RunTelemetry telemetry = new RunTelemetry();
 
     public ProcessRunner(Appendable... outs) {
         this.outs = outs;
     }
+
+    /**
+     * Enables incremental runs: steps that the manifest knows to be up to date are skipped,
+     * successful tracked steps are recorded in it.
+     *
+     * @param pbis All the steps that are going to be run.
+     */
+    public void useStepManifest(StepManifest manifest, List<ProcessBuilderInfo> pbis) {
+        this.manifest = manifest;
+        this.upToDate = manifest.upToDate(pbis);
+        if (!upToDate.isEmpty()) {
+            println(String.format(Locale.ROOT,
+                "%d of %d commands are up to date and will be skipped. "
+                    + "Delete %s to re-run everything.",
+                upToDate.size(), pbis.size(), manifest.getFile()));
+        }
+    }
+
+    /**
+     * Makes the scheduler give each running step its own CPUs. The processes are then pinned
+     * to those with taskset, see {@link #run(ProcessBuilderInfo, List)}.
+     * @return False if pinning is not possible on this system.
+     */
+    public boolean enableCpuPinning(DagScheduler scheduler) {
+        final List<Integer> cpus = CpuAffinity.allowedCpus();
+        if (cpus.isEmpty() || !CpuAffinity.isTasksetAvailable()) {
+            println("CPU pinning requested, but taskset or the list of CPUs is not available, "
+                + "processes will not be pinned.");
+            return false;
+        }
+        scheduler.pinCpus(cpus);
+        println("Processes will be pinned to CPUs: " + CpuAffinity.formatList(cpus));
+        return true;
+    }
+
+    public RunTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Prints the resource usage summary of the steps run so far and writes the details
+     * to {@link RunTelemetry#FILE_NAME} and the timeline to {@link RunTelemetry#FILE_NAME_TRACE}
+     * in the working directory.
+     */
+    public void reportTelemetry(Path wd) {
+        if (telemetry.getSteps().isEmpty()) {
+            return;
+        }
+        final List<String> lines = telemetry.summary();
+        if (!lines.isEmpty()) {
+            println("");
+            println("Resource usage:");
+            for (String line : lines) {
+                println(line);
+            }
+        }
+        final Path file = wd.resolve(RunTelemetry.FILE_NAME);
+        try {
+            telemetry.write(file);
+            println("Details per command written to: " + file);
+        } catch (IOException e) {
+            println("Could not write resource usage to: " + file + "\n" + e.getMessage());
+        }
+        final Path trace = wd.resolve(RunTelemetry.FILE_NAME_TRACE);
+        try {
+            telemetry.writeChromeTrace(trace);
+            println("Timeline of the run (open in chrome://tracing or ui.perfetto.dev): " + trace);
+        } catch (IOException e) {
+            println("Could not write timeline to: " + trace + "\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * One {@link ProcessBuilderInfo} per process builder, output of steps that run side by side
+     * with others goes to the log file from their {@link SchedulingInfo}.
+     */
+    public static List<ProcessBuilderInfo> toProcessBuilderInfos(List<ProcessBuildersDescriptor> pbDescs) {
+        return pbDescs.stream()
+            .flatMap(pbd -> pbd.pbs.stream().map(pb -> {
+                final SchedulingInfo si = pbd.getScheduling(pb);
+                final InProcessStep step = pbd.getInProcess(pb);
+                if (si != null && si.getLog() != null) {
+                    return new ProcessBuilderInfo(pb, pbd.name, si.getLog(), si.getLog(), si, step);
+                }
+                return new ProcessBuilderInfo(pb, pbd.name,
+                    pbd.fileCaptureStdout, pbd.fileCaptureStderr, si, step);
+            }))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Lists the commands that are going to be run.
+     */
+    public void printCommands(List<ProcessBuilderInfo> pbis) {
+        synchronized (OUTPUT_LOCK) {
+            println(String.format(Locale.ROOT, "%d commands to execute:", pbis.size()));
+            for (final ProcessBuilderInfo pbi : pbis) {
+                final StringBuilder sb = new StringBuilder();
+                if (!StringUtils.isNullOrWhitespace(pbi.name)) {
+                    sb.append(pbi.name);
+                }
+                if (pbi.pb.directory() != null) {
+                    sb.append(" [Work dir: ").append(pbi.pb.directory()).append("]");
+                }
+                print(COLOR_TOOL, sb.toString(), true);
+                print(COLOR_CMD_LINE, pbi.describe(), true);
+            }
+            println("~~~~~~~~~~~~~~~~~~~~~~");
+            println("");
+            println("");
+        }
+    }
+
+    /**
+     * Runs the process and waits for it to finish. Interrupting the calling thread kills
+     * the process.
+     * @return True if the process exited with zero exit code.
+     */
+    public boolean run(ProcessBuilderInfo pbi) {
+        return run(pbi, Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #run(ProcessBuilderInfo)}, pinning the process to the given CPUs.
+     * @param cpus Empty for no pinning.
+     */
+    public boolean run(ProcessBuilderInfo pbi, List<Integer> cpus) {
+        if (upToDate.contains(pbi)) {
+            synchronized (OUTPUT_LOCK) {
+                print(COLOR_TOOL, timestamp() + " Up to date, skipping [" + pbi.name + "]", true);
+                print(COLOR_CMD_LINE, "$> " + pbi.describe(), true);
+            }
+            final long now = System.currentTimeMillis();
+            telemetry.add(new RunTelemetry.Step(pbi.name, pbi.describe(),
+                Thread.currentThread().getName(), inputs(pbi), now, now, 0,
+                pbi.isInProcess(), true, null));
+            return true;
+        }
+        final StepManifest m = manifest;
+        if (m == null || !StepManifest.isTracked(pbi)) {
+            return execute(pbi, cpus);
+        }
+        final Map<Path, StepManifest.FileState> inputs = m.begin(pbi);
+        final boolean isOk = execute(pbi, cpus);
+        if (isOk) {
+            m.finish(pbi, inputs);
+        }
+        return isOk;
+    }
+
+    private boolean execute(ProcessBuilderInfo pbi, List<Integer> cpus) {
+        final ProcessResult pr = new ProcessResult(pbi);
+        final String command = pbi.describe();
+        final long startMs = System.currentTimeMillis();
+        final boolean inProcess = pbi.isInProcess();
+        ProcessTreeSampler sampler = null;
+        ProcessTreeSampler.Usage usage = null;
+        int exitCode = -1;
+
+        try { // External Processes start in this try block
+
+            final String workDirToPrint = pbi.pb.directory() == null ? "N/A" : pbi.pb.directory().toString();
+            synchronized (OUTPUT_LOCK) {
+                print(COLOR_TOOL, timestamp() + (inProcess ? " Executing in-process ["
+                    : " Executing command [") + pbi.name + "] from working dir: " + workDirToPrint,
+                    true);
+                print(COLOR_CMD_LINE, (inProcess ? "" : "$> ") + command, true);
+            }
+
+            if (inProcess) {
+                pbi.inProcess.run();
+                exitCode = 0;
+                print(COLOR_OK, "Finished in-process", true);
+                println(describe(System.currentTimeMillis() - startMs, null));
+                return true;
+            }
+
+            // output of processes running side by side goes to their own log files only
+            final boolean isToConsole = pbi.sched == null || pbi.sched.getLog() == null;
+            final Process proc;
+            if (cpus.isEmpty()) {
+                proc = pr.start();
+            } else {
+                println("Pinned to CPUs: " + CpuAffinity.formatList(cpus));
+                final List<String> original = pbi.pb.command();
+                pbi.pb.command(CpuAffinity.wrap(cpus, original));
+                try {
+                    proc = pr.start();
+                } finally {
+                    pbi.pb.command(original);
+                }
+            }
+            sampler = ProcessTreeSampler.start(proc, ProcessTreeSampler.DEFAULT_INTERVAL_MS);
+            println(timestamp() + " Process started");
+            if (!isToConsole) {
+                println("Output is written to: "
+                    + pbi.pb.directory().toPath().resolve(pbi.sched.getLog()));
+            }
+
+            while (!pr.isDone()) {
+                // returns as soon as there is new output or the streams are closed
+                String outStr = pr.awaitOutput(200L);
+                if (isToConsole && !StringUtils.isNullOrWhitespace(outStr)) {
+                    print(outStr);
+                }
+            }
+            String outStr = pr.awaitOutput(0L);
+            if (isToConsole && !StringUtils.isNullOrWhitespace(outStr)) {
+                print(outStr);
+            }
+            final int exitValue = proc.waitFor();
+            exitCode = exitValue;
+            pr.setExitCode(exitValue);
+            if (sampler != null) {
+                usage = sampler.stop();
+                sampler = null;
+            }
+            print(exitValue == 0 ? COLOR_OK : COLOR_FAIL, String.format(
+                Locale.ROOT, "Process finished, exit value: %d [%s]", exitValue,
+                isToConsole ? pbi.name : command), true);
+            println(describe(System.currentTimeMillis() - startMs, usage));
+            return exitValue == 0;
+
+        } catch (IOException ex) {
+            println(String.format(Locale.ROOT, "IOException: Error in process,\n%s", ex.getMessage()));
+            return false;
+        } catch (InterruptedException ex) {
+            final Process proc = pr.getProc();
+            if (proc != null) {
+                proc.destroy();
+            }
+            println(String.format(Locale.ROOT, "InterruptedException: Error in process,\n%s",
+                ex.getMessage()));
+            return false;
+        } finally {
+            if (sampler != null) {
+                usage = sampler.stop();
+            }
+            telemetry.add(new RunTelemetry.Step(pbi.name, command, Thread.currentThread().getName(),
+                inputs(pbi), startMs, System.currentTimeMillis(), exitCode, inProcess, false,
+                usage));
+            try {
+                pr.close();
+            } catch (Exception e) {
+                println("Error while closing redirected output streams from process, details:\n\n"
+                    + LogUtils.stacktrace(e));
+            }
+        }
+    }
+
+    private static List<Path> inputs(ProcessBuilderInfo pbi) {
+        return pbi.sched == null ? Collections.emptyList() : new ArrayList<>(pbi.sched.inputs);
+    }
+
+    private static String describe(long wallMs, ProcessTreeSampler.Usage u) {
+        if (u == null) {
+            return "Wall time: " + RunTelemetry.formatMs(wallMs);
+        }
+        return String.format(Locale.ROOT,
+            "Wall time: %s, CPU: %s user + %s sys, peak RSS: %s, read: %s, written: %s",
+            RunTelemetry.formatMs(wallMs), RunTelemetry.formatMs(u.userMs),
+            RunTelemetry.formatMs(u.sysMs), RunTelemetry.formatBytes(u.peakRssKb * 1024),
+            RunTelemetry.formatBytes(u.readBytes), RunTelemetry.formatBytes(u.writeBytes));
+    }
+
+    /**
+     * Output is appended from the calling thread, {@link TextConsole} takes care of the EDT itself.
+     */
+    public void print(String s) {
+        synchronized (OUTPUT_LOCK) {
+            for (Appendable out : outs) {
+                LogUtils.print(out, s, false);
+            }
+        }
+    }
+
+    public void println(String s) {
+        synchronized (OUTPUT_LOCK) {
+            for (Appendable out : outs) {
+                LogUtils.println(out, s, false);
+            }
+        }
+    }
+
+    /**
+     * Colors are only used for {@link TextConsole}, other outputs get plain text.
+     */
+    public void print(Color c, String s, boolean appendNewLine) {
+        synchronized (OUTPUT_LOCK) {
+            for (Appendable out : outs) {
+                if (out instanceof TextConsole) {
+                    LogUtils.print(c, (TextConsole) out, s, appendNewLine);
+                } else if (appendNewLine) {
+                    LogUtils.println(out, s, false);
+                } else {
+                    LogUtils.print(out, s, false);
+                }
+            }
+        }
+    }
+
+    private static String timestamp() {
+        return "[" + LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_TIME) + "]";
+    }
 }
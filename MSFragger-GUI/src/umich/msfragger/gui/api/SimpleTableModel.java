@@ -18,7 +18,9 @@ package umich.msfragger.gui.api;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.swing.table.AbstractTableModel;
 
 /**
@@ -67,7 +69,8 @@ public class SimpleTableModel<T> extends AbstractTableModel {
     }
 
     public synchronized boolean dataRemoveAll(Collection<?> c) {
-        boolean hasChanged = data.removeAll(c);
+        // removeAll() calls contains() for every row, don't make that a linear search
+        boolean hasChanged = data.removeAll(c instanceof Set ? c : new HashSet<>(c));
         if (hasChanged) {
             fireTableDataChanged();
         }
@@ -95,7 +98,7 @@ public class SimpleTableModel<T> extends AbstractTableModel {
         int originalSize = data.size();
         boolean hasChanged = data.addAll(c);
         if (hasChanged)
-            fireTableRowsInserted(originalSize, c.size()-1);
+            fireTableRowsInserted(originalSize, data.size()-1);
         return hasChanged;
     }
     
@@ -76,6 +76,8 @@ public class ThisAppProps extends Properties {
 
   public static final String PROP_TEXT_CMD_PEPTIDE_PROPHET = "peptideprophet.cmd.line.opts";
   public static final String PROP_TEXT_CMD_PROTEIN_PROPHET = "proteinprophet.cmd.line.opts";
+  public static final String PROP_PEPTIDE_PROPHET_PARALLEL = "peptideprophet.parallel";
+  public static final String PROP_CRYSTALC_PARALLEL = "crystalc.parallel";
 
   public static final String PROP_MSADJUSTER_USE = "msadjuster.use";
   public static final String PROP_CRYSTALC_USE = "crystalc.use";
@@ -83,6 +85,22 @@ public class ThisAppProps extends Properties {
 
   public static final String PROP_MGF_WARNING = "warn.mgf";
 
+  public static final String PROP_RUN_MAX_CORES = "run.max.cores";
+  public static final String PROP_RUN_MAX_RAM_GB = "run.max.ram.gb";
+  public static final String PROP_CONSOLE_MAX_LINES = "console.max.lines";
+  public static final String PROP_RUN_INCREMENTAL = "run.incremental";
+  public static final String PROP_RUN_PIN_CPUS = "run.pin.cpus";
+  public static final String PROP_MSFRAGGER_CACHE_ENABLED = "msfragger.cache.enabled";
+  public static final String PROP_MSFRAGGER_CACHE_DIR = "msfragger.cache.dir";
+  public static final String PROP_MSFRAGGER_CACHE_MAX_GB = "msfragger.cache.max.gb";
+  public static final String PROP_MSFRAGGER_BATCH_SIZE = "msfragger.batch.size";
+  public static final String PROP_MSFRAGGER_INDEX_CACHE_ENABLED = "msfragger.index.cache.enabled";
+  public static final String PROP_MSFRAGGER_INDEX_CACHE_DIR = "msfragger.index.cache.dir";
+  public static final String PROP_MSFRAGGER_INDEX_CACHE_MAX_GB = "msfragger.index.cache.max.gb";
+  public static final String PROP_DECOY_DB_CACHE_ENABLED = "decoy.db.cache.enabled";
+  public static final String PROP_DECOY_DB_CACHE_DIR = "decoy.db.cache.dir";
+  public static final String PROP_DECOY_DB_CACHE_MAX_GB = "decoy.db.cache.max.gb";
+
   public static final String JAR_FILE_AS_RESOURCE_EXT = ".jazz";
   public static final Path UNPACK_TEMP_SUBDIR = Paths.get("fragpipe");
   public static final String DEFAULT_LCMS_GROUP_NAME = "";
@@ -0,0 +1,561 @@
+package umich.msfragger.params.dbslice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Steps of an MSFragger search split over slices of the database, everything except running
+ * MSFragger itself: splitting the database, combining the score histograms of the slices and
+ * merging the per slice pepXML files. Run in-process as steps of the pipeline, see
+ * {@link umich.msfragger.cmd.ToolingUtils#stepDbSliceMerge}.<br/>
+ * Each slice is searched in its own sub-directory of the temp dir, see {@link #sliceDir(Path, int)},
+ * with {@code --partial slice-number}. Expect value functions are then generated from the
+ * combined histograms with {@code --generate_expect_functions} in the temp dir.<br/>
+ * pepXML files are handled line by line rather than with an XML parser: MSFragger writes one
+ * element per line, and the merged file is byte for byte what the Python script that was used
+ * before wrote, only the hits and their scores change. Re-serializing with an XML writer would
+ * reformat every element of files that are often gigabytes large.
+ */
+public class DbSliceSteps {
+  public static final String TEMP_DIR_NAME = "split_peptide_index_tempdir";
+  /** pepXML and FASTA are copied byte for byte, whatever their encoding. */
+  private static final Charset CS = StandardCharsets.ISO_8859_1;
+
+  private static final Pattern RE_DATABASE_NAME =
+      Pattern.compile("^database_name\\s*=\\s*(.+?)$", Pattern.MULTILINE);
+  private static final Pattern RE_TOP_N =
+      Pattern.compile("^output_report_topN *= *(\\d+)", Pattern.MULTILINE);
+  private static final Pattern RE_MAX_EXPECT =
+      Pattern.compile("^output_max_expect *= *(\\S+)", Pattern.MULTILINE);
+  private static final double DEFAULT_MAX_EXPECT = 50.0;
+  private static final Pattern RE_INDEX = Pattern.compile(" index=\"(\\d+)\"");
+  private static final Pattern RE_DATE = Pattern.compile("date=\"(.+?)\"");
+  private static final Pattern RE_SUMMARY_XML = Pattern.compile("summary_xml=\"(.+?)\"");
+  private static final Pattern RE_MASSDIFF = Pattern.compile(" massdiff=\"(.+?)\"");
+  private static final Pattern RE_HIT_RANK = Pattern.compile("(hit_rank=\")[^\"]*(\")");
+  /** The same hit found in several slices differs only in these. */
+  private static final Pattern RE_HIT_KEY =
+      Pattern.compile("(?<=hit_rank=\")(\\d+)(?=\" )|(?<=protein=\")(.+?)(?=\" )");
+  private static final String SCORE_HYPER = "<search_score name=\"hyperscore\" value=\"";
+  private static final String SCORE_NEXT = "<search_score name=\"nextscore\" value=\"";
+  private static final String SCORE_EXPECT = "<search_score name=\"expect\" value=\"";
+
+  private DbSliceSteps() {}
+
+  public static Path sliceDir(Path tempDir, int slice) {
+    return tempDir.resolve(Integer.toString(slice));
+  }
+
+  public static String histogramFn(String stem) {
+    return stem + "_scores_histogram.tsv";
+  }
+
+  public static String expectFn(String stem) {
+    return stem + "_expectscore.tsv";
+  }
+
+  /**
+   * Splits the proteins of the database into contiguous slices, sizes differ by one at most,
+   * and writes a copy of the parameter file pointing to the slice into each slice directory.
+   * The temp dir is cleared first.
+   */
+  public static void split(Path tempDir, int numSlices, Path fasta, Path params)
+      throws IOException {
+    cleanup(tempDir);
+    final String fastaFn = fasta.getFileName().toString();
+    final String paramsText = new String(Files.readAllBytes(params), CS);
+    final String sliceParams = RE_DATABASE_NAME.matcher(paramsText)
+        .replaceAll(Matcher.quoteReplacement("database_name = " + fastaFn));
+    for (int i = 0; i < numSlices; i++) {
+      final Path dir = sliceDir(tempDir, i);
+      Files.createDirectories(dir);
+      Files.write(dir.resolve(fastaFn), new byte[0]);
+      Files.write(dir.resolve(params.getFileName()), sliceParams.getBytes(CS));
+    }
+
+    long numProteins = 0;
+    try (BufferedReader br = Files.newBufferedReader(fasta, CS)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith(">")) {
+          numProteins++;
+        }
+      }
+    }
+    final long[] starts = new long[numSlices + 1];
+    for (int i = 0; i <= numSlices; i++) {
+      starts[i] = i * (numProteins / numSlices) + Math.min(i, numProteins % numSlices);
+    }
+
+    BufferedWriter bw = null;
+    try (BufferedReader br = Files.newBufferedReader(fasta, CS)) {
+      long protein = -1;
+      int slice = -1;
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith(">")) {
+          protein++;
+          int s = Math.max(slice, 0);
+          while (s + 1 < numSlices && protein >= starts[s + 1]) {
+            s++;
+          }
+          if (s != slice) {
+            if (bw != null) {
+              bw.close();
+            }
+            slice = s;
+            bw = Files.newBufferedWriter(sliceDir(tempDir, slice).resolve(fastaFn), CS);
+          }
+        }
+        if (bw == null) {
+          continue; // anything before the first protein
+        }
+        final String trimmed = rstrip(line);
+        if (!trimmed.isEmpty()) {
+          bw.write(trimmed);
+          bw.write('\n');
+        }
+      }
+    } finally {
+      if (bw != null) {
+        bw.close();
+      }
+    }
+  }
+
+  private static String rstrip(String s) {
+    int end = s.length();
+    while (end > 0 && Character.isWhitespace(s.charAt(end - 1))) {
+      end--;
+    }
+    return s.substring(0, end);
+  }
+
+  /**
+   * Sums up the score histograms of all slices for one input file, the result is written to
+   * the temp dir.
+   */
+  public static void combineHistograms(Path tempDir, int numSlices, String stem)
+      throws IOException {
+    List<long[]> sum = null;
+    for (int i = 0; i < numSlices; i++) {
+      final Path p = sliceDir(tempDir, i).resolve(histogramFn(stem));
+      final List<long[]> rows = new ArrayList<>();
+      for (String line : Files.readAllLines(p, CS)) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        rows.add(Arrays.stream(line.trim().split("\t")).mapToLong(Long::parseLong).toArray());
+      }
+      if (sum == null) {
+        sum = rows;
+        continue;
+      }
+      if (rows.size() != sum.size()) {
+        throw new IOException("Score histograms of DB slices differ in size: " + p);
+      }
+      for (int r = 0; r < rows.size(); r++) {
+        final long[] a = sum.get(r);
+        final long[] b = rows.get(r);
+        if (a.length != b.length) {
+          throw new IOException("Score histograms of DB slices differ in size: " + p);
+        }
+        for (int c = 0; c < a.length; c++) {
+          a[c] += b[c];
+        }
+      }
+    }
+    try (BufferedWriter bw = Files.newBufferedWriter(tempDir.resolve(histogramFn(stem)), CS)) {
+      for (long[] row : sum == null ? new ArrayList<long[]>() : sum) {
+        for (int c = 0; c < row.length; c++) {
+          if (c > 0) {
+            bw.write('\t');
+          }
+          bw.write(Long.toString(row[c]));
+        }
+        bw.write('\n');
+      }
+    }
+  }
+
+  /** Expect value as a function of hyperscore for a single spectrum. */
+  private static class ExpectFunction {
+    final double a0;
+    final double a1;
+    final double limit;
+
+    ExpectFunction(double a0, double a1, double limit) {
+      this.a0 = a0;
+      this.a1 = a1;
+      this.limit = limit;
+    }
+
+    double expect(double hyperscore) {
+      return Math.max(Math.pow(10, a0 + a1 * hyperscore), limit);
+    }
+  }
+
+  /**
+   * Reads expect value functions one by one, one line per spectrum in the order of their
+   * index, so that memory use doesn't grow with the size of the input file.
+   */
+  private static class ExpectFunctionReader implements Closeable {
+    private final Path path;
+    private final BufferedReader br;
+
+    ExpectFunctionReader(Path path) throws IOException {
+      this.path = path;
+      br = Files.newBufferedReader(path, CS);
+    }
+
+    /**
+     * @return Null at the end of the file.
+     */
+    ExpectFunction next() throws IOException {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        final String[] cols = line.trim().split("\\s+");
+        if (cols.length < 3) {
+          throw new IOException("Expected 3 columns in " + path + ": " + line);
+        }
+        return new ExpectFunction(Double.parseDouble(cols[0]),
+            Double.parseDouble(cols[1]), Double.parseDouble(cols[2]));
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      br.close();
+    }
+  }
+
+  /**
+   * Reads spectrum_query elements of a pepXML file one by one, in the order of their index.
+   */
+  private static class SpectrumQueryReader implements Closeable {
+    private final BufferedReader br;
+    private List<String> next;
+    private long nextIndex;
+
+    SpectrumQueryReader(Path p) throws IOException {
+      br = Files.newBufferedReader(p, CS);
+      readNext();
+    }
+
+    /**
+     * @return Lines of the spectrum query with the index, null if the slice has no such query.
+     */
+    List<String> get(long index) throws IOException {
+      while (next != null && nextIndex < index) {
+        readNext();
+      }
+      if (next == null || nextIndex != index) {
+        return null;
+      }
+      final List<String> cur = next;
+      readNext();
+      return cur;
+    }
+
+    private void readNext() throws IOException {
+      next = null;
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (next == null) {
+          if (line.startsWith("<spectrum_query ")) {
+            final Matcher m = RE_INDEX.matcher(line);
+            if (!m.find()) {
+              throw new IOException("No index in spectrum_query: " + line);
+            }
+            nextIndex = Long.parseLong(m.group(1));
+            next = new ArrayList<>();
+            next.add(line);
+          }
+          continue;
+        }
+        next.add(line);
+        if (line.startsWith("</spectrum_query>")) {
+          return;
+        }
+      }
+      next = null; // unterminated element at the end of the file
+    }
+
+    @Override
+    public void close() throws IOException {
+      br.close();
+    }
+  }
+
+  /** A search_hit element with its scores. */
+  private static class Hit {
+    /** Best first: highest hyperscore, then smallest mass difference, then first seen. */
+    static final Comparator<Hit> ORDER = Comparator.comparingDouble((Hit h) -> h.hyperscore)
+        .reversed()
+        .thenComparingDouble(h -> h.massdiff)
+        .thenComparingInt(h -> h.seq);
+
+    final List<String> lines;
+    final int seq;
+    final double massdiff;
+    final double hyperscore;
+    final double nextscore;
+    final double expect;
+
+    Hit(List<String> lines, int seq, ExpectFunction f) throws IOException {
+      this.lines = lines;
+      this.seq = seq;
+      final Matcher m = RE_MASSDIFF.matcher(lines.get(0));
+      if (!m.find()) {
+        throw new IOException("No massdiff in search_hit: " + lines.get(0));
+      }
+      massdiff = Double.parseDouble(m.group(1));
+      hyperscore = score(lines, SCORE_HYPER);
+      nextscore = score(lines, SCORE_NEXT);
+      expect = f.expect(hyperscore);
+    }
+
+    private static double score(List<String> lines, String prefix) throws IOException {
+      for (String line : lines) {
+        if (line.startsWith(prefix)) {
+          return Double.parseDouble(line.substring(prefix.length(), line.indexOf('"', prefix.length())));
+        }
+      }
+      throw new IOException("No " + prefix + " in search_hit: " + lines.get(0));
+    }
+
+    String key() {
+      return RE_HIT_KEY.matcher(lines.get(0)).replaceAll("{}");
+    }
+  }
+
+  private static List<List<String>> searchHits(List<String> spectrumQuery) {
+    final List<List<String>> hits = new ArrayList<>();
+    List<String> cur = null;
+    for (String line : spectrumQuery) {
+      if (line.startsWith("<search_hit")) {
+        cur = new ArrayList<>();
+      }
+      if (cur != null) {
+        cur.add(line);
+        if (line.startsWith("</search_hit>")) {
+          hits.add(cur);
+          cur = null;
+        }
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * Everything up to the end of search_summary, with the date and the output file name
+   * updated.
+   */
+  private static String header(Path pepxml, Path out, String date) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    try (BufferedReader br = Files.newBufferedReader(pepxml, CS)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith("</search_summary>")) {
+          sb.append("</search_summary>");
+          String h = RE_DATE.matcher(sb).replaceAll(Matcher.quoteReplacement("date=\"" + date + "\""));
+          return RE_SUMMARY_XML.matcher(h)
+              .replaceAll(Matcher.quoteReplacement("summary_xml=\"" + out.toString() + "\""));
+        }
+        sb.append(line).append('\n');
+      }
+    }
+    throw new IOException("No search_summary in " + pepxml);
+  }
+
+  /**
+   * Merges the results of all slices for one input file. For each spectrum the hits from all
+   * slices are ranked by hyperscore, expect values are recomputed from the combined score
+   * histogram and the top N hits within the max expect value are kept, just as if the whole
+   * database had been searched at once. The slices are read side by side, one spectrum at a
+   * time, so memory use doesn't grow with the size of the files or the number of slices.
+   *
+   * @param params Search parameters, for the number of reported hits and the max expect value.
+   * @param ext Extension of MSFragger's output files, e.g. "pepXML".
+   * @param stem Input file name without extension.
+   */
+  public static void merge(Path tempDir, int numSlices, Path params, String ext, String stem,
+      Path out) throws IOException {
+    final String paramsText = new String(Files.readAllBytes(params), CS);
+    final Matcher mTopN = RE_TOP_N.matcher(paramsText);
+    if (!mTopN.find()) {
+      throw new IOException("No output_report_topN in " + params);
+    }
+    final int topN = Integer.parseInt(mTopN.group(1));
+    final Matcher mMaxExpect = RE_MAX_EXPECT.matcher(paramsText);
+    final double maxExpect = mMaxExpect.find()
+        ? Double.parseDouble(mMaxExpect.group(1)) : DEFAULT_MAX_EXPECT;
+    final String date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss")
+        .format(LocalDateTime.now());
+    final List<Path> parts = new ArrayList<>();
+    String header = null;
+    for (int i = 0; i < numSlices; i++) {
+      final Path part = sliceDir(tempDir, i).resolve(stem + "." + ext);
+      parts.add(part);
+      final String h = header(part, out, date);
+      if (header == null) {
+        header = h;
+      } else if (!header.equals(h)) {
+        throw new IOException("pepXML headers of DB slices differ: " + part);
+      }
+    }
+
+    // all the slices are read side by side, a single spectrum at a time is held in memory
+    final List<SpectrumQueryReader> readers = new ArrayList<>();
+    try (ExpectFunctionReader expectReader = new ExpectFunctionReader(tempDir.resolve(expectFn(stem)));
+        BufferedWriter bw = Files.newBufferedWriter(out, CS)) {
+      for (Path part : parts) {
+        readers.add(new SpectrumQueryReader(part));
+      }
+      bw.write(header);
+      bw.write('\n');
+      ExpectFunction f;
+      for (long index = 1; (f = expectReader.next()) != null; index++) {
+        final List<List<String>> queries = new ArrayList<>();
+        for (SpectrumQueryReader r : readers) {
+          final List<String> q = r.get(index);
+          if (q != null) {
+            queries.add(q);
+          }
+        }
+        if (!queries.isEmpty()) {
+          writeSpectrumQuery(bw, queries, f, topN, maxExpect);
+        }
+      }
+      bw.write("</msms_run_summary>\n</msms_pipeline_analysis>\n");
+    } finally {
+      for (SpectrumQueryReader r : readers) {
+        r.close();
+      }
+    }
+  }
+
+  private static void writeSpectrumQuery(BufferedWriter bw, List<List<String>> queries,
+      ExpectFunction f, int topN, double maxExpect) throws IOException {
+    final String queryHeader = queries.get(0).get(0);
+    // the top N hits seen so far, the worst of them at the head
+    final PriorityQueue<Hit> best = new PriorityQueue<>(topN + 1, Hit.ORDER.reversed());
+    // the same peptide may be found in several slices, only the first one counts
+    final Set<String> seen = new HashSet<>();
+    int seq = 0;
+    for (List<String> q : queries) {
+      if (!q.get(0).equals(queryHeader)) {
+        throw new IOException("spectrum_query differs between DB slices: " + queryHeader);
+      }
+      for (List<String> lines : searchHits(q)) {
+        final Hit hit = new Hit(lines, seq++, f);
+        if (!seen.add(hit.key())) {
+          continue;
+        }
+        best.add(hit);
+        if (best.size() > topN) {
+          best.poll();
+        }
+      }
+    }
+
+    final List<Hit> sorted = new ArrayList<>(best);
+    sorted.sort(Hit.ORDER);
+    final List<Hit> hits = new ArrayList<>();
+    for (Hit h : sorted) {
+      if (h.expect > maxExpect) {
+        break;
+      }
+      hits.add(h);
+    }
+    if (hits.isEmpty()) {
+      return;
+    }
+    // each hit's nextscore is the hyperscore of the one below it
+    final double lastNextscore = hits.stream().mapToDouble(h -> h.nextscore).min().orElse(0);
+
+    bw.write(queryHeader);
+    bw.write("\n<search_result>\n");
+    for (int i = 0; i < hits.size(); i++) {
+      final Hit h = hits.get(i);
+      final double nextscore = i + 1 < hits.size() ? hits.get(i + 1).hyperscore : lastNextscore;
+      for (int l = 0; l < h.lines.size(); l++) {
+        String line = h.lines.get(l);
+        if (l == 0) {
+          line = RE_HIT_RANK.matcher(line).replaceFirst("$1" + (i + 1) + "$2");
+        } else if (line.startsWith(SCORE_HYPER)) {
+          line = SCORE_HYPER + fixed3(h.hyperscore) + "\"/>";
+        } else if (line.startsWith(SCORE_NEXT)) {
+          line = SCORE_NEXT + fixed3(nextscore) + "\"/>";
+        } else if (line.startsWith(SCORE_EXPECT)) {
+          line = SCORE_EXPECT + scientific3(h.expect) + "\"/>";
+        }
+        bw.write(line);
+        bw.write('\n');
+      }
+    }
+    bw.write("</search_result>\n</spectrum_query>\n");
+  }
+
+  /**
+   * Like {@code %.3f}, but rounds the exact binary value half to even, as C and Python do.
+   * {@link String#format} rounds the shortest decimal representation half up, so 10.0625
+   * would become 10.063 instead of 10.062.
+   */
+  static String fixed3(double v) {
+    final BigDecimal r = new BigDecimal(v).setScale(3, RoundingMode.HALF_EVEN);
+    return (v < 0 && r.signum() == 0 ? "-" : "") + r.toPlainString();
+  }
+
+  /**
+   * Like {@code %.3e}, with the same rounding as {@link #fixed3(double)}.
+   */
+  static String scientific3(double v) {
+    if (v == 0) {
+      return "0.000e+00";
+    }
+    final BigDecimal r = new BigDecimal(v).round(new MathContext(4, RoundingMode.HALF_EVEN));
+    final StringBuilder digits = new StringBuilder(r.unscaledValue().abs().toString());
+    while (digits.length() < 4) {
+      digits.append('0');
+    }
+    final int exp = r.precision() - r.scale() - 1;
+    return String.format(Locale.ROOT, "%s%c.%se%c%02d", v < 0 ? "-" : "", digits.charAt(0),
+        digits.substring(1, 4), exp < 0 ? '-' : '+', Math.abs(exp));
+  }
+
+  /**
+   * Deletes the temp dir with everything in it, if it exists.
+   */
+  public static void cleanup(Path tempDir) throws IOException {
+    if (Files.exists(tempDir)) {
+      FileUtils.deleteDirectory(tempDir.toFile());
+    }
+  }
+}
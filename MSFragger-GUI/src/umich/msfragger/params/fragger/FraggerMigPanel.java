@@ -100,7 +100,7 @@ import umich.msfragger.util.swing.FormEntry;
 /**
  * @author Dmitry Avtonomov
  */
-public class FraggerMigPanel extends JPanel {
+public class FraggerMigPanel extends JPanel implements FraggerRunSettings {
 
   private static final Logger log = LoggerFactory.getLogger(FraggerMigPanel.class);
   public static final String CACHE_FORM = "msfragger-form" + ThisAppProps.TEMP_FILE_EXT;
@@ -908,6 +908,7 @@ public class FraggerMigPanel extends JPanel {
     return SwingUtils.valuesToMap(this);
   }
 
+  @Override
   public MsfraggerParams getParams() {
     return formCollect();
   }
@@ -1082,10 +1083,12 @@ public class FraggerMigPanel extends JPanel {
     loadDefaults(m.type);
   }
 
+  @Override
   public int getRamGb() {
     return (Integer) uiSpinnerRam.getValue();
   }
 
+  @Override
   public int getThreads() {
     return (Integer) uiSpinnerThreads.getValue();
   }
@@ -1102,10 +1105,12 @@ public class FraggerMigPanel extends JPanel {
     return false;
   }
 
+  @Override
   public int getNumDbSlices() {
     return uiSpinnerDbslice.getActualValue();
   }
 
+  @Override
   public String getOutputFileExt() {
     return getOutputType().getExtension();
   }
@@ -0,0 +1,30 @@
+package umich.msfragger.params.fragger;
+
+/**
+ * What the pipeline needs to know to run MSFragger. The GUI panel is one source of these
+ * settings, a workflow file for headless runs is another.
+ */
+public interface FraggerRunSettings {
+
+  /**
+   * Search parameters, a fresh copy that can be modified by the caller.
+   */
+  MsfraggerParams getParams();
+
+  /**
+   * @return Max heap size in GB, zero to let Java decide.
+   */
+  int getRamGb();
+
+  /**
+   * @return Number of threads, zero to use all cores.
+   */
+  int getThreads();
+
+  int getNumDbSlices();
+
+  /**
+   * @return Extension of the output files, e.g. "pepXML".
+   */
+  String getOutputFileExt();
+}
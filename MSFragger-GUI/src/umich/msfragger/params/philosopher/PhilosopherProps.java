@@ -36,6 +36,7 @@ public class PhilosopherProps {
     public static final String CMD_REPORT = "report";
     public static final String CMD_IPROPHET = "iprophet";
     public static final String CMD_LABELFREE = "freequant";
+    public static final String CMD_WORKSPACE = "workspace";
     public static final String PROTEIN_PROPHET_OUTPUT_FILE = "interact.prot.xml";
 
     private static final String PROPERTIES_FILE_NAME = "philosopher.properties";
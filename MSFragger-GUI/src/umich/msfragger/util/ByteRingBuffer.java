@@ -0,0 +1,123 @@
+package umich.msfragger.util;
+
+import java.util.Arrays;
+
+/**
+ * Bounded byte buffer shared between a number of writers (e.g. stdout and stderr pumps of
+ * a process) and a single reader. Writers block while the buffer is full, the reader blocks
+ * until there's something to read or all writers are done.
+ */
+public class ByteRingBuffer {
+  private final byte[] buf;
+  private int head; // next byte to read
+  private int size;
+  private int writers;
+  private boolean isClosed;
+
+  public ByteRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.buf = new byte[capacity];
+  }
+
+  /**
+   * Register a writer. The buffer is considered drained only after all registered writers
+   * called {@link #writerDone()} and everything they wrote was read.
+   */
+  public synchronized void addWriter() {
+    writers++;
+  }
+
+  public synchronized void writerDone() {
+    writers--;
+    notifyAll();
+  }
+
+  /**
+   * Blocks while the buffer is full. Data that fits into the buffer is written in one go,
+   * so writes of different writers never interleave. After {@link #close()} the data is
+   * silently dropped.
+   */
+  public synchronized void write(byte[] b, int off, int len) throws InterruptedException {
+    while (len > 0) {
+      // wait for room for all of it, or for as much as the buffer holds if it's larger
+      final int chunk = Math.min(len, buf.length);
+      while (buf.length - size < chunk && !isClosed) {
+        wait();
+      }
+      if (isClosed) {
+        return;
+      }
+      writeNoWait(b, off, chunk);
+      off += chunk;
+      len -= chunk;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Copies the data to the buffer, which must have room for it, wrapping around the end.
+   */
+  private void writeNoWait(byte[] b, int off, int len) {
+    while (len > 0) {
+      final int tail = (head + size) % buf.length;
+      final int n = Math.min(len, buf.length - tail);
+      System.arraycopy(b, off, buf, tail, n);
+      size += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Waits until there's data to read, all writers are done or the timeout expires.
+   *
+   * @return Everything available at the moment, or null if there was nothing.
+   */
+  public synchronized byte[] read(long timeoutMs) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMs;
+    while (size == 0 && writers > 0 && !isClosed) {
+      final long left = deadline - System.currentTimeMillis();
+      if (left <= 0) {
+        break;
+      }
+      wait(left);
+    }
+    if (size == 0) {
+      return null;
+    }
+    final byte[] out;
+    if (head + size <= buf.length) {
+      out = Arrays.copyOfRange(buf, head, head + size);
+    } else {
+      out = new byte[size];
+      final int first = buf.length - head;
+      System.arraycopy(buf, head, out, 0, first);
+      System.arraycopy(buf, 0, out, first, size - first);
+    }
+    head = 0;
+    size = 0;
+    notifyAll();
+    return out;
+  }
+
+  public synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return True when all writers are done and everything was read.
+   */
+  public synchronized boolean isDrained() {
+    return size == 0 && writers <= 0;
+  }
+
+  /**
+   * Nobody is going to read anymore, unblocks writers.
+   */
+  public synchronized void close() {
+    isClosed = true;
+    notifyAll();
+  }
+}
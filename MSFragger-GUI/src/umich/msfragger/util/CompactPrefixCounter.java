@@ -0,0 +1,295 @@
+package umich.msfragger.util;
+
+import java.util.Arrays;
+
+/**
+ * Same as {@link PrefixCounter}, but nodes are stored in primitive parallel arrays instead of
+ * node objects with a {@code TreeMap} per node. Children are looked up through a single
+ * open addressing hash table keyed by (parent, char) and linked in sorted order for
+ * iteration, so the iteration order is the same as in {@link PrefixCounter}.<br/>
+ * Partial counters built on separate threads can be combined with {@link #merge(CompactPrefixCounter)}.
+ */
+public class CompactPrefixCounter extends PrefixCounter {
+    private static final int NONE = -1;
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Number of nodes, node 0 is the root. */
+    private int size;
+    private char[] chars;
+    private int[] parents;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private long[] hits;
+    private long[] terminals;
+    private long[] deltas;
+
+    /** (parent << 16 | char) to child index. */
+    private long[] keys;
+    private int[] vals;
+
+    public CompactPrefixCounter(Mode mode, int maxDepth) {
+        this(mode, maxDepth, 0);
+    }
+
+    /**
+     * @see PrefixCounter#PrefixCounter(Mode, int, double)
+     */
+    public CompactPrefixCounter(Mode mode, int maxDepth, double epsilon) {
+        super(mode, maxDepth, epsilon);
+        allocate(INITIAL_CAPACITY);
+        size = 1;
+        chars[0] = '\uFFFF'; // 'not a character', same as in PrefixCounter
+        parents[0] = NONE;
+    }
+
+    private void allocate(int capacity) {
+        chars = new char[capacity];
+        parents = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        hits = new long[capacity];
+        terminals = new long[capacity];
+        deltas = new long[capacity];
+        Arrays.fill(firstChild, NONE);
+        Arrays.fill(nextSibling, NONE);
+        allocateIndex(capacity);
+    }
+
+    private void allocateIndex(int nodeCapacity) {
+        // keep the load factor at or below 0.5
+        int cap = Integer.highestOneBit(Math.max(nodeCapacity, 2)) << 1;
+        keys = new long[cap];
+        vals = new int[cap];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private void grow() {
+        final int cap = chars.length * 2;
+        chars = Arrays.copyOf(chars, cap);
+        parents = Arrays.copyOf(parents, cap);
+        final int oldCap = firstChild.length;
+        firstChild = Arrays.copyOf(firstChild, cap);
+        nextSibling = Arrays.copyOf(nextSibling, cap);
+        Arrays.fill(firstChild, oldCap, cap, NONE);
+        Arrays.fill(nextSibling, oldCap, cap, NONE);
+        hits = Arrays.copyOf(hits, cap);
+        terminals = Arrays.copyOf(terminals, cap);
+        deltas = Arrays.copyOf(deltas, cap);
+        reindex(cap);
+    }
+
+    private void reindex(int nodeCapacity) {
+        allocateIndex(nodeCapacity);
+        for (int i = 1; i < size; i++) {
+            indexPut(key(parents[i], chars[i]), i);
+        }
+    }
+
+    private static long key(int parent, char ch) {
+        return ((long)parent << 16) | ch;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    private int indexGet(long key) {
+        for (int i = slot(key); ; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key)
+                return vals[i];
+            if (keys[i] == EMPTY)
+                return NONE;
+        }
+    }
+
+    private void indexPut(long key, int val) {
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+            i = (i + 1) & (keys.length - 1);
+        keys[i] = key;
+        vals[i] = val;
+    }
+
+    /**
+     * Finds or creates a child, keeping the children list sorted by char.
+     */
+    private int child(int parent, char ch, long delta) {
+        final long key = key(parent, ch);
+        int c = indexGet(key);
+        if (c != NONE)
+            return c;
+        if (size == chars.length)
+            grow();
+        c = size++;
+        chars[c] = ch;
+        parents[c] = parent;
+        deltas[c] = delta;
+        indexPut(key, c);
+
+        int prev = NONE;
+        int cur = firstChild[parent];
+        while (cur != NONE && chars[cur] < ch) {
+            prev = cur;
+            cur = nextSibling[cur];
+        }
+        nextSibling[c] = cur;
+        if (prev == NONE)
+            firstChild[parent] = c;
+        else
+            nextSibling[prev] = c;
+        return c;
+    }
+
+    @Override
+    public void add(CharSequence csq) {
+        final int len = csq.length();
+        int n = 0;
+        hits[0]++;
+        final long delta = Math.max(0, bucket() - 1);
+        if (len == 0)
+            terminals[0]++;
+        for (int i = 0; i < len && i < maxDepth; i++) {
+            final char ch = mode == Mode.FWD ? csq.charAt(i) : csq.charAt(len - 1 - i);
+            n = child(n, ch, delta);
+            hits[n]++;
+            if (i == len - 1)
+                terminals[n]++;
+        }
+    }
+
+    @Override
+    public long getTotal() {
+        return hits[0];
+    }
+
+    @Override
+    public Node getRoot() {
+        return new Node(null, chars[0], 0, hits[0], terminals[0]);
+    }
+
+    /**
+     * Adds all the counts from another counter to this one. The other counter is not changed.
+     * In approximate mode the error bounds of the two counters add up.
+     */
+    public void merge(CompactPrefixCounter other) {
+        if (other.mode != mode)
+            throw new IllegalArgumentException("Can't merge counters with different modes");
+        // anything missing from this counter could have been pruned with up to that many hits
+        final long missing = Math.max(0, bucket() - 1);
+        final int[] map = new int[other.size];
+        map[0] = 0;
+        hits[0] += other.hits[0];
+        terminals[0] += other.terminals[0];
+        deltas[0] += other.deltas[0];
+        // nodes are created before their children, so parents always come first
+        final int[] queue = new int[other.size];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            final int on = queue[head++];
+            for (int oc = other.firstChild[on]; oc != NONE; oc = other.nextSibling[oc]) {
+                final int before = size;
+                final int c = child(map[on], other.chars[oc], 0);
+                if (c >= before)
+                    deltas[c] = missing + other.deltas[oc];
+                else
+                    deltas[c] += other.deltas[oc];
+                hits[c] += other.hits[oc];
+                terminals[c] += other.terminals[oc];
+                map[oc] = c;
+                queue[tail++] = oc;
+            }
+        }
+    }
+
+    @Override
+    public void prune() {
+        if (epsilon == 0)
+            return;
+        final long b = bucket();
+        // breadth first copy of surviving nodes, children of dropped nodes are dropped too
+        final int[] queue = new int[size];
+        final int[] newIndex = new int[size];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        newIndex[0] = 0;
+        while (head < tail) {
+            final int n = queue[head++];
+            for (int c = firstChild[n]; c != NONE; c = nextSibling[c]) {
+                if (hits[c] + deltas[c] > b) {
+                    newIndex[c] = tail;
+                    queue[tail++] = c;
+                }
+            }
+        }
+        final int newSize = tail;
+        final int cap = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(newSize) << 1);
+        final char[] oChars = chars;
+        final int[] oParents = parents;
+        final int[] oFirstChild = firstChild;
+        final int[] oNextSibling = nextSibling;
+        final long[] oHits = hits, oTerminals = terminals, oDeltas = deltas;
+        allocate(cap);
+        for (int i = 0; i < newSize; i++) {
+            final int o = queue[i];
+            chars[i] = oChars[o];
+            parents[i] = i == 0 ? NONE : newIndex[oParents[o]];
+            hits[i] = oHits[o];
+            terminals[i] = oTerminals[o];
+            deltas[i] = oDeltas[o];
+        }
+        // relink children, old sibling order is preserved
+        for (int i = 0; i < newSize; i++) {
+            final int o = queue[i];
+            int prev = NONE;
+            for (int oc = oFirstChild[o]; oc != NONE; oc = oNextSibling[oc]) {
+                if (oHits[oc] + oDeltas[oc] <= b)
+                    continue;
+                final int c = newIndex[oc];
+                if (prev == NONE)
+                    firstChild[i] = c;
+                else
+                    nextSibling[prev] = c;
+                prev = c;
+            }
+        }
+        size = newSize;
+        reindex(cap);
+    }
+
+    /**
+     * Nodes handed to the action are created on the fly, they are only good for reading counts
+     * and walking up the {@link Node#parent} links.
+     */
+    @Override
+    public void iterPrefixCounts(int maxDepth, Proc2<Node, Mode> action) {
+        final Node[] views = new Node[size];
+        final int[] queue = new int[size];
+        final int[] depths = new int[size];
+        int head = 0, tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            final int n = queue[head];
+            final int depth = depths[head];
+            head++;
+            if (depth > maxDepth)
+                break;
+            for (int c = firstChild[n]; c != NONE; c = nextSibling[c]) {
+                depths[tail] = depth + 1;
+                queue[tail++] = c;
+            }
+            final Node parent = parents[n] == NONE ? null : views[parents[n]];
+            views[n] = new Node(parent, chars[n], depth, hits[n], terminals[n]);
+            action.call(views[n], mode);
+        }
+    }
+
+    /**
+     * @return Number of nodes in the trie, including the root.
+     */
+    public int size() {
+        return size;
+    }
+}
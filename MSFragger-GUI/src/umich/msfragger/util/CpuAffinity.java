@@ -0,0 +1,119 @@
+package umich.msfragger.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Pinning processes to sets of CPUs with {@code taskset}. Linux only.
+ */
+public class CpuAffinity {
+  private static final Path STATUS = Paths.get("/proc/self/status");
+  public static final String TASKSET = "taskset";
+
+  private CpuAffinity() {}
+
+  /**
+   * CPUs this JVM is allowed to run on, which is what child processes inherit.
+   * @return Sorted CPU ids, empty if unknown.
+   */
+  public static List<Integer> allowedCpus() {
+    if (!Files.isReadable(STATUS)) {
+      return new ArrayList<>();
+    }
+    try (BufferedReader br = Files.newBufferedReader(STATUS, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith("Cpus_allowed_list:")) {
+          return parseList(line.substring(line.indexOf(':') + 1));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>();
+  }
+
+  /**
+   * @param list CPU list as used by the kernel and taskset, e.g. "0-3,8,10-11".
+   */
+  public static List<Integer> parseList(String list) {
+    final TreeSet<Integer> cpus = new TreeSet<>();
+    for (String part : list.trim().split(",")) {
+      if (part.trim().isEmpty()) {
+        continue;
+      }
+      final String[] range = part.trim().split("-");
+      final int lo = Integer.parseInt(range[0].trim());
+      final int hi = range.length > 1 ? Integer.parseInt(range[1].trim()) : lo;
+      for (int i = lo; i <= hi; i++) {
+        cpus.add(i);
+      }
+    }
+    return new ArrayList<>(cpus);
+  }
+
+  /**
+   * Inverse of {@link #parseList(String)}.
+   */
+  public static String formatList(List<Integer> cpus) {
+    final List<Integer> sorted = new ArrayList<>(new TreeSet<>(cpus));
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < sorted.size(); ) {
+      int j = i;
+      while (j + 1 < sorted.size() && sorted.get(j + 1) == sorted.get(j) + 1) {
+        j++;
+      }
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(sorted.get(i));
+      if (j > i) {
+        sb.append('-').append(sorted.get(j));
+      }
+      i = j + 1;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return True if taskset can be run.
+   */
+  public static boolean isTasksetAvailable() {
+    if (OsUtils.isWindows()) {
+      return false;
+    }
+    try {
+      Process p = new ProcessBuilder(TASKSET, "-p", "1").redirectErrorStream(true).start();
+      try (InputStream is = p.getInputStream()) {
+        final byte[] buf = new byte[1024];
+        while (is.read(buf) >= 0) {
+          // just drain the output
+        }
+      }
+      return p.waitFor() == 0;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Command to run the given command pinned to the CPUs.
+   */
+  public static List<String> wrap(List<Integer> cpus, List<String> command) {
+    final List<String> cmd = new ArrayList<>(Arrays.asList(TASKSET, "-c", formatList(cpus)));
+    cmd.addAll(command);
+    return cmd;
+  }
+}
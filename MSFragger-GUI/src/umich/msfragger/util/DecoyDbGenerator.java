@@ -0,0 +1,403 @@
+package umich.msfragger.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Makes a target-decoy database out of a FASTA file: the targets, optionally followed by
+ * contaminants, followed by a decoy for each of them. Decoys are generated from chunks of the
+ * input on all cores and written in input order. Results can be kept in a {@link ResultCache}
+ * keyed by the contents of the inputs and the settings, so the same database is only ever
+ * generated once.
+ */
+public class DecoyDbGenerator {
+  public enum Method {
+    /** The sequence read backwards. */
+    REVERSE,
+    /** Residues in random order, the same for the same entry every time. */
+    SHUFFLE
+  }
+
+  /** Headers of contaminant entries start with that. */
+  public static final String CONTAM_TAG = "contam_";
+  public static final double DEFAULT_CACHE_MAX_GB = 20;
+  private static final String CACHE_DIR_NAME = "decoy-db";
+  /** Change when the output for the same inputs changes, so old cache entries aren't used. */
+  private static final String FORMAT_VERSION = "1";
+  private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+  private static final int LINE_WIDTH = 60;
+
+  private final Path target;
+  private final Path contaminants;
+  private final String tag;
+  private final Method method;
+  private final ResultCache cache;
+
+  /**
+   * @param contaminants Null to add none.
+   * @param tag Prefix of decoy headers.
+   * @param cache Null if no caching should be done.
+   */
+  public DecoyDbGenerator(Path target, Path contaminants, String tag, Method method,
+      ResultCache cache) {
+    if (StringUtils.isNullOrWhitespace(tag)) {
+      throw new IllegalArgumentException("Decoy tag can not be empty");
+    }
+    this.target = target;
+    this.contaminants = contaminants;
+    this.tag = tag.trim();
+    this.method = method;
+    this.cache = cache;
+  }
+
+  /**
+   * Generated databases shared between projects.
+   * @param dir Cache location, empty for the default one in the app's temp dir.
+   * @param maxGb Size cap, zero or less turns the cache off.
+   */
+  public static ResultCache createCache(String dir, double maxGb) {
+    final Path path = StringUtils.isNullOrWhitespace(dir)
+        ? CacheUtils.getTempDir().resolve(CACHE_DIR_NAME) : Paths.get(dir.trim());
+    return new ResultCache(path, (long) (maxGb * (1L << 30)));
+  }
+
+  /**
+   * Writes the target-decoy database, or takes it from the cache. Blocks until done,
+   * interrupt the calling thread to cancel.
+   *
+   * @param progress Called with values from 0 to 1 from the calling thread. Can be null.
+   * @return True if the database was taken from the cache.
+   */
+  public boolean generate(Path out, Proc1<Double> progress)
+      throws IOException, InterruptedException {
+    final String key = cacheKey();
+    if (cache != null && cache.isEnabled() && restore(key, out)) {
+      return true;
+    }
+
+    final List<Path> inputs = new ArrayList<>();
+    inputs.add(target);
+    if (contaminants != null) {
+      inputs.add(contaminants);
+    }
+    long total = 0;
+    for (Path p : inputs) {
+      total += 2 * Files.size(p); // read once for targets, once for decoys
+    }
+    final Progress prog = new Progress(progress, Math.max(1, total));
+
+    final Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+    final int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    final ExecutorService exec = Executors.newFixedThreadPool(nThreads, r -> {
+      Thread t = new Thread(r, "decoy-db");
+      t.setDaemon(true);
+      return t;
+    });
+    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20)) {
+      copyTargets(target, os, prog);
+      if (contaminants != null) {
+        processChunks(contaminants, true, false, os, prog, exec, nThreads);
+      }
+      processChunks(target, false, true, os, prog, exec, nThreads);
+      if (contaminants != null) {
+        processChunks(contaminants, true, true, os, prog, exec, nThreads);
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    } finally {
+      exec.shutdownNow();
+    }
+    Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+
+    if (cache != null && cache.isEnabled()) {
+      cache.store(key, Collections.singletonList(out));
+    }
+    prog.set(1.0);
+    return false;
+  }
+
+  /**
+   * Cache entries keep the file name they were stored under, restore into a scratch dir
+   * next to the output and rename.
+   */
+  private boolean restore(String key, Path out) throws IOException {
+    final Path scratch = out.resolveSibling(out.getFileName() + ".restore");
+    Files.createDirectories(scratch);
+    try {
+      final List<Path> restored = cache.restoreAll(key, scratch);
+      if (restored.size() != 1) {
+        return false;
+      }
+      Files.move(restored.get(0), out, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } finally {
+      if (Files.exists(scratch)) {
+        FileUtils.deleteDirectory(scratch.toFile());
+      }
+    }
+  }
+
+  private String cacheKey() throws IOException {
+    final MessageDigest md = HashUtils.sha1();
+    HashUtils.update(md, FORMAT_VERSION);
+    HashUtils.update(md, HashUtils.hashCached(target));
+    HashUtils.update(md, contaminants == null ? "" : HashUtils.hashCached(contaminants));
+    HashUtils.update(md, tag);
+    HashUtils.update(md, method.name());
+    return HashUtils.hex(md.digest());
+  }
+
+  /**
+   * Targets go to the output as they are.
+   */
+  private static void copyTargets(Path p, OutputStream os, Progress prog)
+      throws IOException, InterruptedException {
+    final byte[] buf = new byte[1 << 20];
+    int last = '\n';
+    try (InputStream is = Files.newInputStream(p)) {
+      int read;
+      while ((read = is.read(buf)) >= 0) {
+        checkInterrupted();
+        if (read == 0) {
+          continue;
+        }
+        os.write(buf, 0, read);
+        last = buf[read - 1];
+        prog.add(read);
+      }
+    }
+    if (last != '\n') {
+      os.write('\n');
+    }
+  }
+
+  /**
+   * Splits the file into chunks of whole entries, processes them on the executor and writes
+   * the results in order. Only a few chunks are in flight at a time.
+   *
+   * @param isContam True if the file has contaminants, their headers get tagged.
+   * @param isDecoys True to write decoys, false to write the entries themselves.
+   */
+  private void processChunks(Path p, boolean isContam, boolean isDecoys, OutputStream os,
+      Progress prog, ExecutorService exec, int nThreads) throws IOException, InterruptedException {
+    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+      final List<Long> bounds = entryBounds(ch, ch.size());
+      final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+      final Deque<Long> sizes = new ArrayDeque<>();
+      for (int i = 0; i + 1 < bounds.size() || !inFlight.isEmpty(); ) {
+        while (i + 1 < bounds.size() && inFlight.size() < 2 * nThreads) {
+          final long from = bounds.get(i);
+          final long to = bounds.get(i + 1);
+          inFlight.add(exec.submit(() -> {
+            final byte[] bytes = read(ch, from, to);
+            return isDecoys ? decoys(bytes, isContam) : contaminants(bytes);
+          }));
+          sizes.add(to - from);
+          i++;
+        }
+        checkInterrupted();
+        try {
+          os.write(inFlight.poll().get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IllegalStateException("Error generating decoys", e.getCause());
+        }
+        prog.add(sizes.poll());
+      }
+    }
+  }
+
+  /**
+   * Chunk boundaries, all at the start of an entry.
+   */
+  private static List<Long> entryBounds(FileChannel ch, long size) throws IOException {
+    final List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+    long pos = CHUNK_SIZE;
+    while (pos < size) {
+      long entryStart = -1;
+      long p = pos;
+      byte prev = 0;
+      while (entryStart < 0 && p < size) {
+        buf.clear();
+        final int read = ch.read(buf, p);
+        if (read <= 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          final byte b = buf.get(i);
+          if (b == '>' && prev == '\n') {
+            entryStart = p + i;
+            break;
+          }
+          prev = b;
+        }
+        p += read;
+      }
+      if (entryStart < 0) {
+        break;
+      }
+      bounds.add(entryStart);
+      pos = entryStart + CHUNK_SIZE;
+    }
+    bounds.add(size);
+    return bounds;
+  }
+
+  private static byte[] read(FileChannel ch, long from, long to) throws IOException {
+    final ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+    while (buf.hasRemaining() && ch.read(buf, from + buf.position()) > 0) {
+      // read the whole chunk
+    }
+    return buf.array();
+  }
+
+  /**
+   * Calls the consumer with the header (without '>') and the residues of each entry.
+   */
+  private interface EntryConsumer {
+    void accept(String header, byte[] residues, int length) throws IOException;
+  }
+
+  private static void parse(byte[] bytes, EntryConsumer consumer) throws IOException {
+    String header = null;
+    byte[] seq = new byte[4096];
+    int seqLen = 0;
+    int lineStart = 0;
+    for (int i = 0; i <= bytes.length; i++) {
+      if (i < bytes.length && bytes[i] != '\n') {
+        continue;
+      }
+      int lineEnd = i;
+      if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+        lineEnd--;
+      }
+      if (lineEnd > lineStart && bytes[lineStart] == '>') {
+        if (header != null) {
+          consumer.accept(header, seq, seqLen);
+        }
+        header = new String(bytes, lineStart + 1, lineEnd - lineStart - 1, StandardCharsets.UTF_8);
+        seqLen = 0;
+      } else if (header != null) {
+        for (int k = lineStart; k < lineEnd; k++) {
+          if (bytes[k] > ' ') {
+            if (seqLen == seq.length) {
+              seq = Arrays.copyOf(seq, seq.length * 2);
+            }
+            seq[seqLen++] = bytes[k];
+          }
+        }
+      }
+      lineStart = i + 1;
+    }
+    if (header != null) {
+      consumer.accept(header, seq, seqLen);
+    }
+  }
+
+  private byte[] contaminants(byte[] bytes) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 1024);
+    parse(bytes, (header, residues, length) -> write(out, contamHeader(header), residues, length));
+    return out.toByteArray();
+  }
+
+  private byte[] decoys(byte[] bytes, boolean isContam) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 1024);
+    parse(bytes, (header, residues, length) -> {
+      if (header.startsWith(tag)) {
+        throw new IOException("The database already contains decoys with tag \"" + tag + "\"");
+      }
+      final String h = isContam ? contamHeader(header) : header;
+      if (method == Method.REVERSE) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+          final byte b = residues[i];
+          residues[i] = residues[j];
+          residues[j] = b;
+        }
+      } else {
+        // seeded by the header, so that the same entry always gets the same decoy
+        final Random rnd = new Random(h.hashCode() * 31L + length);
+        for (int i = length - 1; i > 0; i--) {
+          final int j = rnd.nextInt(i + 1);
+          final byte b = residues[i];
+          residues[i] = residues[j];
+          residues[j] = b;
+        }
+      }
+      write(out, tag + h, residues, length);
+    });
+    return out.toByteArray();
+  }
+
+  private static String contamHeader(String header) {
+    return header.startsWith(CONTAM_TAG) ? header : CONTAM_TAG + header;
+  }
+
+  private static void write(ByteArrayOutputStream out, String header, byte[] residues,
+      int length) {
+    out.write('>');
+    final byte[] h = header.getBytes(StandardCharsets.UTF_8);
+    out.write(h, 0, h.length);
+    out.write('\n');
+    for (int i = 0; i < length; i += LINE_WIDTH) {
+      out.write(residues, i, Math.min(LINE_WIDTH, length - i));
+      out.write('\n');
+    }
+  }
+
+  private static void checkInterrupted() throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Decoy database generation cancelled");
+    }
+  }
+
+  private static class Progress {
+    final Proc1<Double> callback;
+    final long total;
+    long done;
+
+    Progress(Proc1<Double> callback, long total) {
+      this.callback = callback;
+      this.total = total;
+    }
+
+    void add(long bytes) {
+      done += bytes;
+      set(done / (double) total);
+    }
+
+    void set(double fraction) {
+      if (callback != null) {
+        callback.call(Math.min(1.0, fraction));
+      }
+    }
+  }
+}
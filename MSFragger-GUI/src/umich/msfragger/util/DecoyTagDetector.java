@@ -0,0 +1,402 @@
+package umich.msfragger.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds common prefixes/suffixes in '|' separated columns of FASTA headers, that's what decoy
+ * tags look like. The file is read in large chunks and fed to {@link PrefixCounter}s as it's
+ * being read, one pair of counters per column, columns are processed in parallel.<br/>
+ * Large files are not read in full, chunks are sampled from all over the file until the
+ * candidates stop changing.
+ */
+public class DecoyTagDetector {
+  private static final Logger log = LoggerFactory.getLogger(DecoyTagDetector.class);
+
+  public static final int MAX_DEPTH = 16;
+  public static final double PCT_MIN = 0.3;
+  public static final double PCT_MAX = 0.7;
+  /** Counts are allowed to be off by that fraction of the total, keeps the tries small. */
+  private static final double EPSILON = 0.002;
+  private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+  /** Files larger than that are sampled. */
+  private static final long SAMPLING_THRESHOLD = 256L * 1024 * 1024;
+  private static final int SAMPLING_MIN_WINDOWS = 16;
+  private static final int SAMPLING_MAX_WINDOWS = 512;
+  /** Number of consecutive sampled windows that must agree on candidates to stop early. */
+  private static final int SAMPLING_STABLE_WINDOWS = 4;
+  private static final double SAMPLING_PCT_TOLERANCE = 0.01;
+  /** Batches are split into parts of that size to be counted on separate threads. */
+  private static final int PART_SIZE = 16 * 1024;
+
+  public static class Result {
+    /** Prefixes found in each column. */
+    public final List<List<Tuple2<String, Double>>> prefixesByCol;
+    /** Suffixes found in each column. */
+    public final List<List<Tuple2<String, Double>>> suffixesByCol;
+    /** Number of FASTA entries that were looked at. */
+    public final long entries;
+    /** If only a part of the file was read. */
+    public final boolean isSampled;
+
+    public Result(List<List<Tuple2<String, Double>>> prefixesByCol,
+        List<List<Tuple2<String, Double>>> suffixesByCol, long entries, boolean isSampled) {
+      this.prefixesByCol = prefixesByCol;
+      this.suffixesByCol = suffixesByCol;
+      this.entries = entries;
+      this.isSampled = isSampled;
+    }
+  }
+
+  private static class Column {
+    final CompactPrefixCounter fwd = new CompactPrefixCounter(PrefixCounter.Mode.FWD, MAX_DEPTH, EPSILON);
+    final CompactPrefixCounter rev = new CompactPrefixCounter(PrefixCounter.Mode.REV, MAX_DEPTH, EPSILON);
+    final List<String> batch = new ArrayList<>();
+  }
+
+  private final Path fasta;
+  private final Proc1<Double> progress;
+  private final List<Column> cols = new ArrayList<>();
+  private long entries;
+
+  /**
+   * @param progress Called with values from 0 to 1 from the thread running {@link #detect()}.
+   * Can be null.
+   */
+  public DecoyTagDetector(Path fasta, Proc1<Double> progress) {
+    this.fasta = fasta;
+    this.progress = progress;
+  }
+
+  /**
+   * Blocks until done. Interrupt the calling thread to cancel.
+   */
+  public Result detect() throws IOException, InterruptedException {
+    final int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    final ExecutorService exec = Executors.newFixedThreadPool(nThreads, r -> {
+      Thread t = new Thread(r, "decoy-tag-detector");
+      t.setDaemon(true);
+      return t;
+    });
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      final long size = ch.size();
+      final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(WINDOW_SIZE, Math.max(size, 1)));
+      return size > SAMPLING_THRESHOLD
+          ? readSampled(ch, size, buf, exec)
+          : readFully(ch, size, buf, exec);
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private Result readFully(FileChannel ch, long size, ByteBuffer buf, ExecutorService exec)
+      throws IOException, InterruptedException {
+    long pos = 0;
+    while (pos < size) {
+      checkInterrupted();
+      final int read = readWindow(ch, pos, buf);
+      final boolean isLast = pos + read >= size;
+      final int consumed = parseHeaders(buf.array(), 0, read, isLast);
+      // a single line longer than the window is just skipped
+      pos += consumed > 0 ? consumed : read;
+      count(exec);
+      reportProgress(pos / (double) size);
+    }
+    return result(false);
+  }
+
+  private Result readSampled(FileChannel ch, long size, ByteBuffer buf, ExecutorService exec)
+      throws IOException, InterruptedException {
+    final int maxWindows = (int) Math.min(SAMPLING_MAX_WINDOWS, size / WINDOW_SIZE);
+    Result prev = null;
+    int stable = 0;
+    for (int i = 0; i < maxWindows; i++) {
+      checkInterrupted();
+      // van der Corput sequence, spreads the samples evenly over the file in any prefix of it
+      final long pos = (long) (vanDerCorput(i) * (size - WINDOW_SIZE));
+      final int read = readWindow(ch, pos, buf);
+      int from = 0;
+      if (pos > 0) { // skip the partial line
+        while (from < read && buf.array()[from] != '\n') {
+          from++;
+        }
+      }
+      parseHeaders(buf.array(), from, read, pos + read >= size);
+      count(exec);
+      reportProgress((i + 1) / (double) maxWindows);
+
+      if (i + 1 >= SAMPLING_MIN_WINDOWS) {
+        Result cur = result(true);
+        stable = isSame(prev, cur) ? stable + 1 : 0;
+        prev = cur;
+        if (stable >= SAMPLING_STABLE_WINDOWS) {
+          log.debug("Decoy tag candidates stable after {} windows, {} entries", i + 1, entries);
+          break;
+        }
+      }
+    }
+    reportProgress(1.0);
+    return result(true);
+  }
+
+  private static int readWindow(FileChannel ch, long pos, ByteBuffer buf) throws IOException {
+    buf.clear();
+    while (buf.hasRemaining()) {
+      int read = ch.read(buf, pos + buf.position());
+      if (read < 0) {
+        break;
+      }
+    }
+    return buf.position();
+  }
+
+  /**
+   * Splits header lines between {@code from} and {@code to} into columns, adding the values
+   * to each column's batch. Only complete lines are looked at, unless it's the end of file.
+   *
+   * @return Number of bytes up to and including the last complete line.
+   */
+  private int parseHeaders(byte[] bytes, int from, int to, boolean isEof) {
+    int lineStart = from;
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == '\n') {
+        parseLine(bytes, lineStart, i);
+        lineStart = i + 1;
+      }
+    }
+    if (isEof && lineStart < to) {
+      parseLine(bytes, lineStart, to);
+      lineStart = to;
+    }
+    return lineStart;
+  }
+
+  private void parseLine(byte[] bytes, int from, int to) {
+    if (from >= to || bytes[from] != '>') {
+      return;
+    }
+    if (bytes[to - 1] == '\r') {
+      to--;
+    }
+    final String line = new String(bytes, from, to - from, UTF_8);
+    entries++;
+    int pos = 1, next;
+    int depth = 1;
+    while ((next = line.indexOf('|', pos)) >= 0 || pos < line.length() - 1) {
+      if (next < 0) {
+        next = line.length();
+      }
+      if (cols.size() < depth) {
+        cols.add(new Column());
+      }
+      cols.get(depth - 1).batch.add(line.substring(pos, next).trim());
+      pos = next + 1;
+      depth++;
+    }
+  }
+
+  /**
+   * Feeds the batches collected so far to the counters. Batches are split into parts, each
+   * part is counted into a separate partial counter on its own thread, partial counters are
+   * then merged into the column counters, also in parallel.
+   */
+  private void count(ExecutorService exec) throws InterruptedException {
+    final List<CompactPrefixCounter> counters = new ArrayList<>();
+    final List<List<Future<CompactPrefixCounter>>> partials = new ArrayList<>();
+    for (Column col : cols) {
+      if (col.batch.isEmpty()) {
+        continue;
+      }
+      for (CompactPrefixCounter cnt : new CompactPrefixCounter[]{col.fwd, col.rev}) {
+        List<Future<CompactPrefixCounter>> parts = new ArrayList<>();
+        for (int from = 0; from < col.batch.size(); from += PART_SIZE) {
+          final List<String> part = col.batch
+              .subList(from, Math.min(from + PART_SIZE, col.batch.size()));
+          parts.add(exec.submit(() -> {
+            CompactPrefixCounter partial = new CompactPrefixCounter(cnt.mode, cnt.maxDepth);
+            for (String descriptor : part) {
+              partial.add(descriptor);
+            }
+            return partial;
+          }));
+        }
+        counters.add(cnt);
+        partials.add(parts);
+      }
+    }
+
+    List<Callable<Void>> merges = new ArrayList<>();
+    for (int i = 0; i < counters.size(); i++) {
+      final CompactPrefixCounter cnt = counters.get(i);
+      final List<Future<CompactPrefixCounter>> parts = partials.get(i);
+      merges.add(() -> {
+        for (Future<CompactPrefixCounter> part : parts) {
+          cnt.merge(part.get());
+        }
+        cnt.prune();
+        return null;
+      });
+    }
+    try {
+      for (Future<Void> f : exec.invokeAll(merges)) {
+        f.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Error counting FASTA header prefixes", e.getCause());
+    }
+    for (Column col : cols) {
+      col.batch.clear();
+    }
+  }
+
+  private Result result(boolean isSampled) {
+    List<List<Tuple2<String, Double>>> prefixesByCol = new ArrayList<>();
+    List<List<Tuple2<String, Double>>> suffixesByCol = new ArrayList<>();
+    for (Column col : cols) {
+      prefixesByCol.add(cleanUpCandidates(candidates(col.fwd)));
+      suffixesByCol.add(cleanUpCandidates(candidates(col.rev)));
+    }
+    return new Result(prefixesByCol, suffixesByCol, entries, isSampled);
+  }
+
+  private static List<Tuple2<String, Double>> candidates(PrefixCounter cnt) {
+    final long total = cnt.getTotal();
+    final List<Tuple2<String, Double>> result = new ArrayList<>();
+    final StringBuilder sb = new StringBuilder();
+    cnt.iterPrefixCounts(MAX_DEPTH, (n, mode) -> {
+      PrefixCounter.Node cur = n;
+      double pct = cur.getHits() / (double) total;
+      if (pct < PCT_MIN || pct > PCT_MAX) {
+        return;
+      }
+      sb.setLength(0);
+      while (cur != null) {
+        if (cur.parent != null) {
+          sb.append(cur.ch);
+        }
+        cur = cur.parent;
+      }
+      if (sb.length() < 2) {
+        return; // no prefixes or suffixes smaller than 2 characters
+      }
+      // the path is collected from the leaf up, which is already the right order for suffixes
+      String s = mode == PrefixCounter.Mode.FWD ? sb.reverse().toString() : sb.toString();
+      result.add(new Tuple2<>(s, pct));
+    });
+    return result;
+  }
+
+  /**
+   * Sorts candidates by how close they are to 50% and removes ones that are just
+   * a part of a longer candidate with the same count.
+   */
+  private static List<Tuple2<String, Double>> cleanUpCandidates(
+      List<Tuple2<String, Double>> candidates) {
+    List<Tuple2<String, Double>> result = new ArrayList<>();
+
+    Collections.sort(candidates, (t1, t2) -> {
+      int cmp0 = Double.compare(Math.abs(t1.item2 - 0.5), Math.abs(t2.item2 - 0.5));
+      if (cmp0 == 0) {
+        cmp0 = t2.item1.compareTo(t1.item1);
+      }
+      return cmp0;
+    });
+
+    for (Tuple2<String, Double> cur : candidates) {
+      boolean isBest = true;
+      for (Tuple2<String, Double> other : candidates) {
+        if (Double.compare(other.item2, cur.item2) == 0) {
+          String curStr = cur.item1;
+          String othStr = other.item1;
+          if (othStr.length() > curStr.length()) {
+            if (othStr.startsWith(curStr) || othStr.endsWith(curStr)) {
+              isBest = false;
+              break;
+            }
+          }
+        }
+      }
+      if (isBest) {
+        result.add(cur);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Same candidate strings in all columns, frequencies within tolerance.
+   */
+  private static boolean isSame(Result prev, Result cur) {
+    if (prev == null) {
+      return false;
+    }
+    return isSame(prev.prefixesByCol, cur.prefixesByCol)
+        && isSame(prev.suffixesByCol, cur.suffixesByCol);
+  }
+
+  private static boolean isSame(List<List<Tuple2<String, Double>>> a,
+      List<List<Tuple2<String, Double>>> b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int col = 0; col < a.size(); col++) {
+      List<Tuple2<String, Double>> ca = a.get(col);
+      List<Tuple2<String, Double>> cb = b.get(col);
+      if (ca.size() != cb.size()) {
+        return false;
+      }
+      for (Tuple2<String, Double> t : ca) {
+        boolean found = false;
+        for (Tuple2<String, Double> o : cb) {
+          if (o.item1.equals(t.item1)
+              && Math.abs(o.item2 - t.item2) <= SAMPLING_PCT_TOLERANCE) {
+            found = true;
+            break;
+          }
+        }
+        if (!found) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static double vanDerCorput(int n) {
+    double result = 0;
+    double denom = 1;
+    while (n > 0) {
+      denom *= 2;
+      result += (n & 1) / denom;
+      n >>= 1;
+    }
+    return result;
+  }
+
+  private void reportProgress(double fraction) {
+    if (progress != null) {
+      progress.call(Math.min(1.0, fraction));
+    }
+  }
+
+  private static void checkInterrupted() throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Decoy tag detection cancelled");
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package umich.msfragger.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Java used to run external tools, e.g. "java" from PATH. Not necessarily the same as
+ * the one FragPipe is running on.
+ */
+public class ExternalJava {
+  private static final Logger log = LoggerFactory.getLogger(ExternalJava.class);
+  private static final Pattern RE_VERSION = Pattern.compile("version \"(\\d+)(?:\\.(\\d+))?");
+  private static final Map<String, Integer> majorVersions = new ConcurrentHashMap<>();
+
+  private ExternalJava() {}
+
+  /**
+   * Runs {@code java -version} once per command and remembers the result.
+   * @return Major version, e.g. 8 for "1.8.0_201" and 11 for "11.0.2". -1 if unknown.
+   */
+  public static int majorVersion(String javaCmd) {
+    return majorVersions.computeIfAbsent(javaCmd, ExternalJava::queryMajorVersion);
+  }
+
+  /**
+   * JVM argument files ({@code java @file}) are supported since Java 9.
+   */
+  public static boolean isArgFileSupported(String javaCmd) {
+    return majorVersion(javaCmd) >= 9;
+  }
+
+  /**
+   * Quotes an argument for a JVM argument file.
+   */
+  public static String quoteForArgFile(String arg) {
+    return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  /**
+   * Splits the contents of a JVM argument file into arguments, the way {@code java} does:
+   * separated by whitespace, single or double quoted, backslash escapes in quotes and
+   * comments starting with '#'. The inverse of {@link #quoteForArgFile(String)}.
+   */
+  public static List<String> parseArgFile(String content) {
+    List<String> args = new ArrayList<>();
+    StringBuilder sb = null;
+    char quote = 0;
+    for (int i = 0; i < content.length(); i++) {
+      char c = content.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        } else if (c == '\\' && i + 1 < content.length()) {
+          char next = content.charAt(++i);
+          sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : next == 'r' ? '\r' : next);
+        } else {
+          sb.append(c);
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (sb != null) {
+          args.add(sb.toString());
+          sb = null;
+        }
+      } else if (c == '#' && sb == null) {
+        while (i + 1 < content.length() && content.charAt(i + 1) != '\n') {
+          i++;
+        }
+      } else {
+        if (sb == null) {
+          sb = new StringBuilder();
+        }
+        if (c == '"' || c == '\'') {
+          quote = c;
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    if (sb != null) {
+      args.add(sb.toString());
+    }
+    return args;
+  }
+
+  /**
+   * @param versionOutput Output of {@code java -version}.
+   * @return -1 if the version could not be found.
+   */
+  public static int parseMajorVersion(String versionOutput) {
+    Matcher m = RE_VERSION.matcher(versionOutput);
+    if (!m.find()) {
+      return -1;
+    }
+    final int first = Integer.parseInt(m.group(1));
+    if (first == 1 && m.group(2) != null) {
+      return Integer.parseInt(m.group(2)); // old style "1.8.0_201"
+    }
+    return first;
+  }
+
+  private static int queryMajorVersion(String javaCmd) {
+    try {
+      Process p = new ProcessBuilder(javaCmd, "-version").redirectErrorStream(true).start();
+      final StringBuilder sb = new StringBuilder();
+      try (BufferedReader br = new BufferedReader(
+          new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = br.readLine()) != null) {
+          sb.append(line).append('\n');
+        }
+      }
+      p.waitFor();
+      final int v = parseMajorVersion(sb.toString());
+      log.debug("Java version of '{}': {}", javaCmd, v);
+      return v;
+    } catch (IOException e) {
+      log.debug("Could not run '" + javaCmd + " -version'", e);
+      return -1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return -1;
+    }
+  }
+}
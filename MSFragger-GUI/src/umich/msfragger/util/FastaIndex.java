@@ -0,0 +1,766 @@
+package umich.msfragger.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where the entries of a FASTA file are and what's in it: offsets, header and sequence
+ * lengths, duplicate accessions, decoy tag candidates and how many entries carry each of them.
+ * Built once with a parallel scan of the memory mapped file and kept in the app's temp dir,
+ * it's reused for as long as the size and modification time of the FASTA file stay the same.
+ * The entries are streamed to disk while building, so memory use doesn't grow with the size
+ * of the database.
+ */
+public class FastaIndex {
+  private static final Logger log = LoggerFactory.getLogger(FastaIndex.class);
+  private static final int MAGIC = 0x46504958;
+  private static final int VERSION = 1;
+  private static final String DIR_NAME = "fasta-index";
+  /** The file is scanned in chunks of about that size, each one mapped separately. */
+  static volatile long chunkSize = 64L * 1024 * 1024;
+  /** Where the indexes are kept, null for the default dir in the app's temp dir. */
+  static volatile Path dir;
+  /** Duplicate accessions are found in as many passes as it takes to sort that many hashes. */
+  private static final int MAX_HASHES_PER_PASS = 16 * 1024 * 1024;
+  /** One per index file, so that a FASTA file is only indexed once at a time. */
+  private static final Map<Path, ReentrantLock> locks = new ConcurrentHashMap<>();
+  /** Share of the progress taken by decoy tag detection, the rest is the scan. */
+  private static final double PROGRESS_DETECT = 0.2;
+
+  private final Path fasta;
+  private final long size;
+  private final long mtime;
+  private final int entries;
+  private final int duplicates;
+  private final DecoyTagDetector.Result decoyTags;
+  private final Map<String, Integer> decoyCounts;
+  /** Null if loaded without entries. */
+  private final long[] offsets;
+  private final int[] headerLengths;
+  private final int[] sequenceLengths;
+  private final BitSet duplicateAccessions;
+
+  private FastaIndex(Path fasta, long size, long mtime, int entries, int duplicates,
+      DecoyTagDetector.Result decoyTags, Map<String, Integer> decoyCounts, long[] offsets,
+      int[] headerLengths, int[] sequenceLengths, BitSet duplicateAccessions) {
+    this.fasta = fasta;
+    this.size = size;
+    this.mtime = mtime;
+    this.entries = entries;
+    this.duplicates = duplicates;
+    this.decoyTags = decoyTags;
+    this.decoyCounts = decoyCounts;
+    this.offsets = offsets;
+    this.headerLengths = headerLengths;
+    this.sequenceLengths = sequenceLengths;
+    this.duplicateAccessions = duplicateAccessions;
+  }
+
+  public Path getFasta() {
+    return fasta;
+  }
+
+  /** Number of entries in the file. */
+  public int size() {
+    return entries;
+  }
+
+  /** Number of entries whose accession is also used by another entry. */
+  public int getDuplicateCount() {
+    return duplicates;
+  }
+
+  /**
+   * Decoy tag candidates. Frequencies of the prefixes in the first column, the only ones
+   * supported downstream, are exact, the rest may be estimated from a sample of the file.
+   */
+  public DecoyTagDetector.Result getDecoyTags() {
+    return decoyTags;
+  }
+
+  /** Number of entries starting with each of the candidate decoy prefixes. */
+  public Map<String, Integer> getDecoyCounts() {
+    return decoyCounts;
+  }
+
+  public boolean hasEntries() {
+    return offsets != null;
+  }
+
+  /** Offset of the '>' starting the entry. */
+  public long offset(int entry) {
+    checkEntries();
+    return offsets[entry];
+  }
+
+  /** Header length in bytes, without the '>' and the line break. */
+  public int headerLength(int entry) {
+    checkEntries();
+    return headerLengths[entry];
+  }
+
+  /** Number of residues. */
+  public int sequenceLength(int entry) {
+    checkEntries();
+    return sequenceLengths[entry];
+  }
+
+  public boolean isDuplicateAccession(int entry) {
+    checkEntries();
+    return duplicateAccessions.get(entry);
+  }
+
+  private void checkEntries() {
+    if (offsets == null) {
+      throw new IllegalStateException("FASTA index was loaded without entries");
+    }
+  }
+
+  /**
+   * Location of the index of a FASTA file.
+   */
+  public static Path indexFile(Path fasta) {
+    final MessageDigest md = HashUtils.sha1();
+    HashUtils.update(md, fasta.toAbsolutePath().normalize().toString());
+    final Path d = dir != null ? dir : CacheUtils.getTempDir().resolve(DIR_NAME);
+    return d.resolve(HashUtils.hex(md.digest()) + ".idx");
+  }
+
+  /**
+   * Returns the index built earlier, if the FASTA file hasn't changed since.
+   *
+   * @param isWithEntries False to only read the summary, which is fast regardless of the size
+   *     of the database.
+   * @return Null if there's no up to date index.
+   */
+  public static FastaIndex load(Path fasta, boolean isWithEntries) {
+    final Path file = indexFile(fasta);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      final String path = in.readUTF();
+      final long size = in.readLong();
+      final long mtime = in.readLong();
+      if (!path.equals(fasta.toAbsolutePath().normalize().toString())
+          || size != Files.size(fasta)
+          || mtime != Files.getLastModifiedTime(fasta).toMillis()) {
+        return null;
+      }
+      final int entries = in.readInt();
+      final int duplicates = in.readInt();
+      final DecoyTagDetector.Result decoyTags = readDecoyTags(in);
+      final Map<String, Integer> decoyCounts = new LinkedHashMap<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        decoyCounts.put(in.readUTF(), in.readInt());
+      }
+      if (!isWithEntries) {
+        return new FastaIndex(fasta, size, mtime, entries, duplicates, decoyTags, decoyCounts,
+            null, null, null, null);
+      }
+      final long[] offsets = new long[entries];
+      final int[] headerLengths = new int[entries];
+      final int[] sequenceLengths = new int[entries];
+      final BitSet duplicateAccessions = new BitSet(entries);
+      for (int i = 0; i < entries; i++) {
+        offsets[i] = in.readLong();
+        headerLengths[i] = in.readInt();
+        sequenceLengths[i] = in.readInt();
+        if (in.readBoolean()) {
+          duplicateAccessions.set(i);
+        }
+      }
+      return new FastaIndex(fasta, size, mtime, entries, duplicates, decoyTags, decoyCounts,
+          offsets, headerLengths, sequenceLengths, duplicateAccessions);
+    } catch (IOException | RuntimeException e) {
+      log.debug("Could not read FASTA index " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Loads the index if it's up to date, builds it otherwise. If the same file is being
+   * indexed already, e.g. for an earlier validation of the same path, waits for that instead.
+   *
+   * @param progress Called with values from 0 to 1 while building. Can be null.
+   */
+  public static FastaIndex get(Path fasta, boolean isWithEntries, Proc1<Double> progress)
+      throws IOException, InterruptedException {
+    FastaIndex idx = load(fasta, isWithEntries);
+    if (idx != null) {
+      return idx;
+    }
+    final ReentrantLock lock = lock(fasta);
+    try {
+      idx = load(fasta, isWithEntries);
+      if (idx == null) {
+        idx = buildLocked(fasta, progress);
+        if (isWithEntries) {
+          idx = load(fasta, true);
+          if (idx == null) {
+            throw new IOException("Could not read back the index of " + fasta);
+          }
+        }
+      }
+      return idx;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Scans the FASTA file and saves the index. Blocks until done, interrupt the calling thread
+   * to cancel. Builds of the same file run one after the other.
+   *
+   * @param progress Called with values from 0 to 1 from the calling thread. Can be null.
+   * @return The index without entries, use {@link #load(Path, boolean)} for those.
+   */
+  public static FastaIndex build(Path fasta, Proc1<Double> progress)
+      throws IOException, InterruptedException {
+    final ReentrantLock lock = lock(fasta);
+    try {
+      return buildLocked(fasta, progress);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static ReentrantLock lock(Path fasta) throws InterruptedException {
+    final ReentrantLock lock = locks.computeIfAbsent(indexFile(fasta), k -> new ReentrantLock());
+    lock.lockInterruptibly();
+    return lock;
+  }
+
+  private static FastaIndex buildLocked(Path fasta, Proc1<Double> progress)
+      throws IOException, InterruptedException {
+    final Path file = indexFile(fasta);
+    Files.createDirectories(file.getParent());
+    final Path tempDir = Files.createTempDirectory(file.getParent(), file.getFileName() + "-");
+    try {
+      return build(fasta, file, tempDir, progress);
+    } finally {
+      try {
+        FileDelete.deleteFileOrFolder(tempDir);
+      } catch (IOException e) {
+        log.warn("Could not delete temp files of FASTA index: " + tempDir, e);
+      }
+    }
+  }
+
+  /**
+   * @param tempDir Where the chunks write their entries while scanning.
+   */
+  private static FastaIndex build(Path fasta, Path file, Path tempDir, Proc1<Double> progress)
+      throws IOException, InterruptedException {
+    final long size = Files.size(fasta);
+    final long mtime = Files.getLastModifiedTime(fasta).toMillis();
+    final DecoyTagDetector.Result detected = new DecoyTagDetector(fasta,
+        progress == null ? null : f -> progress.call(f * PROGRESS_DETECT)).detect();
+    final List<String> tags = new ArrayList<>();
+    if (!detected.prefixesByCol.isEmpty()) {
+      for (Tuple2<String, Double> t : detected.prefixesByCol.get(0)) {
+        tags.add(t.item1);
+      }
+    }
+
+    final int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    final ExecutorService exec = Executors.newFixedThreadPool(nThreads, r -> {
+      Thread t = new Thread(r, "fasta-index");
+      t.setDaemon(true);
+      return t;
+    });
+    final List<Chunk> chunks = new ArrayList<>();
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ)) {
+      final List<Long> bounds = chunkBounds(ch, size);
+      final byte[][] tagBytes = new byte[tags.size()][];
+      for (int i = 0; i < tags.size(); i++) {
+        tagBytes[i] = tags.get(i).getBytes(StandardCharsets.UTF_8);
+      }
+      final List<Future<?>> futures = new ArrayList<>();
+      final AtomicInteger done = new AtomicInteger();
+      for (int i = 0; i + 1 < bounds.size(); i++) {
+        final Chunk c = new Chunk(bounds.get(i), bounds.get(i + 1), tagBytes.length,
+            tempDir.resolve("chunk-" + i));
+        chunks.add(c);
+        futures.add(exec.submit(() -> {
+          c.scan(ch, tagBytes);
+          done.incrementAndGet();
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        while (!f.isDone()) {
+          checkInterrupted();
+          if (progress != null) {
+            progress.call(PROGRESS_DETECT
+                + (1 - PROGRESS_DETECT) * done.get() / Math.max(1, chunks.size()));
+          }
+          try {
+            f.get(100, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            // report progress and check for cancellation again
+          }
+        }
+        f.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Error indexing FASTA file", e.getCause());
+    } finally {
+      exec.shutdownNow();
+    }
+
+    long entries = 0;
+    final int[] tagCounts = new int[tags.size()];
+    for (Chunk c : chunks) {
+      entries += c.entries;
+      for (int i = 0; i < tagCounts.length; i++) {
+        tagCounts[i] += c.tagCounts[i];
+      }
+    }
+    if (entries > Integer.MAX_VALUE) {
+      throw new IOException("Too many entries in FASTA file: " + entries);
+    }
+
+    checkInterrupted();
+    final BitSet duplicateAccessions = findDuplicates(fasta, chunks, (int) entries);
+    final Map<String, Integer> decoyCounts = new LinkedHashMap<>();
+    for (int i = 0; i < tags.size(); i++) {
+      decoyCounts.put(tags.get(i), tagCounts[i]);
+    }
+    final FastaIndex idx = new FastaIndex(fasta, size, mtime, (int) entries,
+        duplicateAccessions.cardinality(), exact(detected, decoyCounts, (int) entries),
+        decoyCounts, null, null, null, null);
+    checkInterrupted();
+    idx.save(file, chunks, duplicateAccessions);
+    if (progress != null) {
+      progress.call(1.0);
+    }
+    return idx;
+  }
+
+  /**
+   * Chunk boundaries, all at line starts, so no line is split between chunks.
+   */
+  private static List<Long> chunkBounds(FileChannel ch, long size) throws IOException {
+    final List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+    final long chunkSize = FastaIndex.chunkSize;
+    long pos = chunkSize;
+    while (pos < size) {
+      long lineStart = -1;
+      long p = pos;
+      while (lineStart < 0 && p < size) {
+        buf.clear();
+        final int read = ch.read(buf, p);
+        if (read <= 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          if (buf.get(i) == '\n') {
+            lineStart = p + i + 1;
+            break;
+          }
+        }
+        p += read;
+      }
+      if (lineStart < 0 || lineStart >= size) {
+        break;
+      }
+      bounds.add(lineStart);
+      pos = lineStart + chunkSize;
+    }
+    bounds.add(size);
+    return bounds;
+  }
+
+  /**
+   * Entries sharing an accession. Accessions are compared by hash first, only the entries
+   * with colliding hashes are read again to compare the actual accessions. The hashes are
+   * sorted a share of them at a time, so that no more than {@link #MAX_HASHES_PER_PASS} are
+   * in memory.
+   */
+  private static BitSet findDuplicates(Path fasta, List<Chunk> chunks, int entries)
+      throws IOException {
+    final BitSet duplicates = new BitSet(entries);
+    final int passes = Math.max(1, (int) ((entries + (long) MAX_HASHES_PER_PASS - 1)
+        / MAX_HASHES_PER_PASS));
+    final Set<Long> colliding = new HashSet<>();
+    for (int pass = 0; pass < passes; pass++) {
+      final Longs hashes = new Longs();
+      try (Records r = new Records(chunks)) {
+        while (r.next()) {
+          if (Long.remainderUnsigned(r.hash, passes) == pass) {
+            hashes.add(r.hash);
+          }
+        }
+      }
+      Arrays.sort(hashes.values, 0, hashes.size);
+      for (int i = 1; i < hashes.size; i++) {
+        if (hashes.values[i] == hashes.values[i - 1]) {
+          colliding.add(hashes.values[i]);
+        }
+      }
+    }
+    if (colliding.isEmpty()) {
+      return duplicates;
+    }
+    final Map<String, Integer> firstByAccession = new HashMap<>();
+    try (FileChannel ch = FileChannel.open(fasta, StandardOpenOption.READ);
+        Records r = new Records(chunks)) {
+      for (int i = 0; r.next(); i++) {
+        if (!colliding.contains(r.hash)) {
+          continue;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(r.headerLength);
+        while (buf.hasRemaining() && ch.read(buf, r.offset + 1 + buf.position()) > 0) {
+          // read the whole header
+        }
+        final String header = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+        final Integer first = firstByAccession.putIfAbsent(accession(header), i);
+        if (first != null) {
+          duplicates.set(first);
+          duplicates.set(i);
+        }
+      }
+    }
+    return duplicates;
+  }
+
+  private static String accession(String header) {
+    final String[] parts = header.trim().split("\\s+", 2);
+    return parts.length == 0 ? "" : parts[0];
+  }
+
+  /**
+   * Detection result with frequencies of the first column prefixes replaced by exact ones.
+   */
+  private static DecoyTagDetector.Result exact(DecoyTagDetector.Result detected,
+      Map<String, Integer> counts, int entries) {
+    if (detected.prefixesByCol.isEmpty() || entries == 0) {
+      return detected;
+    }
+    final List<List<Tuple2<String, Double>>> prefixesByCol = new ArrayList<>(detected.prefixesByCol);
+    final List<Tuple2<String, Double>> first = new ArrayList<>();
+    for (Tuple2<String, Double> t : detected.prefixesByCol.get(0)) {
+      first.add(new Tuple2<>(t.item1, counts.getOrDefault(t.item1, 0) / (double) entries));
+    }
+    prefixesByCol.set(0, first);
+    return new DecoyTagDetector.Result(prefixesByCol, detected.suffixesByCol,
+        detected.entries, detected.isSampled);
+  }
+
+  /**
+   * Writes the summary, then the entries the chunks wrote while scanning. Written to a temp
+   * file of its own first, so that a build can't see a half written index of another one.
+   */
+  private void save(Path file, List<Chunk> chunks, BitSet duplicateAccessions) {
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try (Records r = new Records(chunks);
+          DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(fasta.toAbsolutePath().normalize().toString());
+        out.writeLong(size);
+        out.writeLong(mtime);
+        out.writeInt(entries);
+        out.writeInt(duplicates);
+        writeDecoyTags(out, decoyTags);
+        out.writeInt(decoyCounts.size());
+        for (Map.Entry<String, Integer> e : decoyCounts.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeInt(e.getValue());
+        }
+        for (int i = 0; r.next(); i++) {
+          out.writeLong(r.offset);
+          out.writeInt(r.headerLength);
+          out.writeInt(r.sequenceLength);
+          out.writeBoolean(duplicateAccessions.get(i));
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Could not save FASTA index: " + file, e);
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private static void writeDecoyTags(DataOutputStream out, DecoyTagDetector.Result r)
+      throws IOException {
+    out.writeLong(r.entries);
+    out.writeBoolean(r.isSampled);
+    for (List<List<Tuple2<String, Double>>> byCol : Arrays.asList(r.prefixesByCol, r.suffixesByCol)) {
+      out.writeInt(byCol.size());
+      for (List<Tuple2<String, Double>> col : byCol) {
+        out.writeInt(col.size());
+        for (Tuple2<String, Double> t : col) {
+          out.writeUTF(t.item1);
+          out.writeDouble(t.item2);
+        }
+      }
+    }
+  }
+
+  private static DecoyTagDetector.Result readDecoyTags(DataInputStream in) throws IOException {
+    final long entries = in.readLong();
+    final boolean isSampled = in.readBoolean();
+    final List<List<List<Tuple2<String, Double>>>> both = new ArrayList<>();
+    for (int k = 0; k < 2; k++) {
+      final List<List<Tuple2<String, Double>>> byCol = new ArrayList<>();
+      for (int c = in.readInt(); c > 0; c--) {
+        final List<Tuple2<String, Double>> col = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+          col.add(new Tuple2<>(in.readUTF(), in.readDouble()));
+        }
+        byCol.add(col);
+      }
+      both.add(byCol);
+    }
+    return new DecoyTagDetector.Result(both.get(0), both.get(1), entries, isSampled);
+  }
+
+  private static void checkInterrupted() throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("FASTA indexing cancelled");
+    }
+  }
+
+  /**
+   * A part of the file starting at a line start, scanned on its own thread. The entries
+   * starting in it are written to a file of its own, see {@link Records}.
+   */
+  private static class Chunk {
+    final long from;
+    final long to;
+    final Path file;
+    final int[] tagCounts;
+    int entries;
+    /** Residues before the first header, they belong to an entry of an earlier chunk. */
+    int leadingResidues;
+    /** The entry being scanned, it's written once the length of its sequence is known. */
+    private long offset;
+    private int headerLength;
+    private long hash;
+
+    Chunk(long from, long to, int tags, Path file) {
+      this.from = from;
+      this.to = to;
+      this.tagCounts = new int[tags];
+      this.file = file;
+    }
+
+    void scan(FileChannel ch, byte[][] tags) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+        scan(ch, tags, out);
+      }
+    }
+
+    private void scan(FileChannel ch, byte[][] tags, DataOutputStream out) throws IOException {
+      final int len = (int) (to - from);
+      if (len == 0) {
+        return;
+      }
+      final MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+      boolean isLineStart = true;
+      int headerStart = -1;
+      int residues = 0;
+      for (int i = 0; i < len; i++) {
+        final byte b = mb.get(i);
+        if (b == '\n') {
+          if (headerStart >= 0) {
+            header(mb, headerStart, i, tags);
+            headerStart = -1;
+          }
+          isLineStart = true;
+          continue;
+        }
+        if (isLineStart && b == '>') {
+          if (entries > 0) {
+            write(out, residues);
+          } else {
+            leadingResidues = residues;
+          }
+          residues = 0;
+          headerStart = i;
+          offset = from + i;
+          entries++;
+        } else if (headerStart < 0 && b > ' ') {
+          residues++;
+        }
+        isLineStart = false;
+      }
+      if (headerStart >= 0) { // header at the end of the file, without a line break
+        header(mb, headerStart, len, tags);
+      }
+      if (entries > 0) {
+        write(out, residues);
+      } else {
+        leadingResidues = residues;
+      }
+    }
+
+    private void write(DataOutputStream out, int sequenceLength) throws IOException {
+      out.writeLong(offset);
+      out.writeInt(headerLength);
+      out.writeInt(sequenceLength);
+      out.writeLong(hash);
+    }
+
+    /**
+     * @param start Position of '>'.
+     * @param end Position of the line break.
+     */
+    private void header(MappedByteBuffer mb, int start, int end, byte[][] tags) {
+      if (end > start + 1 && mb.get(end - 1) == '\r') {
+        end--;
+      }
+      headerLength = end - start - 1;
+      // FNV-1a of the accession, the first word of the header
+      long hash = 0xcbf29ce484222325L;
+      int i = start + 1;
+      while (i < end && mb.get(i) <= ' ') {
+        i++;
+      }
+      for (; i < end && mb.get(i) > ' '; i++) {
+        hash ^= mb.get(i) & 0xff;
+        hash *= 0x100000001b3L;
+      }
+      this.hash = hash;
+      for (int t = 0; t < tags.length; t++) {
+        final byte[] tag = tags[t];
+        if (end - start - 1 < tag.length) {
+          continue;
+        }
+        boolean isMatch = true;
+        for (int k = 0; k < tag.length && isMatch; k++) {
+          isMatch = mb.get(start + 1 + k) == tag[k];
+        }
+        if (isMatch) {
+          tagCounts[t]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads back the entries written by the chunks, in the order of the file. Residues before
+   * the first header of a chunk belong to the last entry of the chunks before it.
+   */
+  private static class Records implements Closeable {
+    private final List<Chunk> chunks;
+    /** Residues of the last entry of each chunk found in the chunks after it. */
+    private final int[] carried;
+    private int chunk = -1;
+    private int left;
+    private DataInputStream in;
+    long offset;
+    int headerLength;
+    int sequenceLength;
+    long hash;
+
+    Records(List<Chunk> chunks) {
+      this.chunks = chunks;
+      this.carried = new int[chunks.size()];
+      for (int i = 0; i < chunks.size(); i++) {
+        for (int k = i + 1; k < chunks.size(); k++) {
+          carried[i] += chunks.get(k).leadingResidues;
+          if (chunks.get(k).entries > 0) {
+            break;
+          }
+        }
+      }
+    }
+
+    /** @return False if there are no more entries. */
+    boolean next() throws IOException {
+      while (left == 0) {
+        close();
+        if (++chunk >= chunks.size()) {
+          return false;
+        }
+        left = chunks.get(chunk).entries;
+        if (left > 0) {
+          in = new DataInputStream(new BufferedInputStream(
+              Files.newInputStream(chunks.get(chunk).file), 1 << 16));
+        }
+      }
+      offset = in.readLong();
+      headerLength = in.readInt();
+      sequenceLength = in.readInt();
+      hash = in.readLong();
+      if (--left == 0) {
+        sequenceLength += carried[chunk];
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+        in = null;
+      }
+    }
+  }
+
+  private static class Longs {
+    long[] values = new long[1024];
+    int size;
+
+    void add(long v) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = v;
+    }
+  }
+}
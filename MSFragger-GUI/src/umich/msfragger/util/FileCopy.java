@@ -17,22 +17,47 @@
 package umich.msfragger.util;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
+ * Usage: <code>java -cp path-to-jar umich.msfragger.util.FileCopy path-from path-to [path-from path-to ...]</code>.
  *
  * @author Dmitry Avtonomov
  */
 public class FileCopy {
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            throw new IllegalArgumentException("Input must be exactly 2 arguments: origin and destination");
+        if (args.length == 0 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("Input must be pairs of arguments: origin and destination");
         }
-        Path origin = Paths.get(args[0]);
-        Path destination = Paths.get(args[1]);
-        Files.copy(origin, destination, StandardCopyOption.REPLACE_EXISTING);
+        for (int i = 0; i < args.length; i += 2) {
+            copy(Paths.get(args[i]), Paths.get(args[i + 1]));
+        }
+    }
+
+    /**
+     * Copies the file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which lets the OS do the copying without moving the data through the JVM where supported.
+     * The destination is replaced if it exists. It is deleted first rather than truncated,
+     * so that a hard link at the destination (see {@link ResultCache}) is never written through.
+     */
+    public static void copy(Path origin, Path destination) throws IOException {
+        if (Files.exists(destination) && Files.isSameFile(origin, destination)) {
+            return;
+        }
+        Files.deleteIfExists(destination);
+        try (FileChannel in = FileChannel.open(origin, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+        Files.setLastModifiedTime(destination, Files.getLastModifiedTime(origin));
     }
 }
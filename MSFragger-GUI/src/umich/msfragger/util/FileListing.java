@@ -17,27 +17,47 @@
 package umich.msfragger.util;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
+ * Finds files and/or directories matching a pattern. Directories are listed in parallel,
+ * each on its own fork-join task, file attributes that come with the directory listing are
+ * used instead of querying each file separately. Matches can be streamed to the caller as
+ * they are found with {@link #findFiles(Proc1)}, the search can be stopped with
+ * {@link #cancel()}.
  *
  * @author Dmitry Avtonomov
  */
 public class FileListing {
+    /** Listing directories is mostly waiting for the file system, e.g. on network shares. */
+    private static final int SCAN_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
     protected Path path;
     boolean includeDirectories = false;
     boolean includeFiles = true;
     boolean followLinks = false;
     boolean recursive = true;
     Pattern pattern;
+    Predicate<Path> filter;
+    private final AtomicBoolean isCancelled = new AtomicBoolean(false);
     private int MAX_RECURSION_DEPTH = 128; // helps against stupid symlinks leading to higher levels in file-tree
 
     public boolean isFollowLinks() {
@@ -88,6 +108,29 @@ public class FileListing {
         this.pattern = pattern;
     }
 
+    public Predicate<Path> getFilter() {
+        return filter;
+    }
+
+    /**
+     * An additional check for paths that match the pattern. Try to only look at the path
+     * itself here, querying the file system for each file is what makes listing slow.
+     */
+    public void setFilter(Predicate<Path> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Stops a running search, can be called from any thread.
+     */
+    public void cancel() {
+        isCancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return isCancelled.get();
+    }
+
     /**
      * @param path Starting path and the pattern for matching.
      * @param regex The regular expression that paths will be matched against.
@@ -107,10 +150,23 @@ public class FileListing {
     }
 
     /**
-     *
-     * @return
+     * Blocks until the search is done or cancelled.
+     * @return Matching paths, sorted.
      */
     public List<Path> findFiles() {
+        final ConcurrentLinkedQueue<Path> found = new ConcurrentLinkedQueue<>();
+        findFiles(found::add);
+        List<Path> result = new ArrayList<>(found);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Blocks until the search is done or cancelled.
+     * @param callback Gets matching paths as soon as they're found. Called concurrently from
+     * multiple threads.
+     */
+    public void findFiles(Proc1<Path> callback) {
         LinkOption[] options;
         if (followLinks) {
             options = new LinkOption[0];
@@ -120,44 +176,80 @@ public class FileListing {
         if (includeFiles && !Files.isDirectory(path, options)) {
             // if a single file was given, just check it against the pattern
             if (matches(path)) {
-                return Collections.singletonList(path);
+                callback.call(path);
             }
         } else {
             // a directory was given, let's search it
-            ArrayList<Path> result = new ArrayList<>();
             if (includeDirectories && matches(path)) {
                 // check the top-level directory
-                result.add(path);
+                callback.call(path);
+            }
+            ForkJoinPool pool = new ForkJoinPool(SCAN_THREADS);
+            try {
+                pool.invoke(new ListDirTask(path, callback, 0));
+            } finally {
+                pool.shutdown();
             }
-            findFiles(path, result, options, 0);
-            return result;
         }
-        return Collections.emptyList();
-    }
-
-    private void findFiles(Path path, List<Path> matching, LinkOption[] options, int recursionLevel) {
-        if (recursionLevel > MAX_RECURSION_DEPTH)
-            return; // safety net
-        try {
-            DirectoryStream<Path> paths = Files.newDirectoryStream(path);
-            for (Path p : paths) {
-                if (Files.isDirectory(p, options)) {
-                    if (includeDirectories && matches(p))
-                        matching.add(p);
-                    if (isRecursive())
-                        findFiles(p, matching, options, recursionLevel);
-                } else {
-                    if (includeFiles && matches(p))
-                        matching.add(p);
-                }
+    }
+
+    /**
+     * Lists a single directory, sub-directories are listed by forked tasks.
+     */
+    private class ListDirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Proc1<Path> callback;
+        private final int recursionLevel;
+
+        ListDirTask(Path dir, Proc1<Path> callback, int recursionLevel) {
+            this.dir = dir;
+            this.callback = callback;
+            this.recursionLevel = recursionLevel;
+        }
+
+        @Override
+        protected void compute() {
+            if (recursionLevel > MAX_RECURSION_DEPTH || isCancelled.get())
+                return; // safety net
+            final List<ListDirTask> subdirs = new ArrayList<>();
+            final Set<FileVisitOption> visitOptions = followLinks
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+            try {
+                // with max depth 1 the entries of the directory, including sub-directories,
+                // are given to visitFile() along with attributes from the listing
+                Files.walkFileTree(dir, visitOptions, 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                        if (isCancelled.get())
+                            return FileVisitResult.TERMINATE;
+                        if (attrs.isDirectory()) {
+                            if (includeDirectories && matches(p))
+                                callback.call(p);
+                            if (isRecursive())
+                                subdirs.add(new ListDirTask(p, callback, recursionLevel + 1));
+                        } else {
+                            if (includeFiles && matches(p))
+                                callback.call(p);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path p, IOException exc) {
+                        //log.error("Could not list files in directory '{}'", path.toString());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                //log.error("Could not list files in directory '{}'", path.toString());
             }
-        } catch (IOException e) {
-            //log.error("Could not list files in directory '{}'", path.toString());
+            invokeAll(subdirs);
         }
     }
 
     private boolean matches(Path s) {
         Matcher matcher = pattern.matcher(s.toString());
-        return matcher.matches();
+        return matcher.matches() && (filter == null || filter.test(s));
     }
 }
@@ -17,13 +17,15 @@
 package umich.msfragger.util;
 
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 
 /**
- * Usage: <code>java -cp path-to-jar umich.msfragger.util.FileMove path-from path-to</code>.<br/>
+ * Usage: <code>java -cp path-to-jar umich.msfragger.util.FileMove path-from path-to [path-from path-to ...]</code>.<br/>
  * To independent from system's copy/move commands, we have this convenience class.
  *
  * @author Dmitry Avtonomov
@@ -32,21 +34,42 @@ public class FileMove {
 
     /**
      *
-     * @param args Two args: {@code from}, {@code to}
+     * @param args Pairs of args: {@code from}, {@code to}
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            throw new IllegalArgumentException("Input must be exactly 2 arguments: origin and destination");
+        if (args.length == 0 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("Input must be pairs of arguments: origin and destination");
         }
-        Path origin = Paths.get(args[0]);
-        Path destination = Paths.get(args[1]);
-        if (!Files.exists(origin)) {
-            System.err.printf("File does not exist: %s", origin.toString());
-            System.exit(1);
+        for (int i = 0; i < args.length; i += 2) {
+            Path origin = Paths.get(args[i]);
+            if (!Files.exists(origin)) {
+                System.err.printf("File does not exist: %s", origin.toString());
+                System.exit(1);
+            }
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            move(Paths.get(args[i]), Paths.get(args[i + 1]));
         }
-        Files.move(origin, destination, StandardCopyOption.REPLACE_EXISTING);
     }
 
-
+    /**
+     * Tries an atomic rename first, if that's not possible (e.g. the destination is on
+     * a different file system) copies the file over and deletes the original.
+     * The destination is replaced if it exists. On any other failure nothing is touched.
+     */
+    public static void move(Path origin, Path destination) throws IOException {
+        try {
+            Files.move(origin, destination, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            // different file systems, need to copy
+        } catch (FileAlreadyExistsException e) {
+            // some platforms can't atomically replace an existing file
+            Files.move(origin, destination, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        FileCopy.copy(origin, destination);
+        Files.delete(origin);
+    }
 }
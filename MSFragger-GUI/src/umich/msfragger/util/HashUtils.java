@@ -0,0 +1,114 @@
+package umich.msfragger.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-1 based hashing of strings and files, for cache keys and fingerprints.
+ */
+public class HashUtils {
+  /** Size of each chunk read by {@link #fastHash(Path)}. */
+  private static final int SAMPLE_SIZE = 4 << 20;
+  private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+  private HashUtils() {}
+
+  public static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Adds a string followed by a separator, so that ("ab", "c") and ("a", "bc") differ.
+   */
+  public static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+  }
+
+  public static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Hashes the whole file content into the digest.
+   */
+  public static void updateWithFile(MessageDigest md, Path path) throws IOException {
+    try (InputStream is = Files.newInputStream(path)) {
+      byte[] buf = new byte[1 << 16];
+      int read;
+      while ((read = is.read(buf)) > 0) {
+        md.update(buf, 0, read);
+      }
+    }
+  }
+
+  public static String hash(Path path) throws IOException {
+    MessageDigest md = sha1();
+    updateWithFile(md, path);
+    return hex(md.digest());
+  }
+
+  /**
+   * Same as {@link #hash(Path)}, but remembers the result for as long as the file size and
+   * modification time stay the same. For large files hashed on every run, like databases.
+   */
+  public static String hashCached(Path path) throws IOException {
+    final Path p = path.toAbsolutePath().normalize();
+    final BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+    final String id = p + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+    String h = HASHES.get(id);
+    if (h == null) {
+      h = hash(p);
+      HASHES.put(id, h);
+    }
+    return h;
+  }
+
+  /**
+   * Hash of the file size and of a few chunks from the beginning, middle and end of the file.
+   * Good enough to tell apart LC/MS files, which are large and never edited in place,
+   * without reading them in full.
+   */
+  public static String fastHash(Path path) throws IOException {
+    MessageDigest md = sha1();
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = ch.size();
+      update(md, Long.toString(size));
+      if (size <= 3L * SAMPLE_SIZE) {
+        updateWithFile(md, path);
+        return hex(md.digest());
+      }
+      final ByteBuffer buf = ByteBuffer.allocate(SAMPLE_SIZE);
+      for (long pos : new long[]{0, size / 2 - SAMPLE_SIZE / 2, size - SAMPLE_SIZE}) {
+        buf.clear();
+        while (buf.hasRemaining()) {
+          if (ch.read(buf, pos + buf.position()) < 0) {
+            break;
+          }
+        }
+        buf.flip();
+        md.update(buf);
+      }
+    }
+    return hex(md.digest());
+  }
+}
@@ -63,6 +63,10 @@ public class LogUtils {
         return sw.toString();
     }
 
+    /**
+     * {@link TextConsole} is thread-safe and batches updates on its own, text for it is never
+     * posted to the EDT.
+     */
     public static final void print(Appendable out, String toPrint) {
         print(out, toPrint, true);
     }
@@ -77,7 +81,7 @@ public class LogUtils {
         };
 
 
-        if (doOnEDT) {
+        if (doOnEDT && !(out instanceof TextConsole)) {
             SwingUtilities.invokeLater(runnable);
         } else {
             runnable.run();
@@ -91,39 +95,25 @@ public class LogUtils {
     public static final void println(final Appendable out, final String toPrint, boolean doOnEDT) {
         Runnable runnable = () -> {
             try {
-                out.append(toPrint);
-                out.append("\n");
+                out.append(toPrint + "\n");
             } catch (IOException e) {
                 e.printStackTrace();
             }
         };
 
 
-        if (doOnEDT) {
+        if (doOnEDT && !(out instanceof TextConsole)) {
             SwingUtilities.invokeLater(runnable);
         } else {
             runnable.run();
         }
     }
     
-    public static final void print(final Color c, final TextConsole out, boolean doOnEDT,
-            final String toPrint, final boolean appendNewLine) {
-        Runnable runnable = () -> {
-            try {
-                out.append(c, toPrint);
-                if (appendNewLine) {
-                    out.append("\n");
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        };
-
-
-        if (doOnEDT) {
-            SwingUtilities.invokeLater(runnable);
-        } else {
-            runnable.run();
-        }
+    /**
+     * Appends in the given color, can be called from any thread.
+     */
+    public static final void print(final Color c, final TextConsole out, final String toPrint,
+            final boolean appendNewLine) {
+        out.append(c, appendNewLine ? toPrint + "\n" : toPrint);
     }
 }
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,7 +33,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import javax.swing.filechooser.FileFilter;
-import umich.msfragger.gui.MsfraggerGuiFrame;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  *
@@ -251,29 +250,30 @@ public class PathUtils {
     }
 
     public static void traverseDirectoriesAcceptingFiles(File dir, FileFilter filter, List<Path> accepted) {
-        if (!dir.isDirectory()) {
-            if (filter.accept(dir)) {
-                accepted.add(Paths.get(dir.getAbsolutePath()));
-            }
-        }
-        Path dirPath = Paths.get(dir.getAbsolutePath());
-        try {
-            DirectoryStream<Path> ds = Files.newDirectoryStream(dirPath);
-            Iterator<Path> it = ds.iterator();
-            while (it.hasNext()) {
-                File next = it.next().toFile();
-                boolean isDir = next.isDirectory();
-                if (isDir) {
-                    traverseDirectoriesAcceptingFiles(next, filter, accepted);
-                } else {
-                    if (filter.accept(next)) {
-                        accepted.add(Paths.get(next.getAbsolutePath()));
-                    }
-                }
+        accepted.addAll(listingAcceptingFiles(dir.toPath(), filter).findFiles());
+    }
+
+    /**
+     * Recursive listing of files accepted by a Swing file filter. Use {@link FileListing#findFiles(Proc1)}
+     * to get files as they're found and {@link FileListing#cancel()} to stop the search.<br/>
+     * For {@link FileNameExtensionFilter} only the file name is checked, so the file system
+     * is not queried for every file.
+     */
+    public static FileListing listingAcceptingFiles(Path dir, FileFilter filter) {
+        if (filter instanceof FileNameExtensionFilter) {
+            StringBuilder sb = new StringBuilder("(?i).*\\.(?:");
+            String[] exts = ((FileNameExtensionFilter) filter).getExtensions();
+            for (int i = 0; i < exts.length; i++) {
+                if (i > 0)
+                    sb.append('|');
+                sb.append(Pattern.quote(exts[i]));
             }
-        } catch (IOException ex) {
-            Logger.getLogger(MsfraggerGuiFrame.class.getName()).log(Level.SEVERE, null, ex);
+            sb.append(')');
+            return new FileListing(dir, sb.toString());
         }
+        FileListing listing = new FileListing(dir, ".*");
+        listing.setFilter(p -> filter.accept(p.toFile()));
+        return listing;
     }
 
     public static URI getCurrentJarUri() {
@@ -22,7 +22,8 @@ import java.util.TreeMap;
 
 /**
  * A trie like structure that counts the prefixes or suffixes in a corpus of words.
- * Used to determine common 
+ * Used to determine common prefixes/suffixes, e.g. decoy tags in FASTA headers.<br/>
+ * See {@link CompactPrefixCounter} for a more memory efficient implementation of the same.
  * @author Dmitry Avtonomov
  */
 public class PrefixCounter {
@@ -33,10 +34,25 @@ public class PrefixCounter {
     protected Node root;
     public final Mode mode;
     public final int maxDepth;
+    /** Max error of counts relative to the number of added words, zero for exact counts. */
+    public final double epsilon;
     
     public PrefixCounter(Mode mode, int maxDepth) {
+        this(mode, maxDepth, 0);
+    }
+
+    /**
+     * Approximate counting ("lossy counting"), the counts can be lower than the true counts
+     * by at most {@code epsilon * total words added}. Memory usage then doesn't grow with
+     * the number of words as long as {@link #prune()} is called every now and then.
+     * @param epsilon Max relative error of counts, e.g. 0.005.
+     */
+    public PrefixCounter(Mode mode, int maxDepth, double epsilon) {
+        if (epsilon < 0 || epsilon >= 1)
+            throw new IllegalArgumentException("Epsilon must be in [0, 1)");
         this.mode = mode;
         this.maxDepth = maxDepth;
+        this.epsilon = epsilon;
         this.root = new Node(null, '\uFFFF', 0); // \uFFFF is 'not a character'
     }
     
@@ -47,20 +63,41 @@ public class PrefixCounter {
         public final int depth;
         private long hits;
         private long terminals;
+        /** Max number of hits that could have been missed before the node was created. */
+        private final long delta;
 
-        protected Node(Node parent, char ch, int depth) {
+        protected Node(Node parent, char ch, int depth, long delta) {
             this.parent = parent;
             this.ch = ch;
             this.depth = depth;
+            this.delta = delta;
             map = new TreeMap<>();
             hits = 0;
             terminals = 0;
         }
+
+        protected Node(Node parent, char ch, int depth) {
+            this(parent, ch, depth, 0);
+        }
+
+        /**
+         * A detached node with known counts and no children. For implementations that
+         * don't store nodes as objects, but still need to hand them out while iterating.
+         */
+        protected Node(Node parent, char ch, int depth, long hits, long terminals) {
+            this.parent = parent;
+            this.ch = ch;
+            this.depth = depth;
+            this.delta = 0;
+            this.map = null;
+            this.hits = hits;
+            this.terminals = terminals;
+        }
         
         protected Node getChild(char ch) {
             Node child = map.get(ch);
             if (child == null) {
-                child = new Node(this, ch, this.depth + 1);
+                child = new Node(this, ch, this.depth + 1, Math.max(0, bucket() - 1));
                 map.put(child.ch, child);
             }
             return child;
@@ -75,7 +112,7 @@ public class PrefixCounter {
             else 
                 sb.append("None");
             sb.append(", char=").append(ch).append(", depth=").append(depth)
-              .append(", size=").append(map.size()).append(", hits").append(hits)
+              .append(", size=").append(map == null ? 0 : map.size()).append(", hits").append(hits)
               .append(", terminals=").append(terminals);
             sb.append('}');
             return sb.toString();
@@ -108,9 +145,9 @@ public class PrefixCounter {
                 if (len == 0)
                     n.terminals++;
                 while (++pos < len) {
-                    Node nn = n.getChild(csq.charAt(pos));
-                    if (nn.depth > maxDepth)
+                    if (n.depth >= maxDepth)
                         return;
+                    Node nn = n.getChild(csq.charAt(pos));
                     nn.hits++;
                     if (pos == len - 1)
                         nn.terminals++;
@@ -125,9 +162,9 @@ public class PrefixCounter {
                 Node n = root;
                 n.hits++;
                 while (--pos >= 0) {
-                    Node nn = n.getChild(csq.charAt(pos));
-                    if (nn.depth > maxDepth)
+                    if (n.depth >= maxDepth)
                         return;
+                    Node nn = n.getChild(csq.charAt(pos));
                     nn.hits++;
                     n = nn;
                     if (pos == 0)
@@ -138,6 +175,37 @@ public class PrefixCounter {
         }
     }
     
+    /**
+     * @return Number of words added so far.
+     */
+    public long getTotal() {
+        return root.hits;
+    }
+
+    /**
+     * Current "bucket" in terms of lossy counting, i.e. the max error of counts so far.
+     */
+    protected long bucket() {
+        return epsilon == 0 ? 0 : (long)Math.ceil(getTotal() * epsilon);
+    }
+
+    /**
+     * Drops nodes whose counts are too low to ever matter. Does nothing in exact mode.
+     * Children of a dropped node are dropped with it.
+     */
+    public void prune() {
+        if (epsilon == 0)
+            return;
+        final long b = bucket();
+        final ArrayDeque<Node> deque = new ArrayDeque<>();
+        deque.add(root);
+        while (!deque.isEmpty()) {
+            Node head = deque.removeFirst();
+            head.map.values().removeIf(child -> child.hits + child.delta <= b);
+            deque.addAll(head.map.values());
+        }
+    }
+
     public void iterPrefixCounts(int maxDepth, Proc2<Node, Mode> action) {
         
         final ArrayDeque<Node> deque = new ArrayDeque<>();
@@ -154,16 +222,6 @@ public class PrefixCounter {
     }
     
     public void printPrefixCounts(int maxDepth) {
-        ArrayDeque<Node> deque = new ArrayDeque<>();
-        deque.add(root);
-        while (!deque.isEmpty()) {
-            Node head = deque.removeFirst();
-            if (head.depth > maxDepth)
-                break;
-            for (Map.Entry<Character, Node> e : head.map.entrySet()) {
-                deque.addLast(e.getValue());
-            }
-            System.out.println(head);
-        }
+        iterPrefixCounts(maxDepth, (node, m) -> System.out.println(node));
     }
 }
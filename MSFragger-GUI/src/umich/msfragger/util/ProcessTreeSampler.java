@@ -0,0 +1,278 @@
+package umich.msfragger.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples CPU time, memory and I/O of a process and all of its descendants from {@code /proc}
+ * (Linux only) on a background thread. Descendants are found through parent pids on every
+ * sample, so programs a tool starts on its own, e.g. the ones run by the spectral library
+ * generation scripts, are accounted for too.<br/>
+ * Totals are as of the last sample, processes that live shorter than the sampling interval
+ * might be missed.
+ */
+public class ProcessTreeSampler {
+  private static final Logger log = LoggerFactory.getLogger(ProcessTreeSampler.class);
+  private static final Path PROC = Paths.get("/proc");
+  public static final long DEFAULT_INTERVAL_MS = 250;
+  private static volatile long clockTicks = -1;
+
+  /**
+   * Resource usage of a process tree.
+   */
+  public static class Usage {
+    public final long userMs;
+    public final long sysMs;
+    /** Max over all samples of the total resident memory of the tree. */
+    public final long peakRssKb;
+    public final long readBytes;
+    public final long writeBytes;
+
+    public Usage(long userMs, long sysMs, long peakRssKb, long readBytes, long writeBytes) {
+      this.userMs = userMs;
+      this.sysMs = sysMs;
+      this.peakRssKb = peakRssKb;
+      this.readBytes = readBytes;
+      this.writeBytes = writeBytes;
+    }
+  }
+
+  /** Latest known counters of a single process. */
+  private static class Counters {
+    long ticksUser;
+    long ticksSys;
+    long peakRssKb;
+    long readBytes;
+    long writeBytes;
+  }
+
+  private final long rootPid;
+  private final long intervalMs;
+  private final Map<Long, Counters> seen = new HashMap<>();
+  private long treePeakRssKb;
+  private final Thread thread;
+  private volatile boolean stopped;
+
+  private ProcessTreeSampler(long rootPid, long intervalMs) {
+    this.rootPid = rootPid;
+    this.intervalMs = intervalMs;
+    this.thread = new Thread(this::loop, "proc-sampler-" + rootPid);
+    this.thread.setDaemon(true);
+  }
+
+  public static boolean isSupported() {
+    return Files.isDirectory(PROC.resolve("self"));
+  }
+
+  /**
+   * @return Null if sampling is not supported on this system or the pid can't be found.
+   */
+  public static ProcessTreeSampler start(Process process, long intervalMs) {
+    if (!isSupported()) {
+      return null;
+    }
+    final long pid = pid(process);
+    if (pid < 0) {
+      return null;
+    }
+    ProcessTreeSampler s = new ProcessTreeSampler(pid, intervalMs);
+    s.thread.start();
+    return s;
+  }
+
+  /**
+   * Stops sampling.
+   * @return Usage totals of the whole process tree.
+   */
+  public Usage stop() {
+    stopped = true;
+    thread.interrupt();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      long user = 0, sys = 0, read = 0, write = 0;
+      for (Counters c : seen.values()) {
+        user += c.ticksUser;
+        sys += c.ticksSys;
+        read += c.readBytes;
+        write += c.writeBytes;
+      }
+      final long ticks = clockTicks();
+      return new Usage(user * 1000 / ticks, sys * 1000 / ticks, treePeakRssKb, read, write);
+    }
+  }
+
+  private void loop() {
+    while (!stopped) {
+      try {
+        sample();
+      } catch (Exception e) {
+        log.debug("Error sampling process tree of pid " + rootPid, e);
+      }
+      try {
+        Thread.sleep(intervalMs);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void sample() throws IOException {
+    // parent pid -> children, for everything currently running
+    final Map<Long, List<Long>> children = new HashMap<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(PROC, "[0-9]*")) {
+      for (Path p : ds) {
+        final String[] stat = readStat(p);
+        if (stat == null) {
+          continue;
+        }
+        final long pid = Long.parseLong(p.getFileName().toString());
+        children.computeIfAbsent(Long.parseLong(stat[1]), k -> new ArrayList<>()).add(pid);
+      }
+    }
+
+    long treeRssKb = 0;
+    final Deque<Long> queue = new ArrayDeque<>();
+    queue.add(rootPid);
+    synchronized (this) {
+      while (!queue.isEmpty()) {
+        final long pid = queue.poll();
+        final Path dir = PROC.resolve(Long.toString(pid));
+        final String[] stat = readStat(dir);
+        if (stat == null) {
+          continue; // gone already, keep its last known numbers
+        }
+        final Counters c = seen.computeIfAbsent(pid, k -> new Counters());
+        // fields after the command name: state, ppid, ..., utime is 14th and stime 15th overall
+        c.ticksUser = Long.parseLong(stat[11]);
+        c.ticksSys = Long.parseLong(stat[12]);
+        final Map<String, String> status = readKeyValues(dir.resolve("status"));
+        treeRssKb += parseKb(status.get("VmRSS"));
+        c.peakRssKb = Math.max(c.peakRssKb, parseKb(status.get("VmHWM")));
+        final Map<String, String> io = readKeyValues(dir.resolve("io"));
+        c.readBytes = parseLong(io.get("read_bytes"), c.readBytes);
+        c.writeBytes = parseLong(io.get("write_bytes"), c.writeBytes);
+        queue.addAll(children.getOrDefault(pid, new ArrayList<>()));
+      }
+      long maxSingle = 0;
+      for (Counters c : seen.values()) {
+        maxSingle = Math.max(maxSingle, c.peakRssKb);
+      }
+      treePeakRssKb = Math.max(treePeakRssKb, Math.max(treeRssKb, maxSingle));
+    }
+  }
+
+  /**
+   * @return Fields of /proc/pid/stat after the command name, null if the process is gone.
+   */
+  private static String[] readStat(Path procDir) {
+    try {
+      final String s = new String(Files.readAllBytes(procDir.resolve("stat")), StandardCharsets.UTF_8);
+      // the command name is in parentheses and can contain anything, including spaces
+      final int close = s.lastIndexOf(')');
+      if (close < 0) {
+        return null;
+      }
+      return s.substring(close + 2).trim().split(" ");
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Map<String, String> readKeyValues(Path file) {
+    final Map<String, String> m = new HashMap<>();
+    try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        final int colon = line.indexOf(':');
+        if (colon > 0) {
+          m.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+      }
+    } catch (IOException e) {
+      // not readable, e.g. /proc/pid/io of another user's process
+    }
+    return m;
+  }
+
+  private static long parseKb(String v) {
+    if (v == null) {
+      return 0;
+    }
+    return parseLong(v.replace("kB", "").trim(), 0);
+  }
+
+  private static long parseLong(String v, long defaultVal) {
+    if (v == null) {
+      return defaultVal;
+    }
+    try {
+      return Long.parseLong(v.trim());
+    } catch (NumberFormatException e) {
+      return defaultVal;
+    }
+  }
+
+  /**
+   * Clock ticks per second, the unit of CPU times in /proc/pid/stat.
+   */
+  private static long clockTicks() {
+    if (clockTicks > 0) {
+      return clockTicks;
+    }
+    long ticks = 100; // the usual value on Linux
+    try {
+      Process p = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+      try (BufferedReader br = new BufferedReader(
+          new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+        ticks = parseLong(br.readLine(), ticks);
+      }
+      p.waitFor();
+    } catch (IOException e) {
+      log.debug("Could not get clock ticks per second, assuming {}", ticks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    clockTicks = ticks > 0 ? ticks : 100;
+    return clockTicks;
+  }
+
+  /**
+   * Process id, Java 8 doesn't have a public API for that.
+   * @return -1 if it could not be found.
+   */
+  public static long pid(Process process) {
+    try {
+      Method m = Process.class.getMethod("pid"); // Java 9+
+      return (Long) m.invoke(process);
+    } catch (ReflectiveOperationException | RuntimeException ignored) {
+      // Java 8
+    }
+    try {
+      Field f = process.getClass().getDeclaredField("pid");
+      f.setAccessible(true);
+      return f.getLong(process);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+}
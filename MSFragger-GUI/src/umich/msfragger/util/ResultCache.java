@@ -0,0 +1,230 @@
+package umich.msfragger.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed store of result files. Each entry is a directory named by its key, holding
+ * files under their original names. The total size is kept under a cap by evicting the least
+ * recently used entries, the modification time of an entry directory is its last use.
+ */
+public class ResultCache {
+  private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+  private static final String TEMP_PREFIX = ".tmp-";
+
+  private final Path dir;
+  private final long maxBytes;
+
+  /**
+   * @param maxBytes Size cap, zero or less disables the cache.
+   */
+  public ResultCache(Path dir, long maxBytes) {
+    this.dir = dir.toAbsolutePath().normalize();
+    this.maxBytes = maxBytes;
+  }
+
+  public Path getDir() {
+    return dir;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  private Path entry(String key) {
+    return dir.resolve(key);
+  }
+
+  /**
+   * @param fileNames Names of the files that must all be in the entry.
+   */
+  public boolean contains(String key, List<String> fileNames) {
+    if (!isEnabled()) {
+      return false;
+    }
+    Path entry = entry(key);
+    for (String fn : fileNames) {
+      if (!Files.isRegularFile(entry.resolve(fn))) {
+        return false;
+      }
+    }
+    return Files.isDirectory(entry);
+  }
+
+  /**
+   * Puts copies of the files into place. Never links: tools may later write to the same paths
+   * in place, which would change the cached files too. Each file is copied under a temporary
+   * name next to the destination first, so a destination is either the old file or complete.
+   *
+   * @param destinations Files of the entry are looked up by the file names of these.
+   */
+  public void restore(String key, List<Path> destinations) throws IOException {
+    Path entry = entry(key);
+    for (Path dest : destinations) {
+      Path cached = entry.resolve(dest.getFileName().toString());
+      if (!Files.isRegularFile(cached)) {
+        throw new NoSuchFileException(cached.toString(), null, "Not in cache");
+      }
+      Path temp = dest.resolveSibling(TEMP_PREFIX + UUID.randomUUID() + "-" + dest.getFileName());
+      try {
+        FileCopy.copy(cached, temp);
+        Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    touch(entry);
+  }
+
+  /**
+   * Puts all the files of the entry into the directory, see {@link #restore(String, List)}.
+   *
+   * @return Restored files, empty if the key is not in the cache.
+   */
+  public List<Path> restoreAll(String key, Path dir) throws IOException {
+    final List<Path> destinations = new ArrayList<>();
+    final Path entry = entry(key);
+    if (!isEnabled() || !Files.isDirectory(entry)) {
+      return destinations;
+    }
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(entry)) {
+      for (Path p : ds) {
+        if (Files.isRegularFile(p)) {
+          destinations.add(dir.resolve(p.getFileName().toString()));
+        }
+      }
+    }
+    restore(key, destinations);
+    return destinations;
+  }
+
+  /**
+   * Regular files in the directory with names starting and ending as given, modified after
+   * the given time.
+   */
+  public static List<Path> matching(Path dir, String prefix, String suffix, long modifiedAfterMs)
+      throws IOException {
+    final List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(dir)) {
+      return files;
+    }
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        final String fn = p.getFileName().toString();
+        if (fn.startsWith(prefix) && fn.endsWith(suffix) && Files.isRegularFile(p)
+            && Files.getLastModifiedTime(p).toMillis() > modifiedAfterMs) {
+          files.add(p);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Stores a copy of the files under the key, unless the key is already there. The entry
+   * only becomes visible once all the files are copied. Evicts old entries if needed.
+   */
+  public void store(String key, List<Path> files) throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    Path entry = entry(key);
+    if (Files.isDirectory(entry)) {
+      touch(entry);
+      return;
+    }
+    Files.createDirectories(dir);
+    Path temp = dir.resolve(TEMP_PREFIX + UUID.randomUUID());
+    try {
+      Files.createDirectory(temp);
+      for (Path f : files) {
+        FileCopy.copy(f, temp.resolve(f.getFileName().toString()));
+      }
+      Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // stored by someone else in the meantime, that's fine
+    } finally {
+      if (Files.exists(temp)) {
+        FileUtils.deleteQuietly(temp.toFile());
+      }
+    }
+    touch(entry);
+    evict(key);
+  }
+
+  private static void touch(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      log.debug("Could not update last use time of cache entry: " + entry, e);
+    }
+  }
+
+  /**
+   * Removes least recently used entries until the total size fits under the cap. Entries
+   * that can't be looked at, e.g. because another run is evicting them, are skipped. Never
+   * fails, the worst case is a cache that is larger than it should be until the next time.
+   * @param keep Key of the entry that must not be removed.
+   */
+  private void evict(String keep) {
+    final List<Path> entries = new ArrayList<>();
+    final List<long[]> stats = new ArrayList<>(); // size, last use
+    long total = 0;
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        if (!Files.isDirectory(p) || p.getFileName().toString().startsWith(TEMP_PREFIX)) {
+          continue;
+        }
+        try {
+          final long lastUse = Files.getLastModifiedTime(p).toMillis();
+          final long size = FileUtils.sizeOfDirectory(p.toFile());
+          entries.add(p);
+          stats.add(new long[]{size, lastUse});
+          total += size;
+        } catch (IOException | RuntimeException e) {
+          log.debug("Skipping cache entry while evicting: " + p, e);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not evict old entries from cache: " + dir, e);
+      return;
+    }
+    if (total <= maxBytes) {
+      return;
+    }
+    final Integer[] order = Stream.iterate(0, i -> i + 1).limit(entries.size())
+        .toArray(Integer[]::new);
+    Arrays.sort(order, Comparator.comparingLong(i -> stats.get(i)[1]));
+    for (int i : order) {
+      if (total <= maxBytes) {
+        break;
+      }
+      Path p = entries.get(i);
+      if (p.getFileName().toString().equals(keep)) {
+        continue;
+      }
+      log.debug("Evicting cache entry: {}", p);
+      FileUtils.deleteQuietly(p.toFile());
+      total -= stats.get(i)[0];
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package umich.msfragger.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies everything from an input stream (e.g. process output) to a {@link ByteRingBuffer}
+ * and, optionally, to an output stream, using blocking reads on its own thread.<br/>
+ * The output stream gets the bytes as they are. The ring buffer only ever gets whole UTF-8
+ * characters: a character split between two reads is held back until the rest of it arrives,
+ * so that output of several streams sharing the buffer can be decoded in any chunks.
+ */
+public class StreamPump implements Runnable {
+  private static final Logger log = LoggerFactory.getLogger(StreamPump.class);
+  private static final int BUF_SIZE = 8192;
+
+  private final InputStream is;
+  private final OutputStream copy;
+  private final ByteRingBuffer ring;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /**
+   * @param copy Can be null.
+   */
+  public StreamPump(InputStream is, OutputStream copy, ByteRingBuffer ring) {
+    this.is = is;
+    this.copy = copy;
+    this.ring = ring;
+    ring.addWriter();
+  }
+
+  /**
+   * Starts the pump on a new daemon thread.
+   */
+  public Thread start(String name) {
+    Thread t = new Thread(this, name);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  @Override
+  public void run() {
+    final byte[] buf = new byte[BUF_SIZE];
+    // bytes not decoded yet, i.e. the start of a character split between reads
+    final ByteBuffer undecoded = ByteBuffer.allocate(BUF_SIZE * 2);
+    final CharBuffer chars = CharBuffer.allocate(BUF_SIZE * 2);
+    try {
+      int read;
+      while ((read = is.read(buf)) >= 0) {
+        if (copy != null) {
+          copy.write(buf, 0, read);
+          copy.flush();
+        }
+        undecoded.put(buf, 0, read);
+        undecoded.flip();
+        decoder.decode(undecoded, chars, false);
+        undecoded.compact();
+        writeChars(chars);
+      }
+      undecoded.flip();
+      decoder.decode(undecoded, chars, true);
+      decoder.flush(chars);
+      writeChars(chars);
+    } catch (IOException e) {
+      log.debug("Stream pump stopped: {}", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ring.writerDone();
+    }
+  }
+
+  private void writeChars(CharBuffer chars) throws InterruptedException {
+    chars.flip();
+    if (chars.hasRemaining()) {
+      final ByteBuffer bb = StandardCharsets.UTF_8.encode(chars);
+      ring.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+    }
+    chars.clear();
+  }
+}
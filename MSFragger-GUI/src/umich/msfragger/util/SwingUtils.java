@@ -28,6 +28,7 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.Window;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
@@ -44,10 +45,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JDialog;
 import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JFormattedTextField;
@@ -55,6 +61,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
 import javax.swing.JTextArea;
@@ -417,6 +424,139 @@ public class SwingUtils {
     return map;
   }
 
+  /**
+   * @see #showMessageDialog(Component, Object, String, int)
+   */
+  public static void showMessageDialog(Component parent, Object message) {
+    showMessageDialog(parent, message, UIManager.getString("OptionPane.messageDialogTitle"),
+        JOptionPane.INFORMATION_MESSAGE);
+  }
+
+  /**
+   * Same as {@link JOptionPane#showMessageDialog(Component, Object, String, int)}, but when
+   * there is no display the message is printed to stderr instead. For code that is shared
+   * between the GUI and headless runs.
+   */
+  public static void showMessageDialog(Component parent, Object message, String title,
+      int messageType) {
+    if (GraphicsEnvironment.isHeadless()) {
+      System.err.println(title + ": " + toPlainText(message));
+      return;
+    }
+    JOptionPane.showMessageDialog(parent, message, title, messageType);
+  }
+
+  /**
+   * Same as {@link JOptionPane#showConfirmDialog(Component, Object, String, int, int)}, but when
+   * there is no display the message is printed to stderr along with the answer taken, as
+   * nobody can be asked.
+   *
+   * @param headlessAnswer Returned when there is no display, e.g.
+   *     {@link JOptionPane#YES_OPTION}.
+   */
+  public static int showConfirmDialog(Component parent, Object message, String title,
+      int optionType, int messageType, int headlessAnswer) {
+    if (GraphicsEnvironment.isHeadless()) {
+      System.err.println(title + ": " + toPlainText(message));
+      System.err.println("No display to ask, answering: "
+          + (headlessAnswer == JOptionPane.YES_OPTION ? "Yes"
+          : headlessAnswer == JOptionPane.NO_OPTION ? "No" : "Cancel"));
+      return headlessAnswer;
+    }
+    return JOptionPane.showConfirmDialog(parent, message, title, optionType, messageType);
+  }
+
+  private static String toPlainText(Object message) {
+    return String.valueOf(message)
+        .replaceAll("(?i)<br/?>", "\n")
+        .replaceAll("<[^>]+>", "");
+  }
+
+  /**
+   * Work for {@link #runWithProgress(Component, String, ProgressTask)}.
+   */
+  public interface ProgressTask<T> {
+    /**
+     * @param progress Accepts the fraction done, 0 to 1. Can be called from any thread.
+     * @throws InterruptedException When the user cancelled, tasks should check
+     * {@link Thread#interrupted()} now and then.
+     */
+    T run(Proc1<Double> progress) throws Exception;
+  }
+
+  /**
+   * Runs a task in a background thread while a modal dialog with a progress bar and a Cancel
+   * button is shown, so the UI stays responsive. Cancel interrupts the thread. When called off
+   * the EDT or without a display the task just runs in the calling thread.
+   *
+   * @return Whatever the task returned, null if the user cancelled.
+   * @throws ExecutionException Wraps whatever the task threw.
+   */
+  public static <T> T runWithProgress(Component parent, String title, ProgressTask<T> task)
+      throws ExecutionException {
+    if (GraphicsEnvironment.isHeadless() || !SwingUtilities.isEventDispatchThread()) {
+      try {
+        return task.run(fraction -> {});
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (Exception e) {
+        throw new ExecutionException(e);
+      }
+    }
+
+    final Window owner = parent == null || parent instanceof Window
+        ? (Window) parent : SwingUtilities.getWindowAncestor(parent);
+    final JDialog dlg = new JDialog(owner, title, Dialog.ModalityType.APPLICATION_MODAL);
+    final JProgressBar pb = new JProgressBar(0, 100);
+    pb.setStringPainted(true);
+    final JButton btnCancel = new JButton("Cancel");
+    Dimension d = new Dimension(300, 75);
+    pb.setMinimumSize(d);
+    dlg.add(pb, BorderLayout.CENTER);
+    dlg.add(btnCancel, BorderLayout.SOUTH);
+    dlg.setSize(d);
+    dlg.setLocationRelativeTo(parent);
+    dlg.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+    final AtomicReference<T> result = new AtomicReference<>();
+    final AtomicReference<Exception> error = new AtomicReference<>();
+    final AtomicBoolean cancelled = new AtomicBoolean(false);
+    final Thread worker = new Thread(() -> {
+      try {
+        result.set(task.run(fraction -> SwingUtilities
+            .invokeLater(() -> pb.setValue((int) Math.round(fraction * 100)))));
+      } catch (Exception e) {
+        error.set(e);
+      } finally {
+        SwingUtilities.invokeLater(dlg::dispose);
+      }
+    }, title);
+    final Runnable cancel = () -> {
+      cancelled.set(true);
+      worker.interrupt();
+    };
+    btnCancel.addActionListener(e -> cancel.run());
+    dlg.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosing(WindowEvent e) {
+        cancel.run();
+      }
+    });
+    worker.start();
+
+    // blocks until the worker disposes the dialog, events are still pumped meanwhile
+    dlg.setVisible(true);
+
+    if (cancelled.get()) {
+      return null;
+    }
+    if (error.get() != null) {
+      throw new ExecutionException(error.get());
+    }
+    return result.get();
+  }
+
   /**
    * Show a message dialog wrapped into a scroll pane.
    * @param parent The parent for the dialog, null is ok.
@@ -0,0 +1,64 @@
+package umich.msfragger.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Physical memory of the machine, from {@code /proc/meminfo}. Only available on Linux.
+ */
+public class SystemMemory {
+  private static final Path MEMINFO = Paths.get("/proc/meminfo");
+  public static final long GB = 1L << 30;
+
+  private SystemMemory() {}
+
+  /**
+   * Memory that can be given to new processes without swapping.
+   * @return Bytes, -1 if unknown.
+   */
+  public static long availableBytes() {
+    final long available = read("MemAvailable");
+    if (available >= 0) {
+      return available;
+    }
+    // kernels before 3.14 don't report MemAvailable
+    final long free = read("MemFree");
+    final long cached = read("Cached");
+    return free < 0 ? -1 : free + Math.max(0, cached);
+  }
+
+  /**
+   * @return Bytes, -1 if unknown.
+   */
+  public static long totalBytes() {
+    return read("MemTotal");
+  }
+
+  /**
+   * @return Value of the field in bytes, -1 if not found.
+   */
+  private static long read(String field) {
+    if (!Files.isReadable(MEMINFO)) {
+      return -1;
+    }
+    try (BufferedReader br = Files.newBufferedReader(MEMINFO, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (!line.startsWith(field + ":")) {
+          continue;
+        }
+        // e.g. "MemAvailable:   12345678 kB"
+        final String[] parts = line.substring(field.length() + 1).trim().split("\\s+");
+        final long v = Long.parseLong(parts[0]);
+        return parts.length > 1 && parts[1].equalsIgnoreCase("kB") ? v * 1024 : v;
+      }
+    } catch (IOException | NumberFormatException e) {
+      return -1;
+    }
+    return -1;
+  }
+}
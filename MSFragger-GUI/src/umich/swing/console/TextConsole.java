@@ -17,21 +17,44 @@
 package umich.swing.console;
 
 import java.awt.Color;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
 
 /**
+ * Console with ANSI color support. Appending is thread-safe and cheap: text is parsed on the
+ * calling thread and queued, the queue is flushed to the document on the EDT in batches a few
+ * times a second. Only the last {@link #getMaxLines()} lines are kept in the document, older
+ * lines are spilled to a temporary log file, {@link #writeTo(Writer)} writes out everything.
  *
  * @author dmitriya
  */
 public class TextConsole extends JTextPane implements Appendable {
 
+    public static final int DEFAULT_MAX_LINES = 20000;
+    private static final int FLUSH_DELAY_MS = 100;
+
     static final Color D_Black = Color.getHSBColor(0.000f, 0.000f, 0.000f);
     static final Color D_Red = Color.getHSBColor(0.000f, 1.000f, 0.502f);
     static final Color D_Blue = Color.getHSBColor(0.667f, 1.000f, 0.502f);
@@ -50,74 +73,260 @@ public class TextConsole extends JTextPane implements Appendable {
     static final Color B_White = Color.getHSBColor(0.000f, 0.000f, 1.000f);
     
     static final Color cReset = Color.getHSBColor(0.000f, 0.000f, 0.000f);
-    static Color colorCurrent = cReset;
+    protected Color colorCurrent = cReset;
     
     protected String remaining = "";
+    /** If the last queued text ended with '\r', guarded by {@link #lock}. */
+    private boolean isAfterCr;
+
+    private final Object lock = new Object();
+    /** Text waiting to be added to the document, guarded by {@link #lock}. */
+    private List<Segment> pending = new ArrayList<>();
+    private final Timer flushTimer;
+    private volatile int maxLines = DEFAULT_MAX_LINES;
+
+    /** Lines dropped from the document go here, written on a separate thread. */
+    private final ExecutorService spillExec = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "console-spill");
+        t.setDaemon(true);
+        return t;
+    });
+    private Path spillFile;
+    private BufferedWriter spillWriter;
+
+    private static class Segment {
+        final Color color;
+        final String text;
+
+        Segment(Color color, String text) {
+            this.color = color;
+            this.text = text;
+        }
+    }
     
     public TextConsole() {
+        flushTimer = new Timer(FLUSH_DELAY_MS, e -> flush());
+        flushTimer.setRepeats(false);
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * @param maxLines Number of last lines kept in the document, the rest goes to the spill file.
+     */
+    public void setMaxLines(int maxLines) {
+        if (maxLines <= 0)
+            throw new IllegalArgumentException("Max lines must be positive");
+        this.maxLines = maxLines;
     }
-    
     
     @Override
     public Appendable append(CharSequence csq) throws IOException {
-        //append(csq.toString()); // too simple
-        
-        // old non-colored implementation
-//        StyledDocument doc = getStyledDocument();
-//        try {
-//            doc.insertString(doc.getLength(), csq.toString(), null);
-//        } catch (BadLocationException e) {
-//            e.printStackTrace();
-//        }
-
         appendANSI(csq.toString());
-
         return this;
     }
 
     @Override
     public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        //append(csq.subSequence(start, end).toString()); // too simple
-        
-        // old non-colored implementation
-//        StyledDocument doc = getStyledDocument();
-//        try {
-//            doc.insertString(doc.getLength(), csq.subSequence(start, end).toString(), null);
-//        } catch (BadLocationException e) {
-//            e.printStackTrace();
-//        }
-
         appendANSI(csq.subSequence(start, end).toString());
-
         return this;
     }
 
     @Override
     public Appendable append(char c) throws IOException {
-        //append(Character.toString(c));
-        StyledDocument doc = getStyledDocument();
+        enqueue(null, String.valueOf(c));
+        return this;
+    }
+    
+    public void append(Color c, String s) {
+        enqueue(c, s);
+    }
+
+    private void enqueue(Color c, String s) {
+        if (s.isEmpty())
+            return;
+        synchronized (lock) {
+            // "\r\n" may be split between two appends, the '\r' already became a line break
+            final String text = isAfterCr && s.charAt(0) == '\n' ? s.substring(1) : s;
+            isAfterCr = s.charAt(s.length() - 1) == '\r';
+            if (text.isEmpty())
+                return;
+            // In JTextPane, only "\n" is recognized as a newline, so replace "\r\n" with "\n"
+            // https://download.java.net/java/early_access/jdk12/docs/api/java.desktop/javax/swing/text/DefaultEditorKit.html
+            // “But while the document is in memory, the "\n" character is used to define a newline, regardless of how the newline is defined when the document is on disk.”
+            // JTextPane doesn't print "\r", so replace it with "\n"
+            pending.add(new Segment(c, text.replace("\r\n", "\n").replace("\r", "\n")));
+            if (pending.size() == 1)
+                scheduleFlush();
+        }
+    }
+
+    /**
+     * Swing timers are to be started from the EDT.
+     */
+    private void scheduleFlush() {
+        if (SwingUtilities.isEventDispatchThread())
+            flushTimer.restart();
+        else
+            SwingUtilities.invokeLater(flushTimer::restart);
+    }
+
+    /**
+     * Moves queued text to the document. Runs on the EDT.
+     */
+    private void flush() {
+        final List<Segment> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (batch.isEmpty())
+            return;
+        final StyledDocument doc = getStyledDocument();
+        final StyleContext sc = StyleContext.getDefaultStyleContext();
         try {
-            doc.insertString(doc.getLength(), String.valueOf(c), null);
+            // one insert for the whole batch, then color runs of consecutive same-color segments,
+            // that's much cheaper than an insert per segment
+            final StringBuilder sb = new StringBuilder();
+            for (Segment seg : batch) {
+                sb.append(seg.text);
+            }
+            final int base = doc.getLength();
+            doc.insertString(base, sb.toString(), SimpleAttributeSet.EMPTY);
+            int runStart = 0;
+            int runEnd = 0;
+            Color color = batch.get(0).color;
+            for (Segment seg : batch) {
+                if (seg.color != color && (seg.color == null || !seg.color.equals(color))) {
+                    colorize(doc, sc, color, base + runStart, runEnd - runStart);
+                    runStart = runEnd;
+                    color = seg.color;
+                }
+                runEnd += seg.text.length();
+            }
+            colorize(doc, sc, color, base + runStart, runEnd - runStart);
+            trim(doc);
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
-        return this;
+        setCaretPosition(doc.getLength());
     }
-    
-    public void append(Color c, String s) {
-        StyleContext sc = StyleContext.getDefaultStyleContext();
-        AttributeSet aset = sc.addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, c);
-        int len = getDocument().getLength(); // same value as getText().length();
-        setCaretPosition(len);  // place caret at the end (with no selection)
-        setCharacterAttributes(aset, false);
-        // In JTextPane, only "\n" is recognized as a newline, so replace "\r\n" with "\n"
-        // https://download.java.net/java/early_access/jdk12/docs/api/java.desktop/javax/swing/text/DefaultEditorKit.html
-        // “But while the document is in memory, the "\n" character is used to define a newline, regardless of how the newline is defined when the document is on disk.”
-        // JTextPane doesn't print "\r", so replace it with "\n"
-        replaceSelection(s.replace("\r\n", "\n").replace("\r", "\n")); // there is no selection, so inserts at caret
+
+    private static void colorize(StyledDocument doc, StyleContext sc, Color c, int offset, int len) {
+        if (c == null || len == 0)
+            return;
+        doc.setCharacterAttributes(offset, len,
+            sc.addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, c), true);
+    }
+
+    /**
+     * Drops lines from the beginning of the document once it's 10% over the limit, so that
+     * the document is not shifted on every flush.
+     */
+    private void trim(StyledDocument doc) throws BadLocationException {
+        final Element root = doc.getDefaultRootElement();
+        final int lines = root.getElementCount();
+        final int max = maxLines;
+        if (lines <= max + max / 10)
+            return;
+        final int cut = root.getElement(lines - max).getStartOffset();
+        final String dropped = doc.getText(0, cut);
+        doc.remove(0, cut);
+        spillExec.submit(() -> {
+            try {
+                if (spillWriter == null) {
+                    spillFile = Files.createTempFile("fragpipe-console-", ".log");
+                    spillFile.toFile().deleteOnExit();
+                    spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+                }
+                spillWriter.write(dropped);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Clears queued text and the spill file along with the document.
+     */
+    @Override
+    public void setText(String t) {
+        if (spillExec != null) { // called from super constructor
+            synchronized (lock) {
+                pending.clear();
+                remaining = "";
+                isAfterCr = false;
+            }
+            spillExec.submit(() -> {
+                try {
+                    if (spillWriter != null) {
+                        spillWriter.close();
+                        Files.deleteIfExists(spillFile);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    spillWriter = null;
+                    spillFile = null;
+                }
+            });
+        }
+        super.setText(t);
+    }
+
+    /**
+     * Writes the whole console output, including lines that were dropped from the document.
+     * Call on the EDT.
+     */
+    public void writeTo(Writer w) throws IOException {
+        flush();
+        final Future<?> spilled = spillExec.submit(() -> {
+            if (spillWriter == null)
+                return null;
+            spillWriter.flush();
+            try (Reader r = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+                final char[] buf = new char[8192];
+                int read;
+                while ((read = r.read(buf)) >= 0) {
+                    w.write(buf, 0, read);
+                }
+            }
+            return null;
+        });
+        try {
+            spilled.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing console output", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read console spill file", e.getCause());
+        }
+        w.write(getText());
+        w.flush();
+    }
+
+    /**
+     * Writes the whole console output to a new file.
+     * @see #writeTo(Writer)
+     */
+    public void writeTo(Path path) throws IOException {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW)) {
+            writeTo(w);
+        }
     }
     
+    /**
+     * Parses ANSI color codes, can be called from any thread.
+     */
     public void appendANSI(String s) { // convert ANSI color codes first
+        synchronized (lock) {
+            appendANSILocked(s);
+        }
+    }
+
+    private void appendANSILocked(String s) {
         int aPos = 0;   // current char position in addString
         int aIndex = 0; // index of next Escape sequence
         int mIndex = 0; // index of "m" terminating Escape sequence
@@ -0,0 +1,100 @@
+package umich.msfragger.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import umich.msfragger.cmd.PipelineConfig;
+import umich.msfragger.gui.InputLcmsFile;
+import umich.msfragger.gui.LcmsFileGroup;
+
+public class HeadlessRunnerTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = tmp.getRoot().toPath();
+    for (String fn : Arrays.asList("a.mzML", "b.mzML", "c.mzML")) {
+      Files.createFile(dir.resolve(fn));
+    }
+  }
+
+  private Path write(String fn, String... lines) throws IOException {
+    return Files.write(dir.resolve(fn), Arrays.asList(lines), UTF_8);
+  }
+
+  private static List<String> fileNames(LcmsFileGroup group) {
+    final List<String> names = new ArrayList<>();
+    for (InputLcmsFile f : group.lcmsFiles) {
+      names.add(f.path.getFileName().toString());
+    }
+    return names;
+  }
+
+  @Test
+  public void manifestIsGroupedByExperiment() throws IOException {
+    final Path manifest = write("manifest.tsv",
+        "# comment", "c.mzML\texp2", "", "a.mzML\texp1", "b.mzML\texp2");
+    final Map<String, LcmsFileGroup> groups = HeadlessRunner.loadManifest(manifest);
+    assertEquals(Arrays.asList("exp1", "exp2"), new ArrayList<>(groups.keySet()));
+    assertEquals(Arrays.asList("a.mzML"), fileNames(groups.get("exp1")));
+    assertEquals(Arrays.asList("c.mzML", "b.mzML"), fileNames(groups.get("exp2")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void missingInputFileIsAnError() throws IOException {
+    HeadlessRunner.loadManifest(write("manifest.tsv", "missing.mzML"));
+  }
+
+  @Test
+  public void cachesAreOffByDefault() throws IOException {
+    final PipelineConfig c = HeadlessRunner.loadConfig(new Properties(), dir);
+    assertFalse(c.msfraggerCache.isEnabled());
+    assertFalse(c.msfraggerIndexCache.isEnabled());
+  }
+
+  @Test
+  public void emptyDecoyTagFailsRunWithPhilosopherSteps() throws Exception {
+    final Path workflow = write("workflow.properties",
+        "workdir=results", "dry.run=true", "msfragger.run=false", "report.run=false");
+    final Path manifest = write("manifest.tsv", "a.mzML");
+    try {
+      HeadlessRunner.run(workflow, manifest);
+      fail("A run with PeptideProphet and an empty decoy tag must not start");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(HeadlessRunner.PROP_DECOY_TAG));
+    }
+  }
+
+  @Test
+  public void emptyDecoyTagIsFineWithoutPhilosopherSteps() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty(HeadlessRunner.PROP_PEPTIDEPROPHET_RUN, "false");
+    p.setProperty(HeadlessRunner.PROP_PROTEINPROPHET_RUN, "false");
+    HeadlessRunner.checkConfig(HeadlessRunner.loadConfig(p, dir));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyDecoyTagFailsWithProteinProphetAlone() throws IOException {
+    final Properties p = new Properties();
+    p.setProperty(HeadlessRunner.PROP_PEPTIDEPROPHET_RUN, "false");
+    HeadlessRunner.checkConfig(HeadlessRunner.loadConfig(p, dir));
+  }
+}
@@ -0,0 +1,70 @@
+package umich.msfragger.cmd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CmdUmpireSeTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void stageLinksInputIntoItsOwnDir() throws IOException {
+    Path input = tmp.newFile("a.mzXML").toPath();
+    Files.write(input, "spectra".getBytes(StandardCharsets.UTF_8));
+    Path staged = tmp.getRoot().toPath().resolve("out").resolve("umpire-se-a").resolve("a.mzXML");
+
+    CmdUmpireSe.stage(input, staged);
+    assertArrayEquals(Files.readAllBytes(input), Files.readAllBytes(staged));
+    // staging again, e.g. on a re-run, replaces the old link
+    CmdUmpireSe.stage(input, staged);
+    assertTrue(Files.exists(input));
+    assertArrayEquals(Files.readAllBytes(input), Files.readAllBytes(staged));
+  }
+
+  @Test
+  public void logsAreMergedInInputOrderAndStagingDirsDeleted() throws IOException {
+    Path input = tmp.newFile("b.mzXML").toPath();
+    Path out = tmp.newFolder("out").toPath();
+    Path stagedB = out.resolve("umpire-se-b").resolve("b.mzXML");
+    Path stagedA = out.resolve("umpire-se-a").resolve("a.mzXML");
+    Path stagedC = out.resolve("umpire-se-c").resolve("c.mzXML");
+    CmdUmpireSe.stage(input, stagedB);
+    CmdUmpireSe.stage(input, stagedA);
+    CmdUmpireSe.stage(input, stagedC);
+    Files.write(stagedB.resolveSibling("diaumpire_se.log"), "b\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(stagedA.resolveSibling("diaumpire_se.log"), "a\n".getBytes(StandardCharsets.UTF_8));
+    // c failed before writing a log
+    Path log = out.resolve("diaumpire_se.log");
+    Files.write(log, "previous\n".getBytes(StandardCharsets.UTF_8));
+
+    CmdUmpireSe.mergeLogs(Arrays.asList(stagedB, stagedA, stagedC), log);
+    assertEquals(Arrays.asList("previous", "b", "a"), Files.readAllLines(log));
+    assertFalse(Files.exists(stagedA.getParent()));
+    assertFalse(Files.exists(stagedB.getParent()));
+    assertFalse(Files.exists(stagedC.getParent()));
+    assertTrue(Files.exists(input));
+  }
+
+  @Test
+  public void stagingDirWithUnexpectedFilesIsKept() throws IOException {
+    Path input = tmp.newFile("a.mzXML").toPath();
+    Path staged = tmp.getRoot().toPath().resolve("umpire-se-a").resolve("a.mzXML");
+    CmdUmpireSe.stage(input, staged);
+    Path unknown = Files.createFile(staged.resolveSibling("a.unknown"));
+
+    CmdUmpireSe.mergeLogs(Arrays.asList(staged), tmp.getRoot().toPath().resolve("diaumpire_se.log"));
+    assertFalse(Files.exists(staged));
+    assertTrue(Files.exists(unknown));
+  }
+}
@@ -0,0 +1,189 @@
+package umich.msfragger.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import umich.msfragger.cmd.DagScheduler.Node;
+import umich.msfragger.cmd.DagScheduler.State;
+import umich.msfragger.util.SystemMemory;
+
+public class DagSchedulerTest {
+  private static final long UNKNOWN_RAM = -1;
+
+  private static ProcessBuilderInfo pbi(String name, SchedulingInfo sched) {
+    return new ProcessBuilderInfo(new ProcessBuilder("true"), name, null, null, sched);
+  }
+
+  private static SchedulingInfo io(String in, String out) {
+    return new SchedulingInfo().inputs(Paths.get(in)).outputs(Paths.get(out));
+  }
+
+  /** Records the order in which tasks start and tracks how many run at the same time. */
+  private static class Recorder implements DagScheduler.Task {
+    final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final long sleepMs;
+
+    Recorder(long sleepMs) {
+      this.sleepMs = sleepMs;
+    }
+
+    @Override
+    public boolean run(Node node) throws Exception {
+      started.add(node.pbi.name);
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(sleepMs);
+      } finally {
+        running.decrementAndGet();
+      }
+      return true;
+    }
+  }
+
+  @Test
+  public void dependenciesFollowFiles() {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    Node a = dag.add(pbi("a", io("x", "a")), n -> true);
+    Node b = dag.add(pbi("b", io("x", "b")), n -> true);
+    Node c = dag.add(pbi("c", io("a", "c")), n -> true);
+    dag.resolveDeps();
+    assertTrue(a.getDeps().isEmpty());
+    assertTrue(b.getDeps().isEmpty());
+    assertEquals(Collections.singleton(a), c.getDeps());
+  }
+
+  @Test
+  public void barrierSeparatesEverything() {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    Node a = dag.add(pbi("a", io("x", "a")), n -> true);
+    Node b = dag.add(pbi("b", io("x", "b")), n -> true);
+    Node barrier = dag.add(pbi("barrier", null), n -> true);
+    Node c = dag.add(pbi("c", io("y", "c")), n -> true);
+    dag.resolveDeps();
+    assertTrue(barrier.getDeps().contains(a));
+    assertTrue(barrier.getDeps().contains(b));
+    assertEquals(Collections.singleton(barrier), c.getDeps());
+  }
+
+  @Test
+  public void independentNodesRunConcurrently() throws Exception {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    DagScheduler.Task task = n -> {
+      bothStarted.countDown();
+      return bothStarted.await(10, TimeUnit.SECONDS);
+    };
+    dag.add(pbi("a", io("x", "a")), task);
+    dag.add(pbi("b", io("x", "b")), task);
+    assertTrue(dag.run());
+  }
+
+  @Test
+  public void dependentNodeWaits() throws Exception {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    Recorder r = new Recorder(50);
+    dag.add(pbi("a", io("x", "a")), r);
+    dag.add(pbi("c", io("a", "c")), r);
+    assertTrue(dag.run());
+    assertEquals(1, r.maxRunning.get());
+    assertEquals(Arrays.asList("a", "c"), r.started);
+  }
+
+  @Test
+  public void locksAreExclusive() throws Exception {
+    DagScheduler dag = new DagScheduler(8, 0, () -> UNKNOWN_RAM);
+    Recorder r = new Recorder(30);
+    for (int i = 0; i < 4; i++) {
+      dag.add(pbi("n" + i, io("x", "out" + i).lock("workspace")), r);
+    }
+    assertTrue(dag.run());
+    assertEquals(1, r.maxRunning.get());
+  }
+
+  @Test
+  public void slotsLimitConcurrency() throws Exception {
+    DagScheduler dag = new DagScheduler(8, 0, () -> UNKNOWN_RAM);
+    Recorder r = new Recorder(50);
+    for (int i = 0; i < 6; i++) {
+      dag.add(pbi("n" + i, io("x", "out" + i).slots("tool", 2)), r);
+    }
+    assertTrue(dag.run());
+    assertEquals(2, r.maxRunning.get());
+  }
+
+  @Test
+  public void coreBudgetLimitsConcurrency() throws Exception {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    Recorder r = new Recorder(50);
+    for (int i = 0; i < 4; i++) {
+      dag.add(pbi("n" + i, io("x", "out" + i).threads(2)), r);
+    }
+    assertTrue(dag.run());
+    assertEquals(2, r.maxRunning.get());
+  }
+
+  @Test
+  public void ramBudgetLimitsConcurrency() throws Exception {
+    DagScheduler dag = new DagScheduler(8, 10, () -> UNKNOWN_RAM);
+    Recorder r = new Recorder(50);
+    for (int i = 0; i < 4; i++) {
+      dag.add(pbi("n" + i, io("x", "out" + i).ramGb(4)), r);
+    }
+    assertTrue(dag.run());
+    assertEquals(2, r.maxRunning.get());
+  }
+
+  @Test
+  public void availableRamLimitsConcurrency() throws Exception {
+    DagScheduler dag = new DagScheduler(8, 100, () -> 5 * SystemMemory.GB);
+    Recorder r = new Recorder(50);
+    for (int i = 0; i < 3; i++) {
+      dag.add(pbi("n" + i, io("x", "out" + i).ramGb(4)), r);
+    }
+    assertTrue(dag.run());
+    assertEquals(1, r.maxRunning.get());
+  }
+
+  @Test
+  public void failureCancelsDependants() throws Exception {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    Node a = dag.add(pbi("a", io("x", "a")), n -> false);
+    Node c = dag.add(pbi("c", io("a", "c")), n -> true);
+    assertFalse(dag.run());
+    assertEquals(State.FAILED, a.getState());
+    assertEquals(State.CANCELLED, c.getState());
+  }
+
+  @Test
+  public void cpusAreHandedOutDisjointly() throws Exception {
+    DagScheduler dag = new DagScheduler(4, 0, () -> UNKNOWN_RAM);
+    dag.pinCpus(Arrays.asList(0, 1, 2, 3));
+    final List<List<Integer>> seen = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    DagScheduler.Task task = n -> {
+      seen.add(n.getCpus());
+      bothStarted.countDown();
+      return bothStarted.await(10, TimeUnit.SECONDS);
+    };
+    dag.add(pbi("a", io("x", "a").threads(2)), task);
+    dag.add(pbi("b", io("x", "b").threads(2)), task);
+    assertTrue(dag.run());
+    assertEquals(2, seen.size());
+    List<Integer> all = new ArrayList<>(seen.get(0));
+    all.addAll(seen.get(1));
+    Collections.sort(all);
+    assertEquals(Arrays.asList(0, 1, 2, 3), all);
+  }
+}
@@ -0,0 +1,83 @@
+package umich.msfragger.cmd;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import org.junit.Test;
+
+public class SchedulingInfoTest {
+  private static final Path A = Paths.get("a.pepXML");
+  private static final Path B = Paths.get("b.pepXML");
+  private static final Path C = Paths.get("c.pepXML");
+
+  @Test
+  public void readAfterWrite() {
+    SchedulingInfo writer = new SchedulingInfo().inputs(A).outputs(B);
+    SchedulingInfo reader = new SchedulingInfo().inputs(B).outputs(C);
+    assertTrue(reader.dependsOn(writer));
+  }
+
+  @Test
+  public void writeAfterRead() {
+    SchedulingInfo reader = new SchedulingInfo().inputs(A).outputs(B);
+    SchedulingInfo writer = new SchedulingInfo().inputs(C).outputs(A);
+    assertTrue(writer.dependsOn(reader));
+  }
+
+  @Test
+  public void writeAfterWrite() {
+    SchedulingInfo first = new SchedulingInfo().inputs(A).outputs(C);
+    SchedulingInfo second = new SchedulingInfo().inputs(B).outputs(C);
+    assertTrue(second.dependsOn(first));
+  }
+
+  @Test
+  public void sharedInputsAreIndependent() {
+    SchedulingInfo first = new SchedulingInfo().inputs(A).outputs(B);
+    SchedulingInfo second = new SchedulingInfo().inputs(A).outputs(C);
+    assertFalse(second.dependsOn(first));
+    assertFalse(first.dependsOn(second));
+  }
+
+  @Test
+  public void pathsAreNormalized() {
+    SchedulingInfo writer = new SchedulingInfo().outputs(Paths.get("dir", "..", "b.pepXML"));
+    SchedulingInfo reader = new SchedulingInfo().inputs(B.toAbsolutePath());
+    assertTrue(reader.dependsOn(writer));
+  }
+
+  @Test
+  public void afterGroup() {
+    SchedulingInfo member = new SchedulingInfo().inputs(A).outputs(B).group("g");
+    SchedulingInfo other = new SchedulingInfo().inputs(A).outputs(C).group("h");
+    SchedulingInfo cleanup = new SchedulingInfo().after("g");
+    assertTrue(cleanup.dependsOn(member));
+    assertFalse(cleanup.dependsOn(other));
+  }
+
+  @Test
+  public void orderAfterGroup() {
+    SchedulingInfo init = new SchedulingInfo().group("ws");
+    SchedulingInfo user = new SchedulingInfo().inputs(A).outputs(B).orderAfter("ws");
+    assertTrue(user.dependsOn(init));
+    assertFalse(new SchedulingInfo().inputs(A).outputs(B).orderAfter("other").dependsOn(init));
+  }
+
+  @Test
+  public void locksAndSlotsDontCreateDependencies() {
+    SchedulingInfo first = new SchedulingInfo().inputs(A).outputs(B).lock("ws").slots("k", 1);
+    SchedulingInfo second = new SchedulingInfo().inputs(A).outputs(C).lock("ws").slots("k", 1);
+    assertFalse(second.dependsOn(first));
+  }
+
+  @Test
+  public void tempOutputsAreOutputs() {
+    SchedulingInfo writer = new SchedulingInfo().tempOutputs(Collections.singleton(B));
+    SchedulingInfo reader = new SchedulingInfo().inputs(B).outputs(C);
+    assertTrue(reader.dependsOn(writer));
+    assertTrue(writer.temps.contains(B.toAbsolutePath().normalize()));
+  }
+}
@@ -0,0 +1,247 @@
+package umich.msfragger.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import umich.msfragger.util.ExternalJava;
+
+public class StepManifestTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path wd;
+  private Path in;
+  private Path mid;
+  private Path out;
+
+  @Before
+  public void setUp() throws IOException {
+    wd = tmp.getRoot().toPath();
+    in = wd.resolve("in.txt");
+    mid = wd.resolve("mid.txt");
+    out = wd.resolve("out.txt");
+    write(in, "input");
+  }
+
+  private static void write(Path p, String content) throws IOException {
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ProcessBuilderInfo step(String name, SchedulingInfo sched, String... cmd) {
+    ProcessBuilder pb = new ProcessBuilder(cmd.length == 0 ? new String[]{name} : cmd);
+    pb.directory(wd.toFile());
+    return new ProcessBuilderInfo(pb, name, null, null, sched);
+  }
+
+  private ProcessBuilderInfo first() {
+    return step("first", new SchedulingInfo().inputs(in).outputs(mid));
+  }
+
+  private ProcessBuilderInfo second() {
+    return step("second", new SchedulingInfo().inputs(mid).outputs(out));
+  }
+
+  /** Runs the steps the way ProcessRunner does, "running" a step just writes its outputs. */
+  private void run(List<ProcessBuilderInfo> pbis) throws IOException {
+    StepManifest m = StepManifest.load(wd);
+    for (ProcessBuilderInfo pbi : pbis) {
+      if (!StepManifest.isTracked(pbi)) {
+        continue;
+      }
+      Map<Path, StepManifest.FileState> inputs = m.begin(pbi);
+      for (Path p : pbi.sched.outputs) {
+        write(p, pbi.name + " output");
+      }
+      m.finish(pbi, inputs);
+    }
+  }
+
+  private Set<ProcessBuilderInfo> upToDate(List<ProcessBuilderInfo> pbis) {
+    return StepManifest.load(wd).upToDate(pbis);
+  }
+
+  @Test
+  public void nothingIsUpToDateWithoutManifest() {
+    assertTrue(upToDate(Arrays.asList(first(), second())).isEmpty());
+  }
+
+  @Test
+  public void unchangedStepsAreUpToDate() throws IOException {
+    run(Arrays.asList(first(), second()));
+    List<ProcessBuilderInfo> again = Arrays.asList(first(), second());
+    assertEquals(2, upToDate(again).size());
+  }
+
+  @Test
+  public void changedInputMakesStepAndDependantsStale() throws IOException {
+    run(Arrays.asList(first(), second()));
+    write(in, "changed input");
+    assertTrue(upToDate(Arrays.asList(first(), second())).isEmpty());
+  }
+
+  @Test
+  public void changedOutputMakesOnlyDependantsStale() throws IOException {
+    run(Arrays.asList(first(), second()));
+    write(out, "edited by hand");
+    List<ProcessBuilderInfo> again = Arrays.asList(first(), second());
+    Set<ProcessBuilderInfo> ok = upToDate(again);
+    assertTrue(ok.contains(again.get(0)));
+    assertFalse(ok.contains(again.get(1)));
+  }
+
+  @Test
+  public void changedCommandLineMakesStepStale() throws IOException {
+    run(Arrays.asList(first(), second()));
+    ProcessBuilderInfo changed = step("first", new SchedulingInfo().inputs(in).outputs(mid),
+        "first", "--other-option");
+    List<ProcessBuilderInfo> again = Arrays.asList(changed, second());
+    assertTrue(upToDate(again).isEmpty());
+  }
+
+  @Test
+  public void changedParamsFileMakesStepStale() throws IOException {
+    Path params = wd.resolve("tool.params");
+    write(params, "a = 1");
+    ProcessBuilderInfo withParams = step("first", new SchedulingInfo().inputs(in).outputs(mid),
+        "first", params.toString());
+    run(Collections.singletonList(withParams));
+    assertEquals(1, upToDate(Collections.singletonList(withParams)).size());
+    write(params, "a = 2");
+    assertTrue(upToDate(Collections.singletonList(withParams)).isEmpty());
+  }
+
+  @Test
+  public void filesInArgFileAreFingerprinted() throws IOException {
+    Path params = wd.resolve("fragger.params");
+    Path jar = wd.resolve("MSFragger with space.jar");
+    write(params, "a = 1");
+    write(jar, "jar 1");
+    Path argFile = wd.resolve("msfragger-args-0.txt");
+    writeArgFile(argFile, "-jar", jar.toString(), params.toString(), in.toString());
+    ProcessBuilderInfo withArgFile = step("first", new SchedulingInfo().inputs(in).outputs(mid),
+        "java", "-Xmx8G", "@" + argFile);
+    run(Collections.singletonList(withArgFile));
+    assertEquals(1, upToDate(Collections.singletonList(withArgFile)).size());
+
+    write(params, "a = 2");
+    assertTrue(upToDate(Collections.singletonList(withArgFile)).isEmpty());
+    run(Collections.singletonList(withArgFile));
+    write(jar, "jar 2");
+    assertTrue(upToDate(Collections.singletonList(withArgFile)).isEmpty());
+    run(Collections.singletonList(withArgFile));
+    assertEquals(1, upToDate(Collections.singletonList(withArgFile)).size());
+    // same file name, different arguments
+    writeArgFile(argFile, "-jar", jar.toString(), params.toString(), "--other-option", in.toString());
+    assertTrue(upToDate(Collections.singletonList(withArgFile)).isEmpty());
+  }
+
+  private static void writeArgFile(Path argFile, String... args) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String arg : args) {
+      lines.add(ExternalJava.quoteForArgFile(arg));
+    }
+    Files.write(argFile, lines, Charset.defaultCharset());
+  }
+
+  @Test
+  public void argFileIsParsedLikeJavaDoes() {
+    assertEquals(Arrays.asList("-jar", "C:\\a b\\x.jar", "say \"hi\"", "plain", "it's"),
+        ExternalJava.parseArgFile("# comment\n\"-jar\"\r\n"
+            + ExternalJava.quoteForArgFile("C:\\a b\\x.jar") + "\n"
+            + ExternalJava.quoteForArgFile("say \"hi\"") + "  plain\t\"it's\"\n"));
+  }
+
+  private ProcessBuilderInfo move() {
+    return step("move", new SchedulingInfo().inputs(mid).outputs(out));
+  }
+
+  @Test
+  public void movedOutputIsFineWhileTheMoveIsUpToDate() throws IOException {
+    StepManifest m = StepManifest.load(wd);
+    ProcessBuilderInfo produce = first();
+    Map<Path, StepManifest.FileState> inputs = m.begin(produce);
+    write(mid, "first output");
+    m.finish(produce, inputs);
+    ProcessBuilderInfo move = move();
+    inputs = m.begin(move);
+    Files.move(mid, out, StandardCopyOption.REPLACE_EXISTING);
+    m.finish(move, inputs);
+
+    assertEquals(2, upToDate(Arrays.asList(first(), move())).size());
+
+    // the moved file is gone, so the move has to run again, and so the step producing it
+    Files.delete(out);
+    assertTrue(upToDate(Arrays.asList(first(), move())).isEmpty());
+  }
+
+  @Test
+  public void untrackedStepsAlwaysRun() throws IOException {
+    ProcessBuilderInfo barrier = step("barrier", null);
+    run(Arrays.asList(barrier, first()));
+    List<ProcessBuilderInfo> again = Arrays.asList(step("barrier", null), first());
+    Set<ProcessBuilderInfo> ok = upToDate(again);
+    assertFalse(ok.contains(again.get(0)));
+    assertTrue(ok.contains(again.get(1)));
+  }
+
+  @Test
+  public void stepAfterUntrackedGroupIsStale() throws IOException {
+    // e.g. a Philosopher workspace being cleaned, and a step keeping results in it
+    List<ProcessBuilderInfo> pbis = Arrays.asList(
+        step("clean", new SchedulingInfo().group("ws")),
+        step("first", new SchedulingInfo().inputs(in).outputs(mid).after("ws")));
+    run(pbis);
+    assertTrue(upToDate(pbis).isEmpty());
+  }
+
+  @Test
+  public void stepOrderedAfterUntrackedGroupIsUpToDate() throws IOException {
+    List<ProcessBuilderInfo> pbis = Arrays.asList(
+        step("clean", new SchedulingInfo().group("ws")),
+        step("first", new SchedulingInfo().inputs(in).outputs(mid).orderAfter("ws")));
+    run(pbis);
+    Set<ProcessBuilderInfo> ok = upToDate(pbis);
+    assertEquals(Collections.singleton(pbis.get(1)), ok);
+  }
+
+  @Test
+  public void unfinishedStepIsForgotten() throws IOException {
+    run(Collections.singletonList(first()));
+    StepManifest m = StepManifest.load(wd);
+    m.begin(first());
+    // the run failed, finish() was never called
+    assertTrue(upToDate(Collections.singletonList(first())).isEmpty());
+  }
+
+  @Test
+  public void missingOutputIsNotRecorded() throws IOException {
+    StepManifest m = StepManifest.load(wd);
+    ProcessBuilderInfo pbi = first();
+    m.finish(pbi, m.begin(pbi));
+    assertTrue(upToDate(Collections.singletonList(first())).isEmpty());
+  }
+
+  @Test
+  public void brokenManifestMeansRunEverything() throws IOException {
+    run(Arrays.asList(first(), second()));
+    write(wd.resolve(StepManifest.FILE_NAME), "in\t1\t2\tno-step-before-this\n");
+    assertTrue(upToDate(Arrays.asList(first(), second())).isEmpty());
+  }
+}
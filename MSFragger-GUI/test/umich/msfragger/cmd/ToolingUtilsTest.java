@@ -0,0 +1,187 @@
+package umich.msfragger.cmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import umich.msfragger.util.ResultCache;
+
+public class ToolingUtilsTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static ProcessBuilderInfo info(InProcessStep step) {
+    return new ProcessBuilderInfo(new ProcessBuilder(), "test", null, null, null, step);
+  }
+
+  @Test
+  public void moveStepMovesFile() throws IOException {
+    Path file = tmp.newFile("a.pepXML").toPath();
+    Files.write(file, "content".getBytes(StandardCharsets.UTF_8));
+    Path dest = tmp.newFolder("dest").toPath();
+
+    List<InProcessStep> steps = ToolingUtils.stepsMoveFiles(dest, Collections.singletonList(file));
+    assertEquals(1, steps.size());
+    ProcessBuilderInfo pbi = info(steps.get(0));
+    assertTrue(pbi.isInProcess());
+    assertTrue(pbi.describe().startsWith("Move "));
+    assertTrue(pbi.command().contains(file.toAbsolutePath().normalize().toString()));
+
+    steps.get(0).run();
+    assertFalse(Files.exists(file));
+    assertEquals("content",
+        new String(Files.readAllBytes(dest.resolve("a.pepXML")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void copyStepKeepsOrigin() throws IOException {
+    Path file = tmp.newFile("a.mzML").toPath();
+    Path dest = tmp.newFolder("dest").toPath();
+    ToolingUtils.stepsCopyFiles(dest, Collections.singletonList(file)).get(0).run();
+    assertTrue(Files.exists(file));
+    assertTrue(Files.exists(dest.resolve("a.mzML")));
+  }
+
+  @Test
+  public void noStepForFilesInPlace() throws IOException {
+    Path file = tmp.newFile("a.pepXML").toPath();
+    assertTrue(ToolingUtils.stepsMoveFiles(file.getParent(), Collections.singletonList(file))
+        .isEmpty());
+  }
+
+  @Test
+  public void missingOriginFails() throws IOException {
+    Path dest = tmp.newFolder("dest").toPath();
+    Path missing = tmp.getRoot().toPath().resolve("missing.pepXML");
+    try {
+      ToolingUtils.stepsMoveFiles(dest, Collections.singletonList(missing)).get(0).run();
+      fail("Moving a missing file must fail");
+    } catch (FileNotFoundException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void manifestKeyFollowsStepArgs() throws IOException {
+    Path a = tmp.newFile("a.pepXML").toPath();
+    Path b = tmp.newFile("b.pepXML").toPath();
+    Path dest = tmp.newFolder("dest").toPath();
+    ProcessBuilderInfo moveA = info(
+        ToolingUtils.stepsMoveFiles(dest, Collections.singletonList(a)).get(0));
+    ProcessBuilderInfo moveA2 = info(
+        ToolingUtils.stepsMoveFiles(dest, Collections.singletonList(a)).get(0));
+    ProcessBuilderInfo moveB = info(
+        ToolingUtils.stepsMoveFiles(dest, Collections.singletonList(b)).get(0));
+    assertEquals(StepManifest.key(moveA), StepManifest.key(moveA2));
+    assertNotEquals(StepManifest.key(moveA), StepManifest.key(moveB));
+  }
+
+  /** Cache holding one entry with a.pepXML, restored to the returned path. */
+  private Path cachedResult(ResultCache cache, String key) throws IOException {
+    Path work = tmp.newFolder("work").toPath();
+    Path pepxml = work.resolve("a.pepXML");
+    Files.write(pepxml, "cached".getBytes(StandardCharsets.UTF_8));
+    cache.store(key, Collections.singletonList(pepxml));
+    Files.delete(pepxml);
+    return pepxml;
+  }
+
+  @Test
+  public void cacheRestoreUsesEntry() throws IOException {
+    ResultCache cache = new ResultCache(tmp.newFolder("cache").toPath(), 1 << 20);
+    Path pepxml = cachedResult(cache, "k");
+    AtomicInteger searches = new AtomicInteger();
+    ToolingUtils.stepResultCacheRestore(cache, "k", Collections.singletonList(pepxml),
+        searches::incrementAndGet).run();
+    assertEquals("cached", new String(Files.readAllBytes(pepxml), StandardCharsets.UTF_8));
+    assertEquals(0, searches.get());
+  }
+
+  @Test
+  public void cacheRestoreFallsBackWhenEntryIsEvicted() throws IOException {
+    Path cacheDir = tmp.newFolder("cache").toPath();
+    ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    Path pepxml = cachedResult(cache, "k");
+    InProcessStep step = ToolingUtils.stepResultCacheRestore(cache, "k",
+        Collections.singletonList(pepxml),
+        () -> Files.write(pepxml, "searched".getBytes(StandardCharsets.UTF_8)));
+    // evicted by another run after the step was configured
+    Files.delete(cacheDir.resolve("k").resolve("a.pepXML"));
+    Files.delete(cacheDir.resolve("k"));
+    step.run();
+    assertEquals("searched", new String(Files.readAllBytes(pepxml), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = NoSuchFileException.class)
+  public void cacheRestoreWithoutFallbackFailsWhenEntryIsEvicted() throws IOException {
+    Path cacheDir = tmp.newFolder("cache").toPath();
+    ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    Path pepxml = cachedResult(cache, "k");
+    Files.delete(cacheDir.resolve("k").resolve("a.pepXML"));
+    ToolingUtils.stepResultCacheRestore(cache, "k", Collections.singletonList(pepxml), null)
+        .run();
+  }
+
+  @Test
+  public void keptIndexIsPutBackWhenGoneOrReplaced() throws IOException {
+    Path db = tmp.newFolder("db").toPath();
+    Path keep = tmp.getRoot().toPath().resolve("work").resolve("msfragger-index");
+    Path old = db.resolve("db.fasta.old.pepindex");
+    Files.write(old, "before the run".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(old, FileTime.fromMillis(1000));
+    Path index = db.resolve("db.fasta.1.pepindex");
+    Files.write(index, "index".getBytes(StandardCharsets.UTF_8));
+    Files.write(db.resolve("db.fasta"), ">p\nPEPTIDE\n".getBytes(StandardCharsets.UTF_8));
+
+    ToolingUtils.stepKeepMatching(db, "db.fasta.", "pepindex", 2000, keep).run();
+    assertTrue(Files.exists(keep.resolve(index.getFileName())));
+    assertFalse(Files.exists(keep.resolve(old.getFileName())));
+    assertFalse(Files.exists(keep.resolve("db.fasta")));
+
+    // still there, nothing to do
+    ToolingUtils.stepPutBackKept(keep, db).run();
+    assertEquals("index", new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+    // replaced by a search with other settings
+    Files.delete(index);
+    Files.write(index, "other settings".getBytes(StandardCharsets.UTF_8));
+    ToolingUtils.stepPutBackKept(keep, db).run();
+    assertEquals("index", new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+    // gone
+    Files.delete(index);
+    ToolingUtils.stepPutBackKept(keep, db).run();
+    assertEquals("index", new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+
+    ToolingUtils.stepDeleteKept(keep).run();
+    assertFalse(Files.exists(keep));
+    assertTrue(Files.exists(index));
+  }
+
+  @Test
+  public void nothingToKeepIsFine() throws IOException {
+    Path db = tmp.newFolder("db").toPath();
+    Path keep = tmp.getRoot().toPath().resolve("msfragger-index");
+    ToolingUtils.stepKeepMatching(db, "db.fasta.", "pepindex", 0, keep).run();
+    assertFalse(Files.exists(keep));
+    ToolingUtils.stepPutBackKept(keep, db).run();
+    ToolingUtils.stepDeleteKept(keep).run();
+    try (Stream<Path> files = Files.list(db)) {
+      assertEquals(0, files.count());
+    }
+  }
+}
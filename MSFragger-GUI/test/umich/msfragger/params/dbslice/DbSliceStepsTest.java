@@ -0,0 +1,80 @@
+package umich.msfragger.params.dbslice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The expected file was written by msfragger_pep_split.py, which {@link DbSliceSteps} replaced,
+ * from the same slices and expect functions.
+ */
+public class DbSliceStepsTest {
+  private static final Path DIR = Paths.get("test/resources/dbslice");
+  private static final Path TEMP_DIR = DIR.resolve(DbSliceSteps.TEMP_DIR_NAME);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** The date and the output path are different on every run. */
+  private static List<String> read(Path pepxml) throws IOException {
+    return Files.readAllLines(pepxml, StandardCharsets.ISO_8859_1).stream()
+        .map(line -> line
+            .replaceAll("date=\"[^\"]*\"", "date=\"\"")
+            .replaceAll("summary_xml=\"[^\"]*\"", "summary_xml=\"\""))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void mergeGivesSameOutputAsPythonScript() throws IOException {
+    final Path out = tmp.getRoot().toPath().resolve("sample.pepXML");
+    DbSliceSteps.merge(TEMP_DIR, 2, DIR.resolve("fragger.params"), "pepXML", "sample", out);
+    assertEquals(read(DIR.resolve("sample.expected.pepXML")), read(out));
+  }
+
+  @Test
+  public void mergeWritesOutputPath() throws IOException {
+    final Path out = tmp.getRoot().toPath().resolve("sample.pepXML");
+    DbSliceSteps.merge(TEMP_DIR, 2, DIR.resolve("fragger.params"), "pepXML", "sample", out);
+    final String text = new String(Files.readAllBytes(out), StandardCharsets.ISO_8859_1);
+    assertTrue(text.contains("summary_xml=\"" + out + "\""));
+  }
+
+  @Test
+  public void scoresAreFormattedLikePython() {
+    // '%.3f' % v and '%.3e' % v in Python
+    final double[] values = {10.0625, 13.2955, 0.0005, 2.5e-05, 1234.5675, 9.9995, 99999.99951,
+        1e-300, -0.0004, 0.0079433, 0.5};
+    final String[] fixed = {"10.062", "13.296", "0.001", "0.000", "1234.568", "9.999",
+        "100000.000", "0.000", "-0.000", "0.008", "0.500"};
+    final String[] scientific = {"1.006e+01", "1.330e+01", "5.000e-04", "2.500e-05", "1.235e+03",
+        "9.999e+00", "1.000e+05", "1.000e-300", "-4.000e-04", "7.943e-03", "5.000e-01"};
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(fixed[i], DbSliceSteps.fixed3(values[i]));
+      assertEquals(scientific[i], DbSliceSteps.scientific3(values[i]));
+    }
+    assertEquals("0.000e+00", DbSliceSteps.scientific3(0));
+  }
+
+  @Test
+  public void histogramsAreSummed() throws IOException {
+    final Path tempDir = tmp.getRoot().toPath();
+    for (int i = 0; i < 2; i++) {
+      final Path slice = Files.createDirectories(DbSliceSteps.sliceDir(tempDir, i));
+      Files.write(slice.resolve(DbSliceSteps.histogramFn("sample")),
+          ("1\t2\t3\n" + i + "\t0\t" + (10 * i) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+    DbSliceSteps.combineHistograms(tempDir, 2, "sample");
+    assertEquals("2\t4\t6\n1\t0\t10\n", new String(Files.readAllBytes(
+        tempDir.resolve(DbSliceSteps.histogramFn("sample"))), StandardCharsets.ISO_8859_1));
+  }
+}
@@ -0,0 +1,125 @@
+package umich.msfragger.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import umich.msfragger.util.PrefixCounter.Mode;
+
+/**
+ * {@link CompactPrefixCounter} must give exactly the same output as {@link PrefixCounter}.
+ */
+public class CompactPrefixCounterTest {
+  private static final Path FASTA =
+      Paths.get("test/resources/Uniprot.20151009.Hs.revDecoys-SEVERAL_TAGS.fa");
+  private static final int MAX_DEPTH = 16;
+  private static final double EPSILON = 0.002;
+
+  private List<String> words;
+
+  @Before
+  public void setUp() throws IOException {
+    words = new ArrayList<>();
+    for (String line : Files.readAllLines(FASTA, StandardCharsets.UTF_8)) {
+      if (!line.startsWith(">")) {
+        continue;
+      }
+      for (String col : line.substring(1).split("\\|")) {
+        words.add(col);
+        for (String word : col.split("\\s+")) {
+          words.add(word);
+        }
+      }
+    }
+    assertTrue(words.size() > 1000);
+  }
+
+  /** One line per node: path from the root, hits and terminals, in iteration order. */
+  private static List<String> dump(PrefixCounter counter, int maxDepth) {
+    final List<String> lines = new ArrayList<>();
+    counter.iterPrefixCounts(maxDepth, (node, mode) -> {
+      StringBuilder path = new StringBuilder();
+      for (PrefixCounter.Node n = node; n.parent != null; n = n.parent) {
+        path.append(n.ch);
+      }
+      if (mode == Mode.FWD) {
+        path.reverse();
+      }
+      lines.add(node.depth + " " + path + " " + node.getHits() + " " + node.getTerminals());
+    });
+    return lines;
+  }
+
+  private void assertSameCounts(Mode mode, double epsilon, boolean prune) {
+    final PrefixCounter expected = new PrefixCounter(mode, MAX_DEPTH, epsilon);
+    final CompactPrefixCounter actual = new CompactPrefixCounter(mode, MAX_DEPTH, epsilon);
+    for (String w : words) {
+      expected.add(w);
+      actual.add(w);
+    }
+    if (prune) {
+      expected.prune();
+      actual.prune();
+    }
+    assertEquals(expected.getTotal(), actual.getTotal());
+    for (int depth : new int[]{0, 1, 3, MAX_DEPTH}) {
+      assertEquals(dump(expected, depth), dump(actual, depth));
+    }
+  }
+
+  @Test
+  public void exactFwd() {
+    assertSameCounts(Mode.FWD, 0, false);
+  }
+
+  @Test
+  public void exactRev() {
+    assertSameCounts(Mode.REV, 0, false);
+  }
+
+  @Test
+  public void prunedFwd() {
+    assertSameCounts(Mode.FWD, EPSILON, true);
+  }
+
+  @Test
+  public void prunedRev() {
+    assertSameCounts(Mode.REV, EPSILON, true);
+  }
+
+  @Test
+  public void mergedPartialsEqualSingleCounter() {
+    for (Mode mode : Mode.values()) {
+      final PrefixCounter expected = new PrefixCounter(mode, MAX_DEPTH);
+      words.forEach(expected::add);
+      final CompactPrefixCounter merged = new CompactPrefixCounter(mode, MAX_DEPTH);
+      final int chunk = words.size() / 3;
+      for (int i = 0; i < words.size(); i += chunk) {
+        final CompactPrefixCounter partial = new CompactPrefixCounter(mode, MAX_DEPTH);
+        words.subList(i, Math.min(words.size(), i + chunk)).forEach(partial::add);
+        merged.merge(partial);
+      }
+      assertEquals(dump(expected, MAX_DEPTH), dump(merged, MAX_DEPTH));
+    }
+  }
+
+  @Test
+  public void emptyWordsAreTerminalsOfRoot() {
+    final List<String> withEmpty = words.stream().limit(10).collect(Collectors.toList());
+    withEmpty.add("");
+    final PrefixCounter expected = new PrefixCounter(Mode.FWD, MAX_DEPTH);
+    final CompactPrefixCounter actual = new CompactPrefixCounter(Mode.FWD, MAX_DEPTH);
+    withEmpty.forEach(expected::add);
+    withEmpty.forEach(actual::add);
+    assertEquals(dump(expected, MAX_DEPTH), dump(actual, MAX_DEPTH));
+  }
+}
@@ -0,0 +1,177 @@
+package umich.msfragger.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import umich.msfragger.util.DecoyDbGenerator.Method;
+
+public class DecoyDbGeneratorTest {
+  private static final String LONG = "ACDEFGHIKLMNPQRSTVWY";
+  private static final String TARGETS = ""
+      + ">sp|P1|A first\n"
+      + "PEPTIDE\n"
+      + "KR\n"
+      + ">sp|P2|B\r\n"
+      + "MMAC\r\n"
+      + ">sp|P5|L long\n"
+      + LONG + LONG + LONG + "\n"
+      + LONG + LONG + LONG + "\n";
+  private static final String CONTAMINANTS = ""
+      + ">P3 keratin\n"
+      + "AAAC\n"
+      + ">contam_P4\n"
+      + "WWY";
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path target;
+  private Path contam;
+  private Path out;
+
+  @Before
+  public void setUp() throws IOException {
+    target = write("target.fasta", TARGETS);
+    contam = write("contam.fasta", CONTAMINANTS);
+    out = tmp.getRoot().toPath().resolve("out.fasta");
+  }
+
+  private Path write(String fn, String content) throws IOException {
+    final Path p = tmp.getRoot().toPath().resolve(fn);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  private static String read(Path p) throws IOException {
+    return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+  }
+
+  private static String reverse(String s) {
+    return new StringBuilder(s).reverse().toString();
+  }
+
+  @Test
+  public void reversedDecoysFollowTargetsAndContaminants() throws Exception {
+    assertFalse(new DecoyDbGenerator(target, contam, "rev_", Method.REVERSE, null)
+        .generate(out, null));
+    final String reversedLong = reverse(LONG + LONG + LONG + LONG + LONG + LONG);
+    final String expected = TARGETS
+        + ">contam_P3 keratin\nAAAC\n"
+        + ">contam_P4\nWWY\n"
+        + ">rev_sp|P1|A first\nRKEDITPEP\n"
+        + ">rev_sp|P2|B\nCAMM\n"
+        + ">rev_sp|P5|L long\n" + reversedLong.substring(0, 60) + "\n"
+        + reversedLong.substring(60) + "\n"
+        + ">rev_contam_P3 keratin\nCAAA\n"
+        + ">rev_contam_P4\nYWW\n";
+    assertEquals(expected, read(out));
+  }
+
+  @Test
+  public void targetsWithoutContaminants() throws Exception {
+    new DecoyDbGenerator(target, null, "rev_", Method.REVERSE, null).generate(out, null);
+    final String db = read(out);
+    assertTrue(db.startsWith(TARGETS + ">rev_sp|P1|A first\n"));
+    assertFalse(db.contains(DecoyDbGenerator.CONTAM_TAG));
+  }
+
+  @Test
+  public void missingLineBreakAtEndOfTargetsIsAdded() throws Exception {
+    target = write("target.fasta", ">sp|P1|A\nPEPTIDE");
+    new DecoyDbGenerator(target, null, "rev_", Method.REVERSE, null).generate(out, null);
+    assertEquals(">sp|P1|A\nPEPTIDE\n>rev_sp|P1|A\nEDITPEP\n", read(out));
+  }
+
+  @Test
+  public void shuffledDecoysAreTheSameEveryTime() throws Exception {
+    final DecoyDbGenerator generator = new DecoyDbGenerator(target, contam, "decoy_",
+        Method.SHUFFLE, null);
+    generator.generate(out, null);
+    final Path again = tmp.getRoot().toPath().resolve("again.fasta");
+    generator.generate(again, null);
+    assertArrayEquals(Files.readAllBytes(out), Files.readAllBytes(again));
+
+    final List<String> decoys = new ArrayList<>();
+    final String db = read(out);
+    final String[] entries = db.substring(db.indexOf(">decoy_")).split(">");
+    for (String e : entries) {
+      if (!e.isEmpty()) {
+        decoys.add(e.substring(e.indexOf('\n') + 1).replace("\n", ""));
+      }
+    }
+    assertEquals(5, decoys.size());
+    // same residues in a different order
+    final String longTarget = LONG + LONG + LONG + LONG + LONG + LONG;
+    assertEquals(sorted(longTarget), sorted(decoys.get(2)));
+    assertNotEquals(longTarget, decoys.get(2));
+    assertEquals(sorted("PEPTIDEKR"), sorted(decoys.get(0)));
+    assertTrue(db.contains(">decoy_contam_P3 keratin\n"));
+  }
+
+  private static String sorted(String s) {
+    final char[] chars = s.toCharArray();
+    Arrays.sort(chars);
+    return new String(chars);
+  }
+
+  @Test
+  public void databaseWithDecoysIsRejected() throws Exception {
+    target = write("target.fasta", TARGETS + ">rev_sp|P1|A first\nRKEDITPEP\n");
+    try {
+      new DecoyDbGenerator(target, null, "rev_", Method.REVERSE, null).generate(out, null);
+      fail("decoys were added to a database with decoys");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("rev_"));
+    }
+    assertFalse(Files.exists(out));
+    try (Stream<Path> files = Files.list(tmp.getRoot().toPath())) {
+      assertEquals(2, files.count());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyTagIsRejected() {
+    new DecoyDbGenerator(target, null, " ", Method.REVERSE, null);
+  }
+
+  @Test
+  public void cacheHitGivesSameBytes() throws Exception {
+    final ResultCache cache = DecoyDbGenerator.createCache(
+        tmp.newFolder("cache").toString(), 1);
+    assertFalse(new DecoyDbGenerator(target, contam, "rev_", Method.SHUFFLE, cache)
+        .generate(out, null));
+    final Path cached = tmp.getRoot().toPath().resolve("cached.fasta");
+    assertTrue(new DecoyDbGenerator(target, contam, "rev_", Method.SHUFFLE, cache)
+        .generate(cached, null));
+    assertArrayEquals(Files.readAllBytes(out), Files.readAllBytes(cached));
+
+    // other settings, other database
+    assertFalse(new DecoyDbGenerator(target, contam, "rev_", Method.REVERSE, cache)
+        .generate(cached, null));
+  }
+
+  @Test
+  public void cacheWithoutSizeIsOff() throws Exception {
+    final ResultCache cache = DecoyDbGenerator.createCache(
+        tmp.newFolder("cache").toString(), 0);
+    new DecoyDbGenerator(target, null, "rev_", Method.REVERSE, cache).generate(out, null);
+    assertFalse(new DecoyDbGenerator(target, null, "rev_", Method.REVERSE, cache)
+        .generate(out, null));
+  }
+}
@@ -0,0 +1,222 @@
+package umich.msfragger.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastaIndexTest {
+  private static final String FASTA = ""
+      + ">sp|P1|A first\n"
+      + "PEPTIDE\n"
+      + "KR\n"
+      + ">rev_sp|P1|A first\r\n"
+      + "EDITPEP\r\n"
+      + ">sp|P1|A again\n"
+      + "MMM\n"
+      + ">rev_sp|P2|B\n"
+      + "AAAA";
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path fasta;
+  private Path indexDir;
+  private long chunkSize;
+
+  @Before
+  public void setUp() throws IOException {
+    fasta = tmp.getRoot().toPath().resolve("db.fasta");
+    write(FASTA);
+    indexDir = tmp.newFolder("index").toPath();
+    FastaIndex.dir = indexDir;
+    chunkSize = FastaIndex.chunkSize;
+  }
+
+  @After
+  public void tearDown() {
+    FastaIndex.dir = null;
+    FastaIndex.chunkSize = chunkSize;
+  }
+
+  private void write(String content) throws IOException {
+    Files.write(fasta, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void assertEntries(FastaIndex idx) {
+    assertTrue(idx.hasEntries());
+    assertEquals(4, idx.size());
+    assertEquals(0, idx.offset(0));
+    assertEquals(FASTA.indexOf(">rev_sp|P1"), idx.offset(1));
+    assertEquals(FASTA.indexOf(">sp|P1|A again"), idx.offset(2));
+    assertEquals(FASTA.indexOf(">rev_sp|P2"), idx.offset(3));
+    assertEquals("sp|P1|A first".length(), idx.headerLength(0));
+    assertEquals("rev_sp|P1|A first".length(), idx.headerLength(1));
+    assertEquals(9, idx.sequenceLength(0));
+    assertEquals(7, idx.sequenceLength(1));
+    assertEquals(3, idx.sequenceLength(2));
+    assertEquals(4, idx.sequenceLength(3));
+    assertEquals(2, idx.getDuplicateCount());
+    assertTrue(idx.isDuplicateAccession(0));
+    assertFalse(idx.isDuplicateAccession(1));
+    assertTrue(idx.isDuplicateAccession(2));
+    assertFalse(idx.isDuplicateAccession(3));
+  }
+
+  @Test
+  public void buildIndexesEntries() throws Exception {
+    final FastaIndex built = FastaIndex.build(fasta, null);
+    assertFalse(built.hasEntries());
+    assertEquals(4, built.size());
+    assertEquals(FastaIndex.indexFile(fasta).getParent(), indexDir);
+    assertEntries(FastaIndex.load(fasta, true));
+  }
+
+  @Test
+  public void entriesSpanningChunksAreStitched() throws Exception {
+    // every line or two is a chunk of its own, some without a header
+    FastaIndex.chunkSize = 4;
+    FastaIndex.build(fasta, null);
+    assertEntries(FastaIndex.load(fasta, true));
+  }
+
+  @Test
+  public void concurrentBuildsOfSameFileLeaveOneIndex() throws Exception {
+    final int n = 4;
+    final ExecutorService exec = Executors.newFixedThreadPool(n);
+    try {
+      final List<Future<FastaIndex>> futures = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        futures.add(exec.submit(() -> FastaIndex.get(fasta, true, null)));
+      }
+      for (Future<FastaIndex> f : futures) {
+        assertEntries(f.get());
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+    try (Stream<Path> files = Files.list(indexDir)) {
+      assertEquals(Collections.singletonList(FastaIndex.indexFile(fasta)),
+          files.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void builtIndexIsLoaded() throws Exception {
+    final FastaIndex built = FastaIndex.build(fasta, null);
+    final FastaIndex loaded = FastaIndex.load(fasta, true);
+    assertNotNull(loaded);
+    assertEntries(loaded);
+    assertEquals(built.getDecoyCounts(), loaded.getDecoyCounts());
+    final List<Tuple2<String, Double>> builtTags = built.getDecoyTags().prefixesByCol.get(0);
+    final List<Tuple2<String, Double>> loadedTags = loaded.getDecoyTags().prefixesByCol.get(0);
+    assertEquals(builtTags.size(), loadedTags.size());
+    for (int i = 0; i < builtTags.size(); i++) {
+      assertEquals(builtTags.get(i).item1, loadedTags.get(i).item1);
+      assertEquals(builtTags.get(i).item2, loadedTags.get(i).item2);
+    }
+  }
+
+  @Test
+  public void decoyTagIsCountedExactly() throws Exception {
+    final FastaIndex idx = FastaIndex.build(fasta, null);
+    // the whole first column is the common prefix here
+    assertEquals(Integer.valueOf(2), idx.getDecoyCounts().get("rev_sp"));
+    final Tuple2<String, Double> tag = idx.getDecoyTags().prefixesByCol.get(0).get(0);
+    assertEquals("rev_sp", tag.item1);
+    assertEquals(0.5, tag.item2, 0);
+  }
+
+  @Test
+  public void summaryIsLoadedWithoutEntries() throws Exception {
+    FastaIndex.build(fasta, null);
+    final FastaIndex idx = FastaIndex.load(fasta, false);
+    assertNotNull(idx);
+    assertFalse(idx.hasEntries());
+    assertEquals(4, idx.size());
+    assertEquals(2, idx.getDuplicateCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void entriesOfSummaryAreNotAvailable() throws Exception {
+    FastaIndex.build(fasta, null);
+    FastaIndex.load(fasta, false).offset(0);
+  }
+
+  @Test
+  public void getReusesIndexOfUnchangedFile() throws Exception {
+    FastaIndex.build(fasta, null);
+    final AtomicInteger progressCalls = new AtomicInteger();
+    final FastaIndex idx = FastaIndex.get(fasta, true, f -> progressCalls.incrementAndGet());
+    assertEntries(idx);
+    assertEquals("index was built again", 0, progressCalls.get());
+  }
+
+  @Test
+  public void getBuildsMissingIndex() throws Exception {
+    assertNull(FastaIndex.load(fasta, false));
+    final AtomicInteger progressCalls = new AtomicInteger();
+    assertEntries(FastaIndex.get(fasta, true, f -> progressCalls.incrementAndGet()));
+    assertTrue(progressCalls.get() > 0);
+    assertNotNull(FastaIndex.load(fasta, true));
+  }
+
+  @Test
+  public void changedSizeInvalidatesIndex() throws Exception {
+    FastaIndex.build(fasta, null);
+    final FileTime mtime = Files.getLastModifiedTime(fasta);
+    write(FASTA + "\n>sp|P3|C\nCCC\n");
+    Files.setLastModifiedTime(fasta, mtime);
+    assertNull(FastaIndex.load(fasta, false));
+    assertEquals(5, FastaIndex.get(fasta, false, null).size());
+  }
+
+  @Test
+  public void changedModificationTimeInvalidatesIndex() throws Exception {
+    FastaIndex.build(fasta, null);
+    Files.setLastModifiedTime(fasta,
+        FileTime.fromMillis(Files.getLastModifiedTime(fasta).toMillis() - 60_000));
+    assertNull(FastaIndex.load(fasta, false));
+  }
+
+  @Test
+  public void corruptIndexIsBuiltAgain() throws Exception {
+    FastaIndex.build(fasta, null);
+    final Path file = FastaIndex.indexFile(fasta);
+    final byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+    assertNull(FastaIndex.load(fasta, true));
+    assertEntries(FastaIndex.get(fasta, true, null));
+    assertNotNull(FastaIndex.load(fasta, true));
+  }
+
+  @Test
+  public void indexOfOtherFileIsNotUsed() throws Exception {
+    FastaIndex.build(fasta, null);
+    final Path other = tmp.getRoot().toPath().resolve("other.fasta");
+    Files.copy(fasta, other);
+    assertNull(FastaIndex.load(other, false));
+  }
+}
@@ -0,0 +1,56 @@
+package umich.msfragger.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileMoveTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path file(String name, String content) throws IOException {
+    return Files.write(tmp.getRoot().toPath().resolve(name), content.getBytes(UTF_8));
+  }
+
+  private static String read(Path p) throws IOException {
+    return new String(Files.readAllBytes(p), UTF_8);
+  }
+
+  @Test
+  public void moves() throws IOException {
+    final Path from = file("a.pepXML", "new");
+    final Path to = tmp.getRoot().toPath().resolve("b.pepXML");
+    FileMove.move(from, to);
+    assertFalse(Files.exists(from));
+    assertEquals("new", read(to));
+  }
+
+  @Test
+  public void replacesExistingDestination() throws IOException {
+    final Path from = file("a.pepXML", "new");
+    final Path to = file("b.pepXML", "old");
+    FileMove.move(from, to);
+    assertFalse(Files.exists(from));
+    assertEquals("new", read(to));
+  }
+
+  @Test
+  public void failedMoveKeepsDestination() throws IOException {
+    final Path from = tmp.getRoot().toPath().resolve("missing.pepXML");
+    final Path to = file("b.pepXML", "good result");
+    try {
+      FileMove.move(from, to);
+      fail("Moving a missing file must fail");
+    } catch (IOException e) {
+      assertEquals("good result", read(to));
+    }
+  }
+}
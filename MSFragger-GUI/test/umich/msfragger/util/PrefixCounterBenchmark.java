@@ -0,0 +1,107 @@
+package umich.msfragger.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+import umich.msfragger.util.PrefixCounter.Mode;
+
+/**
+ * Times {@link CompactPrefixCounter} against {@link PrefixCounter} on synthetic FASTA header
+ * columns, the way the decoy tag detector feeds them. Not a unit test, run it by hand:
+ * <code>java -cp main-classes:test-classes umich.msfragger.util.PrefixCounterBenchmark
+ * [entries] [rounds]</code>. Headers come from a fixed seed, so runs are comparable.
+ */
+public class PrefixCounterBenchmark {
+  private static final int MAX_DEPTH = 16;
+  private static final double EPSILON = 0.002;
+  private static final String AA = "ACDEFGHIKLMNPQRSTVWY";
+  private static final String[] WORDS = {"Protein", "kinase", "receptor", "subunit", "alpha",
+      "beta", "domain-containing", "Uncharacterized", "factor", "binding", "OS=Homo",
+      "sapiens", "OX=9606", "GN=", "PE=1", "SV=2"};
+
+  private PrefixCounterBenchmark() {}
+
+  public static void main(String[] args) {
+    final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    final List<String> cols = columns(entries, new Random(42));
+    System.out.printf(Locale.ROOT, "%d entries, %d header columns, %d rounds%n",
+        entries, cols.size(), rounds);
+
+    for (Mode mode : Mode.values()) {
+      run("PrefixCounter " + mode, () -> new PrefixCounter(mode, MAX_DEPTH, EPSILON),
+          cols, rounds);
+      run("CompactPrefixCounter " + mode,
+          () -> new CompactPrefixCounter(mode, MAX_DEPTH, EPSILON), cols, rounds);
+    }
+  }
+
+  /** Columns of '|' separated headers, half of the entries are decoys. */
+  private static List<String> columns(int entries, Random rnd) {
+    final List<String> cols = new ArrayList<>(entries * 3);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < entries; i++) {
+      final String decoy = i % 2 == 0 ? "" : "rev_";
+      sb.setLength(0);
+      sb.append(rnd.nextBoolean() ? 'P' : 'Q').append(100000 + rnd.nextInt(900000));
+      final String accession = sb.toString();
+      sb.setLength(0);
+      for (int k = 0; k < 5; k++) {
+        sb.append(AA.charAt(rnd.nextInt(AA.length())));
+      }
+      sb.append("_HUMAN");
+      for (int k = 3 + rnd.nextInt(8); k > 0; k--) {
+        sb.append(' ').append(WORDS[rnd.nextInt(WORDS.length)]);
+      }
+      cols.add(decoy + (rnd.nextInt(4) == 0 ? "tr" : "sp"));
+      cols.add(accession);
+      cols.add(sb.toString());
+    }
+    return cols;
+  }
+
+  private static void run(String name, Supplier<PrefixCounter> factory, List<String> cols,
+      int rounds) {
+    final long[] ms = new long[rounds];
+    long nodes = 0;
+    // one round of warm-up
+    for (int r = -1; r < rounds; r++) {
+      final long start = System.nanoTime();
+      final PrefixCounter counter = factory.get();
+      for (String col : cols) {
+        counter.add(col);
+      }
+      counter.prune();
+      final long[] count = new long[1];
+      counter.iterPrefixCounts(MAX_DEPTH, (node, mode) -> count[0]++);
+      if (r >= 0) {
+        ms[r] = (System.nanoTime() - start) / 1_000_000;
+        nodes = count[0];
+      }
+    }
+    Arrays.sort(ms);
+
+    final long before = usedHeap();
+    final PrefixCounter counter = factory.get();
+    for (String col : cols) {
+      counter.add(col);
+    }
+    final long heap = usedHeap() - before;
+    System.out.printf(Locale.ROOT, "%-28s median %6d ms, min %6d ms, %,d nodes after pruning, "
+        + "~%,d KB heap before pruning%n", name, ms[rounds / 2], ms[0], nodes, heap / 1024);
+    if (counter.getTotal() != cols.size()) {
+      throw new IllegalStateException("Lost counts");
+    }
+  }
+
+  private static long usedHeap() {
+    final Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
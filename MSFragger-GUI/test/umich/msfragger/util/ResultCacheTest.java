@@ -0,0 +1,187 @@
+package umich.msfragger.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultCacheTest {
+  private static final int FILE_SIZE = 100;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path cacheDir;
+  private Path work;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmp.newFolder("cache").toPath();
+    work = tmp.newFolder("work").toPath();
+  }
+
+  private Path file(String name, char fill) throws IOException {
+    final byte[] content = new byte[FILE_SIZE];
+    Arrays.fill(content, (byte) fill);
+    return Files.write(work.resolve(name), content);
+  }
+
+  private static byte[] read(Path p) throws IOException {
+    return Files.readAllBytes(p);
+  }
+
+  private void age(String key, long agoMs) throws IOException {
+    Files.setLastModifiedTime(cacheDir.resolve(key),
+        FileTime.fromMillis(System.currentTimeMillis() - agoMs));
+  }
+
+  @Test
+  public void storeAndRestore() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    final Path pepxml = file("a.pepXML", 'p');
+    final Path tsv = file("a.tsv", 't');
+    final List<Path> files = Arrays.asList(pepxml, tsv);
+    cache.store("k", files);
+    assertTrue(cache.contains("k", Arrays.asList("a.pepXML", "a.tsv")));
+    assertFalse(cache.contains("k", Collections.singletonList("a.other")));
+    assertFalse(cache.contains("other", Collections.singletonList("a.pepXML")));
+
+    final byte[] expected = read(pepxml);
+    Files.delete(pepxml);
+    Files.delete(tsv);
+    cache.restore("k", files);
+    assertArrayEquals(expected, read(pepxml));
+    assertTrue(Files.exists(tsv));
+  }
+
+  @Test
+  public void restoredFileIsNotTheCachedOne() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    final Path pepxml = file("a.pepXML", 'p');
+    final byte[] expected = read(pepxml);
+    cache.store("k", Collections.singletonList(pepxml));
+    cache.restore("k", Collections.singletonList(pepxml));
+
+    // a later run with other settings writes to the same path in place
+    Files.write(pepxml, "other results".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    final Path elsewhere = tmp.newFolder("elsewhere").toPath().resolve("a.pepXML");
+    cache.restore("k", Collections.singletonList(elsewhere));
+    assertArrayEquals(expected, read(elsewhere));
+  }
+
+  @Test
+  public void restoreLeavesNoTempFiles() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    final Path pepxml = file("a.pepXML", 'p');
+    cache.store("k", Collections.singletonList(pepxml));
+    cache.restore("k", Collections.singletonList(pepxml));
+    try (Stream<Path> s = Files.list(work)) {
+      assertEquals(1, s.count());
+    }
+  }
+
+  @Test
+  public void restoreOfMissingKeyFails() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    try {
+      cache.restore("missing", Collections.singletonList(work.resolve("a.pepXML")));
+      fail("Restoring a key that is not in the cache must fail");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void restoreAllPutsEveryFileIntoDir() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+    cache.store("k", Arrays.asList(file("db.fasta.1.pepindex", '1'),
+        file("db.fasta.2.pepindex", '2')));
+    final Path dest = tmp.newFolder("dest").toPath();
+    assertEquals(2, cache.restoreAll("k", dest).size());
+    assertTrue(Files.exists(dest.resolve("db.fasta.1.pepindex")));
+    assertTrue(Files.exists(dest.resolve("db.fasta.2.pepindex")));
+    assertTrue(cache.restoreAll("missing", dest).isEmpty());
+  }
+
+  @Test
+  public void leastRecentlyUsedIsEvicted() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, FILE_SIZE * 5 / 2);
+    cache.store("a", Collections.singletonList(file("a.pepXML", 'a')));
+    age("a", 30_000);
+    cache.store("b", Collections.singletonList(file("b.pepXML", 'b')));
+    age("b", 20_000);
+
+    // using "a" makes "b" the least recently used one
+    cache.restore("a", Collections.singletonList(work.resolve("a.pepXML")));
+    cache.store("c", Collections.singletonList(file("c.pepXML", 'c')));
+
+    assertTrue(cache.contains("a", Collections.singletonList("a.pepXML")));
+    assertFalse(cache.contains("b", Collections.singletonList("b.pepXML")));
+    assertTrue(cache.contains("c", Collections.singletonList("c.pepXML")));
+  }
+
+  @Test
+  public void justStoredEntryIsKept() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, FILE_SIZE / 2);
+    cache.store("a", Collections.singletonList(file("a.pepXML", 'a')));
+    assertTrue(cache.contains("a", Collections.singletonList("a.pepXML")));
+    age("a", 10_000);
+    cache.store("b", Collections.singletonList(file("b.pepXML", 'b')));
+    assertFalse(cache.contains("a", Collections.singletonList("a.pepXML")));
+    assertTrue(cache.contains("b", Collections.singletonList("b.pepXML")));
+  }
+
+  @Test
+  public void evictionSkipsOtherFiles() throws IOException {
+    final ResultCache cache = new ResultCache(cacheDir, FILE_SIZE * 3 / 2);
+    final Path stray = Files.write(cacheDir.resolve("stray.txt"), new byte[FILE_SIZE * 10]);
+    final Path storing = Files.createDirectory(cacheDir.resolve(".tmp-other-run"));
+    Files.write(storing.resolve("x.pepXML"), new byte[FILE_SIZE * 10]);
+    cache.store("a", Collections.singletonList(file("a.pepXML", 'a')));
+    assertTrue(cache.contains("a", Collections.singletonList("a.pepXML")));
+    assertTrue(Files.exists(stray));
+    assertTrue(Files.exists(storing));
+  }
+
+  @Test
+  public void disabledCacheDoesNothing() throws IOException {
+    final Path dir = cacheDir.resolve("disabled");
+    final ResultCache cache = new ResultCache(dir, 0);
+    assertFalse(cache.isEnabled());
+    cache.store("k", Collections.singletonList(file("a.pepXML", 'a')));
+    assertFalse(Files.exists(dir));
+    assertFalse(cache.contains("k", Collections.singletonList("a.pepXML")));
+    assertTrue(cache.restoreAll("k", work).isEmpty());
+  }
+
+  @Test
+  public void matchingFiltersByNameAndTime() throws IOException {
+    final Path old = file("db.fasta.1.pepindex", '1');
+    Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    final long configuredAt = System.currentTimeMillis() - 30_000;
+    final Path fresh = file("db.fasta.2.pepindex", '2');
+    file("db.fasta", 'd');
+    file("other.fasta.1.pepindex", 'o');
+    assertEquals(Collections.singletonList(fresh),
+        ResultCache.matching(work, "db.fasta.", ".pepindex", configuredAt));
+    assertTrue(ResultCache.matching(work.resolve("missing"), "", "", 0).isEmpty());
+  }
+}
@@ -0,0 +1,94 @@
+package umich.msfragger.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import org.junit.Test;
+
+public class StreamPumpTest {
+  private static final String TEXT = "naïve café, 日本語 and ✓ done\n";
+
+  /** Returns one byte per read, so every multi-byte character is split between reads. */
+  private static InputStream trickle(byte[] bytes) {
+    return new ByteArrayInputStream(bytes) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(1, len));
+      }
+    };
+  }
+
+  private static String readAll(ByteRingBuffer ring) throws InterruptedException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (!ring.isDrained()) {
+      byte[] bytes = ring.read(1000);
+      if (bytes != null) {
+        // every chunk must be decodable on its own
+        String s = new String(bytes, UTF_8);
+        assertTrue("Garbled chunk: " + s, !s.contains("\uFFFD"));
+        out.write(bytes, 0, bytes.length);
+      }
+    }
+    return new String(out.toByteArray(), UTF_8);
+  }
+
+  @Test
+  public void splitCharactersAreHeldBack() throws Exception {
+    final byte[] bytes = TEXT.getBytes(UTF_8);
+    final ByteRingBuffer ring = new ByteRingBuffer(64);
+    final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    final Thread t = new StreamPump(trickle(bytes), copy, ring).start("pump");
+    final StringBuilder sb = new StringBuilder();
+    while (!ring.isDrained()) {
+      byte[] chunk = ring.read(1000);
+      if (chunk != null) {
+        String s = new String(chunk, UTF_8);
+        assertTrue("Garbled chunk: " + s, !s.contains("\uFFFD"));
+        sb.append(s);
+      }
+    }
+    t.join();
+    assertEquals(TEXT, sb.toString());
+    assertArrayEquals(bytes, copy.toByteArray());
+  }
+
+  @Test
+  public void twoStreamsShareTheBuffer() throws Exception {
+    final StringBuilder a = new StringBuilder();
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      a.append("stdout ").append(i).append(" ✓\n");
+      b.append("stderr ").append(i).append(" 日本\n");
+    }
+    // a small buffer, so that writers block on it all the time
+    final ByteRingBuffer ring = new ByteRingBuffer(16);
+    final Thread t1 = new StreamPump(trickle(a.toString().getBytes(UTF_8)), null, ring)
+        .start("pump-1");
+    final Thread t2 = new StreamPump(trickle(b.toString().getBytes(UTF_8)), null, ring)
+        .start("pump-2");
+    final String all = readAll(ring);
+    t1.join();
+    t2.join();
+    // the streams interleave, but never inside of a character
+    assertEquals(a.length() + b.length(), all.length());
+    assertEquals(200, all.chars().filter(c -> c == '✓').count());
+    assertEquals(200, all.chars().filter(c -> c == '日').count());
+  }
+
+  @Test
+  public void ringWrapsAround() throws Exception {
+    final ByteRingBuffer ring = new ByteRingBuffer(8);
+    ring.addWriter();
+    ring.write("abcde".getBytes(UTF_8), 0, 5);
+    assertEquals("abcde", new String(ring.read(0), UTF_8));
+    ring.write("fghijk".getBytes(UTF_8), 0, 6);
+    assertEquals("fghijk", new String(ring.read(0), UTF_8));
+    ring.writerDone();
+    assertTrue(ring.isDrained());
+  }
+}
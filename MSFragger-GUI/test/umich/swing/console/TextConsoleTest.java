@@ -0,0 +1,52 @@
+package umich.swing.console;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import javax.swing.SwingUtilities;
+import org.junit.Test;
+
+public class TextConsoleTest {
+
+  /** Everything appended so far, as it is shown. */
+  private static String text(TextConsole console)
+      throws InterruptedException, InvocationTargetException {
+    final StringWriter w = new StringWriter();
+    SwingUtilities.invokeAndWait(() -> {
+      try {
+        console.writeTo(w);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    return w.toString();
+  }
+
+  @Test
+  public void lineBreaksAreNormalized() throws Exception {
+    final TextConsole console = new TextConsole();
+    console.append("a\r\nb\rc\n");
+    assertEquals("a\nb\nc\n", text(console));
+  }
+
+  @Test
+  public void crLfSplitBetweenAppendsIsOneLineBreak() throws Exception {
+    final TextConsole console = new TextConsole();
+    console.append("a\r");
+    console.append("\nb\r");
+    console.append("\n");
+    console.append("c");
+    assertEquals("a\nb\nc", text(console));
+  }
+
+  @Test
+  public void appendsFromOtherThreadsAreShown() throws Exception {
+    final TextConsole console = new TextConsole();
+    final Thread t = new Thread(() -> console.appendANSI("from a pump\n"));
+    t.start();
+    t.join();
+    assertEquals("from a pump\n", text(console));
+  }
+}